@@ -0,0 +1,282 @@
+package org.njupt.core;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.njupt.util.Bleu;
+import org.njupt.util.CodeBleu;
+import org.njupt.util.ConflictRecordReader;
+import org.njupt.util.DzyUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.stream.StreamSupport;
+
+/**
+ * Evaluate LLM answers of a result file with many metrics in one pass
+ * <p>
+ * Only the reference, label and answer fields are read. Every record is evaluated on a worker thread (references are
+ * normalized and tokenized once per record), the results are added up in file order. For every answer field the top k
+ * answers are compared with every reference field, the best reference counts.
+ * <ul>
+ *     <li>PERFECT: field_perfect, records whose best answer matches exactly (match rate 100)</li>
+ *     <li>MAX_MATCH: field_maxMatch, average of the best match rate</li>
+ *     <li>BLEU: field_bleu, average of the mean sentence BLEU-4 of the k answers; field_bleu_corpus, corpus BLEU-4 (all references)</li>
+ *     <li>CODE_BLEU: field_codebleu, corpus CodeBLEU (the better reference of every answer)</li>
+ *     <li>SHARE: share, records where all answer fields are perfect</li>
+ *     <li>LABEL: label_x, records of label x; field_perfect_x, perfect records of label x</li>
+ * </ul>
+ * "all" is the number of records.
+ */
+public class AnswerEvaluator {
+
+    public static final Logger logger = LoggerFactory.getLogger(AnswerEvaluator.class);
+
+    public enum Metric { PERFECT, MAX_MATCH, BLEU, CODE_BLEU, SHARE, LABEL }
+
+    /**
+     * Values of one record in file order: field_maxMatch, field_bleu (as configured)
+     */
+    public interface RecordListener {
+        void record(int index, JSONObject record, Map<String, Double> values) throws Exception;
+    }
+
+    /**
+     * Records to evaluate, index is the 0-based index of the record in the file (as in RecordListener)
+     */
+    public interface RecordFilter {
+        boolean test(int index, JSONObject record);
+    }
+
+    private final List<String> answerFields;
+
+    private List<String> referenceFields = Collections.singletonList("res_region");
+
+    private String labelField = "res_label";
+
+    private int topK = 3;
+
+    private Set<Metric> metrics = EnumSet.of(Metric.PERFECT, Metric.MAX_MATCH);
+
+    private int workers = ParallelCollector.defaultWorkers();
+
+    private RecordListener listener;
+
+    private RecordFilter filter;
+
+    private List<String> filterColumns = Collections.emptyList();
+
+    /**
+     * @param answerFields JSON arrays of answers, e.g. "line_noContext_answer"
+     */
+    public AnswerEvaluator(String... answerFields) {
+        if (answerFields.length == 0) throw new IllegalArgumentException("No answer field");
+        this.answerFields = Arrays.asList(answerFields);
+    }
+
+    /**
+     * Reference fields (default res_region), e.g. "res_region", "res_region_small"
+     */
+    public AnswerEvaluator references(String... referenceFields) {
+        if (referenceFields.length == 0) throw new IllegalArgumentException("No reference field");
+        this.referenceFields = Arrays.asList(referenceFields);
+        return this;
+    }
+
+    public AnswerEvaluator label(String labelField) {
+        this.labelField = labelField;
+        return this;
+    }
+
+    /**
+     * Number of answers compared per field (default 3, fewer if the array is shorter)
+     */
+    public AnswerEvaluator topK(int topK) {
+        if (topK < 1) throw new IllegalArgumentException("topK must be positive");
+        this.topK = topK;
+        return this;
+    }
+
+    public AnswerEvaluator metrics(Metric first, Metric... rest) {
+        this.metrics = EnumSet.of(first, rest);
+        return this;
+    }
+
+    public AnswerEvaluator workers(int workers) {
+        this.workers = workers;
+        return this;
+    }
+
+    public AnswerEvaluator listener(RecordListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * Evaluate only the records passing the filter (on the reading thread), e.g.
+     * (index, record) -> NearDuplicateDetector.isRepresentative(record, index + 1)
+     * @param columns sidecar columns joined to the records before filtering (e.g. NearDuplicateDetector.CLUSTER_COLUMN)
+     */
+    public AnswerEvaluator filter(RecordFilter filter, String... columns) {
+        this.filter = filter;
+        this.filterColumns = Arrays.asList(columns);
+        return this;
+    }
+
+    /**
+     * @param filePath result file with answers (JSON array or JSON Lines)
+     * @return metric name -> value
+     */
+    public Map<String, Double> evaluate(String filePath) throws Exception {
+        logger.info("Evaluate {} of {} (top {}): {}", answerFields, filePath, topK, metrics);
+        List<String> fields = new ArrayList<>(answerFields);
+        fields.addAll(referenceFields);
+        fields.add("id");
+        fields.addAll(filterColumns);
+        if (metrics.contains(Metric.LABEL)) fields.add(labelField);
+
+        LinkedHashMap<String, Double> map = new LinkedHashMap<>();
+        map.put("all", 0.0);
+        Map<String, Bleu.Statistics> bleuCorpus = new HashMap<>();
+        Map<String, CodeBleu.Score> codeBleuCorpus = new HashMap<>();
+        for (String field : answerFields) {
+            if (metrics.contains(Metric.PERFECT)) map.put(field + "_perfect", 0.0);
+            if (metrics.contains(Metric.MAX_MATCH)) map.put(field + "_maxMatch", 0.0);
+            if (metrics.contains(Metric.BLEU)) {
+                map.put(field + "_bleu", 0.0);
+                bleuCorpus.put(field, new Bleu.Statistics());
+            }
+            if (metrics.contains(Metric.CODE_BLEU)) codeBleuCorpus.put(field, new CodeBleu.Score());
+        }
+        if (metrics.contains(Metric.SHARE)) map.put("share", 0.0);
+
+        try (ConflictRecordReader reader = ConflictRecordReader.open(filePath, fields.toArray(new String[0])).join(filterColumns.toArray(new String[0]))) {
+            //Index in the file, records filtered out count too
+            int[] index = {0};
+            Iterable<Map.Entry<Integer, JSONObject>> records = StreamSupport.stream(reader.spliterator(), false)
+                    .map(record -> (Map.Entry<Integer, JSONObject>) new AbstractMap.SimpleImmutableEntry<>(index[0]++, record))
+                    .filter(entry -> filter == null || filter.test(entry.getKey(), entry.getValue()))::iterator;
+            ParallelCollector.mapOrdered(records, workers, entry -> evaluate(entry.getKey(), entry.getValue()), result -> {
+                //Add up in file order
+                map.merge("all", 1.0, Double::sum);
+                boolean share = true;
+                String label = metrics.contains(Metric.LABEL) ? result.record.optString(labelField, "") : null;
+                if (label != null) map.merge("label_" + label, 1.0, Double::sum);
+                for (String field : answerFields) {
+                    Double maxMatch = result.values.get(field + "_maxMatch");
+                    boolean perfect = maxMatch != null && maxMatch == 100;
+                    share &= perfect;
+                    if (metrics.contains(Metric.PERFECT) && perfect) map.merge(field + "_perfect", 1.0, Double::sum);
+                    if (metrics.contains(Metric.MAX_MATCH) && maxMatch != null) map.merge(field + "_maxMatch", maxMatch, Double::sum);
+                    if (label != null && perfect) map.merge(field + "_perfect_" + label, 1.0, Double::sum);
+                    if (metrics.contains(Metric.BLEU) && result.values.containsKey(field + "_bleu")) {
+                        map.merge(field + "_bleu", result.values.get(field + "_bleu"), Double::sum);
+                        bleuCorpus.get(field).add(result.bleu.get(field));
+                    }
+                    if (metrics.contains(Metric.CODE_BLEU) && result.codeBleu.containsKey(field)) {
+                        codeBleuCorpus.get(field).add(result.codeBleu.get(field));
+                    }
+                }
+                if (metrics.contains(Metric.SHARE) && share) map.merge("share", 1.0, Double::sum);
+                if (listener != null) listener.record(result.index, result.record, result.values);
+            });
+        }
+
+        //Averages and corpus scores
+        double all = map.get("all");
+        for (String field : answerFields) {
+            if (metrics.contains(Metric.MAX_MATCH)) map.put(field + "_maxMatch", all == 0 ? 0.0 : map.get(field + "_maxMatch") / all);
+            if (metrics.contains(Metric.BLEU)) {
+                map.put(field + "_bleu", all == 0 ? 0.0 : map.get(field + "_bleu") / all);
+                map.put(field + "_bleu_corpus", bleuCorpus.get(field).bleu());
+            }
+            if (metrics.contains(Metric.CODE_BLEU)) map.put(field + "_codebleu", codeBleuCorpus.get(field).codeBleu());
+        }
+        return map;
+    }
+
+    private static class RecordResult {
+        private final int index;
+        private final JSONObject record;
+        private final Map<String, Double> values = new LinkedHashMap<>();
+        private final Map<String, Bleu.Statistics> bleu = new HashMap<>();
+        private final Map<String, CodeBleu.Score> codeBleu = new HashMap<>();
+
+        private RecordResult(int index, JSONObject record) {
+            this.index = index;
+            this.record = record;
+        }
+    }
+
+    /**
+     * All metrics of one record (worker thread)
+     */
+    private RecordResult evaluate(int index, JSONObject record) {
+        RecordResult result = new RecordResult(index, record);
+        boolean match = metrics.contains(Metric.PERFECT) || metrics.contains(Metric.MAX_MATCH)
+                || metrics.contains(Metric.SHARE) || metrics.contains(Metric.LABEL);
+        boolean bleu = metrics.contains(Metric.BLEU);
+        boolean codeBleu = metrics.contains(Metric.CODE_BLEU);
+
+        //1.References: normalized / tokenized / parsed once
+        List<String> strippedReferences = new ArrayList<>();
+        List<String> referenceTokens = new ArrayList<>();
+        List<Bleu.Reference> bleuReferences = new ArrayList<>();
+        List<CodeBleu.Code> codeReferences = new ArrayList<>();
+        for (String referenceField : referenceFields) {
+            String reference = record.optString(referenceField, "");
+            if (match) strippedReferences.add(DzyUtils.removeWhitespace(reference));
+            if (bleu) {
+                String tokens = DzyUtils.newTokenizerToString(reference);
+                referenceTokens.add(tokens);
+                bleuReferences.add(Bleu.reference(tokens));
+            }
+            if (codeBleu) codeReferences.add(CodeBleu.code(reference));
+        }
+        Bleu.Reference allReferences = bleu ? Bleu.reference(referenceTokens) : null;
+
+        //2.Top k answers of every field
+        for (String field : answerFields) {
+            JSONArray answers = record.optJSONArray(field);
+            if (answers == null) continue;
+            int k = Math.min(topK, answers.length());
+            double maxMatch = 0.0;
+            double[] bleuSums = new double[bleuReferences.size()];
+            Bleu.Statistics bleuStatistics = new Bleu.Statistics();
+            CodeBleu.Score codeBleuScore = new CodeBleu.Score();
+            for (int i = 0; i < k; i++) {
+                String answer = answers.optString(i, "");
+                if (match) {
+                    String strippedAnswer = DzyUtils.removeWhitespace(answer);
+                    for (String reference : strippedReferences) {
+                        maxMatch = Math.max(maxMatch, DzyUtils.perfectMatchRate(strippedAnswer, reference, maxMatch));
+                    }
+                }
+                if (bleu) {
+                    String answerTokens = DzyUtils.newTokenizerToString(answer);
+                    for (int r = 0; r < bleuReferences.size(); r++) bleuSums[r] += Bleu.sentenceBleu(answerTokens, bleuReferences.get(r));
+                    bleuStatistics.add(Bleu.statistics(answerTokens, allReferences));
+                }
+                if (codeBleu) {
+                    CodeBleu.Code answerCode = CodeBleu.code(answer);
+                    CodeBleu.Score best = null;
+                    for (CodeBleu.Code reference : codeReferences) {
+                        CodeBleu.Score score = CodeBleu.score(answerCode, reference);
+                        if (best == null || score.codeBleu() > best.codeBleu()) best = score;
+                    }
+                    codeBleuScore.add(best);
+                }
+            }
+            if (match) result.values.put(field + "_maxMatch", maxMatch);
+            if (bleu) {
+                double maxBleu = 0.0;
+                for (double sum : bleuSums) maxBleu = Math.max(maxBleu, k == 0 ? 0.0 : sum / k);
+                result.values.put(field + "_bleu", maxBleu);
+                result.bleu.put(field, bleuStatistics);
+            }
+            if (codeBleu) result.codeBleu.put(field, codeBleuScore);
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,523 @@
+package org.njupt.core;
+
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseResult;
+import com.github.javaparser.ParserConfiguration;
+import com.github.javaparser.Position;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.ImportDeclaration;
+import com.github.javaparser.ast.Modifier;
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.body.*;
+import com.github.javaparser.ast.expr.AnnotationExpr;
+import com.github.javaparser.ast.nodeTypes.NodeWithAnnotations;
+import com.github.javaparser.ast.nodeTypes.NodeWithModifiers;
+import org.njupt.util.DzyUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * Semi-structured merge of a Java conflict (a / o / b regions) with JavaParser
+ * <p>
+ * Two shapes of region are merged, everything else is left to the line / token merge (merge returns null):
+ * <ul>
+ *     <li>imports only: merged as sets (reordered imports, imports added or removed on both sides), imports replaced
+ *     differently on both sides (e.g. two single-type imports of the same simple name) conflict</li>
+ *     <li>class members only (fields, methods, constructors, initializers, nested types): every member is a chunk of
+ *     whole lines (its comment and the blank lines before it included), keyed by its signature and merged 3-way, so
+ *     members added or removed independently never conflict. A member changed on both sides is merged when the two
+ *     sides changed different parts of it: comment, modifiers / annotations, the rest. A member whose key changed on
+ *     both sides (e.g. its parameter types, the body of an initializer) conflicts.</li>
+ * </ul>
+ * Unchanged text is copied from the sides, the order of A is kept and members added by B follow their predecessor
+ * in B. Code is compared without whitespace, like perfectMatchRate.
+ */
+public class AstMerger {
+
+    public static final Logger logger = LoggerFactory.getLogger(AstMerger.class);
+
+    private static final ThreadLocal<JavaParser> PARSER = ThreadLocal.withInitial(() -> new JavaParser(
+            new ParserConfiguration().setLanguageLevel(ParserConfiguration.LanguageLevel.JAVA_17)));
+
+    // a region of members is parsed as the body of this class, the region starts at line 2
+    private static final String HEADER = "class AstMergeRegion {\n";
+
+    private static final List<Modifier.Keyword> MODIFIER_ORDER = Arrays.asList(Modifier.Keyword.PUBLIC,
+            Modifier.Keyword.PROTECTED, Modifier.Keyword.PRIVATE, Modifier.Keyword.ABSTRACT, Modifier.Keyword.DEFAULT,
+            Modifier.Keyword.STATIC, Modifier.Keyword.SEALED, Modifier.Keyword.NON_SEALED, Modifier.Keyword.FINAL,
+            Modifier.Keyword.TRANSIENT, Modifier.Keyword.VOLATILE, Modifier.Keyword.SYNCHRONIZED,
+            Modifier.Keyword.NATIVE, Modifier.Keyword.STRICTFP);
+
+    private AstMerger() {
+    }
+
+    /**
+     * Members of one region in order: key -> chunk, the text after the last member is the tail
+     */
+    private static class Region {
+        private final LinkedHashMap<String, Chunk> chunks = new LinkedHashMap<>();
+        private String tail;
+    }
+
+    private static class Chunk {
+        // whole lines of the region
+        private final String text;
+        // the member, with positions in the parsed text (HEADER + region)
+        private final BodyDeclaration<?> member;
+        // offset of text in the parsed text
+        private final int offset;
+        private final int[] lineStarts;
+
+        private Chunk(String text, BodyDeclaration<?> member, int offset, int[] lineStarts) {
+            this.text = text;
+            this.member = member;
+            this.offset = offset;
+            this.lineStarts = lineStarts;
+        }
+    }
+
+    /**
+     * Merge one conflict
+     * @return merged region, null if the regions are not imports / members only or a member conflicts
+     */
+    public static String merge(String a, String o, String b) {
+        try {
+            String imports = mergeImports(a, o, b);
+            return imports != null ? imports : mergeMembers(a, o, b);
+        } catch (RuntimeException e) {
+            logger.debug("AST merge failed", e);
+            return null;
+        }
+    }
+
+    //1.Imports
+
+    private static String mergeImports(String a, String o, String b) {
+        List<String> linesA = lines(a), linesO = lines(o), linesB = lines(b);
+        Map<String, String> importsA = imports(linesA), importsO = imports(linesO), importsB = imports(linesB);
+        if (importsA == null || importsO == null || importsB == null || importsA.isEmpty() && importsB.isEmpty()) return null;
+        if (replacedBoth(importsA, importsO, importsB)) return null;
+
+        //removed by B, added by B
+        List<String> result = new ArrayList<>();
+        for (String line : linesA) {
+            String key = importKey(line);
+            if (key != null && importsO.containsKey(key) && !importsB.containsKey(key)) continue;
+            result.add(line);
+        }
+        boolean sorted = isSorted(importsA.keySet());
+        for (Map.Entry<String, String> entry : importsB.entrySet()) {
+            if (importsO.containsKey(entry.getKey()) || importsA.containsKey(entry.getKey())) continue;
+            result.add(insertIndex(result, entry.getKey(), sorted), entry.getValue());
+        }
+        return String.join("\n", result);
+    }
+
+    /**
+     * Whether the sides added imports that cannot both stay: single-type imports of the same simple name, or imports of
+     * the kind of an import removed by both sides (replaced differently on each side)
+     */
+    private static boolean replacedBoth(Map<String, String> a, Map<String, String> o, Map<String, String> b) {
+        Set<String> namesA = new HashSet<>(), kindsA = new HashSet<>(), kindsB = new HashSet<>();
+        for (String key : a.keySet()) {
+            if (o.containsKey(key) || b.containsKey(key)) continue;
+            if (importKind(key).equals("single")) namesA.add(key.substring(key.lastIndexOf('.') + 1));
+            kindsA.add(importKind(key));
+        }
+        for (String key : b.keySet()) {
+            if (o.containsKey(key) || a.containsKey(key)) continue;
+            if (importKind(key).equals("single") && namesA.contains(key.substring(key.lastIndexOf('.') + 1))) return true;
+            kindsB.add(importKind(key));
+        }
+        for (String key : o.keySet()) {
+            if (a.containsKey(key) || b.containsKey(key)) continue;
+            if (kindsA.contains(importKind(key)) && kindsB.contains(importKind(key))) return true;
+        }
+        return false;
+    }
+
+    private static String importKind(String key) {
+        return (key.startsWith("static ") ? "static " : "") + (key.endsWith(".*") ? "on demand" : "single");
+    }
+
+    /**
+     * import key -> line, null if a non-blank line is not one import
+     */
+    private static Map<String, String> imports(List<String> lines) {
+        Map<String, String> imports = new LinkedHashMap<>();
+        for (String line : lines) {
+            if (line.trim().isEmpty()) continue;
+            String key = importKey(line);
+            if (key == null || imports.containsKey(key)) return null;
+            imports.put(key, line);
+        }
+        return imports;
+    }
+
+    private static String importKey(String line) {
+        String trimmed = line.trim();
+        if (!trimmed.startsWith("import ") || !trimmed.endsWith(";")) return null;
+        ParseResult<ImportDeclaration> result = PARSER.get().parseImport(trimmed);
+        if (!result.isSuccessful() || !result.getResult().isPresent()) return null;
+        ImportDeclaration declaration = result.getResult().get();
+        return (declaration.isStatic() ? "static " : "") + declaration.getNameAsString() + (declaration.isAsterisk() ? ".*" : "");
+    }
+
+    private static boolean isSorted(Collection<String> keys) {
+        String previous = null;
+        for (String key : keys) {
+            if (previous != null && previous.compareTo(key) > 0) return false;
+            previous = key;
+        }
+        return true;
+    }
+
+    /**
+     * After the last import (sorted: the last smaller import), before a trailing blank line
+     */
+    private static int insertIndex(List<String> result, String key, boolean sorted) {
+        int index = -1;
+        for (int i = 0; i < result.size(); i++) {
+            String other = importKey(result.get(i));
+            if (other == null) continue;
+            if (sorted && other.compareTo(key) > 0) return index < 0 ? i : index + 1;
+            index = i;
+        }
+        return index + 1;
+    }
+
+    //2.Members
+
+    private static String mergeMembers(String a, String o, String b) {
+        if (!balanced(a) || !balanced(o) || !balanced(b)) return null;
+        Region regionA = parseRegion(a);
+        if (regionA == null) return null;
+        Region regionO = parseRegion(o);
+        if (regionO == null) return null;
+        Region regionB = parseRegion(b);
+        if (regionB == null) return null;
+
+        //1.Merged chunk of every key of A (null: removed)
+        LinkedHashMap<String, String> merged = new LinkedHashMap<>();
+        for (Map.Entry<String, Chunk> entry : regionA.chunks.entrySet()) {
+            String key = entry.getKey();
+            Chunk chunkO = regionO.chunks.get(key), chunkB = regionB.chunks.get(key);
+            String text;
+            if (chunkO == null && chunkB == null) {
+                text = entry.getValue().text;// added by A
+            } else if (chunkB == null) {
+                if (!same(entry.getValue().text, chunkO.text)) return null;// changed by A, removed by B
+                text = null;
+            } else if (chunkO == null) {
+                if (!same(entry.getValue().text, chunkB.text)) return null;// added by both, differently
+                text = entry.getValue().text;
+            } else {
+                text = mergeChunk(entry.getValue(), chunkO, chunkB);
+                if (text == null) return null;
+            }
+            merged.put(key, text);
+        }
+        Set<String> removedByBoth = new HashSet<>();
+        for (Map.Entry<String, Chunk> entry : regionO.chunks.entrySet()) {
+            Chunk chunkB = regionB.chunks.get(entry.getKey());
+            if (regionA.chunks.containsKey(entry.getKey())) continue;
+            if (chunkB == null) removedByBoth.add(group(entry.getValue().member));
+            else if (!same(entry.getValue().text, chunkB.text)) return null;// removed by A, changed by B
+        }
+        //re-keyed on both sides: a member removed by both, both add other members of its name / kind
+        if (!removedByBoth.isEmpty()) {
+            Set<String> addedA = added(regionA, regionO, regionB), addedB = added(regionB, regionO, regionA);
+            for (String group : removedByBoth) if (addedA.contains(group) && addedB.contains(group)) return null;
+        }
+
+        //2.Members added by B after their predecessor in B
+        Map<String, List<String>> addedAfter = new HashMap<>();
+        String anchor = "";
+        for (Map.Entry<String, Chunk> entry : regionB.chunks.entrySet()) {
+            String key = entry.getKey();
+            if (merged.containsKey(key)) {
+                anchor = key;
+            } else if (!regionO.chunks.containsKey(key)) {
+                addedAfter.computeIfAbsent(anchor, k -> new ArrayList<>()).add(entry.getValue().text);
+            }
+        }
+        StringBuilder result = new StringBuilder();
+        for (String text : addedAfter.getOrDefault("", Collections.emptyList())) result.append(text);
+        for (Map.Entry<String, String> entry : merged.entrySet()) {
+            if (entry.getValue() != null) result.append(entry.getValue());
+            for (String text : addedAfter.getOrDefault(entry.getKey(), Collections.emptyList())) result.append(text);
+        }
+
+        //3.Tail (comments, blank lines)
+        String tail = mergeText(regionA.tail, regionO.tail, regionB.tail);
+        if (tail == null) return null;
+        return result.append(tail).toString();
+    }
+
+    /**
+     * Name / kind of the members of a side that the base and the other side do not have
+     */
+    private static Set<String> added(Region side, Region o, Region other) {
+        Set<String> groups = new HashSet<>();
+        for (Map.Entry<String, Chunk> entry : side.chunks.entrySet()) {
+            if (!o.chunks.containsKey(entry.getKey()) && !other.chunks.containsKey(entry.getKey())) groups.add(group(entry.getValue().member));
+        }
+        return groups;
+    }
+
+    /**
+     * Cheap check before parsing: braces and parentheses are balanced (a region cut inside a method is not)
+     */
+    private static boolean balanced(String text) {
+        int braces = 0, parentheses = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '{') braces++;
+            else if (c == '}' && --braces < 0) return false;
+            else if (c == '(') parentheses++;
+            else if (c == ')' && --parentheses < 0) return false;
+        }
+        return braces == 0 && parentheses == 0;
+    }
+
+    /**
+     * Region parsed as class members, null if it is not members only
+     */
+    private static Region parseRegion(String text) {
+        String source = HEADER + text + "\n}";
+        ParseResult<CompilationUnit> result = PARSER.get().parse(source);
+        if (!result.isSuccessful() || !result.getResult().isPresent()) return null;
+        CompilationUnit unit = result.getResult().get();
+        if (unit.getTypes().size() != 1 || !unit.getImports().isEmpty() || unit.getPackageDeclaration().isPresent()) return null;
+        List<BodyDeclaration<?>> members = unit.getType(0).getMembers();
+        if (members.isEmpty()) return null;
+
+        int[] lineStarts = lineStarts(source);
+        int start = HEADER.length(), end = HEADER.length() + text.length();
+        Region region = new Region();
+        int previousLine = 1;
+        for (BodyDeclaration<?> member : members) {
+            if (!member.getBegin().isPresent() || !member.getEnd().isPresent()) return null;
+            int firstLine = member.getComment().flatMap(Node::getBegin).map(p -> p.line).orElse(member.getBegin().get().line);
+            int lastLine = member.getEnd().get().line;
+            if (firstLine <= previousLine) return null;// two members in one line
+            int chunkEnd = Math.min(end, lineStarts[lastLine + 1]);
+            String key = key(member);
+            if (region.chunks.containsKey(key)) return null;
+            region.chunks.put(key, new Chunk(source.substring(start, chunkEnd), member, start, lineStarts));
+            start = chunkEnd;
+            previousLine = lastLine;
+        }
+        region.tail = source.substring(start, end);// blank lines and comments only
+        return region;
+    }
+
+    /**
+     * Signature of a member
+     */
+    private static String key(BodyDeclaration<?> member) {
+        if (member instanceof FieldDeclaration) {
+            StringBuilder key = new StringBuilder("field");
+            for (VariableDeclarator variable : ((FieldDeclaration) member).getVariables()) key.append(' ').append(variable.getNameAsString());
+            return key.toString();
+        }
+        if (member instanceof CallableDeclaration) {
+            CallableDeclaration<?> callable = (CallableDeclaration<?>) member;
+            StringBuilder key = new StringBuilder(member instanceof ConstructorDeclaration ? "constructor " : "method ");
+            key.append(callable.getNameAsString()).append('(');
+            for (Parameter parameter : callable.getParameters()) key.append(parameter.getType().asString()).append(parameter.isVarArgs() ? "..." : "").append(',');
+            return key.append(')').toString();
+        }
+        if (member instanceof TypeDeclaration) return "type " + ((TypeDeclaration<?>) member).getNameAsString();
+        if (member instanceof AnnotationMemberDeclaration) return "annotation member " + ((AnnotationMemberDeclaration) member).getNameAsString();
+        return "other " + DzyUtils.removeWhitespace(member.toString());
+    }
+
+    /**
+     * Name of a method / constructor, kind of the other members (fields, initializers, ...)
+     */
+    private static String group(BodyDeclaration<?> member) {
+        if (member instanceof CallableDeclaration) {
+            String key = key(member);
+            return key.substring(0, key.indexOf('('));
+        }
+        if (member instanceof InitializerDeclaration) return ((InitializerDeclaration) member).isStatic() ? "static initializer" : "initializer";
+        return member.getClass().getSimpleName();
+    }
+
+    /**
+     * 3-way merge of a member present in a / o / b
+     */
+    private static String mergeChunk(Chunk a, Chunk o, Chunk b) {
+        String text = mergeText(a.text, o.text, b.text);
+        if (text != null) return text;
+        //both changed: comment, modifiers / annotations and the rest are merged separately
+        Declaration declarationA = new Declaration(a), declarationO = new Declaration(o), declarationB = new Declaration(b);
+        String lead = mergeText(declarationA.lead, declarationO.lead, declarationB.lead);
+        if (lead == null) return null;
+        boolean restA = same(declarationA.rest, declarationO.rest), restB = same(declarationB.rest, declarationO.rest);
+        if (!restA && !restB && !same(declarationA.rest, declarationB.rest)) return null;
+        if (!declarationA.simplePrefix || !declarationO.simplePrefix || !declarationB.simplePrefix) return null;
+        Declaration base = restA ? declarationB : declarationA;// the side whose rest is kept
+        Declaration other = base == declarationA ? declarationB : declarationA;
+
+        Map<String, String> annotations = mergeSets(declarationA.annotations, declarationO.annotations, declarationB.annotations);
+        Map<String, String> modifiers = mergeSets(declarationA.modifiers, declarationO.modifiers, declarationB.modifiers);
+        if (annotations == null || modifiers == null) return null;
+        int access = 0;
+        for (String modifier : modifiers.keySet()) if (modifier.equals("PUBLIC") || modifier.equals("PROTECTED") || modifier.equals("PRIVATE")) access++;
+        if (access > 1) return null;
+        return base.render(lead, annotations, modifiers, other);
+    }
+
+    /**
+     * Modifiers, annotations and the rest of a declaration
+     */
+    private static class Declaration {
+        private final Chunk chunk;
+        // name -> text
+        private final LinkedHashMap<String, String> annotations = new LinkedHashMap<>();
+        // keyword name -> text
+        private final LinkedHashMap<String, String> modifiers = new LinkedHashMap<>();
+        // offsets of the modifiers / annotations in the chunk text
+        private int prefixStart = -1, prefixEnd = -1;
+        private String separator = null;
+        // comment, blank lines and indent before the modifiers / annotations
+        private final String lead;
+        private final String rest;
+        // only annotations (distinct names), modifiers and whitespace before the rest
+        private boolean simplePrefix = true;
+
+        private Declaration(Chunk chunk) {
+            this.chunk = chunk;
+            BodyDeclaration<?> member = chunk.member;
+            List<Node> prefix = new ArrayList<>();
+            List<AnnotationExpr> annotationList = member instanceof NodeWithAnnotations ? ((NodeWithAnnotations<?>) member).getAnnotations() : Collections.emptyList();
+            for (AnnotationExpr annotation : annotationList) {
+                if (annotations.put(annotation.getNameAsString(), text(annotation)) != null) simplePrefix = false;
+                prefix.add(annotation);
+            }
+            if (member instanceof NodeWithModifiers) {
+                for (Modifier modifier : ((NodeWithModifiers<?>) member).getModifiers()) {
+                    modifiers.put(modifier.getKeyword().name(), modifier.getKeyword().asString());
+                    prefix.add(modifier);
+                }
+            }
+            StringBuilder prefixText = new StringBuilder();
+            for (Node node : prefix) {
+                int begin = offset(node.getBegin().get()), end = offset(node.getEnd().get()) + 1;
+                prefixStart = prefixStart < 0 ? begin : Math.min(prefixStart, begin);
+                prefixEnd = Math.max(prefixEnd, end);
+                prefixText.append(text(node));
+            }
+            if (prefixStart < 0) prefixStart = prefixEnd = offset(member.getBegin().get());
+            lead = chunk.text.substring(0, prefixStart);
+            int restStart = prefixEnd;
+            while (restStart < chunk.text.length() && Character.isWhitespace(chunk.text.charAt(restStart))) restStart++;
+            rest = chunk.text.substring(restStart);
+            //no comment between the modifiers / annotations
+            if (prefixEnd > prefixStart && DzyUtils.removeWhitespace(chunk.text.substring(prefixStart, prefixEnd)).length() != DzyUtils.removeWhitespace(prefixText.toString()).length()) {
+                simplePrefix = false;
+            }
+            //layout of the annotations: one per line or in the same line
+            if (!annotationList.isEmpty()) {
+                AnnotationExpr first = annotationList.get(0);
+                int end = offset(first.getEnd().get()) + 1;
+                int next = end;
+                while (next < chunk.text.length() && Character.isWhitespace(chunk.text.charAt(next))) next++;
+                separator = chunk.text.substring(end, next);
+            }
+        }
+
+        /**
+         * Chunk text with the lead and the prefix rebuilt: annotations in the order of this side then the other,
+         * modifiers in the usual order
+         */
+        private String render(String mergedLead, Map<String, String> mergedAnnotations, Map<String, String> mergedModifiers, Declaration other) {
+            String lineSeparator = separator != null ? separator : other.separator != null ? other.separator : "\n" + indent();
+            StringBuilder prefix = new StringBuilder();
+            List<String> names = new ArrayList<>(annotations.keySet());
+            for (String name : other.annotations.keySet()) if (!names.contains(name)) names.add(name);
+            for (String name : names) {
+                if (mergedAnnotations.containsKey(name)) prefix.append(mergedAnnotations.get(name)).append(lineSeparator.isEmpty() ? " " : lineSeparator);
+            }
+            for (Modifier.Keyword keyword : MODIFIER_ORDER) {
+                if (mergedModifiers.containsKey(keyword.name())) prefix.append(keyword.asString()).append(' ');
+            }
+            int restStart = chunk.text.length() - rest.length();
+            return mergedLead + prefix + chunk.text.substring(restStart);
+        }
+
+        private String indent() {
+            int lineStart = chunk.text.lastIndexOf('\n', prefixStart - 1) + 1;
+            int end = lineStart;
+            while (end < prefixStart && Character.isWhitespace(chunk.text.charAt(end))) end++;
+            return chunk.text.substring(lineStart, end);
+        }
+
+        private String text(Node node) {
+            return chunk.text.substring(offset(node.getBegin().get()), offset(node.getEnd().get()) + 1);
+        }
+
+        private int offset(Position position) {
+            return chunk.lineStarts[position.line] + position.column - 1 - chunk.offset;
+        }
+    }
+
+    /**
+     * 3-way merge of name -> text maps, null if a name is changed on both sides differently
+     */
+    private static Map<String, String> mergeSets(Map<String, String> a, Map<String, String> o, Map<String, String> b) {
+        Map<String, String> merged = new LinkedHashMap<>();
+        Set<String> names = new LinkedHashSet<>(a.keySet());
+        names.addAll(b.keySet());
+        names.addAll(o.keySet());
+        for (String name : names) {
+            String value = mergeText(a.get(name), o.get(name), b.get(name));
+            if (value == null && !(a.get(name) == null && b.get(name) == null)) {
+                //removed on one side and unchanged on the other
+                String kept = a.get(name) == null ? b.get(name) : a.get(name);
+                if (o.get(name) == null || !same(kept, o.get(name))) return null;
+                continue;
+            }
+            if (value != null) merged.put(name, value);
+        }
+        return merged;
+    }
+
+    /**
+     * 3-way merge of whole texts (compared without whitespace), null if both sides changed differently
+     */
+    private static String mergeText(String a, String o, String b) {
+        if (same(a, b)) return a;
+        if (same(a, o)) return b;
+        if (same(b, o)) return a;
+        return null;
+    }
+
+    private static boolean same(String x, String y) {
+        if (x == null || y == null) return x == y;
+        return DzyUtils.removeWhitespace(x).equals(DzyUtils.removeWhitespace(y));
+    }
+
+    private static List<String> lines(String text) {
+        return Arrays.asList(text.split("\n", -1));
+    }
+
+    /**
+     * Offsets of the lines (1-based), one more entry for the end
+     */
+    private static int[] lineStarts(String text) {
+        List<Integer> starts = new ArrayList<>();
+        starts.add(0);
+        starts.add(0);
+        for (int i = text.indexOf('\n'); i >= 0; i = text.indexOf('\n', i + 1)) starts.add(i + 1);
+        starts.add(text.length());
+        int[] result = new int[starts.size()];
+        for (int i = 0; i < result.length; i++) result[i] = starts.get(i);
+        return result;
+    }
+
+}
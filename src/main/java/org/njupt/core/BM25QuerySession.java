@@ -0,0 +1,131 @@
+package org.njupt.core;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.search.*;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.QueryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * BM25 queries of one merged.java index (one session per metadata file)
+ * <p>
+ * The reader and searcher are opened once for all conflicts of the file. Queries are built directly from the tokens
+ * (no QueryParser): every token is analyzed like a quoted phrase and becomes one SHOULD clause, a repeated token is
+ * one clause boosted by its count, so tokens with quotes or query syntax are no longer lost. Results of the same
+ * query are cached in the session.
+ */
+public class BM25QuerySession implements Closeable {
+
+    public static final Logger logger = LoggerFactory.getLogger(BM25QuerySession.class);
+
+    public static final String FIELD = "codeContent";
+
+    private final IndexReader indexReader;
+
+    private final IndexSearcher indexSearcher;
+
+    private final StoredFields storedFields;
+
+    private final QueryBuilder queryBuilder;
+
+    private final Map<String, String> cache = new HashMap<>();
+
+    public BM25QuerySession(Directory directory, Analyzer analyzer) throws IOException {
+        // 1.创建索引搜索器、设置模型为BM25算法
+        indexReader = DirectoryReader.open(directory);
+        indexSearcher = new IndexSearcher(indexReader);
+        indexSearcher.setSimilarity(new BM25Similarity());
+        storedFields = indexSearcher.storedFields();
+        queryBuilder = new QueryBuilder(analyzer);
+    }
+
+    /**
+     * Query key context of all key information (a/o/b tokens) of one conflict
+     * @param keyInfoTuples a_tokens, o_tokens, b_tokens (tokens split by " ")
+     * @param queryNumber top n lines
+     * @return a_keyContext, o_keyContext, b_keyContext
+     */
+    public List<Map<String, String>> queryAll(List<Map<String, String>> keyInfoTuples, int queryNumber) throws IOException {
+        List<Map<String, String>> contextList = new ArrayList<>();
+        for (Map<String, String> tuple : keyInfoTuples){
+            Map<String, String> map = new HashMap<>();
+            map.put("a_keyContext", query(tuple.get("a_tokens"), queryNumber));
+            map.put("o_keyContext", query(tuple.get("o_tokens"), queryNumber));
+            map.put("b_keyContext", query(tuple.get("b_tokens"), queryNumber));
+            contextList.add(map);
+        }
+        return contextList;
+    }
+
+    /**
+     * @param queryKeyCode tokens split by " "
+     * @return code lines of top n documents, " " if queryKeyCode is blank or nothing can be queried
+     */
+    public String query(String queryKeyCode, int queryNumber) throws IOException {
+        //如果queryKeyCode为空 直接返回其关键上下文信息也为空！
+        if (queryKeyCode.replaceAll("\\s+", "").isEmpty()) return " ";
+        String key = queryNumber + " " + queryKeyCode;
+        String result = cache.get(key);
+        if (result == null) {
+            result = query(queryKeyCode.split(" "), queryNumber);
+            cache.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * @param tokens query tokens
+     * @return code lines of top n documents, " " if no token is left after analysis or there are too many clauses
+     */
+    public String query(String[] tokens, int queryNumber) throws IOException {
+        //1.Count tokens (same token -> one boosted clause)
+        LinkedHashMap<String, Integer> counts = new LinkedHashMap<>();
+        for (String token : tokens) {
+            if (!token.isEmpty()) counts.merge(token, 1, Integer::sum);
+        }
+        //2.Build query
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        int clauses = 0;
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            Query query = queryBuilder.createPhraseQuery(FIELD, entry.getKey());
+            if (query == null) continue;
+            if (clauses == IndexSearcher.getMaxClauseCount()) {
+                logger.warn("Too many query tokens ({}), only the first {} are used", counts.size(), clauses);
+                break;
+            }
+            builder.add(entry.getValue() > 1 ? new BoostQuery(query, entry.getValue()) : query, BooleanClause.Occur.SHOULD);
+            clauses++;
+        }
+        if (clauses == 0) return " ";
+        //3.Search
+        TopDocs topDocs;
+        try {
+            topDocs = indexSearcher.search(builder.build(), queryNumber);
+        } catch (IndexSearcher.TooManyClauses e) {
+            logger.warn("Too many query terms: {}", e.getMessage());
+            return " ";
+        }
+        StringBuilder queryResult = new StringBuilder();
+        for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+            //这里其实还可以搞一个阈值！大于多少的我们认为是有用得！才会添加进去！
+            queryResult.append(storedFields.document(scoreDoc.doc).get(FIELD));
+        }
+        return queryResult.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        // directory在外面最后关闭
+        indexReader.close();
+    }
+
+}
@@ -0,0 +1,174 @@
+package org.njupt.core;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.njupt.util.DzyUtils;
+import org.njupt.util.JavaLexerTokenizer;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.*;
+
+/**
+ * Lucene Analyzer of Java code built on the project lexer (replaces StandardAnalyzer for BM25)
+ * <p>
+ * Every code token (identifier, keyword, operator, punctuation, literal, comment) is one lowercased term, tokens the
+ * lexer cannot handle fall back to {@link DzyUtils#tokenizeUnicode(String)}. With sub-tokens, the camelCase and
+ * snake_case parts of a token (and the words of comments / literals) are added at the same position, e.g.
+ * "getUserName" -> getusername, get, user, name.
+ */
+public class CodeAnalyzer extends Analyzer {
+
+    // longer terms are not indexed (same limit as StandardAnalyzer), their sub-tokens still are
+    public static final int MAX_TOKEN_LENGTH = 255;
+
+    private final boolean subTokens;
+
+    public CodeAnalyzer() {
+        this(true);
+    }
+
+    /**
+     * @param subTokens add camelCase / snake_case sub-tokens
+     */
+    public CodeAnalyzer(boolean subTokens) {
+        this.subTokens = subTokens;
+    }
+
+    /**
+     * Code tokens of a line, the same tokens as DzyUtils.newTokenizerToString(code) in LEXER mode
+     */
+    public static List<String> codeTokens(String code) {
+        List<String> tokens = JavaLexerTokenizer.tokenizeCode(code);
+        return tokens == null ? DzyUtils.tokenizeUnicode(code) : tokens;
+    }
+
+    @Override
+    protected TokenStreamComponents createComponents(String fieldName) {
+        return new TokenStreamComponents(new CodeTokenizer(subTokens, null));
+    }
+
+    /**
+     * Token stream of tokens already lexed by {@link #codeTokens(String)}, so a line is lexed only once when indexed
+     */
+    public TokenStream tokenStream(List<String> codeTokens) {
+        CodeTokenizer tokenizer = new CodeTokenizer(subTokens, codeTokens);
+        tokenizer.setReader(new StringReader(""));
+        return tokenizer;
+    }
+
+    /**
+     * camelCase / snake_case parts of a token, lowercased, without the token itself
+     */
+    public static List<String> subTokens(String token) {
+        List<String> parts = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= token.length(); i++) {
+            char c = i < token.length() ? token.charAt(i) : ' ';
+            if (!Character.isLetterOrDigit(c)) {
+                if (start >= 0) parts.add(token.substring(start, i));
+                start = -1;
+                continue;
+            }
+            if (start < 0) {
+                start = i;
+                continue;
+            }
+            char prev = token.charAt(i - 1);
+            boolean lowerToUpper = (Character.isLowerCase(prev) || Character.isDigit(prev)) && Character.isUpperCase(c);
+            //"XMLParser" -> XML, Parser
+            boolean acronymEnd = Character.isUpperCase(prev) && Character.isUpperCase(c)
+                    && i + 1 < token.length() && Character.isLowerCase(token.charAt(i + 1));
+            if (lowerToUpper || acronymEnd) {
+                parts.add(token.substring(start, i));
+                start = i;
+            }
+        }
+        String term = token.toLowerCase(Locale.ROOT);
+        LinkedHashSet<String> subTokens = new LinkedHashSet<>();
+        for (String part : parts) subTokens.add(part.toLowerCase(Locale.ROOT));
+        subTokens.remove(term);
+        return new ArrayList<>(subTokens);
+    }
+
+    private static final class CodeTokenizer extends Tokenizer {
+
+        private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+
+        private final PositionIncrementAttribute posIncAtt = addAttribute(PositionIncrementAttribute.class);
+
+        private final boolean subTokens;
+
+        // lexed before (index), or null to lex the input (query)
+        private final List<String> presetTokens;
+
+        private List<String> tokens = Collections.emptyList();
+
+        private int index;
+
+        // terms of the current token
+        private final List<String> terms = new ArrayList<>();
+
+        private int termIndex;
+
+        // positions since the last emitted token
+        private int positions;
+
+        CodeTokenizer(boolean subTokens, List<String> presetTokens) {
+            this.subTokens = subTokens;
+            this.presetTokens = presetTokens;
+        }
+
+        @Override
+        public boolean incrementToken() {
+            clearAttributes();
+            //every token is one position, a token without terms (too long) is skipped
+            while (termIndex == terms.size()) {
+                if (index == tokens.size()) return false;
+                nextTerms(tokens.get(index++));
+                positions++;
+            }
+            termAtt.append(terms.get(termIndex));
+            posIncAtt.setPositionIncrement(termIndex == 0 ? positions : 0);
+            if (termIndex == 0) positions = 0;
+            termIndex++;
+            return true;
+        }
+
+        private void nextTerms(String token) {
+            terms.clear();
+            termIndex = 0;
+            terms.add(token.toLowerCase(Locale.ROOT));
+            if (subTokens) terms.addAll(CodeAnalyzer.subTokens(token));
+            terms.removeIf(term -> term.length() > MAX_TOKEN_LENGTH);
+        }
+
+        @Override
+        public void reset() throws IOException {
+            super.reset();
+            if (presetTokens != null) {
+                tokens = presetTokens;
+            } else {
+                StringBuilder code = new StringBuilder();
+                char[] buffer = new char[1024];
+                for (int n; (n = input.read(buffer)) != -1; ) code.append(buffer, 0, n);
+                tokens = codeTokens(code.toString());
+            }
+            index = 0;
+            terms.clear();
+            termIndex = 0;
+            positions = 0;
+        }
+
+        @Override
+        public void end() throws IOException {
+            super.end();
+            posIncAtt.setPositionIncrement(positions);
+        }
+
+    }
+
+}
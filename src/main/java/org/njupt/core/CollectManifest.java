@@ -0,0 +1,222 @@
+package org.njupt.core;
+
+import org.json.JSONObject;
+import org.njupt.util.ConflictRecordReader;
+import org.njupt.util.ConflictRecordWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Resumable collection of metadata JSON files into one JSON Lines result file
+ * <p>
+ * "result.jsonl.manifest" has one line per collected file: file path, SHA-256 of the metadata file (and its
+ * x_merged.java used by BM25), byte range [start, end) of its records in the result file, ids and statistics.
+ * A line is written only after the file's records are flushed, so after a crash everything behind the last line is cut
+ * off and the next run goes on with the files not collected yet. Unchanged files are skipped, new or modified files are
+ * collected again and appended; the records of modified or deleted files are removed by compaction at the end.
+ * <p>
+ * Every record gets "uid" = file path + "#" + id_inFile, which does not depend on the processing order. "id" keeps
+ * growing across runs (never reused while the record is in the result file).
+ */
+public class CollectManifest {
+
+    public static final Logger logger = LoggerFactory.getLogger(CollectManifest.class);
+
+    public static final String MANIFEST = ".manifest";
+
+    private final String outputPath;
+
+    private final String manifestPath;
+
+    // file path -> newest entry
+    private final LinkedHashMap<String, JSONObject> entries = new LinkedHashMap<>();
+
+    // some byte ranges of the result file are no longer used
+    private boolean garbage = false;
+
+    private CollectManifest(String outputPath) {
+        this.outputPath = outputPath;
+        this.manifestPath = outputPath + MANIFEST;
+    }
+
+    /**
+     * @param root root directory of the file paths
+     * @param tasks file path (relative to root) -> task, in sequential order
+     * @param outputPath JSON Lines result file
+     * @param workers worker threads
+     * @return statistical results of all files in the result file
+     */
+    public static Map<String, Integer> collect(String root, LinkedHashMap<String, ParallelCollector.FileTask> tasks, String outputPath, int workers) throws Exception {
+        if (!outputPath.endsWith(".jsonl")) throw new IllegalArgumentException("Resumable result file must be JSON Lines: " + outputPath);
+        CollectManifest manifest = new CollectManifest(outputPath);
+        manifest.load();
+        int lastId = manifest.lastId();
+
+        //1.Pick new or modified files
+        List<String> files = new ArrayList<>();
+        List<String> hashes = new ArrayList<>();
+        List<ParallelCollector.FileTask> todo = new ArrayList<>();
+        for (Map.Entry<String, ParallelCollector.FileTask> task : tasks.entrySet()) {
+            String file = task.getKey();
+            String hash = hash(root, file);
+            JSONObject entry = manifest.entries.get(file);
+            if (entry != null && entry.getString("sha256").equals(hash)) continue;
+            if (entry != null) manifest.garbage = true;
+            files.add(file);
+            hashes.add(hash);
+            todo.add(withUid(file, task.getValue()));
+        }
+        //2.Deleted files
+        if (manifest.entries.keySet().retainAll(tasks.keySet())) manifest.garbage = true;
+        logger.info("{} files unchanged, {} files to collect", tasks.size() - todo.size(), todo.size());
+
+        //3.Collect and append, one manifest line after each file
+        Map<String, Integer> mapCount = new HashMap<>();
+        mapCount.put("line_allCount", lastId);
+        try (ConflictRecordWriter writer = ConflictRecordWriter.openAppending(outputPath);
+             BufferedWriter manifestWriter = Files.newBufferedWriter(Paths.get(manifest.manifestPath), StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            long[] start = {writer.position()};
+            ParallelCollector.collect(todo, workers, writer, mapCount, (index, firstId, fileCount) -> {
+                int conflicts = fileCount.getOrDefault("line_allCount", 0);
+                JSONObject entry = new JSONObject();
+                entry.put("file", files.get(index));
+                entry.put("sha256", hashes.get(index));
+                entry.put("start", start[0]);
+                entry.put("end", start[0] = writer.position());
+                entry.put("first_id", firstId);
+                entry.put("last_id", firstId + conflicts - 1);
+                entry.put("count", fileCount);
+                manifestWriter.write(entry.toString());
+                manifestWriter.write('\n');
+                manifestWriter.flush();
+                manifest.entries.put(files.get(index), entry);
+            });
+        }
+
+        //4.Remove records of modified or deleted files
+        if (manifest.garbage) manifest.compact();
+        return manifest.statistics();
+    }
+
+    /**
+     * Read the manifest and cut off records behind its last line (interrupted run)
+     */
+    private void load() throws IOException {
+        Path output = Paths.get(outputPath);
+        Path manifest = Paths.get(manifestPath);
+        if (!Files.exists(manifest)) {
+            if (Files.deleteIfExists(output)) logger.warn("Result file {} has no manifest, collect all files again", outputPath);
+            return;
+        }
+        long end = 0;
+        try (ConflictRecordReader reader = ConflictRecordReader.open(manifestPath)) {
+            for (JSONObject entry : reader) {
+                if (entries.put(entry.getString("file"), entry) != null) garbage = true;
+                end = Math.max(end, entry.getLong("end"));
+            }
+        }
+        long size = Files.exists(output) ? Files.size(output) : 0;
+        if (size < end) {
+            logger.warn("Result file {} is shorter than its manifest, collect all files again", outputPath);
+            entries.clear();
+            garbage = false;
+            Files.deleteIfExists(output);
+            Files.delete(manifest);
+            return;
+        }
+        if (size > end) {
+            logger.info("Cut off {} bytes of unfinished records in {}", size - end, outputPath);
+            try (FileChannel channel = FileChannel.open(output, StandardOpenOption.WRITE)) {
+                channel.truncate(end);
+            }
+        }
+    }
+
+    /**
+     * Copy the byte ranges still in use to a new result file and manifest
+     */
+    private void compact() throws IOException {
+        List<JSONObject> live = new ArrayList<>(entries.values());
+        live.sort(Comparator.comparingLong(entry -> entry.getLong("start")));
+        Path output = Paths.get(outputPath);
+        Path outputTemp = Paths.get(outputPath + ".tmp");
+        Path manifestTemp = Paths.get(manifestPath + ".tmp");
+        long removed = Files.size(output);
+        try (FileChannel in = FileChannel.open(output, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(outputTemp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             BufferedWriter manifestWriter = Files.newBufferedWriter(manifestTemp, StandardCharsets.UTF_8)) {
+            long position = 0;
+            for (JSONObject entry : live) {
+                long start = entry.getLong("start");
+                long length = entry.getLong("end") - start;
+                for (long copied = 0; copied < length; ) {
+                    copied += in.transferTo(start + copied, length - copied, out);
+                }
+                entry.put("start", position);
+                entry.put("end", position += length);
+                manifestWriter.write(entry.toString());
+                manifestWriter.write('\n');
+            }
+            removed -= position;
+        }
+        Files.move(outputTemp, output, StandardCopyOption.REPLACE_EXISTING);
+        Files.move(manifestTemp, Paths.get(manifestPath), StandardCopyOption.REPLACE_EXISTING);
+        garbage = false;
+        logger.info("Compact {}: {} bytes of old records removed", outputPath, removed);
+    }
+
+    private int lastId() {
+        int lastId = 0;
+        for (JSONObject entry : entries.values()) lastId = Math.max(lastId, entry.getInt("last_id"));
+        return lastId;
+    }
+
+    private Map<String, Integer> statistics() {
+        Map<String, Integer> map = new HashMap<>();
+        for (JSONObject entry : entries.values()) {
+            JSONObject count = entry.getJSONObject("count");
+            for (String key : count.keySet()) map.merge(key, count.getInt(key), Integer::sum);
+        }
+        return map;
+    }
+
+    private static ParallelCollector.FileTask withUid(String file, ParallelCollector.FileTask task) {
+        return (sink, mapCount) -> task.collect(jsonObject -> {
+            jsonObject.put("uid", file + "#" + jsonObject.get("id_inFile"));
+            sink.accept(jsonObject);
+        }, mapCount);
+    }
+
+    /**
+     * SHA-256 of x_metadata.json and x_merged.java (if exists)
+     */
+    private static String hash(String root, String file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        digest.update(Files.readAllBytes(new File(root, file).toPath()));
+        if (file.endsWith("metadata.json")) {
+            File merged = new File(root, file.substring(0, file.length() - 13) + "merged.java");
+            if (merged.exists()) digest.update(Files.readAllBytes(merged.toPath()));
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+}
@@ -0,0 +1,239 @@
+package org.njupt.core;
+
+import org.njupt.util.CodeTokens;
+import org.njupt.util.Diff3Merger;
+import org.njupt.util.DzyUtils;
+import org.njupt.util.MergeHunks;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Content-addressed store of conflict tokens and token-level merge results, shared by all threads
+ * <p>
+ * A side (a / o / b contents) is keyed by the SHA-256 of its text, a triple by the SHA-256 of its three side keys. The
+ * same contents recurring in forks, cherry-picks or another dataset are tokenized and diff3-merged only once: the
+ * merge hunks are kept without marker labels, every conflict gets its own labels in Merge.lines(). At most maxEntries
+ * sides and maxEntries triples are kept, the oldest ones are dropped first. Requests, computed contents and the
+ * computing time of repeated requests (time saved) are counted since the last statistics() call.
+ */
+public class ConflictStore {
+
+    public static final Logger logger = LoggerFactory.getLogger(ConflictStore.class);
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    public static final int DEFAULT_MAX_ENTRIES = 100_000;
+
+    private final int maxEntries;
+
+    private final ConcurrentHashMap<String, Entry<CodeTokens>> sides = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, Entry<Merge>> triples = new ConcurrentHashMap<>();
+
+    // keys in insertion order, for eviction
+    private final ConcurrentLinkedQueue<String> sideKeys = new ConcurrentLinkedQueue<>();
+
+    private final ConcurrentLinkedQueue<String> tripleKeys = new ConcurrentLinkedQueue<>();
+
+    private final AtomicLong sideRequests = new AtomicLong();
+
+    private final AtomicLong sideComputed = new AtomicLong();
+
+    private final AtomicLong tripleRequests = new AtomicLong();
+
+    private final AtomicLong tripleComputed = new AtomicLong();
+
+    private final AtomicLong savedNanos = new AtomicLong();
+
+    public ConflictStore() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxEntries sides and triples kept (each)
+     */
+    public ConflictStore(int maxEntries) {
+        if (maxEntries < 1) throw new IllegalArgumentException("maxEntries must be positive");
+        this.maxEntries = maxEntries;
+    }
+
+    private static class Entry<T> {
+        private final T value;
+        // time to compute the value
+        private final long nanos;
+
+        private Entry(T value, long nanos) {
+            this.value = value;
+            this.nanos = nanos;
+        }
+    }
+
+    /**
+     * Token-level diff3 result of one (a, o, b) triple
+     */
+    public static class Merge {
+
+        private final MergeHunks hunks;
+
+        private final List<Map<String, String>> keyInformation;
+
+        private Merge(MergeHunks hunks) {
+            this.hunks = hunks;
+            List<Map<String, String>> tuples = new ArrayList<>();
+            for (Map<String, String> tuple : KeyInformationCollector.extractTokenTuples(hunks)) {
+                tuples.add(Collections.unmodifiableMap(tuple));
+            }
+            this.keyInformation = Collections.unmodifiableList(tuples);
+        }
+
+        /**
+         * Stable / conflict hunks of the merge
+         */
+        public MergeHunks hunks() {
+            return hunks;
+        }
+
+        /**
+         * Merged lines with conflict marks labeled (same as Diff3Merger.merge)
+         */
+        public List<String> lines(String nameA, String nameO, String nameB) {
+            return hunks.lines(nameA, nameO, nameB);
+        }
+
+        /**
+         * Line-level result with conflict marks labeled (same as DzyUtils.tokenLinesToLineLevel of lines())
+         */
+        public String lineLevel(String nameA, String nameO, String nameB) {
+            return hunks.lineLevel(nameA, nameO, nameB);
+        }
+
+        /**
+         * Append the merged text with the original spacing of a / o / b to out (see MergeHunks.render)
+         * @return out
+         */
+        public StringBuilder render(StringBuilder out, String nameA, String nameO, String nameB) {
+            return hunks.render(out, nameA, nameO, nameB);
+        }
+
+        /**
+         * Token-level tuples of the conflict blocks (same as KeyInformationCollector.extractTokenTuples), read only
+         */
+        public List<Map<String, String>> keyInformation() {
+            return keyInformation;
+        }
+    }
+
+    /**
+     * Tokens of one side (same as DzyUtils.newTokenIds), computed once per distinct text
+     */
+    public CodeTokens tokens(String text) {
+        sideRequests.incrementAndGet();
+        return lookup(sides, sideKeys, sideComputed, hash(text), () -> DzyUtils.newTokenIds(text), true);
+    }
+
+    /**
+     * Token-level diff3 of a triple (its sides are counted as side requests too), computed once per distinct (a, o, b)
+     */
+    public Merge merge(String a, String o, String b) {
+        tripleRequests.incrementAndGet();
+        sideRequests.addAndGet(3);
+        String hashA = hash(a), hashO = hash(o), hashB = hash(b);
+        //sides are looked up only for a new triple, the time of a repeated triple includes its tokenization
+        return lookup(triples, tripleKeys, tripleComputed, hash(hashA + hashO + hashB), () -> new Merge(Diff3Merger.mergeHunks(
+                lookup(sides, sideKeys, sideComputed, hashA, () -> DzyUtils.newTokenIds(a), true),
+                lookup(sides, sideKeys, sideComputed, hashO, () -> DzyUtils.newTokenIds(o), true),
+                lookup(sides, sideKeys, sideComputed, hashB, () -> DzyUtils.newTokenIds(b), true))), true);
+    }
+
+    /**
+     * side_all / side_unique, triple_all / triple_unique requests and computed contents, saved_ms computing time of
+     * repeated requests, since the last call (e.g. of one dataset). The stored contents are kept.
+     */
+    public Map<String, Integer> statistics() {
+        Map<String, Integer> map = new LinkedHashMap<>();
+        map.put("dedup_side_all", (int) sideRequests.getAndSet(0));
+        map.put("dedup_side_unique", (int) sideComputed.getAndSet(0));
+        map.put("dedup_triple_all", (int) tripleRequests.getAndSet(0));
+        map.put("dedup_triple_unique", (int) tripleComputed.getAndSet(0));
+        map.put("dedup_saved_ms", (int) (savedNanos.getAndSet(0) / 1_000_000));
+        return map;
+    }
+
+    /**
+     * Sides / triples kept now
+     */
+    public int size() {
+        return sides.size() + triples.size();
+    }
+
+    /**
+     * Drop all stored contents
+     */
+    public void clear() {
+        sides.clear();
+        sideKeys.clear();
+        triples.clear();
+        tripleKeys.clear();
+    }
+
+    /**
+     * SHA-256 of the UTF-8 text in hex
+     */
+    public static String hash(String text) {
+        byte[] digest = SHA256.get().digest(text.getBytes(StandardCharsets.UTF_8));
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[2 * i] = HEX[(digest[i] >> 4) & 0xF];
+            hex[2 * i + 1] = HEX[digest[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * @param keys insertion order of the store, the oldest keys are dropped above maxEntries
+     * @param saved add the computing time to saved time if the value is already there
+     */
+    private <T> T lookup(ConcurrentHashMap<String, Entry<T>> store, ConcurrentLinkedQueue<String> keys, AtomicLong computedCount,
+                         String key, Supplier<T> compute, boolean saved) {
+        Entry<T> entry = store.get(key);
+        boolean[] computed = {false};
+        if (entry == null) {
+            entry = store.computeIfAbsent(key, k -> {
+                computed[0] = true;
+                long start = System.nanoTime();
+                T value = compute.get();
+                return new Entry<>(value, System.nanoTime() - start);
+            });
+        }
+        if (computed[0]) {
+            computedCount.incrementAndGet();
+            keys.add(key);
+            while (store.size() > maxEntries) {
+                String oldest = keys.poll();
+                if (oldest == null) break;
+                store.remove(oldest);
+            }
+        } else if (saved) {
+            savedNanos.addAndGet(entry.nanos);
+        }
+        return entry.value;
+    }
+
+}
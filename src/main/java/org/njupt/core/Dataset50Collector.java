@@ -2,22 +2,25 @@ package org.njupt.core;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.store.Directory;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.njupt.util.ColumnarRecordWriter;
+import org.njupt.util.ConflictIndex;
+import org.njupt.util.ConflictRecordReader;
+import org.njupt.util.ConflictRecordWriter;
 import org.njupt.util.DzyUtils;
+import org.njupt.util.ResolutionLabeler;
 import org.njupt.core.DatasetCollector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 /**
  * Top-50-repo dataset with most conflicts among 2731 Java repos Dataset Collector
@@ -28,6 +31,52 @@ public class Dataset50Collector {
 
     public static final String JSON = "G:/now/2024merge/Merge50Repo_Data/jsonAll/";
 
+    // tokens and token-level merges of repeated a/o/b contents are computed once, may be shared with other collectors
+    private final ConflictStore store;
+
+    // fit_merge decision on the raw a/o/b strings, only fit conflicts are tokenized / merged / queried
+    private Predicate<MergeFilter.Sizes> fitMerge = MergeFilter.ALL;
+
+    /**
+     * Set the fit_merge pre-filter (default MergeFilter.ALL), e.g. MergeFilter.maxLineDiff(2) or MergeFilter.maxLines(5)
+     */
+    public void setFitMerge(Predicate<MergeFilter.Sizes> fitMerge) {
+        this.fitMerge = fitMerge;
+    }
+
+    // line -> AST -> token -> character, stop at the first clean merge
+    private final GranularMerger merger;
+
+    public Dataset50Collector() {
+        this(new ConflictStore());
+    }
+
+    /**
+     * @param store store shared with other collectors, e.g. one store for the MergeBERT and Top-50 datasets
+     */
+    public Dataset50Collector(ConflictStore store) {
+        this.store = store;
+        this.merger = new GranularMerger(store);
+    }
+
+    /**
+     * Set the merge granularities (default LINE, AST, TOKEN, CHARACTER), TOKEN only is the old token-level merge
+     */
+    public void setGranularities(GranularMerger.Granularity... granularities) {
+        merger.setGranularities(granularities);
+    }
+
+    // label the resolution of unlabeled conflicts (res_label "null") with the Top-50 taxonomy, see ResolutionLabeler
+    private boolean inferLabels = false;
+
+    /**
+     * Infer res_label of unlabeled conflicts while collecting (default false, unlabeled conflicts keep "null"),
+     * inferred records have res_label_inferred
+     */
+    public void setInferLabels(boolean inferLabels) {
+        this.inferLabels = inferLabels;
+    }
+
     /**
      * Extract conflict tuples from every x_metadata.json file (according to 50Repo)
      */
@@ -64,15 +113,24 @@ public class Dataset50Collector {
     }
 
     /**
-     * 1.Get tuple from Json(getTupleFromJson); 2.Use newTokenizer to tokens; 3. Use tokenListToNewFile to files; 4. Use Diff3 git merge to merged file.
+     * 1.Get tuple from Json(getTupleFromJson); 2.Use newTokenizer to tokens; 3. Use Diff3Merger to merge tokens in memory; 4. Restore token-level result to line-level.
      */
     public void fromTupleToTokenDiff(String jsonDirectory, String jsonName, JSONArray jsonArrayLineLevel, Map<String, Integer> mapCount) throws Exception {
+        fromTupleToTokenDiff(jsonDirectory, jsonName, (Consumer<JSONObject>) jsonArrayLineLevel::put, mapCount);
+    }
+
+    /**
+     * Same as above, every finished conflict record is passed to sink at once (e.g. ConflictRecordWriter)
+     */
+    public void fromTupleToTokenDiff(String jsonDirectory, String jsonName, Consumer<JSONObject> sink, Map<String, Integer> mapCount) throws Exception {
         List<Map<String, String>> tuples = getTupleFromJson(jsonDirectory, jsonName);
         String preName = jsonName.substring(0, jsonName.length() - 13);
 
-        // Create index (BM25) [one json one merged index]
-        Analyzer analyzer = new StandardAnalyzer();// custom Analyzer
-        Directory directory = KeyContextCollector.createBM25(jsonDirectory + preName + "merged.java", analyzer);
+        // Create index (BM25) [one json one merged index], at the first fit conflict of this file
+        Analyzer analyzer = new CodeAnalyzer();// code tokens + camelCase / snake_case sub-tokens
+        Directory directory = null;
+        BM25QuerySession session = null;// one searcher for all conflicts of this file
+        StringBuilder rendered = new StringBuilder();// one render buffer for all conflicts of this file
 
         //logger.info("Start use Diff3 merge A O B to generate Token-level conflicts:-------------------------------------------------{}", jsonName);
         for (int i = 0; i < tuples.size(); i++){
@@ -91,68 +149,49 @@ public class Dataset50Collector {
             jsonObject.put("b_contents", tuples.get(i).get("b_contents"));
             jsonObject.put("res_region", tuples.get(i).get("res_region"));
             jsonObject.put("res_label", tuples.get(i).get("res_label"));
+            jsonObject.put("res_label_inferred", false);
+            if (inferLabels && tuples.get(i).get("res_label").equals("null") && !tuples.get(i).get("res_region").equals("null")) {// unlabeled, label the resolution here
+                jsonObject.put("res_label", ResolutionLabeler.label(tuples.get(i).get("a_contents"), tuples.get(i).get("o_contents"), tuples.get(i).get("b_contents"), tuples.get(i).get("res_region"), ResolutionLabeler.Taxonomy.TOP50));
+                jsonObject.put("res_label_inferred", true);
+                mapCount.put("label_inferred", mapCount.getOrDefault("label_inferred", 0) + 1);
+            }
 
-            //1.Judge: merge or not ?
-            List<String> listA = DzyUtils.newTokenizer(tuples.get(i).get("a_contents"));
-            List<String> listO = DzyUtils.newTokenizer(tuples.get(i).get("o_contents"));
-            List<String> listB = DzyUtils.newTokenizer(tuples.get(i).get("b_contents"));
-//            int lineA = DzyUtils.tokenCountInList("NewLineDZY", listA);
-//            int lineO = DzyUtils.tokenCountInList("NewLineDZY", listO);
-//            int lineB = DzyUtils.tokenCountInList("NewLineDZY", listB);
-//            int maxLine = Math.max(Math.max(lineA, lineO), lineB);
-//            int minLine = Math.min(Math.min(lineA, lineO), lineB);
-//
-//            // (1) no merge
-//            System.out.println("maxLine - minLine = " + (maxLine - minLine));
-//            if (false){ // merge all
-////            if (maxLine - minLine > 2){ // only merge fit_merge
-////            if (maxLine > 5){
-//                mapCount.put("unfit_merge", mapCount.getOrDefault("unfit_merge", 0) + 1);
-//                jsonObject.put("can_token_level", false);
-//                jsonObject.put("can_merge_succeed", "null");
-//                jsonObject.put("match_rate", 0.00);
-//                jsonObject.put("token_level_result", "null");
-//                jsonObject.put("key_information", "null");//line-level key_information?
-//                jsonObject.put("key_context", "null");//line-level key_context?
-//                jsonArrayLineLevel.put(jsonObject);
-//                continue;
-//            }
+            //1.Judge: merge or not ? (raw strings only, see setFitMerge)
+            MergeFilter.Sizes sizes = MergeFilter.sizes(tuples.get(i).get("a_contents"), tuples.get(i).get("o_contents"), tuples.get(i).get("b_contents"));
+
+            // (1) no merge
+            logger.debug("maxLine - minLine = {}", sizes.maxLine() - sizes.minLine());
+            if (!fitMerge.test(sizes)){
+                mapCount.put("unfit_merge", mapCount.getOrDefault("unfit_merge", 0) + 1);
+                jsonObject.put("can_token_level", false);
+                jsonObject.put("can_merge_succeed", "null");
+                jsonObject.put("merge_granularity", "null");
+                jsonObject.put("match_rate", 0.00);
+                jsonObject.put("token_level_result", "null");
+                jsonObject.put("key_information", "null");//line-level key_information?
+                jsonObject.put("key_context", "null");//line-level key_context?
+                sink.accept(jsonObject);
+                continue;
+            }
 
             // (2) yes merge
             mapCount.put("fit_merge", mapCount.getOrDefault("fit_merge", 0) + 1);
-
-            //2.Define temp file path and Build new file
-            String aPath = jsonDirectory + preName + (i + 1) + "_A.txt";
-            String oPath = jsonDirectory + preName + (i + 1) + "_O.txt";
-            String bPath = jsonDirectory + preName + (i + 1) + "_B.txt";
-            String mergedPath = jsonDirectory + preName + (i + 1) + "_merged.txt";
-            DzyUtils.tokenListToNewFile(aPath, listA);//A
-            DzyUtils.tokenListToNewFile(oPath, listO);//O
-            DzyUtils.tokenListToNewFile(bPath, listB);//B
-
-            //3.Start use Diff3 merge A O B to generate Token-level conflicts
-            File a = new File(aPath);
-            File o = new File(oPath);
-            File b = new File(bPath);
-            File merged = new File(mergedPath);
-            if(merged.exists()) merged.delete();
-            Files.copy(a.toPath(), merged.toPath());
-            logger.info("Id : {}. git merge-file --diff3 {} {} {}", mapCount.get("line_allCount"), a.getName(), o.getName(), b.getName());
-            ProcessBuilder pb = new ProcessBuilder(
-                    "git",
-                    "merge-file",
-                    "--diff3",
-                    merged.getPath(),
-                    o.getPath(),
-                    b.getPath());
-            try {
-                pb.start().waitFor();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+            if (session == null) {
+                directory = KeyContextCollector.createBM25(jsonDirectory + preName + "merged.java", analyzer);
+                session = new BM25QuerySession(directory, analyzer);
             }
 
-            // Core : Get Key Information
-            List<Map<String, String>> keyInformation = KeyInformationCollector.extractTokenTuples(mergedPath);
+            //2.Define conflict marks label (git merge-file labels marks with these file paths)
+            String oPath = new File(jsonDirectory + preName + (i + 1) + "_O.txt").getPath();
+            String bPath = new File(jsonDirectory + preName + (i + 1) + "_B.txt").getPath();
+            String mergedPath = new File(jsonDirectory + preName + (i + 1) + "_merged.txt").getPath();
+
+            //3.Start use Diff3 merge A O B, line -> AST -> token -> character until clean (in-process, no temp file)
+            logger.info("Id : {}. diff3 merge {} {} {}", mapCount.get("line_allCount"), mergedPath, oPath, bPath);
+            GranularMerger.Result merge = merger.merge(tuples.get(i).get("a_contents"), tuples.get(i).get("o_contents"), tuples.get(i).get("b_contents"), mergedPath, oPath, bPath, rendered);
+
+            // Core : Get Key Information (token-level conflicts, none if resolved at line / AST level)
+            List<Map<String, String>> keyInformation = merge.keyInformation();
             JSONArray jsonArrayInformation = new JSONArray();
             int count = 1;
             for (Map<String, String> map : keyInformation){
@@ -166,7 +205,7 @@ public class Dataset50Collector {
             jsonObject.put("key_information", jsonArrayInformation);
 
             // Core : Get Key Context
-            List<Map<String, String>> keyContext = KeyContextCollector.useBM25(directory, keyInformation, 1, analyzer);// Get keyContext with BM25Index
+            List<Map<String, String>> keyContext = session.queryAll(keyInformation, 1);// Get keyContext with BM25Index
             JSONArray jsonArrayContext = new JSONArray();
             count = 1;
             for (Map<String, String> map : keyContext){
@@ -179,38 +218,13 @@ public class Dataset50Collector {
             }
             jsonObject.put("key_context", jsonArrayContext);
 
-            //4.Restoring conflicting blocks of token-level to row line-level construction
-            FileReader fileReader = new FileReader(merged);
-            BufferedReader bufferedReader = new BufferedReader(fileReader);
-            StringBuilder fileContext = new StringBuilder();
-            String line;
-            while ((line = bufferedReader.readLine()) != null) {
-                if (line.startsWith("<<<<<<<") || line.startsWith("|||||||") || line.startsWith("=======") || line.startsWith(">>>>>>>")){
-                    fileContext.append("\n");
-                    fileContext.append(line);
-                    fileContext.append("\n");
-                }else {
-                    fileContext.append(line + " ");
-                }
-            }
-            String tokenMergeResult = fileContext.toString().replace("NewLineDZY", "\n");
-//            String lineMergedPath = jsonDirectory + preName + (i + 1) + "_lineMerged.txt";
-//            Path path = Paths.get(lineMergedPath);
-//            try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
-//                //write in Line-Merged file
-//                writer.write(tokenMergeResult);//Restore special token
-//            } catch (IOException e) {
-//                throw new RuntimeException(e);
-//            }
-
-            //5.Delete temp file(A O B merged)
-            a.delete();
-            o.delete();
-            b.delete();
+            //4.Merge result with the original spacing (rendered from the hunks of the granularity)
+            String tokenMergeResult = merge.text();
 
             //Store to JSON file
             jsonObject.put("can_token_level", true);//yes merge
-            if (!tokenMergeResult.contains("<<<<<<<")){
+            jsonObject.put("merge_granularity", merge.isClean() ? merge.granularity().name().toLowerCase(Locale.ROOT) : "null");
+            if (merge.isClean()){
                 mapCount.put("merge_succeed", mapCount.getOrDefault("merge_succeed", 0) + 1);
                 jsonObject.put("can_merge_succeed", true);
             }else {
@@ -218,21 +232,33 @@ public class Dataset50Collector {
             }
             Double matchRate = DzyUtils.perfectMatchRate(tokenMergeResult, tuples.get(i).get("res_region"));
             if (matchRate == 100) mapCount.put("merge_correct", mapCount.getOrDefault("merge_correct", 0) + 1);
+            if (tokenMergeResult.equals(tuples.get(i).get("res_region"))) mapCount.put("merge_exact", mapCount.getOrDefault("merge_exact", 0) + 1);// same text, spacing included
             jsonObject.put("match_rate", matchRate);
             jsonObject.put("token_level_result", tokenMergeResult);
-            jsonArrayLineLevel.put(jsonObject);
+            sink.accept(jsonObject);
+        }
+        if (session != null) {
+            session.close();
+            directory.close();
         }
-        directory.close();
     }
 
     /**
      * Merge token-level conflicts across the entire directory.
      */
     public void allTuplesToTokenDiff(String directory, String jsonName) throws Exception {
-        JSONArray jsonArray = new JSONArray();
+        allTuplesToTokenDiff(directory, jsonName, 1);
+    }
+
+    /**
+     * Merge token-level conflicts across the entire directory with a worker pool (same ids and statistics as one worker).
+     * @param workers worker threads, e.g. ParallelCollector.defaultWorkers()
+     */
+    public void allTuplesToTokenDiff(String directory, String jsonName, int workers) throws Exception {
         Map<String, Integer> map = new HashMap<>();
         File repoDirectory = new File(directory);
         String[] repoList = repoDirectory.list();
+        List<ParallelCollector.FileTask> tasks = new ArrayList<>();
         for (String repo : repoList){
             System.out.println(repo);
             String currentPath = directory + repo;
@@ -241,12 +267,49 @@ public class Dataset50Collector {
 
             for (String fileName : fileList){
                 if (fileName.endsWith(".json")){
-                    fromTupleToTokenDiff(currentPath + "/", fileName, jsonArray, map);
+                    tasks.add((array, mapCount) -> fromTupleToTokenDiff(currentPath + "/", fileName, array, mapCount));
+                }
+            }
+        }
+        //Write in file (streaming, one record at a time)
+        try (ConflictRecordWriter writer = ConflictRecordWriter.open(JSON + jsonName)) {
+            ParallelCollector.collect(tasks, workers, writer, map);
+            writer.commit();// the result file is written only if every file was collected
+        }
+        map.putAll(store.statistics());
+        map.putAll(merger.statistics());
+        //Offset index for random access by id and label samples (see ConflictIndex), a columnar file has none
+        if (!jsonName.endsWith(ColumnarRecordWriter.SUFFIX)) ConflictIndex.build(JSON + jsonName, "res_label").close();
+        logger.info("Statistical results of {}:\n{}", jsonName, map);
+    }
+
+    /**
+     * Resumable version of allTuplesToTokenDiff: unchanged files in the manifest of jsonName are skipped, new or modified
+     * files are collected and appended (see CollectManifest).
+     * @param jsonName JSON Lines result file name (.jsonl)
+     */
+    public void allTuplesToTokenDiffResumable(String directory, String jsonName, int workers) throws Exception {
+        if (jsonName.endsWith(ColumnarRecordWriter.SUFFIX)) {
+            throw new IllegalArgumentException("A columnar result file cannot be resumed, use allTuplesToTokenDiff: " + jsonName);
+        }
+        File repoDirectory = new File(directory);
+        String[] repoList = repoDirectory.list();
+        LinkedHashMap<String, ParallelCollector.FileTask> tasks = new LinkedHashMap<>();
+        for (String repo : repoList){
+            String currentPath = directory + repo;
+            File files = new File(currentPath);
+            String[] fileList = files.list();
+
+            for (String fileName : fileList){
+                if (fileName.endsWith(".json")){
+                    tasks.put(repo + "/" + fileName, (sink, mapCount) -> fromTupleToTokenDiff(currentPath + "/", fileName, sink, mapCount));
                 }
             }
         }
-        //Write in file.
-        DzyUtils.stringToBuildFile(JSON + jsonName, jsonArray.toString());
+        Map<String, Integer> map = CollectManifest.collect(directory, tasks, JSON + jsonName, workers);
+        map.putAll(store.statistics());
+        map.putAll(merger.statistics());
+        ConflictIndex.build(JSON + jsonName, "res_label").close();
         logger.info("Statistical results of {}:\n{}", jsonName, map);
     }
 
@@ -254,14 +317,13 @@ public class Dataset50Collector {
         logger.info("Start Count Numbers Of  Perfect Match In Every Repo: {}", jsonName);
         LinkedHashMap<String, Integer> map = new LinkedHashMap<>();
 
-        File file = new File(jsonDirectory + jsonName);
-        String content = FileUtils.readFileToString(file, "UTF-8");
-        JSONArray jsonArray = new JSONArray(content);
-        for (int i = 0; i < jsonArray.length(); i++){
-            String currentRepo = jsonArray.getJSONObject(i).getString("file_name");
-            map.put(currentRepo, map.getOrDefault(currentRepo, 0) + 1);
-            if (jsonArray.getJSONObject(i).getDouble("match_rate") == 100) {
-                map.put(currentRepo + "100", map.getOrDefault(currentRepo + "100", 0) + 1);
+        try (ConflictRecordReader reader = ConflictRecordReader.open(jsonDirectory + jsonName, "file_name", "match_rate").join("match_rate")) {
+            for (JSONObject curJson : reader){
+                String currentRepo = curJson.getString("file_name");
+                map.put(currentRepo, map.getOrDefault(currentRepo, 0) + 1);
+                if (curJson.getDouble("match_rate") == 100) {
+                    map.put(currentRepo + "100", map.getOrDefault(currentRepo + "100", 0) + 1);
+                }
             }
         }
         return map;
@@ -271,12 +333,11 @@ public class Dataset50Collector {
         logger.info("Start Count Numbers Of TokenLevel In Line: {}", jsonName);
         TreeMap<Integer, Integer> map = new TreeMap<>();
 
-        File file = new File(jsonDirectory + jsonName);
-        String content = FileUtils.readFileToString(file, "UTF-8");
-        JSONArray jsonArray = new JSONArray(content);
-        for (int i = 0; i < jsonArray.length(); i++){
-            int length = jsonArray.getJSONObject(i).getJSONArray("key_information").length();
-            map.put(length, map.getOrDefault(length, 0) + 1);
+        try (ConflictRecordReader reader = ConflictRecordReader.open(jsonDirectory + jsonName, "key_information")) {
+            for (JSONObject curJson : reader){
+                int length = curJson.getJSONArray("key_information").length();
+                map.put(length, map.getOrDefault(length, 0) + 1);
+            }
         }
         return map;
     }
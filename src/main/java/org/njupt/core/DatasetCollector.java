@@ -2,20 +2,27 @@ package org.njupt.core;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.store.Directory;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.njupt.util.CodeBleu;
+import org.njupt.util.ColumnarRecordWriter;
+import org.njupt.util.ConflictIndex;
+import org.njupt.util.ConflictRecordReader;
+import org.njupt.util.ConflictRecordWriter;
 import org.njupt.util.DzyUtils;
+import org.njupt.util.MetricColumn;
+import org.njupt.util.ResolutionLabeler;
 import org.njupt.core.KeyContextCollector;
 import org.njupt.core.KeyInformationCollector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.nio.file.Files;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 /**
  * MergeBERT Dataset Collector
@@ -34,6 +41,55 @@ public class DatasetCollector {
 
     public static final String JSON = "/json/";
 
+    // answers compared per conflict in the ChatGPT answer statistics (fewer if the array is shorter)
+    private static final int TOP_K = 3;
+
+    // tokens and token-level merges of repeated a/o/b contents are computed once, may be shared with other collectors
+    private final ConflictStore store;
+
+    // fit_merge decision on the raw a/o/b strings, only fit conflicts are tokenized / merged / queried
+    private Predicate<MergeFilter.Sizes> fitMerge = MergeFilter.ALL;
+
+    /**
+     * Set the fit_merge pre-filter (default MergeFilter.ALL), e.g. MergeFilter.maxLineDiff(2) or MergeFilter.maxLines(5)
+     */
+    public void setFitMerge(Predicate<MergeFilter.Sizes> fitMerge) {
+        this.fitMerge = fitMerge;
+    }
+
+    // line -> AST -> token -> character, stop at the first clean merge
+    private final GranularMerger merger;
+
+    public DatasetCollector() {
+        this(new ConflictStore());
+    }
+
+    /**
+     * @param store store shared with other collectors, e.g. one store for the MergeBERT and Top-50 datasets
+     */
+    public DatasetCollector(ConflictStore store) {
+        this.store = store;
+        this.merger = new GranularMerger(store);
+    }
+
+    /**
+     * Set the merge granularities (default LINE, AST, TOKEN, CHARACTER), TOKEN only is the old token-level merge
+     */
+    public void setGranularities(GranularMerger.Granularity... granularities) {
+        merger.setGranularities(granularities);
+    }
+
+    // label the resolution of unlabeled conflicts (res_label "null") with the MergeBERT taxonomy, see ResolutionLabeler
+    private boolean inferLabels = false;
+
+    /**
+     * Infer res_label of unlabeled conflicts while collecting (default false, unlabeled conflicts keep "null"),
+     * inferred records have res_label_inferred
+     */
+    public void setInferLabels(boolean inferLabels) {
+        this.inferLabels = inferLabels;
+    }
+
     /**
      * Extract conflict tuples from every x_metadata.json file (according to MergeBERT)
      * @param jsonDirectory one x_metadata.json directory path
@@ -92,19 +148,28 @@ public class DatasetCollector {
     }
 
     /**
-     * 1.Get tuple from Json(getTupleFromJson); 2.Use newTokenizer to tokens; 3. Use tokenListToNewFile to files; 4. Use Diff3 git merge to merged file.
+     * 1.Get tuple from Json(getTupleFromJson); 2.Use newTokenizer to tokens; 3. Use Diff3Merger to merge tokens in memory; 4. Restore token-level result to line-level.
      * @param jsonDirectory Json file root path
      * @param jsonName Json file name
      * @throws JSONException JSON
      * @throws IOException IO
      */
     public void fromTupleToTokenDiff(String jsonDirectory, String jsonName, JSONArray jsonArrayLineLevel, Map<String, Integer> mapCount) throws Exception {
+        fromTupleToTokenDiff(jsonDirectory, jsonName, (Consumer<JSONObject>) jsonArrayLineLevel::put, mapCount);
+    }
+
+    /**
+     * Same as above, every finished conflict record is passed to sink at once (e.g. ConflictRecordWriter)
+     */
+    public void fromTupleToTokenDiff(String jsonDirectory, String jsonName, Consumer<JSONObject> sink, Map<String, Integer> mapCount) throws Exception {
         List<Map<String, String>> tuples = getTupleFromJson(jsonDirectory, jsonName);
         String preName = jsonName.substring(0, jsonName.length() - 13);
 
-        // Create index (BM25) [one json one merged index]
-        Analyzer analyzer = new StandardAnalyzer();// custom Analyzer
-        Directory directory = KeyContextCollector.createBM25(jsonDirectory + preName + "merged.java", analyzer);
+        // Create index (BM25) [one json one merged index], at the first fit conflict of this file
+        Analyzer analyzer = new CodeAnalyzer();// code tokens + camelCase / snake_case sub-tokens
+        Directory directory = null;
+        BM25QuerySession session = null;// one searcher for all conflicts of this file
+        StringBuilder rendered = new StringBuilder();// one render buffer for all conflicts of this file
 
         //logger.info("Start use Diff3 merge A O B to generate Token-level conflicts:-------------------------------------------------{}", jsonName);
         for (int i = 0; i < tuples.size(); i++){
@@ -124,68 +189,49 @@ public class DatasetCollector {
             jsonObject.put("b_contents", tuples.get(i).get("b_contents"));
             jsonObject.put("res_region", tuples.get(i).get("res_region"));
             jsonObject.put("res_label", tuples.get(i).get("res_label"));
+            jsonObject.put("res_label_inferred", false);
+            if (inferLabels && tuples.get(i).get("res_label").equals("null") && !tuples.get(i).get("res_region").equals("null")) {// unlabeled, label the resolution here
+                jsonObject.put("res_label", ResolutionLabeler.label(tuples.get(i).get("a_contents"), tuples.get(i).get("o_contents"), tuples.get(i).get("b_contents"), tuples.get(i).get("res_region"), ResolutionLabeler.Taxonomy.MERGEBERT));
+                jsonObject.put("res_label_inferred", true);
+                mapCount.put("label_inferred", mapCount.getOrDefault("label_inferred", 0) + 1);
+            }
 
-            //1.Judge: merge or not ?
-            List<String> listA = DzyUtils.newTokenizer(tuples.get(i).get("a_contents"));
-            List<String> listO = DzyUtils.newTokenizer(tuples.get(i).get("o_contents"));
-            List<String> listB = DzyUtils.newTokenizer(tuples.get(i).get("b_contents"));
-            int lineA = DzyUtils.tokenCountInList("NewLineDZY", listA);
-            int lineO = DzyUtils.tokenCountInList("NewLineDZY", listO);
-            int lineB = DzyUtils.tokenCountInList("NewLineDZY", listB);
-            int maxLine = Math.max(Math.max(lineA, lineO), lineB);
-            int minLine = Math.min(Math.min(lineA, lineO), lineB);
+            //1.Judge: merge or not ? (raw strings only, see setFitMerge)
+            MergeFilter.Sizes sizes = MergeFilter.sizes(tuples.get(i).get("a_contents"), tuples.get(i).get("o_contents"), tuples.get(i).get("b_contents"));
 
             // (1) no merge
-            System.out.println("maxLine - minLine = " + (maxLine - minLine));
-            if (false){ // merge all
-//            if (maxLine - minLine > 2){ // only merge fit_merge
-//            if (maxLine > 5){
+            logger.debug("maxLine - minLine = {}", sizes.maxLine() - sizes.minLine());
+            if (!fitMerge.test(sizes)){
                 mapCount.put("unfit_merge", mapCount.getOrDefault("unfit_merge", 0) + 1);
                 jsonObject.put("can_token_level", false);
                 jsonObject.put("can_merge_succeed", "null");
+                jsonObject.put("merge_granularity", "null");
                 jsonObject.put("match_rate", 0.00);
                 jsonObject.put("token_level_result", "null");
                 jsonObject.put("key_information", "null");//line-level key_information?
                 jsonObject.put("key_context", "null");//line-level key_context?
-                jsonArrayLineLevel.put(jsonObject);
+                sink.accept(jsonObject);
                 continue;
             }
 
             // (2) yes merge
             mapCount.put("fit_merge", mapCount.getOrDefault("fit_merge", 0) + 1);
-
-            //2.Define temp file path and Build new file
-            String aPath = jsonDirectory + preName + (i + 1) + "_A.txt";
-            String oPath = jsonDirectory + preName + (i + 1) + "_O.txt";
-            String bPath = jsonDirectory + preName + (i + 1) + "_B.txt";
-            String mergedPath = jsonDirectory + preName + (i + 1) + "_merged.txt";
-            DzyUtils.tokenListToNewFile(aPath, listA);//A
-            DzyUtils.tokenListToNewFile(oPath, listO);//O
-            DzyUtils.tokenListToNewFile(bPath, listB);//B
-
-            //3.Start use Diff3 merge A O B to generate Token-level conflicts
-            File a = new File(aPath);
-            File o = new File(oPath);
-            File b = new File(bPath);
-            File merged = new File(mergedPath);
-            if(merged.exists()) merged.delete();
-            Files.copy(a.toPath(), merged.toPath());
-            logger.info("Id : {}. git merge-file --diff3 {} {} {}", mapCount.get("line_allCount"), a.getName(), o.getName(), b.getName());
-            ProcessBuilder pb = new ProcessBuilder(
-                    "git",
-                    "merge-file",
-                    "--diff3",
-                    merged.getPath(),
-                    o.getPath(),
-                    b.getPath());
-            try {
-                pb.start().waitFor();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+            if (session == null) {
+                directory = KeyContextCollector.createBM25(jsonDirectory + preName + "merged.java", analyzer);
+                session = new BM25QuerySession(directory, analyzer);
             }
 
-            // Core : Get Key Information
-            List<Map<String, String>> keyInformation = KeyInformationCollector.extractTokenTuples(mergedPath);
+            //2.Define conflict marks label (git merge-file labels marks with these file paths)
+            String oPath = new File(jsonDirectory + preName + (i + 1) + "_O.txt").getPath();
+            String bPath = new File(jsonDirectory + preName + (i + 1) + "_B.txt").getPath();
+            String mergedPath = new File(jsonDirectory + preName + (i + 1) + "_merged.txt").getPath();
+
+            //3.Start use Diff3 merge A O B, line -> AST -> token -> character until clean (in-process, token-level once per distinct triple)
+            logger.info("Id : {}. diff3 merge {} {} {}", mapCount.get("line_allCount"), mergedPath, oPath, bPath);
+            GranularMerger.Result merge = merger.merge(tuples.get(i).get("a_contents"), tuples.get(i).get("o_contents"), tuples.get(i).get("b_contents"), mergedPath, oPath, bPath, rendered);
+
+            // Core : Get Key Information (token-level conflicts, none if resolved at line / AST level)
+            List<Map<String, String>> keyInformation = merge.keyInformation();
             JSONArray jsonArrayInformation = new JSONArray();
             int count = 1;
             for (Map<String, String> map : keyInformation){
@@ -199,7 +245,7 @@ public class DatasetCollector {
             jsonObject.put("key_information", jsonArrayInformation);
 
             // Core : Get Key Context
-            List<Map<String, String>> keyContext = KeyContextCollector.useBM25(directory, keyInformation, 1, analyzer);// Get keyContext with BM25Index
+            List<Map<String, String>> keyContext = session.queryAll(keyInformation, 1);// Get keyContext with BM25Index
             JSONArray jsonArrayContext = new JSONArray();
             count = 1;
             for (Map<String, String> map : keyContext){
@@ -212,38 +258,13 @@ public class DatasetCollector {
             }
             jsonObject.put("key_context", jsonArrayContext);
 
-            //4.Restoring conflicting blocks of token-level to row line-level construction
-            FileReader fileReader = new FileReader(merged);
-            BufferedReader bufferedReader = new BufferedReader(fileReader);
-            StringBuilder fileContext = new StringBuilder();
-            String line;
-            while ((line = bufferedReader.readLine()) != null) {
-                if (line.startsWith("<<<<<<<") || line.startsWith("|||||||") || line.startsWith("=======") || line.startsWith(">>>>>>>")){
-                    fileContext.append("\n");
-                    fileContext.append(line);
-                    fileContext.append("\n");
-                }else {
-                    fileContext.append(line + " ");
-                }
-            }
-            String tokenMergeResult = fileContext.toString().replace("NewLineDZY", "\n");
-//            String lineMergedPath = jsonDirectory + preName + (i + 1) + "_lineMerged.txt";
-//            Path path = Paths.get(lineMergedPath);
-//            try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
-//                //write in Line-Merged file
-//                writer.write(tokenMergeResult);//Restore special token
-//            } catch (IOException e) {
-//                throw new RuntimeException(e);
-//            }
-
-            //5.Delete temp file(A O B merged)
-            a.delete();
-            o.delete();
-            b.delete();
+            //4.Merge result with the original spacing (rendered from the hunks of the granularity)
+            String tokenMergeResult = merge.text();
 
             //Store to JSON file
             jsonObject.put("can_token_level", true);//yes merge
-            if (!tokenMergeResult.contains("<<<<<<<")){
+            jsonObject.put("merge_granularity", merge.isClean() ? merge.granularity().name().toLowerCase(Locale.ROOT) : "null");
+            if (merge.isClean()){
                 mapCount.put("merge_succeed", mapCount.getOrDefault("merge_succeed", 0) + 1);
                 jsonObject.put("can_merge_succeed", true);
             }else {
@@ -251,11 +272,15 @@ public class DatasetCollector {
             }
             Double matchRate = DzyUtils.perfectMatchRate(tokenMergeResult, tuples.get(i).get("res_region"));
             if (matchRate == 100) mapCount.put("merge_correct", mapCount.getOrDefault("merge_correct", 0) + 1);
+            if (tokenMergeResult.equals(tuples.get(i).get("res_region"))) mapCount.put("merge_exact", mapCount.getOrDefault("merge_exact", 0) + 1);// same text, spacing included
             jsonObject.put("match_rate", matchRate);
             jsonObject.put("token_level_result", tokenMergeResult);
-            jsonArrayLineLevel.put(jsonObject);
+            sink.accept(jsonObject);
+        }
+        if (session != null) {
+            session.close();
+            directory.close();
         }
-        directory.close();
     }
 
     /**
@@ -263,17 +288,58 @@ public class DatasetCollector {
      * @param directory json directory
      */
     public void allTuplesToTokenDiff(String directory, String jsonName) throws Exception {
-        JSONArray jsonArray = new JSONArray();
+        allTuplesToTokenDiff(directory, jsonName, 1);
+    }
+
+    /**
+     * Merge token-level conflicts across the entire directory with a worker pool (same ids and statistics as one worker).
+     * @param directory json directory
+     * @param workers worker threads, e.g. ParallelCollector.defaultWorkers()
+     */
+    public void allTuplesToTokenDiff(String directory, String jsonName, int workers) throws Exception {
         Map<String, Integer> map = new HashMap<>();
         File files = new File(directory);
         String[] list = files.list();
+        List<ParallelCollector.FileTask> tasks = new ArrayList<>();
         for (String fileName : list){
             if (fileName.endsWith(".json")){
-                fromTupleToTokenDiff(directory, fileName, jsonArray, map);
+                tasks.add((array, mapCount) -> fromTupleToTokenDiff(directory, fileName, array, mapCount));
             }
         }
-        //Write in file.
-        DzyUtils.stringToBuildFile(directory + JSON + jsonName, jsonArray.toString());
+        //Write in file (streaming, one record at a time)
+        try (ConflictRecordWriter writer = ConflictRecordWriter.open(directory + JSON + jsonName)) {
+            ParallelCollector.collect(tasks, workers, writer, map);
+            writer.commit();// the result file is written only if every file was collected
+        }
+        map.putAll(store.statistics());
+        map.putAll(merger.statistics());
+        //Offset index for random access by id and label samples (see ConflictIndex), a columnar file has none
+        if (!jsonName.endsWith(ColumnarRecordWriter.SUFFIX)) ConflictIndex.build(directory + JSON + jsonName, "res_label").close();
+        logger.info("Statistical results of {}:\n{}", jsonName, map);
+    }
+
+    /**
+     * Resumable version of allTuplesToTokenDiff: unchanged files in the manifest of jsonName are skipped, new or modified
+     * files are collected and appended (see CollectManifest).
+     * @param directory json directory
+     * @param jsonName JSON Lines result file name (.jsonl)
+     */
+    public void allTuplesToTokenDiffResumable(String directory, String jsonName, int workers) throws Exception {
+        if (jsonName.endsWith(ColumnarRecordWriter.SUFFIX)) {
+            throw new IllegalArgumentException("A columnar result file cannot be resumed, use allTuplesToTokenDiff: " + jsonName);
+        }
+        File files = new File(directory);
+        String[] list = files.list();
+        LinkedHashMap<String, ParallelCollector.FileTask> tasks = new LinkedHashMap<>();
+        for (String fileName : list){
+            if (fileName.endsWith(".json")){
+                tasks.put(fileName, (sink, mapCount) -> fromTupleToTokenDiff(directory, fileName, sink, mapCount));
+            }
+        }
+        Map<String, Integer> map = CollectManifest.collect(directory, tasks, directory + JSON + jsonName, workers);
+        map.putAll(store.statistics());
+        map.putAll(merger.statistics());
+        ConflictIndex.build(directory + JSON + jsonName, "res_label").close();
         logger.info("Statistical results of {}:\n{}", jsonName, map);
     }
 
@@ -286,11 +352,10 @@ public class DatasetCollector {
         logger.info("Start Count Numbers Of Resolution Label: {}", jsonName);
         Map<String, Integer> map = new HashMap<>();
 
-        File file = new File(jsonDirectory + jsonName);
-        String content = FileUtils.readFileToString(file, "UTF-8");
-        JSONArray jsonArray = new JSONArray(content);
-        for (int i = 0; i < jsonArray.length(); i++){
-            map.put(jsonArray.getJSONObject(i).getString("res_label"), map.getOrDefault(jsonArray.getJSONObject(i).getString("res_label"), 0) + 1);
+        try (ConflictRecordReader reader = ConflictRecordReader.open(jsonDirectory + jsonName, "res_label")) {
+            for (JSONObject curJson : reader){
+                map.put(curJson.getString("res_label"), map.getOrDefault(curJson.getString("res_label"), 0) + 1);
+            }
         }
         return map;
     }
@@ -299,23 +364,23 @@ public class DatasetCollector {
         logger.info("Start Count Numbers Of Resolution Label in Perfect Match: {}", jsonName);
         Map<String, Integer> map = new HashMap<>();
 
-        File file = new File(jsonDirectory + jsonName);
-        String content = FileUtils.readFileToString(file, "UTF-8");
-        JSONArray jsonArray = new JSONArray(content);
-        for (int i = 0; i < jsonArray.length(); i++){
-            if (jsonArray.getJSONObject(i).getBoolean("can_token_level")) {
-                if (jsonArray.getJSONObject(i).getBoolean("can_merge_succeed") && !jsonArray.getJSONObject(i).get("res_label").equals("null")) { // Resolution Label in succeeded
-                    map.put("all_succeeded", map.getOrDefault("all_succeeded", 0) + 1);
-                    if (jsonArray.getJSONObject(i).getDouble("match_rate") == 100) { // Resolution Label in correct
-                        map.put("all_correct", map.getOrDefault("all_correct", 0) + 1);
+        try (ConflictRecordReader reader = ConflictRecordReader.open(jsonDirectory + jsonName, "can_token_level", "can_merge_succeed", "res_label", "res_label_inferred", "match_rate").join("match_rate")) {
+            for (JSONObject curJson : reader){
+                if (curJson.optBoolean("res_label_inferred")) continue; // labels of the original dataset only
+                if (curJson.getBoolean("can_token_level")) {
+                    if (curJson.getBoolean("can_merge_succeed") && !curJson.get("res_label").equals("null")) { // Resolution Label in succeeded
+                        map.put("all_succeeded", map.getOrDefault("all_succeeded", 0) + 1);
+                        if (curJson.getDouble("match_rate") == 100) { // Resolution Label in correct
+                            map.put("all_correct", map.getOrDefault("all_correct", 0) + 1);
+                        }
+                        //map.put(curJson.getString("res_label"), map.getOrDefault(curJson.getString("res_label"), 0) + 1);
                     }
-                    //map.put(jsonArray.getJSONObject(i).getString("res_label"), map.getOrDefault(jsonArray.getJSONObject(i).getString("res_label"), 0) + 1);
                 }
+//                if (curJson.getDouble("match_rate") == 100){ // Resolution Label in correct
+//                    map.put("all_correct", map.getOrDefault("all_correct", 0) + 1);
+//                    map.put(curJson.getString("res_label"), map.getOrDefault(curJson.getString("res_label"), 0) + 1);
+//                }
             }
-//            if (jsonArray.getJSONObject(i).getDouble("match_rate") == 100){ // Resolution Label in correct
-//                map.put("all_correct", map.getOrDefault("all_correct", 0) + 1);
-//                map.put(jsonArray.getJSONObject(i).getString("res_label"), map.getOrDefault(jsonArray.getJSONObject(i).getString("res_label"), 0) + 1);
-//            }
         }
 
         return map;
@@ -324,371 +389,275 @@ public class DatasetCollector {
         logger.info("Get Rewrite Match Rate: {}", jsonName);
         Map<String, Integer> map = new HashMap<>();
 
-        File file = new File(jsonDirectory + jsonName);
-        String content = FileUtils.readFileToString(file, "UTF-8");
-        JSONArray jsonArray = new JSONArray(content);
         int perfect = 0;
-        for (int i = 0; i < jsonArray.length(); i++){
-            JSONObject curJson = jsonArray.getJSONObject(i);
-            String resolution = curJson.getString("res_region");
-            String tokenResult = curJson.getString("token_level_result");
-            double currentMatchRate = DzyUtils.perfectMatchRate(tokenResult, resolution);
-            if(currentMatchRate == 100) perfect++;
-            curJson.put("match_rate", currentMatchRate);
-
+        //Only the match_rate column is written (sidecar of the result file, joined by id when read).
+        try (MetricColumn.Writer columns = MetricColumn.writer(jsonDirectory + jsonName, "match_rate");
+             ConflictRecordReader reader = ConflictRecordReader.open(jsonDirectory + jsonName, "id", "res_region", "token_level_result")) {
+            for (JSONObject curJson : reader){
+                String resolution = curJson.getString("res_region");
+                String tokenResult = curJson.getString("token_level_result");
+                double currentMatchRate = DzyUtils.perfectMatchRate(tokenResult, resolution);
+                if(currentMatchRate == 100) perfect++;
+                columns.put("match_rate", MetricColumn.id(curJson, reader.count()), currentMatchRate);
+            }
+            columns.commit();
         }
-        //Rewrite in file.
-        DzyUtils.stringToBuildFile(jsonDirectory + jsonName, jsonArray.toString());
         map.put("perfect", perfect);
         return map;
     }
 
-    private double getMaxMatchInJSONArray(JSONArray answers, String resolution){// Be Used by last
+    /**
+     * Best match rate of the first TOP_K answers (fewer if the array is shorter) against the resolutions
+     * @param resolutions resolutions without whitespace (DzyUtils.removeWhitespace)
+     */
+    private double getMaxMatchInJSONArray(JSONArray answers, String... resolutions){// Be Used by last
         double maxMatchRate = 0.0;
-//        for (int k = 0; k < answers.length(); k++) { // 遍历所有答案的效果
-        for (int k = 0; k < 3; k++) { // 只遍历前3个答案的效果
-            String currentAnswer = (String) answers.get(k);
-            double currentMatchRate = DzyUtils.perfectMatchRate(currentAnswer, resolution);
-            maxMatchRate = Math.max(maxMatchRate, currentMatchRate);
-        }
-        return maxMatchRate;
-    }
-
-    private double getAllBleuInJSONArray(JSONArray answers, String resolution){// Be Used by last
-        double sumBleu = 0.0;
-//        for (int k = 0; k < answers.length(); k++) { // 遍历所有答案的效果
-        for (int k = 0; k < 3; k++) { // 只遍历前3个答案的效果
-            String currentAnswer = DzyUtils.newTokenizerToString((String) answers.get(k));
-
-//            List<String> referenceResolution = new ArrayList<>(List.of(DzyUtils.newTokenizerToString(resolution)));
-            List<String> referenceResolution = new ArrayList<>(Arrays.asList(DzyUtils.newTokenizerToString(resolution)));
-            double bleuScore = DzyUtils.computeBLEU(currentAnswer, referenceResolution);
-            if (Double.isNaN(bleuScore)){
-                bleuScore = 0.0;
+        for (int k = 0; k < Math.min(TOP_K, answers.length()); k++) { // 只遍历前3个答案的效果
+            String currentAnswer = DzyUtils.removeWhitespace(answers.optString(k, ""));
+            for (String resolution : resolutions) {
+                double currentMatchRate = DzyUtils.perfectMatchRate(currentAnswer, resolution, maxMatchRate);// -1.0 if not better
+                maxMatchRate = Math.max(maxMatchRate, currentMatchRate);
             }
-            int temp = k + 1;
-            System.out.println("BLEU-4 Score " + temp + ": " + bleuScore);
-
-            sumBleu += bleuScore;
         }
-        System.out.println("------------Sum of BLEU-4 Score: " + sumBleu);
-//        return sumBleu / answers.length();
-        return sumBleu / 3;
+        return maxMatchRate;
     }
 
-    public Map<String, Double> countChatGPTMatchRate(String jsonDirectory, String jsonName) throws IOException, JSONException {
+    public Map<String, Double> countChatGPTMatchRate(String jsonDirectory, String jsonName) throws Exception {
         logger.info("Get Match Rate Of ChatGPT Answer: {}", jsonName);
         LinkedHashMap<String, Double> map = new LinkedHashMap<>();
         map.put("line_no",0.0); map.put("line_withSlicing", 0.0); map.put("line_share", 0.0); map.put("token_no", 0.0); map.put("token_withSlicing", 0.0); map.put("token_share", 0.0); map.put("all_share", 0.0);
 
-        File file = new File(jsonDirectory + jsonName);
-        String content = FileUtils.readFileToString(file, "UTF-8");
-        JSONArray jsonArray = new JSONArray(content);
-        double count1 = 0; double count2 = 0; double count3 = 0; double count4 = 0;
-        for (int i = 0; i < jsonArray.length(); i++){
-            JSONObject curJson = jsonArray.getJSONObject(i);
-            String resolution = curJson.getString("res_region");
-
-            double line_no_maxMatch = getMaxMatchInJSONArray(curJson.getJSONArray("line_noContext_answer"), resolution);
-            if(line_no_maxMatch == 100)  {
-                map.put("line_no", map.getOrDefault("line_no", 0.0) + 1);
-            }
-            curJson.put("line_no_maxMatch", line_no_maxMatch);
-
-            double line_with_maxMatch = getMaxMatchInJSONArray(curJson.getJSONArray("line_with_SlicingContext_answer"), resolution); // line_with_SlicingContext_answer  line_withContext_answer  line_with_BM25Context_answer
-            if(line_with_maxMatch == 100)  {
-                map.put("line_withSlicing", map.getOrDefault("line_withSlicing", 0.0) + 1);
-            }
-            curJson.put("line_with_maxMatch", line_with_maxMatch);
-
+        String lineNo = "line_noContext_answer";
+        String lineWith = "line_with_SlicingContext_answer"; // line_with_SlicingContext_answer  line_withContext_answer  line_with_BM25Context_answer
+        //Max match rates are written to sidecar columns, the result file is not rewritten.
+        try (MetricColumn.Writer columns = MetricColumn.writer(jsonDirectory + jsonName, "line_no_maxMatch", "line_with_maxMatch")) {
+            Map<String, Double> result = new AnswerEvaluator(lineNo, lineWith)
+                    .metrics(AnswerEvaluator.Metric.PERFECT, AnswerEvaluator.Metric.SHARE)
+                    .listener((index, curJson, values) -> {
+                        putColumn(columns, "line_no_maxMatch", curJson, index, values.get(lineNo + "_maxMatch"));
+                        putColumn(columns, "line_with_maxMatch", curJson, index, values.get(lineWith + "_maxMatch"));
+                    })
+                    .evaluate(jsonDirectory + jsonName);
+            columns.commit();
+            map.put("line_no", result.get(lineNo + "_perfect"));
+            map.put("line_withSlicing", result.get(lineWith + "_perfect"));
             //Count line share
-            if (line_no_maxMatch == 100 && line_with_maxMatch == 100) map.put("line_share", map.getOrDefault("line_share", 0.0) + 1);
-
-//            double token_no_maxMatch = getMaxMatchInJSONArray(curJson.getJSONArray("token_noContext_answer"), resolution);
-//            if(token_no_maxMatch == 100) {
-//                map.put("token_no", map.getOrDefault("token_no", 0.0) + 1);
-//            }
-//            curJson.put("token_no_maxMatch", token_no_maxMatch);
-//
-//            double token_with_maxMatch = getMaxMatchInJSONArray(curJson.getJSONArray("token_with_BM25Context_answer"), resolution); // token_with_SlicingContext_answer token_withContext_answer  token_with_BM25Context_answer
-//            if(token_with_maxMatch == 100) {
-//                map.put("token_withSlicing", map.getOrDefault("token_withSlicing", 0.0) + 1);
-//            }
-//            curJson.put("token_with_maxMatch", token_with_maxMatch);
-            //Count token share
-//            if (token_no_maxMatch == 100 && token_with_maxMatch == 100) map.put("token_share", map.getOrDefault("token_share", 0.0) + 1);
-//
-//            if (token_no_maxMatch == 100 && token_with_maxMatch == 100 && line_no_maxMatch == 100 && line_with_maxMatch == 100) map.put("all_share", map.getOrDefault("all_share", 0.0) + 1);
-//            if (token_no_maxMatch == 100 || token_with_maxMatch == 100 || line_no_maxMatch == 100 || line_with_maxMatch == 100) map.put("all", map.getOrDefault("all", 0.0) + 1);
-//            if ((token_no_maxMatch == 100 || token_with_maxMatch == 100) && (line_no_maxMatch == 100 || line_with_maxMatch == 100)) map.put("left_right", map.getOrDefault("left_right", 0.0) + 1);
-            count1 += line_no_maxMatch; count2 += line_with_maxMatch;
-//            count3 += token_no_maxMatch; count4 += token_with_maxMatch;
+            map.put("line_share", result.get("share"));
         }
-//        DecimalFormat decimalFormat = new DecimalFormat("#0.0000");
-//        map.put("line_noScore", Double.valueOf(decimalFormat.format(count1 / jsonArray.length())));
-//        map.put("line_withScore", Double.valueOf(decimalFormat.format(count2 / jsonArray.length())));
-//        map.put("token_noScore", Double.valueOf(decimalFormat.format(count3 / jsonArray.length())));
-//        map.put("token_withScore", Double.valueOf(decimalFormat.format(count4 / jsonArray.length())));
-        //Rewrite in file.
-        DzyUtils.stringToBuildFile(jsonDirectory + jsonName, jsonArray.toString());
         return map;
     }
 
+    /**
+     * @param index 0-based index of the record (AnswerEvaluator.RecordListener)
+     */
+    private void putColumn(MetricColumn.Writer columns, String name, JSONObject curJson, int index, Double value){
+        if (value != null) columns.put(name, MetricColumn.id(curJson, index + 1), value);
+    }
+
+    public Map<String, Double> countChatGPTMatchRateShare(String jsonDirectory, String jsonName, String jsonName1) throws Exception {
+        return countChatGPTMatchRateShare(jsonDirectory, jsonName, jsonName1, ParallelCollector.defaultWorkers());
+    }
+
     /**
      * 计算 无上下文 和 切片上下文共享的个数
-     * @param jsonDirectory
-     * @param jsonName
-     * @return
-     * @throws IOException
-     * @throws JSONException
+     * <p>
+     * Both answer files are read side by side in one pass, conflicts are scored in parallel and counted in file order.
+     * @param jsonName answers without context (line_noContext_answer, token_noContext_answer)
+     * @param jsonName1 answers with slicing context (line_withpresuf_answer, token_withpresuf_answer) and the resolutions
      */
-    public Map<String, Double> countChatGPTMatchRateShare(String jsonDirectory, String jsonName, String jsonName1) throws IOException, JSONException {
+    public Map<String, Double> countChatGPTMatchRateShare(String jsonDirectory, String jsonName, String jsonName1, int workers) throws Exception {
         logger.info("Get Match Rate Of ChatGPT Answer: {}", jsonName);
         LinkedHashMap<String, Double> map = new LinkedHashMap<>();
         map.put("line_no",0.0); map.put("line_withSlicing", 0.0); map.put("line_share", 0.0); map.put("token_no", 0.0); map.put("token_withSlicing", 0.0); map.put("token_share", 0.0);
 
+        // 插入 sciling (both files are read side by side)
+        try (ConflictRecordReader reader1 = ConflictRecordReader.open(jsonDirectory + jsonName1, "res_region", "res_region_small", "line_withpresuf_answer", "token_withpresuf_answer");
+             ConflictRecordReader reader = ConflictRecordReader.open(jsonDirectory + jsonName, "line_noContext_answer", "token_noContext_answer")) {
+            Iterator<JSONObject> iterator = reader.iterator();
+            Iterable<JSONObject[]> pairs = () -> new Iterator<JSONObject[]>() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
 
-        // 插入 sciling
-        File file1 = new File(jsonDirectory + jsonName1);
-        String content1 = FileUtils.readFileToString(file1, "UTF-8");
-        JSONArray jsonArray1 = new JSONArray(content1);
-
-        File file = new File(jsonDirectory + jsonName);
-        String content = FileUtils.readFileToString(file, "UTF-8");
-        JSONArray jsonArray = new JSONArray(content);
-        double count1 = 0; double count2 = 0; double count3 = 0; double count4 = 0;
-        for (int i = 0; i < jsonArray.length(); i++){
-            //插入slicing
-            JSONObject curJson1 = jsonArray1.getJSONObject(i);
-
-            JSONObject curJson = jsonArray.getJSONObject(i);
-            String resolution2 = curJson1.getString("res_region");
-            String resolution = curJson1.getString("res_region_small");
-
-            double line_with_maxMatch = getMaxMatchInJSONArray(curJson1.getJSONArray("line_withpresuf_answer"), resolution);
-            double line_with_maxMatch2 = getMaxMatchInJSONArray(curJson1.getJSONArray("line_withpresuf_answer"), resolution2);
-            line_with_maxMatch = Math.max(line_with_maxMatch, line_with_maxMatch2);
-            double token_with_maxMatch = getMaxMatchInJSONArray(curJson1.getJSONArray("token_withpresuf_answer"), resolution);
-            double token_with_maxMatch2 = getMaxMatchInJSONArray(curJson1.getJSONArray("token_withpresuf_answer"), resolution2);
-            token_with_maxMatch = Math.max(token_with_maxMatch, token_with_maxMatch2);
-
-
-
-            double line_no_maxMatch = getMaxMatchInJSONArray(curJson.getJSONArray("line_noContext_answer"), resolution);
-            if(line_no_maxMatch == 100)  {
-                map.put("line_no", map.getOrDefault("line_no", 0.0) + 1);
-            }
-            curJson.put("line_no_maxMatch", line_no_maxMatch);
-
-//            double line_with_maxMatch = getMaxMatchInJSONArray(curJson1.getJSONArray("line_withpresuf_answer"), resolution); // line_with_SlicingContext_answer  line_withContext_answer  line_with_BM25Context_answer
-            if(line_with_maxMatch == 100)  {
-                map.put("line_withSlicing", map.getOrDefault("line_withSlicing", 0.0) + 1);
-            }
-            curJson.put("line_with_maxMatch", line_with_maxMatch);
-            //Count line share
-            if (line_no_maxMatch == 100 && line_with_maxMatch == 100) map.put("line_share", map.getOrDefault("line_share", 0.0) + 1);
-
-            double token_no_maxMatch = getMaxMatchInJSONArray(curJson.getJSONArray("token_noContext_answer"), resolution);
-            if(token_no_maxMatch == 100) {
-                map.put("token_no", map.getOrDefault("token_no", 0.0) + 1);
-            }
-            curJson.put("token_no_maxMatch", token_no_maxMatch);
-
-//            double token_with_maxMatch = getMaxMatchInJSONArray(curJson1.getJSONArray("token_withpresuf_answer"), resolution); // token_with_SlicingContext_answer token_withContext_answer  token_with_BM25Context_answer
-            if(token_with_maxMatch == 100) {
-                map.put("token_withSlicing", map.getOrDefault("token_withSlicing", 0.0) + 1);
-            }
-            curJson.put("token_with_maxMatch", token_with_maxMatch);
-            //Count token share
-            if (token_no_maxMatch == 100 && token_with_maxMatch == 100) map.put("token_share", map.getOrDefault("token_share", 0.0) + 1);
-            count1 += line_no_maxMatch; count2 += line_with_maxMatch; count3 += token_no_maxMatch; count4 += token_with_maxMatch;
+                @Override
+                public JSONObject[] next() {
+                    JSONObject curJson = iterator.next();
+                    JSONObject curJson1 = reader1.next();
+                    if (curJson1 == null) throw new JSONException(jsonName1 + " has less conflicts than " + jsonName);
+                    return new JSONObject[]{curJson, curJson1};
+                }
+            };
+            ParallelCollector.mapOrdered(pairs, workers, pair -> {
+                //插入slicing: with context answers count the better one of res_region_small / res_region
+                String resolution = DzyUtils.removeWhitespace(pair[1].getString("res_region_small"));
+                String resolution2 = DzyUtils.removeWhitespace(pair[1].getString("res_region"));
+                return new double[]{
+                        getMaxMatchInJSONArray(pair[0].getJSONArray("line_noContext_answer"), resolution),
+                        getMaxMatchInJSONArray(pair[1].getJSONArray("line_withpresuf_answer"), resolution, resolution2),
+                        getMaxMatchInJSONArray(pair[0].getJSONArray("token_noContext_answer"), resolution),
+                        getMaxMatchInJSONArray(pair[1].getJSONArray("token_withpresuf_answer"), resolution, resolution2)};
+            }, maxMatch -> {
+                if (maxMatch[0] == 100) map.merge("line_no", 1.0, Double::sum);
+                if (maxMatch[1] == 100) map.merge("line_withSlicing", 1.0, Double::sum);
+                //Count line share
+                if (maxMatch[0] == 100 && maxMatch[1] == 100) map.merge("line_share", 1.0, Double::sum);
+                if (maxMatch[2] == 100) map.merge("token_no", 1.0, Double::sum);
+                if (maxMatch[3] == 100) map.merge("token_withSlicing", 1.0, Double::sum);
+                //Count token share
+                if (maxMatch[2] == 100 && maxMatch[3] == 100) map.merge("token_share", 1.0, Double::sum);
+            });
         }
-//        DecimalFormat decimalFormat = new DecimalFormat("#0.0000");
-//        map.put("line_noScore", Double.valueOf(decimalFormat.format(count1 / jsonArray.length())));
-//        map.put("line_withScore", Double.valueOf(decimalFormat.format(count2 / jsonArray.length())));
-//        map.put("token_noScore", Double.valueOf(decimalFormat.format(count3 / jsonArray.length())));
-//        map.put("token_withScore", Double.valueOf(decimalFormat.format(count4 / jsonArray.length())));
-        //Rewrite in file.
-//        DzyUtils.stringToBuildFile(jsonDirectory + jsonName, jsonArray.toString());
         return map;
     }
 
-    public Map<String, Double> countChatGPTMatchEveryType(String jsonDirectory, String jsonName) throws IOException, JSONException {
+    public Map<String, Double> countChatGPTMatchEveryType(String jsonDirectory, String jsonName) throws Exception {
         logger.info("Get Every Type Match Rate Of ChatGPT Answer: {}", jsonName);
-        LinkedHashMap<String, Double> map = new LinkedHashMap<>();
-
-        File file = new File(jsonDirectory + jsonName);
-        String content = FileUtils.readFileToString(file, "UTF-8");
-        JSONArray jsonArray = new JSONArray(content);
-
-        for (int i = 0; i < jsonArray.length(); i++){
-            JSONObject curJson = jsonArray.getJSONObject(i);
-            String resolution = curJson.getString("res_region");
+        String field = "line_noContext_answer"; // line_with_SlicingContext_answer  line_withContext_answer  line_with_BM25Context_answer
+        Map<String, Double> result = new AnswerEvaluator(field)
+                .metrics(AnswerEvaluator.Metric.LABEL)
+                .evaluate(jsonDirectory + jsonName);
 
-            double line_with_maxMatch = getMaxMatchInJSONArray(curJson.getJSONArray("line_noContext_answer"), resolution); // line_with_SlicingContext_answer  line_withContext_answer  line_with_BM25Context_answer
-            if(line_with_maxMatch == 100)  {
-                map.put(curJson.getString("res_label"), map.getOrDefault(curJson.getString("res_label"), 0.0) + 1);
-            }
-            curJson.put("line_with_maxMatch", line_with_maxMatch);
+        LinkedHashMap<String, Double> map = new LinkedHashMap<>();
+        String prefix = field + "_perfect_";
+        for (Map.Entry<String, Double> entry : result.entrySet()) {
+            if (entry.getKey().startsWith(prefix)) map.put(entry.getKey().substring(prefix.length()), entry.getValue());
         }
-
         return map;
     }
 
 
-    public Map<String, Double> countChatGPTBleu4(String jsonDirectory, String jsonName) throws IOException, JSONException {
+    public Map<String, Double> countChatGPTBleu4(String jsonDirectory, String jsonName) throws Exception {
         logger.info("Get Bleu4-Score Of ChatGPT Answer: {}", jsonName);
-        LinkedHashMap<String, Double> map = new LinkedHashMap<>();
-        map.put("line_no",0.0); map.put("line_withBM25", 0.0); map.put("token_no", 0.0); map.put("token_withBM25", 0.0);
-
-        File file = new File(jsonDirectory + jsonName);
-        String content = FileUtils.readFileToString(file, "UTF-8");
-        JSONArray jsonArray = new JSONArray(content);
+        //Mean BLEU-4 of the first 3 answers, the better one of res_region / res_region_small
+        Map<String, Double> result = new AnswerEvaluator("line_withpresuf_answer", "token_withpresuf_answer")
+                .references("res_region", "res_region_small")
+                .metrics(AnswerEvaluator.Metric.BLEU)
+                .evaluate(jsonDirectory + jsonName);
 
-        for (int i = 0; i < jsonArray.length(); i++){
-            System.out.println("---------------------------------------------------------" + i);
-            JSONObject curJson = jsonArray.getJSONObject(i);
-            String resolution = curJson.getString("res_region");
-            String resolution2 = curJson.getString("res_region_small");
-
-            double line_with_maxMatch = getAllBleuInJSONArray(curJson.getJSONArray("line_withpresuf_answer"), resolution);
-            double line_with_maxMatch2 = getAllBleuInJSONArray(curJson.getJSONArray("line_withpresuf_answer"), resolution2);
-            line_with_maxMatch = Math.max(line_with_maxMatch, line_with_maxMatch2);
-            double token_with_maxMatch = getAllBleuInJSONArray(curJson.getJSONArray("token_withpresuf_answer"), resolution);
-            double token_with_maxMatch2 = getAllBleuInJSONArray(curJson.getJSONArray("token_withpresuf_answer"), resolution2);
-            token_with_maxMatch = Math.max(token_with_maxMatch, token_with_maxMatch2);
-
-//            double line_no_maxMatch = getAllBleuInJSONArray(curJson.getJSONArray("line_noContext_answer"), resolution);
-//            map.put("line_no", map.getOrDefault("line_no", 0.0) + line_no_maxMatch);
+        LinkedHashMap<String, Double> map = new LinkedHashMap<>();
+        map.put("line_withBM25", result.get("line_withpresuf_answer_bleu"));
+        map.put("token_withBM25", result.get("token_withpresuf_answer_bleu"));
+        //Corpus-level BLEU-4 of the first 3 answers, res_region and res_region_small are both references
+        map.put("line_withBM25_corpus", result.get("line_withpresuf_answer_bleu_corpus"));
+        map.put("token_withBM25_corpus", result.get("token_withpresuf_answer_bleu_corpus"));
+        return map;
+    }
 
-//            double line_with_maxMatch = getAllBleuInJSONArray(curJson.getJSONArray("line_withpresuf_answer"), resolution); // line_with_SlicingContext_answer   line_with_BM25Context_answer  line_withContext_answer
-            map.put("line_withBM25", map.getOrDefault("line_withBM25", 0.0) + line_with_maxMatch);
+    public Map<String, Double> countChatGPTCodeBleu(String jsonDirectory, String jsonName) throws Exception {
+        return countChatGPTCodeBleu(jsonDirectory, jsonName, ParallelCollector.defaultWorkers());
+    }
 
-//            double token_no_maxMatch = getAllBleuInJSONArray(curJson.getJSONArray("token_noContext_answer"), resolution);
-//            map.put("token_no", map.getOrDefault("token_no", 0.0) + token_no_maxMatch);
+    /**
+     * Corpus-level CodeBLEU of the first 3 answers in one pass over the answer file, conflicts are scored in parallel.
+     * Both resolutions of a conflict are parsed once, every answer is scored against the better one of them.
+     */
+    public Map<String, Double> countChatGPTCodeBleu(String jsonDirectory, String jsonName, int workers) throws Exception {
+        logger.info("Get CodeBLEU Of ChatGPT Answer: {}", jsonName);
+        CodeBleu.Score lineScore = new CodeBleu.Score();
+        CodeBleu.Score tokenScore = new CodeBleu.Score();
+
+        try (ConflictRecordReader reader = ConflictRecordReader.open(jsonDirectory + jsonName, "res_region", "res_region_small", "line_withpresuf_answer", "token_withpresuf_answer")) {
+            ParallelCollector.mapOrdered(reader, workers, curJson -> {
+                CodeBleu.Code reference = CodeBleu.code(curJson.getString("res_region"));
+                CodeBleu.Code reference2 = CodeBleu.code(curJson.getString("res_region_small"));
+                return new CodeBleu.Score[]{
+                        getCodeBleuInJSONArray(curJson.getJSONArray("line_withpresuf_answer"), reference, reference2),
+                        getCodeBleuInJSONArray(curJson.getJSONArray("token_withpresuf_answer"), reference, reference2)};
+            }, scores -> {
+                lineScore.add(scores[0]);
+                tokenScore.add(scores[1]);
+            });
+        }
 
-//            double token_with_maxMatch = getAllBleuInJSONArray(curJson.getJSONArray("token_withpresuf_answer"), resolution); // token_with_SlicingContext_answer   token_with_BM25Context_answer  token_withContext_answer
-            map.put("token_withBM25", map.getOrDefault("token_withBM25", 0.0) + token_with_maxMatch);
+        LinkedHashMap<String, Double> map = new LinkedHashMap<>();
+        putCodeBleu(map, "line_withBM25", lineScore);
+        putCodeBleu(map, "token_withBM25", tokenScore);
+        return map;
+    }
 
+    private CodeBleu.Score getCodeBleuInJSONArray(JSONArray answers, CodeBleu.Code reference, CodeBleu.Code reference2){
+        CodeBleu.Score sumScore = new CodeBleu.Score();
+        for (int k = 0; k < Math.min(TOP_K, answers.length()); k++) { // 只遍历前3个答案的效果
+            CodeBleu.Code answer = CodeBleu.code(answers.optString(k, ""));
+            CodeBleu.Score score = CodeBleu.score(answer, reference);
+            CodeBleu.Score score2 = CodeBleu.score(answer, reference2);
+            sumScore.add(score.codeBleu() >= score2.codeBleu() ? score : score2);
         }
-        map.put("line_no", map.get("line_no") / jsonArray.length());
-        map.put("line_withBM25", map.get("line_withBM25") / jsonArray.length());
-        map.put("token_no", map.get("token_no") / jsonArray.length());
-        map.put("token_withBM25", map.get("token_withBM25") / jsonArray.length());
+        return sumScore;
+    }
 
-        return map;
+    private void putCodeBleu(Map<String, Double> map, String name, CodeBleu.Score score){
+        map.put(name + "_codebleu", score.codeBleu());
+        map.put(name + "_ngram", score.ngram());
+        map.put(name + "_weighted_ngram", score.weightedNgram());
+        map.put(name + "_syntax", score.syntax());
+        map.put(name + "_dataflow", score.dataFlow());
     }
 
-    public Map<String, Double> countChatGPTMatchRatePreSuf(String jsonDirectory, String jsonName) throws IOException, JSONException {
+    public Map<String, Double> countChatGPTMatchRatePreSuf(String jsonDirectory, String jsonName) throws Exception {
         logger.info("Get Match Rate Of ChatGPT Answer: {}", jsonName);
         LinkedHashMap<String, Double> map = new LinkedHashMap<>();
         map.put("line_with", 0.0); map.put("token_with", 0.0);
 
-        File file = new File(jsonDirectory + jsonName);
-        String content = FileUtils.readFileToString(file, "UTF-8");
-        JSONArray jsonArray = new JSONArray(content);
-        for (int i = 0; i < jsonArray.length(); i++){
-            JSONObject curJson = jsonArray.getJSONObject(i);
-            String resolution = curJson.getString("res_region");
-            String resolution2 = curJson.getString("res_region_small");
-
-            double line_with_maxMatch = getMaxMatchInJSONArray(curJson.getJSONArray("line_withpresuf_answer"), resolution);
-            double line_with_maxMatch2 = getMaxMatchInJSONArray(curJson.getJSONArray("line_withpresuf_answer"), resolution2);
-            line_with_maxMatch = Math.max(line_with_maxMatch, line_with_maxMatch2);
-
-            if(line_with_maxMatch == 100)  {
-                map.put("line_with", map.getOrDefault("line_with", 0.0) + 1);
-            }
-            curJson.put("line_withPS_maxMatch", line_with_maxMatch);
-
-            double token_with_maxMatch = getMaxMatchInJSONArray(curJson.getJSONArray("token_withpresuf_answer"), resolution);
-            double token_with_maxMatch2 = getMaxMatchInJSONArray(curJson.getJSONArray("token_withpresuf_answer"), resolution2);
-            token_with_maxMatch = Math.max(token_with_maxMatch, token_with_maxMatch2);
-
-            if(token_with_maxMatch == 100) {
-                map.put("token_with", map.getOrDefault("token_with", 0.0) + 1);
-            }
-            curJson.put("token_withPS_maxMatch", token_with_maxMatch);
-
+        String lineWith = "line_withpresuf_answer";
+        String tokenWith = "token_withpresuf_answer";
+        //Max match rates (the better one of res_region / res_region_small) are written to sidecar columns.
+        try (MetricColumn.Writer columns = MetricColumn.writer(jsonDirectory + jsonName, "line_withPS_maxMatch", "token_withPS_maxMatch")) {
+            Map<String, Double> result = new AnswerEvaluator(lineWith, tokenWith)
+                    .references("res_region", "res_region_small")
+                    .metrics(AnswerEvaluator.Metric.PERFECT)
+                    .listener((index, curJson, values) -> {
+                        putColumn(columns, "line_withPS_maxMatch", curJson, index, values.get(lineWith + "_maxMatch"));
+                        putColumn(columns, "token_withPS_maxMatch", curJson, index, values.get(tokenWith + "_maxMatch"));
+                    })
+                    .evaluate(jsonDirectory + jsonName);
+            columns.commit();
+            map.put("line_with", result.get(lineWith + "_perfect"));
+            map.put("token_with", result.get(tokenWith + "_perfect"));
         }
-        //Rewrite in file.
-        DzyUtils.stringToBuildFile(jsonDirectory + jsonName, jsonArray.toString());
         return map;
     }
 
-    public Map<String, Integer> countChoiceMatchRate(String jsonDirectory, String jsonName) throws IOException, JSONException {
+    public Map<String, Integer> countChoiceMatchRate(String jsonDirectory, String jsonName) throws Exception {
+        return countChoiceMatchRate(jsonDirectory, jsonName, ParallelCollector.defaultWorkers());
+    }
 
+    /**
+     * Match rates of the choose_x answers in one pass, conflicts are scored in parallel and counted in file order
+     */
+    public Map<String, Integer> countChoiceMatchRate(String jsonDirectory, String jsonName, int workers) throws Exception {
+        String[] choices = {"choose_a", "choose_o", "choose_b", "choose_ab", "choose_ba"};
         LinkedHashMap<String, Integer> map = new LinkedHashMap<>();
-        map.put("choose_a",0); map.put("choose_o", 0); map.put("choose_b", 0); map.put("choose_ab", 0); map.put("choose_ba", 0);
-
-        File file = new File(jsonDirectory + jsonName);
-        String content = FileUtils.readFileToString(file, "UTF-8");
-        JSONArray jsonArray = new JSONArray(content);
-        for (int i = 0; i < jsonArray.length(); i++){
-            JSONObject curJson = jsonArray.getJSONObject(i);
-            logger.info("Is Counting Numbers Of Conflict ID: {}", curJson.getInt("id"));
-
-            map.put("all", map.getOrDefault("all", 0) + 1);
-            String resolution = curJson.getString("res_region");
-
-            //2选1：读取数据并写入数据
-            double choose_a = DzyUtils.perfectMatchRate(curJson.getString("choose_a"), resolution);
-            if(choose_a == 100)  {
-                map.put("choose_a", map.getOrDefault("choose_a", 0) + 1);
-            }
-            curJson.put("choose_a_matchRate", choose_a);
-
-            double choose_o = DzyUtils.perfectMatchRate(curJson.getString("choose_o"), resolution);
-            if(choose_o == 100)  {
-                map.put("choose_o", map.getOrDefault("choose_o", 0) + 1);
-            }
-            curJson.put("choose_o_matchRate", choose_o);
-
-            double choose_b = DzyUtils.perfectMatchRate(curJson.getString("choose_b"), resolution);
-            if(choose_b == 100)  {
-                map.put("choose_b", map.getOrDefault("choose_b", 0) + 1);
-            }
-            curJson.put("choose_b_matchRate", choose_b);
-
-            double choose_ab = DzyUtils.perfectMatchRate(curJson.getString("choose_ab"), resolution);
-            if(choose_ab == 100)  {
-                map.put("choose_ab", map.getOrDefault("choose_ab", 0) + 1);
-            }
-            curJson.put("choose_ab_matchRate", choose_ab);
-
-            double choose_ba = DzyUtils.perfectMatchRate(curJson.getString("choose_ba"), resolution);
-            if(choose_ba == 100)  {
-                map.put("choose_ba", map.getOrDefault("choose_ba", 0) + 1);
-            }
-            curJson.put("choose_ba_matchRate", choose_ba);
-
-            //2选1：读取数据
-//            Double choose_a = curJson.getDouble("choose_a_matchRate");
-//            if(choose_a == 100)  {
-//                map.put("choose_a", map.getOrDefault("choose_a", 0) + 1);
-//            }
-////            Double choose_o = curJson.getDouble("choose_o_matchRate");
-////            if(choose_o == 100)  {
-////                map.put("choose_o", map.getOrDefault("choose_o", 0) + 1);
-////            }
-//            Double choose_b = curJson.getDouble("choose_b_matchRate");
-//            if(choose_b == 100)  {
-//                map.put("choose_b", map.getOrDefault("choose_b", 0) + 1);
-//            }
-//            Double choose_ab = curJson.getDouble("choose_ab_matchRate");
-//            if(choose_ab == 100)  {
-//                map.put("choose_ab", map.getOrDefault("choose_ab", 0) + 1);
-//            }
-//            Double choose_ba = curJson.getDouble("choose_ba_matchRate");
-//            if(choose_ba == 100)  {
-//                map.put("choose_ba", map.getOrDefault("choose_ba", 0) + 1);
-//            }
-
-            if (choose_a == 100 ||  choose_b == 100 || choose_o == 100 || choose_ab == 100 || choose_ba == 100) map.put("perfect_all", map.getOrDefault("perfect_all", 0) + 1);
-
+        for (String choice : choices) map.put(choice, 0);
+
+        //Match rates are written to sidecar columns, the result file is not rewritten.
+        try (MetricColumn.Writer columns = MetricColumn.writer(jsonDirectory + jsonName, "choose_a_matchRate", "choose_o_matchRate", "choose_b_matchRate", "choose_ab_matchRate", "choose_ba_matchRate");
+             ConflictRecordReader reader = ConflictRecordReader.open(jsonDirectory + jsonName, "id", "res_region", "choose_a", "choose_o", "choose_b", "choose_ab", "choose_ba")) {
+            int[] index = {0};
+            ParallelCollector.mapOrdered(reader, workers, curJson -> {
+                //2选1：每个选择与 resolution 的匹配率
+                String resolution = DzyUtils.removeWhitespace(curJson.getString("res_region"));
+                double[] matchRates = new double[choices.length];
+                for (int i = 0; i < choices.length; i++) matchRates[i] = DzyUtils.perfectMatchRate(curJson.getString(choices[i]), resolution);
+                return new AbstractMap.SimpleImmutableEntry<>(curJson, matchRates);
+            }, result -> {
+                int id = MetricColumn.id(result.getKey(), ++index[0]);
+                logger.debug("Is Counting Numbers Of Conflict ID: {}", id);
+                map.put("all", map.getOrDefault("all", 0) + 1);
+                boolean perfect = false;
+                for (int i = 0; i < choices.length; i++) {
+                    double matchRate = result.getValue()[i];
+                    if (matchRate == 100) {
+                        map.put(choices[i], map.get(choices[i]) + 1);
+                        perfect = true;
+                    }
+                    columns.put(choices[i] + "_matchRate", id, matchRate);
+                }
+                if (perfect) map.put("perfect_all", map.getOrDefault("perfect_all", 0) + 1);
+            });
+            columns.commit();
         }
-        //Rewrite in file.
-        DzyUtils.stringToBuildFile(jsonDirectory + jsonName, jsonArray.toString());
         return map;
     }
 
@@ -733,6 +702,7 @@ public class DatasetCollector {
 
         //Generate Json File.
 //        collector.allTuplesToTokenDiff(JavaDirectory, "javaContextVersion2.json");//maxLine <= 5
+//        collector.allTuplesToTokenDiff(JavaDirectory, "javaContextVersion2.dzc");//columnar (ColumnarRecordWriter)
 //        collector.allTuplesToTokenDiff("G:\\now\\2024merge\\ChatGPTResearch\\exampleData\\acceptA\\", "acceptA.json");
 
 //        System.out.println(DzyUtils.perfectMatchRate("\nSample sample = start();\n", "        Sample sample = start();\n"));
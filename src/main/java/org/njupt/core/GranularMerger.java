@@ -0,0 +1,231 @@
+package org.njupt.core;
+
+import org.njupt.util.CodeTokens;
+import org.njupt.util.Diff3Merger;
+import org.njupt.util.MergeHunks;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Multi-granularity diff3 of one conflict: LINE -> AST -> TOKEN -> CHARACTER, stop at the first clean merge
+ * <p>
+ * LINE merges the lines of a / o / b (leading / trailing spacing ignored), AST merges imports / class members
+ * semi-structurally (see AstMerger), TOKEN is the token-level merge of ConflictStore, CHARACTER merges again only the
+ * conflict hunks of the token-level merge, character by character, when every hunk is small enough (see
+ * setCharacterLimit). Tried / succeeded conflicts and time of every granularity are counted for all threads since the
+ * last statistics() call.
+ */
+public class GranularMerger {
+
+    public static final Logger logger = LoggerFactory.getLogger(GranularMerger.class);
+
+    public enum Granularity { LINE, AST, TOKEN, CHARACTER }
+
+    private final ConflictStore store;
+
+    private EnumSet<Granularity> granularities = EnumSet.allOf(Granularity.class);
+
+    // chars of the largest side of a token-level conflict hunk merged at character level
+    private int characterLimit = 2000;
+
+    private final AtomicLong[] tried = counters();
+
+    private final AtomicLong[] succeeded = counters();
+
+    private final AtomicLong[] nanos = counters();
+
+    private final AtomicLong characterSkipped = new AtomicLong();
+
+    /**
+     * Merge result of one conflict
+     */
+    public static class Result {
+
+        private final Granularity granularity;
+
+        private final String text;
+
+        private final ConflictStore.Merge tokenMerge;
+
+        private Result(Granularity granularity, String text, ConflictStore.Merge tokenMerge) {
+            this.granularity = granularity;
+            this.text = text;
+            this.tokenMerge = tokenMerge;
+        }
+
+        /**
+         * First granularity that merged cleanly, null if none did
+         */
+        public Granularity granularity() {
+            return granularity;
+        }
+
+        public boolean isClean() {
+            return granularity != null;
+        }
+
+        /**
+         * Clean merge text, or the conflicts of the finest complete merge (token, or line if token is not tried)
+         */
+        public String text() {
+            return text;
+        }
+
+        /**
+         * Token-level merge, null if the conflict was resolved before (line / AST) or TOKEN is off
+         */
+        public ConflictStore.Merge tokenMerge() {
+            return tokenMerge;
+        }
+
+        /**
+         * Conflict tuples of the token-level merge, empty if there is none
+         */
+        public List<Map<String, String>> keyInformation() {
+            return tokenMerge == null ? Collections.emptyList() : tokenMerge.keyInformation();
+        }
+    }
+
+    public GranularMerger(ConflictStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Granularities to try, in LINE, AST, TOKEN, CHARACTER order (default all, TOKEN only is the old token-level merge)
+     */
+    public GranularMerger setGranularities(Granularity... granularities) {
+        if (granularities.length == 0) throw new IllegalArgumentException("No granularity");
+        this.granularities = EnumSet.copyOf(Arrays.asList(granularities));
+        return this;
+    }
+
+    /**
+     * Skip CHARACTER when a side of a token-level conflict hunk has more chars (Myers diff is O(N * D))
+     */
+    public GranularMerger setCharacterLimit(int characterLimit) {
+        this.characterLimit = characterLimit;
+        return this;
+    }
+
+    /**
+     * Merge one conflict
+     * @param nameA label of ours marker
+     * @param buffer reused buffer of the result text
+     */
+    public Result merge(String a, String o, String b, String nameA, String nameO, String nameB, StringBuilder buffer) {
+        //1.Line
+        String text = null;
+        if (granularities.contains(Granularity.LINE)) {
+            long start = System.nanoTime();
+            CodeTokens[] sides = CodeTokens.ofLines(a, o, b);
+            MergeHunks lines = Diff3Merger.mergeHunks(sides[0], sides[1], sides[2]);
+            buffer.setLength(0);
+            text = lines.render(buffer, nameA, nameO, nameB).toString();
+            count(Granularity.LINE, start, !lines.hasConflict());
+            if (!lines.hasConflict()) return new Result(Granularity.LINE, text, null);
+        }
+
+        //2.AST (imports / members only regions)
+        if (granularities.contains(Granularity.AST)) {
+            long start = System.nanoTime();
+            String merged = AstMerger.merge(a, o, b);
+            count(Granularity.AST, start, merged != null);
+            if (merged != null) return new Result(Granularity.AST, merged, null);
+        }
+        if (!granularities.contains(Granularity.TOKEN)) return new Result(null, text, null);
+
+        //3.Token
+        long start = System.nanoTime();
+        ConflictStore.Merge merge = store.merge(a, o, b);
+        buffer.setLength(0);
+        text = merge.render(buffer, nameA, nameO, nameB).toString();
+        count(Granularity.TOKEN, start, !merge.hunks().hasConflict());
+        if (!merge.hunks().hasConflict()) return new Result(Granularity.TOKEN, text, merge);
+        if (!granularities.contains(Granularity.CHARACTER)) return new Result(null, text, merge);
+
+        //4.Character, conflict hunks of the token-level merge only
+        MergeHunks hunks = merge.hunks();
+        if (!hunks.hasSource()) {
+            characterSkipped.incrementAndGet();
+            return new Result(null, text, merge);
+        }
+        start = System.nanoTime();
+        List<String[]> sides = new ArrayList<>(hunks.conflictCount());
+        for (MergeHunks.Hunk hunk : hunks.hunks()) {
+            if (!hunk.isConflict()) continue;
+            String[] side = new String[3];
+            for (int k = MergeHunks.A; k <= MergeHunks.B; k++) {
+                side[k] = hunks.render(new StringBuilder(), hunk, k).toString();
+                if (side[k].length() > characterLimit) {
+                    characterSkipped.incrementAndGet();
+                    return new Result(null, text, merge);
+                }
+            }
+            sides.add(side);
+        }
+        buffer.setLength(0);
+        boolean clean = true;
+        int conflict = 0;
+        for (MergeHunks.Hunk hunk : hunks.hunks()) {
+            if (!hunk.isConflict()) {
+                hunks.render(buffer, hunk, hunk.side());
+                continue;
+            }
+            //the spacing before the hunk once, otherwise a stable run of one side brings it inside a merged token
+            String[] side = sides.get(conflict++);
+            int[] from = new int[3];
+            for (int k = MergeHunks.A; k <= MergeHunks.B; k++) from[k] = leadingSpacing(side[k]);
+            //spacing of A, of B if A is only spacing
+            int lead = from[MergeHunks.A] < side[MergeHunks.A].length() || from[MergeHunks.B] == side[MergeHunks.B].length() ? MergeHunks.A : MergeHunks.B;
+            buffer.append(side[lead], 0, from[lead]);
+            for (int k = MergeHunks.A; k <= MergeHunks.B; k++) side[k] = side[k].substring(from[k]);
+            MergeHunks characters = Diff3Merger.mergeHunks(CodeTokens.ofCharacters(side[MergeHunks.A]),
+                    CodeTokens.ofCharacters(side[MergeHunks.O]), CodeTokens.ofCharacters(side[MergeHunks.B]));
+            if (characters.hasConflict()) {
+                clean = false;
+                break;
+            }
+            characters.render(buffer, null, null, null);
+        }
+        count(Granularity.CHARACTER, start, clean);
+        return clean ? new Result(Granularity.CHARACTER, buffer.toString(), merge) : new Result(null, text, merge);
+    }
+
+    private static int leadingSpacing(String text) {
+        int i = 0;
+        while (i < text.length() && Character.isWhitespace(text.charAt(i))) i++;
+        return i;
+    }
+
+    /**
+     * granularity_x_tried / succeed / ms for every granularity, granularity_character_skipped (too large or no offsets),
+     * since the last call (e.g. of one dataset)
+     */
+    public Map<String, Integer> statistics() {
+        Map<String, Integer> map = new LinkedHashMap<>();
+        for (Granularity granularity : Granularity.values()) {
+            String name = "granularity_" + granularity.name().toLowerCase(Locale.ROOT);
+            map.put(name + "_tried", (int) tried[granularity.ordinal()].getAndSet(0));
+            map.put(name + "_succeed", (int) succeeded[granularity.ordinal()].getAndSet(0));
+            map.put(name + "_ms", (int) (nanos[granularity.ordinal()].getAndSet(0) / 1_000_000));
+        }
+        map.put("granularity_character_skipped", (int) characterSkipped.getAndSet(0));
+        return map;
+    }
+
+    private void count(Granularity granularity, long start, boolean clean) {
+        nanos[granularity.ordinal()].addAndGet(System.nanoTime() - start);
+        tried[granularity.ordinal()].incrementAndGet();
+        if (clean) succeeded[granularity.ordinal()].incrementAndGet();
+    }
+
+    private static AtomicLong[] counters() {
+        AtomicLong[] counters = new AtomicLong[Granularity.values().length];
+        for (int i = 0; i < counters.length; i++) counters[i] = new AtomicLong();
+        return counters;
+    }
+
+}
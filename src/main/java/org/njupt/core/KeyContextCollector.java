@@ -1,27 +1,17 @@
 package org.njupt.core;
 
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.TextField;
-import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
-import org.apache.lucene.queryparser.classic.ParseException;
-import org.apache.lucene.queryparser.classic.QueryParser;
-import org.apache.lucene.search.IndexSearcher;
-import org.apache.lucene.search.Query;
-import org.apache.lucene.search.ScoreDoc;
-import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.search.similarities.BM25Similarity;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.ByteBuffersDirectory;
 import org.njupt.util.DzyUtils;
 
 import java.io.BufferedReader;
-import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
@@ -34,9 +24,19 @@ public class KeyContextCollector {
 
     public static final String BM25INDEX = "G:/now/2024merge/backup/BM25Index";
 
+    /**
+     * Create BM25 index of merged.java in memory (one index per file, the caller closes it)
+     */
     public static Directory createBM25(String javaFilePath, Analyzer analyzer) throws Exception {
-        // 1.创建磁盘索引、配置索引解析器、应用到索引写入器
-        Directory directory = FSDirectory.open(new File(BM25INDEX).toPath());
+        return createBM25(new ByteBuffersDirectory(), javaFilePath, analyzer);
+    }
+
+    /**
+     * Create BM25 index of merged.java in the given directory, e.g. FSDirectory.open(Paths.get(BM25INDEX)) to keep it on disk.
+     * With a CodeAnalyzer every line is lexed once, the tokens are both stored and indexed.
+     */
+    public static Directory createBM25(Directory directory, String javaFilePath, Analyzer analyzer) throws Exception {
+        // 1.配置索引解析器、应用到索引写入器
         IndexWriterConfig config = new IndexWriterConfig(analyzer);
         IndexWriter indexWriter = new IndexWriter(directory, config);
 
@@ -61,74 +61,44 @@ public class KeyContextCollector {
             if (key){
                 //System.out.println(lineContent);
                 //addDocument(indexWriter, lineCount++, lineContent);
-                addDocument(indexWriter, lineCount++, DzyUtils.newTokenizerToString(lineContent));//need to tokenize code
+                if (analyzer instanceof CodeAnalyzer) {
+                    addDocument(indexWriter, lineCount++, CodeAnalyzer.codeTokens(lineContent), (CodeAnalyzer) analyzer);
+                } else {
+                    addDocument(indexWriter, lineCount++, DzyUtils.newTokenizerToString(lineContent));//need to tokenize code
+                }
             }
         }
         // 3.数据流关闭
+        bufferedReader.close();
         indexWriter.close();
         return directory;
     }
 
-    public static List<Map<String, String>> useBM25(Directory directory, List<Map<String, String>> keyInfoTuples, int queryNumber, Analyzer analyzer) throws IOException, ParseException {
-        // 1.创建索引搜索器、设置模型为BM25算法
-        IndexReader indexReader = DirectoryReader.open(directory);
-        IndexSearcher indexSearcher = new IndexSearcher(indexReader);
-        BM25Similarity similarity = new BM25Similarity();
-        indexSearcher.setSimilarity(similarity);
-
-        // 2.创建查询解析器
-        QueryParser queryParser = new QueryParser("codeContent", analyzer);
-
-        // 3.执行查询
-        List<Map<String, String>> contextList = new ArrayList<>();
-        for (Map<String, String> tuple : keyInfoTuples){
-            Map<String, String> map = new HashMap<>();
-            map.put("a_keyContext", queryBM25(indexSearcher, queryParser, tuple.get("a_tokens"), queryNumber));
-            map.put("o_keyContext", queryBM25(indexSearcher, queryParser, tuple.get("o_tokens"), queryNumber));
-            map.put("b_keyContext", queryBM25(indexSearcher, queryParser, tuple.get("b_tokens"), queryNumber));
-            contextList.add(map);
+    /**
+     * Query key context with a new session (use BM25QuerySession directly to query many conflicts of one file)
+     */
+    public static List<Map<String, String>> useBM25(Directory directory, List<Map<String, String>> keyInfoTuples, int queryNumber, Analyzer analyzer) throws IOException {
+        try (BM25QuerySession session = new BM25QuerySession(directory, analyzer)) {
+            return session.queryAll(keyInfoTuples, queryNumber);
         }
-
-        // 4.关闭资源（directory在外面最后关闭）
-        indexReader.close();
-        return contextList;
     }
 
-    private static String queryBM25(IndexSearcher indexSearcher, QueryParser queryParser , String queryKeyCode, int queryNumber) throws IOException {
-//        System.out.println("QueryKeyCode: ------------------>\n" + queryKeyCode);
-        //如果queryKeyCode为空 直接返回其关键上下文信息也为空！
-        if (Objects.equals(queryKeyCode.replaceAll("\\s*",""), "")) return " ";
-
-        //对query中每一个token在两边加上("),这个符号，解决了Lucene查询语法的错误问题！
-        String[] queryArray = queryKeyCode.split(" ");
-        StringBuilder code = new StringBuilder();
-        for (String token : queryArray){
-            code.append("\"").append(token).append("\"");
-        }
-
-        Query query = null;
-        try {
-            query = queryParser.parse(code.toString());
-        } catch (Exception e) {
-            System.out.println("Query code is wrong:--------------->\n" + code);
-            return " ";
-        }
-        TopDocs topDocs = indexSearcher.search(query, queryNumber);
-
-        StringBuilder queryResult = new StringBuilder();
-        for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
-            Document document = indexSearcher.doc(scoreDoc.doc);
-            //这里其实还可以搞一个阈值！大于多少的我们认为是有用得！才会添加进去！
-            queryResult.append(document.get("codeContent"));
-//            System.out.println("lineId: " + document.get("lineId") + ", Score: " + scoreDoc.score + " codeContent: " + document.get("codeContent"));
-        }
-        return queryResult.toString();
+    private static void addDocument(IndexWriter indexWriter, int lineId, String codeContent) throws Exception {
+        Document document = new Document();
+        document.add(new TextField("lineId", String.valueOf(lineId), Field.Store.YES));
+        document.add(new TextField(BM25QuerySession.FIELD, codeContent, Field.Store.YES));
+        indexWriter.addDocument(document);
     }
 
-    private static void addDocument(IndexWriter indexWriter, int lineId, String codeContent) throws Exception {
+    private static void addDocument(IndexWriter indexWriter, int lineId, List<String> codeTokens, CodeAnalyzer analyzer) throws Exception {
+        StringBuilder codeContent = new StringBuilder();
+        for (String token : codeTokens) {
+            codeContent.append(token).append(" ");
+        }
         Document document = new Document();
         document.add(new TextField("lineId", String.valueOf(lineId), Field.Store.YES));
-        document.add(new TextField("codeContent", codeContent, Field.Store.YES));
+        document.add(new StoredField(BM25QuerySession.FIELD, codeContent.toString()));
+        document.add(new TextField(BM25QuerySession.FIELD, analyzer.tokenStream(codeTokens)));
         indexWriter.addDocument(document);
     }
 
@@ -139,7 +109,7 @@ public class KeyContextCollector {
 
         String mergedJava = "G:\\now\\2024merge\\MergeBERT_Data\\ChatGPTResearch\\exampleData\\acceptA\\100004_merged.java";
         //创建索引文件
-        Analyzer analyzer = new StandardAnalyzer();
+        Analyzer analyzer = new CodeAnalyzer();
         Directory directory = createBM25(mergedJava, analyzer);
         //使用索引查询
         System.out.println(useBM25(directory, keyInfo1, 1, analyzer));
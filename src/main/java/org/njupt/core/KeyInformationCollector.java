@@ -1,5 +1,8 @@
 package org.njupt.core;
 
+import org.njupt.util.Diff3Merger;
+import org.njupt.util.MergeHunks;
+
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
@@ -10,14 +13,14 @@ import java.util.Map;
 
 public class KeyInformationCollector {
 
-    //Those Diff marks are related to Merged file path !
-    private static final String StartDiffMark = "<<<<<<< G:\\now\\2024merge\\";
+    //Diff marks are matched by prefix, labels (merged file paths) may be anything
+    private static final String StartDiffMark = Diff3Merger.StartDiffMark;
 
-    private static final String MidDiffMark1 = "||||||| G:\\now\\2024merge\\";
+    private static final String MidDiffMark1 = Diff3Merger.MidDiffMark1;
 
-    private static final String MidDiffMark2 = "=======";
+    private static final String MidDiffMark2 = Diff3Merger.MidDiffMark2;
 
-    private static final String EndDiffMark = ">>>>>>> G:\\now\\2024merge\\";
+    private static final String EndDiffMark = Diff3Merger.EndDiffMark;
 
     /**
      * Extract Token Conflicts Block
@@ -46,7 +49,7 @@ public class KeyInformationCollector {
                     continue;
                 }
                 if (key){
-                    if (line.startsWith("=======") || line.startsWith("|||||||")) {
+                    if (line.startsWith(MidDiffMark2) || line.startsWith(MidDiffMark1)) {
                         conflictBlock.append("\n").append(line).append("\n");
                     }else {
                         conflictBlock.append(line).append(" ");
@@ -105,6 +108,65 @@ public class KeyInformationCollector {
         return tokenTuples;
     }
 
+    /**
+     * Extract Token-level Tuples (Key Information) from in-memory merged lines (see Diff3Merger)
+     * @param mergedLines lines of token-level merge result
+     * @return token-level tuples(Key Information)
+     */
+    public static List<Map<String, String>> extractTokenTuples(List<String> mergedLines) {
+        List<Map<String, String>> tokenTuples = new ArrayList<>();
+        Map<String, String> map = new HashMap<>();
+        StringBuilder content = new StringBuilder();
+
+        boolean key = false;
+        for (String line : mergedLines) {
+            if (line.startsWith(StartDiffMark)){
+                map = new HashMap<>();
+                content = new StringBuilder();
+                key = true;
+                continue;
+            }
+            if (line.startsWith(MidDiffMark1)){
+                map.put("a_tokens", content.toString().replace("NewLineDZY", "\n"));
+                content = new StringBuilder();
+                continue;
+            }
+            if (line.equals(MidDiffMark2)){
+                map.put("o_tokens", content.toString().replace("NewLineDZY", "\n"));
+                content = new StringBuilder();
+                continue;
+            }
+            if (line.startsWith(EndDiffMark)){
+                map.put("b_tokens", content.toString().replace("NewLineDZY", "\n"));
+                tokenTuples.add(map);
+                key = false;
+                continue;
+            }
+            if (key){
+                content.append(line).append(" ");
+            }
+        }
+        return tokenTuples;
+    }
+
+    /**
+     * Extract Token-level Tuples (Key Information) from the conflict hunks of a merge (no merged line is parsed)
+     * @param hunks result of Diff3Merger.mergeHunks
+     * @return token-level tuples(Key Information)
+     */
+    public static List<Map<String, String>> extractTokenTuples(MergeHunks hunks) {
+        List<Map<String, String>> tokenTuples = new ArrayList<>(hunks.conflictCount());
+        for (MergeHunks.Hunk hunk : hunks.hunks()) {
+            if (!hunk.isConflict()) continue;
+            Map<String, String> map = new HashMap<>();
+            map.put("a_tokens", hunks.text(hunk, MergeHunks.A));
+            map.put("o_tokens", hunks.text(hunk, MergeHunks.O));
+            map.put("b_tokens", hunks.text(hunk, MergeHunks.B));
+            tokenTuples.add(map);
+        }
+        return tokenTuples;
+    }
+
     public static void main(String[] args) throws IOException {
         System.out.println(extractTokenTuples("G:\\now\\2024merge\\ChatGPTResearch\\exampleData\\acceptA\\100004_4_merged.txt"));
         System.out.println("----------------------------------------------------------------------------------------------------------");
@@ -0,0 +1,111 @@
+package org.njupt.core;
+
+import java.util.function.Predicate;
+
+/**
+ * Cheap fit_merge decision on the raw a / o / b strings, before any tokenization
+ * <p>
+ * Lines are counted as "\n" in the raw text, the same as the "NewLineDZY" tokens of DzyUtils.newTokenizer except for
+ * line breaks inside block comments and text blocks. Predicates are combined with and() / or() / negate(), e.g.
+ * {@code MergeFilter.maxLineDiff(2).and(MergeFilter.maxLines(5))}.
+ */
+public class MergeFilter {
+
+    /**
+     * Merge every conflict
+     */
+    public static final Predicate<Sizes> ALL = sizes -> true;
+
+    private MergeFilter() {
+    }
+
+    /**
+     * Line and char counts of one conflict
+     */
+    public static class Sizes {
+
+        private final int lineA, lineO, lineB;
+
+        private final int charA, charO, charB;
+
+        private Sizes(String a, String o, String b) {
+            lineA = lines(a);
+            lineO = lines(o);
+            lineB = lines(b);
+            charA = a.length();
+            charO = o.length();
+            charB = b.length();
+        }
+
+        public int lineA() {
+            return lineA;
+        }
+
+        public int lineO() {
+            return lineO;
+        }
+
+        public int lineB() {
+            return lineB;
+        }
+
+        public int maxLine() {
+            return Math.max(Math.max(lineA, lineO), lineB);
+        }
+
+        public int minLine() {
+            return Math.min(Math.min(lineA, lineO), lineB);
+        }
+
+        /**
+         * Chars of the longest side
+         */
+        public int maxChar() {
+            return Math.max(Math.max(charA, charO), charB);
+        }
+
+        /**
+         * Chars of all sides
+         */
+        public int totalChar() {
+            return charA + charO + charB;
+        }
+
+        @Override
+        public String toString() {
+            return "lines " + lineA + "/" + lineO + "/" + lineB + ", chars " + charA + "/" + charO + "/" + charB;
+        }
+    }
+
+    public static Sizes sizes(String a, String o, String b) {
+        return new Sizes(a, o, b);
+    }
+
+    /**
+     * maxLine - minLine <= n (the old "maxLine - minLine > 2" no merge is maxLineDiff(2))
+     */
+    public static Predicate<Sizes> maxLineDiff(int n) {
+        return sizes -> sizes.maxLine() - sizes.minLine() <= n;
+    }
+
+    /**
+     * maxLine <= n (the old "maxLine > 5" no merge is maxLines(5))
+     */
+    public static Predicate<Sizes> maxLines(int n) {
+        return sizes -> sizes.maxLine() <= n;
+    }
+
+    /**
+     * Longest side has at most n chars
+     */
+    public static Predicate<Sizes> maxChars(int n) {
+        return sizes -> sizes.maxChar() <= n;
+    }
+
+    private static int lines(String text) {
+        int count = 0;
+        for (int i = text.indexOf('\n'); i >= 0; i = text.indexOf('\n', i + 1)) count++;
+        return count;
+    }
+
+}
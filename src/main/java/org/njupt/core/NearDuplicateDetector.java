@@ -0,0 +1,373 @@
+package org.njupt.core;
+
+import org.json.JSONObject;
+import org.njupt.util.ConflictRecordReader;
+import org.njupt.util.DzyUtils;
+import org.njupt.util.MetricColumn;
+import org.njupt.util.TokenVocabulary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.lang.model.SourceVersion;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntPredicate;
+
+/**
+ * Cluster near-duplicate conflicts of a result file with MinHash LSH
+ * <p>
+ * Every record is tokenized with DzyUtils.newTokenizer (so whitespace does not count, whitespace runs inside comments
+ * are collapsed), identifiers are replaced by one placeholder token (optional), and the token k-grams (shingles) of
+ * a / o / b are hashed into a MinHash signature on a worker thread. Signatures are cut into bands (chosen for the
+ * Jaccard threshold), records sharing a band bucket with the first record of the bucket are verified by the estimated
+ * Jaccard similarity and joined (union-find). The time is linear in the number of records.
+ * <p>
+ * The report is written as sidecar columns of the result file (see MetricColumn): dup_cluster is the smallest id of
+ * the cluster (equal to the own id for the representative), dup_size the size of the cluster. A record without "id" is
+ * keyed by its 1-based index in the file (see MetricColumn.id).
+ */
+public class NearDuplicateDetector {
+
+    public static final Logger logger = LoggerFactory.getLogger(NearDuplicateDetector.class);
+
+    public static final String CLUSTER_COLUMN = "dup_cluster";
+
+    public static final String SIZE_COLUMN = "dup_size";
+
+    // shingle value of every identifier
+    private static final int IDENTIFIER = "IdentifierDZY".hashCode();
+
+    private List<String> fields = Arrays.asList("a_contents", "o_contents", "b_contents");
+
+    private double threshold = 0.8;
+
+    private int permutations = 128;
+
+    private int shingleSize = 3;
+
+    private boolean normalizeIdentifiers = true;
+
+    private long seed = 1;
+
+    private int workers = ParallelCollector.defaultWorkers();
+
+    /**
+     * Content fields of a conflict (default a_contents, o_contents, b_contents)
+     */
+    public NearDuplicateDetector fields(String... fields) {
+        if (fields.length == 0) throw new IllegalArgumentException("No content field");
+        this.fields = Arrays.asList(fields);
+        return this;
+    }
+
+    /**
+     * Jaccard similarity of shingles for near duplicates (default 0.8)
+     */
+    public NearDuplicateDetector threshold(double threshold) {
+        if (threshold <= 0 || threshold > 1) throw new IllegalArgumentException("Threshold must be in (0, 1]");
+        this.threshold = threshold;
+        return this;
+    }
+
+    /**
+     * Number of MinHash functions (default 128)
+     */
+    public NearDuplicateDetector permutations(int permutations) {
+        if (permutations < 2) throw new IllegalArgumentException("At least 2 permutations");
+        this.permutations = permutations;
+        return this;
+    }
+
+    /**
+     * Tokens per shingle (default 3)
+     */
+    public NearDuplicateDetector shingleSize(int shingleSize) {
+        if (shingleSize < 1) throw new IllegalArgumentException("shingleSize must be positive");
+        this.shingleSize = shingleSize;
+        return this;
+    }
+
+    /**
+     * Whether conflicts differing only by identifiers are the same (default true)
+     */
+    public NearDuplicateDetector normalizeIdentifiers(boolean normalizeIdentifiers) {
+        this.normalizeIdentifiers = normalizeIdentifiers;
+        return this;
+    }
+
+    public NearDuplicateDetector seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    public NearDuplicateDetector workers(int workers) {
+        this.workers = workers;
+        return this;
+    }
+
+    /**
+     * Clusters of near-duplicate conflicts (id -> cluster)
+     */
+    public static class Report {
+
+        private final int[] ids;
+
+        // smallest id of the cluster of ids[i]
+        private final int[] clusters;
+
+        private final Map<Integer, Integer> sizes = new HashMap<>();
+
+        private final Map<Integer, Integer> positions = new HashMap<>();
+
+        private Report(int[] ids, int[] clusters) {
+            this.ids = ids;
+            this.clusters = clusters;
+            for (int i = 0; i < ids.length; i++) {
+                positions.put(ids[i], i);
+                sizes.merge(clusters[i], 1, Integer::sum);
+            }
+        }
+
+        public int records() {
+            return ids.length;
+        }
+
+        public int clusters() {
+            return sizes.size();
+        }
+
+        /**
+         * Records that are not the representative of their cluster
+         */
+        public int duplicates() {
+            return ids.length - sizes.size();
+        }
+
+        /**
+         * Smallest id of the cluster of a conflict, -1 if the id is unknown
+         */
+        public int clusterOf(int id) {
+            Integer position = positions.get(id);
+            return position == null ? -1 : clusters[position];
+        }
+
+        public int size(int id) {
+            Integer position = positions.get(id);
+            return position == null ? 0 : sizes.get(clusters[position]);
+        }
+
+        public boolean representative(int id) {
+            return clusterOf(id) == id;
+        }
+
+        /**
+         * Cluster size -> number of clusters
+         */
+        public Map<Integer, Integer> histogram() {
+            Map<Integer, Integer> histogram = new TreeMap<>();
+            for (int size : sizes.values()) histogram.merge(size, 1, Integer::sum);
+            return histogram;
+        }
+
+        /**
+         * Write dup_cluster / dup_size columns of the result file
+         */
+        public void write(String resultPath) throws Exception {
+            try (MetricColumn.Writer columns = MetricColumn.writer(resultPath, CLUSTER_COLUMN, SIZE_COLUMN)) {
+                for (int i = 0; i < ids.length; i++) {
+                    columns.put(CLUSTER_COLUMN, ids[i], clusters[i]);
+                    columns.put(SIZE_COLUMN, ids[i], sizes.get(clusters[i]));
+                }
+                columns.commit();
+            }
+        }
+    }
+
+    /**
+     * Whether a record read with join(CLUSTER_COLUMN) is the representative of its cluster (true if it was never clustered)
+     * @param index 1-based index of the record in the file, its id if it has no "id"
+     */
+    public static boolean isRepresentative(JSONObject record, int index) {
+        return !record.has(CLUSTER_COLUMN) || record.getInt(CLUSTER_COLUMN) == MetricColumn.id(record, index);
+    }
+
+    /**
+     * Ids of the representatives in the dup_cluster column of a result file (all ids if there is no current column),
+     * e.g. for ConflictIndex.sample
+     */
+    public static IntPredicate representatives(String resultPath) throws IOException {
+        if (!MetricColumn.isCurrent(resultPath, CLUSTER_COLUMN)) return id -> true;
+        MetricColumn column = MetricColumn.read(resultPath, CLUSTER_COLUMN);
+        return id -> !column.contains(id) || column.get(id) == id;
+    }
+
+    /**
+     * Cluster the records of a result file and write the report columns
+     */
+    public Report detect(String resultPath) throws Exception {
+        int[] bands = bands(threshold, permutations);
+        int rows = bands[1];
+        logger.info("Near duplicates of {}: threshold {}, {} bands x {} rows, {}-token shingles", resultPath, threshold, bands[0], rows, shingleSize);
+        long[] multipliers = new long[permutations];
+        long[] offsets = new long[permutations];
+        SplittableRandom random = new SplittableRandom(seed);
+        for (int i = 0; i < permutations; i++) {
+            multipliers[i] = random.nextLong() | 1L;
+            offsets[i] = random.nextLong();
+        }
+
+        //1.MinHash signatures (worker threads, file order)
+        List<int[]> signatures = new ArrayList<>();
+        List<Integer> idList = new ArrayList<>();
+        List<String> projection = new ArrayList<>(fields);
+        projection.add("id");
+        // token id -> shingle value of the token with whitespace runs collapsed (comments, text blocks), of this file only
+        ConcurrentHashMap<Integer, Integer> collapsed = new ConcurrentHashMap<>();
+        try (ConflictRecordReader reader = ConflictRecordReader.open(resultPath, projection.toArray(new String[0]))) {
+            ParallelCollector.mapOrdered(reader, workers, record -> signature(record, multipliers, offsets, collapsed), signature -> {
+                idList.add(MetricColumn.id(signature.record, idList.size() + 1));
+                signatures.add(signature.values);
+            });
+        }
+        int n = signatures.size();
+        int[] ids = new int[n];
+        for (int i = 0; i < n; i++) ids[i] = idList.get(i);
+
+        //2.LSH buckets of every band: verify against the first record of the bucket
+        int[] parent = new int[n];
+        for (int i = 0; i < n; i++) parent[i] = i;
+        int verified = 0;
+        for (int band = 0; band < bands[0]; band++) {
+            Map<Long, Integer> buckets = new HashMap<>(n * 2);
+            for (int i = 0; i < n; i++) {
+                Integer first = buckets.putIfAbsent(bandKey(signatures.get(i), band * rows, rows), i);
+                if (first == null || find(parent, first) == find(parent, i)) continue;
+                verified++;
+                if (similarity(signatures.get(first), signatures.get(i)) >= threshold) union(parent, first, i, ids);
+            }
+        }
+
+        //3.Clusters are named by their smallest id
+        int[] clusters = new int[n];
+        for (int i = 0; i < n; i++) clusters[i] = ids[find(parent, i)];
+        Report report = new Report(ids, clusters);
+        logger.info("{} records, {} candidate pairs verified, {} clusters, {} near duplicates: {}", n, verified, report.clusters(), report.duplicates(), report.histogram());
+        report.write(resultPath);
+        return report;
+    }
+
+    private static class Signature {
+        private final JSONObject record;
+        private final int[] values;
+
+        private Signature(JSONObject record, int[] values) {
+            this.record = record;
+            this.values = values;
+        }
+    }
+
+    private Signature signature(JSONObject record, long[] multipliers, long[] offsets, ConcurrentHashMap<Integer, Integer> collapsed) {
+        int[] values = new int[permutations];
+        long[] mins = new long[permutations];
+        Arrays.fill(mins, Long.MAX_VALUE);
+        int shingles = 0;
+        for (int f = 0; f < fields.size(); f++) {
+            int[] tokens = DzyUtils.newTokenIds(record.optString(fields.get(f), "")).ids();
+            for (int t = 0; t < tokens.length; t++) {
+                if (normalizeIdentifiers && isIdentifier(TokenVocabulary.text(tokens[t]))) tokens[t] = IDENTIFIER;
+                else tokens[t] = collapsed.computeIfAbsent(tokens[t], id -> TokenVocabulary.text(id).replaceAll("\\s+", " ").hashCode());
+            }
+            //a short side is one shingle
+            int count = Math.max(1, tokens.length - shingleSize + 1);
+            for (int s = 0; s < count; s++) {
+                long hash = f + 1;
+                for (int t = s; t < Math.min(tokens.length, s + shingleSize); t++) hash = mix(hash * 31 + tokens[t]);
+                for (int p = 0; p < permutations; p++) {
+                    long value = multipliers[p] * hash + offsets[p];
+                    if (value < mins[p]) mins[p] = value;
+                }
+                shingles++;
+            }
+        }
+        for (int p = 0; p < permutations; p++) values[p] = shingles == 0 ? 0 : (int) (mins[p] >>> 32);
+        return new Signature(record, values);
+    }
+
+    private static boolean isIdentifier(String token) {
+        return SourceVersion.isIdentifier(token) && !SourceVersion.isKeyword(token)
+                && !"true".equals(token) && !"false".equals(token) && !"null".equals(token);
+    }
+
+    private static long bandKey(int[] signature, int from, int rows) {
+        long key = from;
+        for (int i = from; i < from + rows; i++) key = mix(key * 31 + signature[i]);
+        return key;
+    }
+
+    private static double similarity(int[] a, int[] b) {
+        int same = 0;
+        for (int i = 0; i < a.length; i++) if (a[i] == b[i]) same++;
+        return (double) same / a.length;
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    //The root is the record with the smaller id
+    private static void union(int[] parent, int a, int b, int[] ids) {
+        int rootA = find(parent, a), rootB = find(parent, b);
+        if (rootA == rootB) return;
+        if (ids[rootA] <= ids[rootB]) parent[rootB] = rootA;
+        else parent[rootA] = rootB;
+    }
+
+    /**
+     * Bands and rows (bands * rows <= permutations) with the least false positive + false negative probability mass
+     * around the threshold (same weighting as datasketch MinHashLSH)
+     * @return {bands, rows}
+     */
+    static int[] bands(double threshold, int permutations) {
+        double minError = Double.MAX_VALUE;
+        int[] best = {1, permutations};
+        for (int b = 1; b <= permutations; b++) {
+            for (int r = 1; r <= permutations / b; r++) {
+                double falsePositive = integrate(b, r, 0, threshold, false);
+                double falseNegative = integrate(b, r, threshold, 1, true);
+                double error = 0.5 * falsePositive + 0.5 * falseNegative;
+                if (error < minError) {
+                    minError = error;
+                    best = new int[]{b, r};
+                }
+            }
+        }
+        return best;
+    }
+
+    //Probability that a pair of similarity s becomes candidate: 1 - (1 - s^r)^b (trapezoid rule)
+    private static double integrate(int b, int r, double from, double to, boolean negative) {
+        int steps = 100;
+        double step = (to - from) / steps;
+        double area = 0;
+        for (int i = 0; i <= steps; i++) {
+            double s = from + i * step;
+            double candidate = 1 - Math.pow(1 - Math.pow(s, r), b);
+            double value = negative ? 1 - candidate : candidate;
+            area += (i == 0 || i == steps ? 0.5 : 1) * value * step;
+        }
+        return area;
+    }
+
+    //SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+}
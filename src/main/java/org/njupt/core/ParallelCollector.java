@@ -0,0 +1,159 @@
+package org.njupt.core;
+
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Run fromTupleToTokenDiff of many metadata JSON files on a work-stealing pool
+ * <p>
+ * Every file is collected into its own record list and mapCount, so "line_allCount" (the conflict id) starts from 0 in
+ * every file. The results are then passed to the sink in file order: ids are shifted by the count of all previous files
+ * and the statistics are summed, so the output is exactly the same as a sequential run over the same file order.
+ * Only a bounded window of files is in flight, so memory does not grow with the number of files.
+ */
+public class ParallelCollector {
+
+    public static final Logger logger = LoggerFactory.getLogger(ParallelCollector.class);
+
+    // files in flight per worker
+    private static final int WINDOW = 4;
+
+    /**
+     * Collect conflicts of one metadata JSON file into (sink, mapCount)
+     */
+    public interface FileTask {
+        void collect(Consumer<JSONObject> sink, Map<String, Integer> mapCount) throws Exception;
+    }
+
+    /**
+     * Called in file order after all records of a file were passed to the sink
+     */
+    public interface FileListener {
+        void fileDone(int index, int firstId, Map<String, Integer> fileCount) throws Exception;
+    }
+
+    /**
+     * @param tasks one task per metadata JSON file, in sequential order
+     * @param workers worker threads (<= 1 runs every task in the caller thread)
+     * @param sink all conflicts are passed here in order (e.g. ConflictRecordWriter)
+     * @param mapCount statistical results are added here ("line_allCount" is the last id)
+     */
+    public static void collect(List<FileTask> tasks, int workers, Consumer<JSONObject> sink, Map<String, Integer> mapCount) throws Exception {
+        collect(tasks, workers, sink, mapCount, null);
+    }
+
+    /**
+     * Same as above, listener gets the statistical results of every file (then each file is collected on its own even with one worker)
+     */
+    public static void collect(List<FileTask> tasks, int workers, Consumer<JSONObject> sink, Map<String, Integer> mapCount, FileListener listener) throws Exception {
+        if (workers <= 1 && listener == null) {
+            for (FileTask task : tasks) task.collect(sink, mapCount);
+            return;
+        }
+        if (workers <= 1) {
+            for (int i = 0; i < tasks.size(); i++) {
+                FileResult result = new FileResult();
+                tasks.get(i).collect(result.records::add, result.mapCount);
+                append(i, result, sink, mapCount, listener);
+            }
+            return;
+        }
+        logger.info("Start collect {} files with {} workers", tasks.size(), workers);
+        ExecutorService pool = Executors.newWorkStealingPool(workers);
+        try {
+            //1.Submit files, each one has its own result; 2.Pass results to sink in file order
+            Deque<Future<FileResult>> futures = new ArrayDeque<>();
+            int done = 0;
+            for (FileTask task : tasks) {
+                if (futures.size() >= workers * WINDOW) append(done++, waitFor(futures.poll()), sink, mapCount, listener);
+                futures.add(pool.submit(() -> {
+                    FileResult result = new FileResult();
+                    task.collect(result.records::add, result.mapCount);
+                    return result;
+                }));
+            }
+            while (!futures.isEmpty()) append(done++, waitFor(futures.poll()), sink, mapCount, listener);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Apply a task to one record on a worker thread
+     */
+    public interface RecordTask<T, R> {
+        R apply(T record) throws Exception;
+    }
+
+    /**
+     * Called in record order in the caller thread
+     */
+    public interface RecordConsumer<R> {
+        void accept(R result) throws Exception;
+    }
+
+    /**
+     * Same window as collect for records of one file (e.g. ConflictRecordReader): tasks run on a work-stealing pool,
+     * results are passed to the consumer in record order
+     * @param workers worker threads (<= 1 runs every task in the caller thread)
+     */
+    public static <T, R> void mapOrdered(Iterable<T> records, int workers, RecordTask<T, R> task, RecordConsumer<R> consumer) throws Exception {
+        if (workers <= 1) {
+            for (T record : records) consumer.accept(task.apply(record));
+            return;
+        }
+        ExecutorService pool = Executors.newWorkStealingPool(workers);
+        try {
+            Deque<Future<R>> futures = new ArrayDeque<>();
+            for (T record : records) {
+                if (futures.size() >= workers * WINDOW) consumer.accept(waitFor(futures.poll()));
+                futures.add(pool.submit(() -> task.apply(record)));
+            }
+            while (!futures.isEmpty()) consumer.accept(waitFor(futures.poll()));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Default worker count
+     */
+    public static int defaultWorkers() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    private static void append(int index, FileResult result, Consumer<JSONObject> sink, Map<String, Integer> mapCount, FileListener listener) throws Exception {
+        int offset = mapCount.getOrDefault("line_allCount", 0);
+        for (JSONObject jsonObject : result.records) {
+            jsonObject.put("id", jsonObject.getInt("id") + offset);
+            sink.accept(jsonObject);
+        }
+        for (Map.Entry<String, Integer> entry : result.mapCount.entrySet()) {
+            mapCount.merge(entry.getKey(), entry.getValue(), Integer::sum);
+        }
+        if (listener != null) listener.fileDone(index, offset + 1, result.mapCount);
+    }
+
+    private static <T> T waitFor(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+            throw e;
+        }
+    }
+
+    private static class FileResult {
+        private final List<JSONObject> records = new ArrayList<>();
+        private final Map<String, Integer> mapCount = new HashMap<>();
+    }
+
+}
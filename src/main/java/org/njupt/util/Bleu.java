@@ -0,0 +1,201 @@
+package org.njupt.util;
+
+import java.util.*;
+
+/**
+ * BLEU-4 of token strings (tokens split by whitespace, e.g. DzyUtils.newTokenizerToString)
+ * <p>
+ * Tokens are interned by {@link TokenVocabulary}, the n-grams of one string are counted once into hashed maps (key is a
+ * 64-bit hash of the token ids). Candidate n-gram counts are clipped by the max count in any reference, the brevity
+ * penalty uses the closest reference length. A {@link Reference} is built once and scored against many answers;
+ * {@link Corpus} sums matches and lengths of all answers for corpus-level BLEU.
+ */
+public class Bleu {
+
+    public static final int MAX_N = 4;
+
+    private Bleu() {
+    }
+
+    /**
+     * N-gram counts of the reference(s) of one conflict
+     */
+    public static class Reference {
+
+        // n-1 -> n-gram hash -> max count in one reference
+        private final List<Map<Long, Integer>> counts = new ArrayList<>();
+
+        private final int[] lengths;
+
+        private Reference(List<int[]> references) {
+            for (int n = 1; n <= MAX_N; n++) counts.add(new HashMap<>());
+            lengths = new int[references.size()];
+            for (int r = 0; r < references.size(); r++) {
+                int[] ids = references.get(r);
+                lengths[r] = ids.length;
+                for (int n = 1; n <= MAX_N; n++) {
+                    for (Map.Entry<Long, Integer> entry : ngramCounts(ids, n).entrySet()) {
+                        counts.get(n - 1).merge(entry.getKey(), entry.getValue(), Math::max);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Closest reference length to the candidate length (the shorter one if two are as close)
+         */
+        private int closestLength(int candidateLength) {
+            int closest = lengths.length == 0 ? 0 : lengths[0];
+            for (int length : lengths) {
+                int diff = Math.abs(length - candidateLength), closestDiff = Math.abs(closest - candidateLength);
+                if (diff < closestDiff || diff == closestDiff && length < closest) closest = length;
+            }
+            return closest;
+        }
+    }
+
+    /**
+     * Clipped matches and totals of n-grams, candidate and reference length
+     */
+    public static class Statistics {
+
+        private final long[] matches = new long[MAX_N];
+
+        private final long[] totals = new long[MAX_N];
+
+        private long candidateLength;
+
+        private long referenceLength;
+
+        public void add(Statistics other) {
+            for (int n = 0; n < MAX_N; n++) {
+                matches[n] += other.matches[n];
+                totals[n] += other.totals[n];
+            }
+            candidateLength += other.candidateLength;
+            referenceLength += other.referenceLength;
+        }
+
+        /**
+         * @return BLEU-4, 0.0 if any n-gram precision is 0 (no smoothing)
+         */
+        public double bleu() {
+            double logPrecision = 0.0;
+            for (int n = 1; n <= MAX_N; n++) {
+                if (matches[n - 1] == 0) return 0.0;
+                logPrecision += Math.log(precision(n));
+            }
+            return brevityPenalty() * Math.exp(logPrecision / MAX_N);
+        }
+
+        /**
+         * Clipped n-gram precision (n = 1..4), 0.0 if there is no n-gram
+         */
+        public double precision(int n) {
+            return totals[n - 1] == 0 ? 0.0 : (double) matches[n - 1] / totals[n - 1];
+        }
+
+        public double brevityPenalty() {
+            return candidateLength < referenceLength ? Math.exp(1 - (double) referenceLength / candidateLength) : 1.0;
+        }
+    }
+
+    /**
+     * Corpus-level BLEU-4: matches and lengths of all candidates are summed before the precisions are computed
+     */
+    public static class Corpus {
+
+        private final Statistics statistics = new Statistics();
+
+        private int size = 0;
+
+        /**
+         * @return sentence-level BLEU-4 of the candidate
+         */
+        public double add(String candidate, Reference reference) {
+            Statistics sentence = statistics(candidate, reference);
+            statistics.add(sentence);
+            size++;
+            return sentence.bleu();
+        }
+
+        public double bleu() {
+            return statistics.bleu();
+        }
+
+        public int size() {
+            return size;
+        }
+    }
+
+    public static Reference reference(String reference) {
+        return new Reference(Collections.singletonList(tokenIds(reference)));
+    }
+
+    public static Reference reference(List<String> references) {
+        List<int[]> tokenIds = new ArrayList<>();
+        for (String reference : references) tokenIds.add(tokenIds(reference));
+        return new Reference(tokenIds);
+    }
+
+    /**
+     * Sentence-level BLEU-4
+     */
+    public static double sentenceBleu(String candidate, Reference reference) {
+        return statistics(candidate, reference).bleu();
+    }
+
+    public static Statistics statistics(String candidate, Reference reference) {
+        int[] ids = tokenIds(candidate);
+        Statistics statistics = new Statistics();
+        statistics.candidateLength = ids.length;
+        statistics.referenceLength = reference.closestLength(ids.length);
+        for (int n = 1; n <= MAX_N; n++) {
+            Map<Long, Integer> referenceCounts = reference.counts.get(n - 1);
+            for (Map.Entry<Long, Integer> entry : ngramCounts(ids, n).entrySet()) {
+                statistics.matches[n - 1] += Math.min(entry.getValue(), referenceCounts.getOrDefault(entry.getKey(), 0));
+            }
+            statistics.totals[n - 1] = Math.max(0, ids.length - n + 1);
+        }
+        return statistics;
+    }
+
+    private static Map<Long, Integer> ngramCounts(int[] ids, int n) {
+        Map<Long, Integer> counts = new HashMap<>();
+        for (int i = 0; i + n <= ids.length; i++) {
+            long hash = n;
+            for (int j = i; j < i + n; j++) hash = mix(hash * 31 + ids[j]);
+            counts.merge(hash, 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    //SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Same tokens as split("\\s+") without empty tokens
+     */
+    private static int[] tokenIds(String tokens) {
+        int[] ids = new int[16];
+        int count = 0;
+        int start = -1;
+        for (int i = 0; i <= tokens.length(); i++) {
+            char c = i == tokens.length() ? ' ' : tokens.charAt(i);
+            boolean whitespace = c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+            if (!whitespace) {
+                if (start < 0) start = i;
+            } else if (start >= 0) {
+                if (count == ids.length) ids = Arrays.copyOf(ids, count * 2);
+                ids[count++] = TokenVocabulary.id(tokens.substring(start, i));
+                start = -1;
+            }
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+}
@@ -0,0 +1,342 @@
+package org.njupt.util;
+
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseResult;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.body.ClassOrInterfaceDeclaration;
+import com.github.javaparser.ast.body.MethodDeclaration;
+import com.github.javaparser.ast.body.Parameter;
+import com.github.javaparser.ast.body.VariableDeclarator;
+import com.github.javaparser.ast.comments.Comment;
+import com.github.javaparser.ast.expr.AssignExpr;
+import com.github.javaparser.ast.expr.NameExpr;
+import com.github.javaparser.ast.expr.UnaryExpr;
+
+import java.util.*;
+
+/**
+ * CodeBLEU of Java code (Ren et al. 2020): BLEU-4, keyword-weighted BLEU-4, AST subtree match and data-flow match
+ * <p>
+ * Every code (reference or candidate) is tokenized and parsed once into a {@link Code}: its token string, unigram counts,
+ * the multiset of AST subtree hashes (node types only, no names) and the normalized def-use edges. Code fragments are
+ * parsed as a compilation unit, as class members or as method statements. A {@link Score} keeps the raw counts, so
+ * scores of many answers can be added up into corpus-level CodeBLEU. A component that has nothing to match in the
+ * reference (e.g. the reference cannot be parsed) is left out and the other weights are normalized.
+ */
+public class CodeBleu {
+
+    public static final double NGRAM_WEIGHT = 0.25;
+
+    public static final double WEIGHTED_NGRAM_WEIGHT = 0.25;
+
+    public static final double SYNTAX_WEIGHT = 0.25;
+
+    public static final double DATAFLOW_WEIGHT = 0.25;
+
+    // unigram weights of the weighted n-gram match
+    private static final double KEYWORD_WEIGHT = 1.0;
+
+    private static final double OTHER_WEIGHT = 0.2;
+
+    private static final Set<String> KEYWORDS = new HashSet<>(Arrays.asList(
+            "abstract", "assert", "boolean", "break", "byte", "case", "catch", "char", "class", "const", "continue",
+            "default", "do", "double", "else", "enum", "extends", "final", "finally", "float", "for", "goto", "if",
+            "implements", "import", "instanceof", "int", "interface", "long", "native", "new", "package", "private",
+            "protected", "public", "return", "short", "static", "strictfp", "super", "switch", "synchronized", "this",
+            "throw", "throws", "transient", "try", "void", "volatile", "while", "var", "record", "yield",
+            "true", "false", "null"));
+
+    private static final String WRAP_CLASS = "class DzyWrap {\n";
+
+    private static final String WRAP_METHOD = "class DzyWrap { void dzyWrap() {\n";
+
+    private static final ThreadLocal<JavaParser> javaParser = ThreadLocal.withInitial(JavaParser::new);
+
+    private CodeBleu() {
+    }
+
+    /**
+     * Tokens, AST subtrees and data flow of one code region
+     */
+    public static class Code {
+
+        private final String tokens;
+
+        private final Bleu.Reference bleuReference;
+
+        private final Map<String, Integer> unigrams = new HashMap<>();
+
+        // null if the code cannot be parsed
+        private final Map<Long, Integer> subtrees;
+
+        private final Map<String, Integer> dataFlows;
+
+        private Code(String code) {
+            tokens = DzyUtils.newTokenizerToString(code);
+            bleuReference = Bleu.reference(tokens);
+            for (String token : tokens.split("\\s+")) {
+                if (!token.isEmpty()) unigrams.merge(token, 1, Integer::sum);
+            }
+            List<Node> roots = parse(code);
+            if (roots == null) {
+                subtrees = null;
+                dataFlows = null;
+                return;
+            }
+            subtrees = new HashMap<>();
+            DataFlow dataFlow = new DataFlow();
+            for (Node root : roots) {
+                subtreeHash(root, subtrees);
+                dataFlow.visit(root);
+            }
+            dataFlows = dataFlow.normalizedEdges();
+        }
+
+        public boolean parsed() {
+            return subtrees != null;
+        }
+    }
+
+    /**
+     * Raw counts of one (or many added) candidate-reference pairs
+     */
+    public static class Score {
+
+        private final Bleu.Statistics ngram = new Bleu.Statistics();
+
+        private double weightedMatches;
+
+        private double weightedTotal;
+
+        private long syntaxMatches;
+
+        private long syntaxTotal;
+
+        private long dataFlowMatches;
+
+        private long dataFlowTotal;
+
+        public void add(Score other) {
+            ngram.add(other.ngram);
+            weightedMatches += other.weightedMatches;
+            weightedTotal += other.weightedTotal;
+            syntaxMatches += other.syntaxMatches;
+            syntaxTotal += other.syntaxTotal;
+            dataFlowMatches += other.dataFlowMatches;
+            dataFlowTotal += other.dataFlowTotal;
+        }
+
+        public double ngram() {
+            return ngram.bleu();
+        }
+
+        /**
+         * BLEU-4 whose unigram precision weights keywords 1.0 and other tokens 0.2
+         */
+        public double weightedNgram() {
+            if (weightedMatches == 0) return 0.0;
+            double logPrecision = Math.log(weightedMatches / weightedTotal);
+            for (int n = 2; n <= Bleu.MAX_N; n++) {
+                double precision = ngram.precision(n);
+                if (precision == 0) return 0.0;
+                logPrecision += Math.log(precision);
+            }
+            return ngram.brevityPenalty() * Math.exp(logPrecision / Bleu.MAX_N);
+        }
+
+        /**
+         * Reference AST subtrees found in the candidate, 0.0 if not available
+         */
+        public double syntax() {
+            return syntaxTotal == 0 ? 0.0 : (double) syntaxMatches / syntaxTotal;
+        }
+
+        /**
+         * Reference def-use edges found in the candidate (clipped), 0.0 if not available
+         */
+        public double dataFlow() {
+            return dataFlowTotal == 0 ? 0.0 : (double) dataFlowMatches / dataFlowTotal;
+        }
+
+        public double codeBleu() {
+            double score = NGRAM_WEIGHT * ngram() + WEIGHTED_NGRAM_WEIGHT * weightedNgram();
+            double weights = NGRAM_WEIGHT + WEIGHTED_NGRAM_WEIGHT;
+            if (syntaxTotal > 0) {
+                score += SYNTAX_WEIGHT * syntax();
+                weights += SYNTAX_WEIGHT;
+            }
+            if (dataFlowTotal > 0) {
+                score += DATAFLOW_WEIGHT * dataFlow();
+                weights += DATAFLOW_WEIGHT;
+            }
+            return score / weights;
+        }
+    }
+
+    /**
+     * Parse a code region once (reference resolution or candidate answer)
+     */
+    public static Code code(String code) {
+        return new Code(code);
+    }
+
+    /**
+     * Sentence-level CodeBLEU
+     */
+    public static double codeBleu(String candidate, String reference) {
+        return score(code(candidate), code(reference)).codeBleu();
+    }
+
+    public static Score score(Code candidate, Code reference) {
+        Score score = new Score();
+        //1.n-gram and weighted n-gram
+        score.ngram.add(Bleu.statistics(candidate.tokens, reference.bleuReference));
+        for (Map.Entry<String, Integer> entry : candidate.unigrams.entrySet()) {
+            double weight = KEYWORDS.contains(entry.getKey()) ? KEYWORD_WEIGHT : OTHER_WEIGHT;
+            score.weightedMatches += weight * Math.min(entry.getValue(), reference.unigrams.getOrDefault(entry.getKey(), 0));
+            score.weightedTotal += weight * entry.getValue();
+        }
+        if (!reference.parsed()) return score;
+        //2.AST subtrees of the reference which exist in the candidate
+        for (Map.Entry<Long, Integer> entry : reference.subtrees.entrySet()) {
+            score.syntaxTotal += entry.getValue();
+            if (candidate.parsed() && candidate.subtrees.containsKey(entry.getKey())) score.syntaxMatches += entry.getValue();
+        }
+        //3.Data flow
+        for (Map.Entry<String, Integer> entry : reference.dataFlows.entrySet()) {
+            score.dataFlowTotal += entry.getValue();
+            if (candidate.parsed()) score.dataFlowMatches += Math.min(entry.getValue(), candidate.dataFlows.getOrDefault(entry.getKey(), 0));
+        }
+        return score;
+    }
+
+    /**
+     * @return top nodes of the code (compilation unit, class members or statements), null if not parsed
+     */
+    private static List<Node> parse(String code) {
+        if (code.trim().isEmpty()) return Collections.emptyList();
+        JavaParser parser = javaParser.get();
+        ParseResult<CompilationUnit> result = parser.parse(code);
+        if (result.isSuccessful() && result.getResult().isPresent()) {
+            return Collections.singletonList(result.getResult().get());
+        }
+        result = parser.parse(WRAP_CLASS + code + "\n}");
+        if (result.isSuccessful() && result.getResult().isPresent()) {
+            Optional<ClassOrInterfaceDeclaration> wrap = result.getResult().get().getClassByName("DzyWrap");
+            if (wrap.isPresent()) return new ArrayList<>(wrap.get().getMembers());
+        }
+        result = parser.parse(WRAP_METHOD + code + "\n} }");
+        if (result.isSuccessful() && result.getResult().isPresent()) {
+            Optional<MethodDeclaration> wrap = result.getResult().get().findFirst(MethodDeclaration.class);
+            if (wrap.isPresent() && wrap.get().getBody().isPresent()) return new ArrayList<>(wrap.get().getBody().get().getStatements());
+        }
+        return null;
+    }
+
+    /**
+     * Hash of the subtree (node types only, like a tree-sitter s-expression), every subtree is added to the multiset
+     */
+    private static long subtreeHash(Node node, Map<Long, Integer> subtrees) {
+        long hash = node.getClass().getSimpleName().hashCode();
+        for (Node child : node.getChildNodes()) {
+            if (child instanceof Comment) continue;
+            hash = mix(hash * 31 + subtreeHash(child, subtrees));
+        }
+        hash = mix(hash ^ 0x5DEECE66DL);
+        subtrees.merge(hash, 1, Integer::sum);
+        return hash;
+    }
+
+    //SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Def-use edges in source order: "x computedFrom y z" for a declaration / assignment, "x comesFrom x" for a use of a
+     * known variable. Variables are renamed var_0, var_1 ... in order of appearance, so only the shape is compared.
+     */
+    private static class DataFlow {
+
+        private final Set<String> known = new HashSet<>();
+
+        private final List<String[]> edges = new ArrayList<>();
+
+        void visit(Node node) {
+            if (node instanceof Comment) return;
+            if (node instanceof VariableDeclarator) {
+                VariableDeclarator declarator = (VariableDeclarator) node;
+                List<String> from = new ArrayList<>();
+                if (declarator.getInitializer().isPresent()) {
+                    visit(declarator.getInitializer().get());
+                    from = names(declarator.getInitializer().get());
+                }
+                define(declarator.getNameAsString(), from);
+            } else if (node instanceof AssignExpr && ((AssignExpr) node).getTarget() instanceof NameExpr) {
+                AssignExpr assign = (AssignExpr) node;
+                visit(assign.getValue());
+                List<String> from = names(assign.getValue());
+                String target = ((NameExpr) assign.getTarget()).getNameAsString();
+                if (assign.getOperator() != AssignExpr.Operator.ASSIGN) {
+                    use(target);
+                    from.add(0, target);
+                }
+                define(target, from);
+            } else if (node instanceof UnaryExpr && ((UnaryExpr) node).getExpression() instanceof NameExpr
+                    && isIncrementOrDecrement(((UnaryExpr) node).getOperator())) {
+                String name = ((NameExpr) ((UnaryExpr) node).getExpression()).getNameAsString();
+                use(name);
+                define(name, new ArrayList<>(Collections.singletonList(name)));
+            } else if (node instanceof Parameter) {
+                known.add(((Parameter) node).getNameAsString());
+            } else if (node instanceof NameExpr) {
+                use(((NameExpr) node).getNameAsString());
+            } else {
+                for (Node child : node.getChildNodes()) visit(child);
+            }
+        }
+
+        private static boolean isIncrementOrDecrement(UnaryExpr.Operator operator) {
+            return operator == UnaryExpr.Operator.PREFIX_INCREMENT || operator == UnaryExpr.Operator.PREFIX_DECREMENT
+                    || operator == UnaryExpr.Operator.POSTFIX_INCREMENT || operator == UnaryExpr.Operator.POSTFIX_DECREMENT;
+        }
+
+        private void define(String name, List<String> from) {
+            String[] edge = new String[from.size() + 2];
+            edge[0] = name;
+            edge[1] = "computedFrom";
+            for (int i = 0; i < from.size(); i++) edge[i + 2] = from.get(i);
+            edges.add(edge);
+            known.add(name);
+        }
+
+        private void use(String name) {
+            if (known.contains(name)) edges.add(new String[]{name, "comesFrom", name});
+            known.add(name);
+        }
+
+        private static List<String> names(Node node) {
+            List<String> names = new ArrayList<>();
+            for (NameExpr nameExpr : node.findAll(NameExpr.class)) names.add(nameExpr.getNameAsString());
+            return names;
+        }
+
+        Map<String, Integer> normalizedEdges() {
+            Map<String, String> rename = new HashMap<>();
+            Map<String, Integer> normalized = new HashMap<>();
+            for (String[] edge : edges) {
+                StringBuilder key = new StringBuilder();
+                for (int i = 0; i < edge.length; i++) {
+                    String part = i == 1 ? edge[i] : rename.computeIfAbsent(edge[i], name -> "var_" + rename.size());
+                    key.append(part).append(' ');
+                }
+                normalized.merge(key.toString(), 1, Integer::sum);
+            }
+            return normalized;
+        }
+    }
+
+}
@@ -0,0 +1,301 @@
+package org.njupt.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Token id stream of one conflict side (see {@link TokenVocabulary})
+ * <p>
+ * Line breaks are kept out of band: lineBreaks[k] is the number of tokens before the k-th "NewLineDZY". When built
+ * from the source text (see of(List, String)), the start offset of every token and line break in the source is kept
+ * too, so that merged regions can be rendered with the original spacing (see MergeHunks.render). Line tokens (see
+ * ofLines) are not interned: their ids belong to a table of the sides of one merge.
+ */
+public class CodeTokens {
+
+    private final int[] ids;
+
+    private final int[] lineBreaks;
+
+    // null if the tokens were not located in a source text
+    private final String source;
+
+    // start offsets in source, in the order of withLineBreaks()
+    private final int[] offsets;
+
+    // id -> text of single-line tokens shared by the sides of one merge, null for TokenVocabulary ids
+    private final List<String> table;
+
+    public CodeTokens(int[] ids, int[] lineBreaks) {
+        this(ids, lineBreaks, null, null, null);
+    }
+
+    private CodeTokens(int[] ids, int[] lineBreaks, String source, int[] offsets, List<String> table) {
+        this.ids = ids;
+        this.lineBreaks = lineBreaks;
+        this.source = source;
+        this.offsets = offsets;
+        this.table = table;
+    }
+
+    /**
+     * Build from a token list of DzyUtils.newTokenizer ("NewLineDZY" becomes a line break)
+     */
+    public static CodeTokens of(List<String> tokens) {
+        int[] ids = new int[tokens.size()];
+        int[] lineBreaks = new int[tokens.size()];
+        int count = 0, breaks = 0;
+        for (String token : tokens) {
+            if (TokenVocabulary.NEW_LINE_TOKEN.equals(token)) {
+                lineBreaks[breaks++] = count;
+            } else {
+                ids[count++] = TokenVocabulary.id(token);
+            }
+        }
+        return new CodeTokens(Arrays.copyOf(ids, count), Arrays.copyOf(lineBreaks, breaks));
+    }
+
+    /**
+     * Build from a token list of DzyUtils.newTokenizer and locate every token in the source text. Tokens must follow
+     * each other with only whitespace between them ("NewLineDZY" is a "\n"), otherwise no offset is kept.
+     * @param tokens tokens of source
+     * @param source the tokenized text
+     */
+    public static CodeTokens of(List<String> tokens, String source) {
+        CodeTokens codeTokens = of(tokens);
+        int[] offsets = locate(tokens, source);
+        return offsets == null ? codeTokens : new CodeTokens(codeTokens.ids, codeTokens.lineBreaks, source, offsets, null);
+    }
+
+    /**
+     * Line granularity: every line (without leading / trailing spacing) is one token, offsets kept. The lines are
+     * numbered in a table of these sources only (not in TokenVocabulary), so only the returned tokens can be merged
+     * with each other.
+     * @param sources sides of one merge, e.g. a, o, b
+     */
+    public static CodeTokens[] ofLines(String... sources) {
+        Map<String, Integer> lineIds = new HashMap<>();
+        List<String> table = new ArrayList<>();
+        table.add(TokenVocabulary.NEW_LINE_TOKEN);
+        CodeTokens[] result = new CodeTokens[sources.length];
+        for (int s = 0; s < sources.length; s++) {
+            String source = sources[s];
+            int[] ids = new int[16], lineBreaks = new int[16], offsets = new int[32];
+            int count = 0, breaks = 0, records = 0;
+            int start = 0;
+            while (true) {
+                int end = source.indexOf('\n', start);
+                int lineEnd = end < 0 ? source.length() : end;
+                int from = start, to = lineEnd;
+                while (from < to && isSpacing(source.charAt(from))) from++;
+                while (to > from && isSpacing(source.charAt(to - 1))) to--;
+                if (from < to) {
+                    if (count == ids.length) ids = Arrays.copyOf(ids, count * 2);
+                    if (records == offsets.length) offsets = Arrays.copyOf(offsets, records * 2);
+                    ids[count++] = lineIds.computeIfAbsent(source.substring(from, to), line -> {
+                        table.add(line);
+                        return table.size() - 1;
+                    });
+                    offsets[records++] = from;
+                }
+                if (end < 0) break;
+                if (breaks == lineBreaks.length) lineBreaks = Arrays.copyOf(lineBreaks, breaks * 2);
+                if (records == offsets.length) offsets = Arrays.copyOf(offsets, records * 2);
+                lineBreaks[breaks++] = count;
+                offsets[records++] = end;
+                start = end + 1;
+            }
+            result[s] = new CodeTokens(Arrays.copyOf(ids, count), Arrays.copyOf(lineBreaks, breaks), source, Arrays.copyOf(offsets, records), table);
+        }
+        return result;
+    }
+
+    /**
+     * Character granularity: every non-spacing character (code point) is one token, offsets kept
+     */
+    public static CodeTokens ofCharacters(String source) {
+        List<String> tokens = new ArrayList<>(source.length());
+        for (int i = 0; i < source.length(); ) {
+            int codePoint = source.codePointAt(i);
+            int next = i + Character.charCount(codePoint);
+            if (codePoint == '\n') {
+                tokens.add(TokenVocabulary.NEW_LINE_TOKEN);
+            } else if (next - i > 1 || !isSpacing(source.charAt(i))) {
+                tokens.add(source.substring(i, next));
+            }
+            i = next;
+        }
+        return of(tokens, source);
+    }
+
+    /**
+     * Token ids without line breaks
+     */
+    public int[] ids() {
+        return ids;
+    }
+
+    public int[] lineBreaks() {
+        return lineBreaks;
+    }
+
+    /**
+     * Number of "NewLineDZY" (same as DzyUtils.tokenCountInList("NewLineDZY", tokens))
+     */
+    public int lineCount() {
+        return lineBreaks.length;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * Text of a token id of these tokens
+     */
+    public String text(int id) {
+        return table == null ? TokenVocabulary.text(id) : table.get(id);
+    }
+
+    /**
+     * Token ids with line breaks, a multi-line token split into its lines (see TokenVocabulary.lines): the records of
+     * the token file
+     */
+    int[] records() {
+        int[] tokens = withLineBreaks();
+        //a line token has no "\n"
+        if (table != null) return tokens;
+        int count = 0;
+        for (int id : tokens) {
+            int[] lines = TokenVocabulary.lines(id);
+            count += lines == null ? 1 : lines.length;
+        }
+        if (count == tokens.length) return tokens;
+        int[] records = new int[count];
+        int k = 0;
+        for (int id : tokens) {
+            int[] lines = TokenVocabulary.lines(id);
+            if (lines == null) {
+                records[k++] = id;
+            } else {
+                System.arraycopy(lines, 0, records, k, lines.length);
+                k += lines.length;
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Token ids with line breaks back in place as {@link TokenVocabulary#NEW_LINE}
+     */
+    public int[] withLineBreaks() {
+        int[] result = new int[ids.length + lineBreaks.length];
+        int k = 0, b = 0;
+        for (int i = 0; i <= ids.length; i++) {
+            while (b < lineBreaks.length && lineBreaks[b] == i) {
+                result[k++] = TokenVocabulary.NEW_LINE;
+                b++;
+            }
+            if (i < ids.length) result[k++] = ids[i];
+        }
+        return result;
+    }
+
+    /**
+     * Source text of the tokens, null if the offsets are unknown
+     */
+    public String source() {
+        return source;
+    }
+
+    /**
+     * Start / end offsets in source of every record of the token file (a token, a line break, or one line of a
+     * multi-line token, see TokenVocabulary.lines), null if the offsets are unknown
+     * @return [start0, end0, start1, end1, ...]
+     */
+    public int[] recordBounds() {
+        if (source == null) return null;
+        int[] all = withLineBreaks();
+        int[] bounds = new int[2 * all.length];
+        int k = 0;
+        for (int t = 0; t < all.length; t++) {
+            int start = offsets[t];
+            if (all[t] == TokenVocabulary.NEW_LINE) {
+                bounds = put(bounds, k++, start, start + 1);
+                continue;
+            }
+            int end = start + sourceLength(text(all[t]));
+            if (table != null || TokenVocabulary.lines(all[t]) == null) {
+                bounds = put(bounds, k++, start, end);
+                continue;
+            }
+            //one record per line, the "\n" between two lines is spacing
+            for (int lineEnd = source.indexOf('\n', start); lineEnd >= 0 && lineEnd < end; lineEnd = source.indexOf('\n', start)) {
+                bounds = put(bounds, k++, start, lineEnd);
+                start = lineEnd + 1;
+            }
+            bounds = put(bounds, k++, start, end);
+        }
+        return Arrays.copyOf(bounds, 2 * k);
+    }
+
+    /**
+     * Back to the token list of DzyUtils.newTokenizer
+     */
+    public List<String> toTokenList() {
+        int[] all = withLineBreaks();
+        List<String> tokens = new ArrayList<>(all.length);
+        for (int id : all) tokens.add(text(id));
+        return tokens;
+    }
+
+    private static int[] put(int[] bounds, int k, int start, int end) {
+        if (2 * k + 1 >= bounds.length) bounds = Arrays.copyOf(bounds, bounds.length * 2 + 2);
+        bounds[2 * k] = start;
+        bounds[2 * k + 1] = end;
+        return bounds;
+    }
+
+    /**
+     * Start offsets of the tokens (line breaks included) in source, null if a token is not found in place
+     */
+    private static int[] locate(List<String> tokens, String source) {
+        int[] offsets = new int[tokens.size()];
+        int position = 0, k = 0;
+        for (String token : tokens) {
+            boolean newLine = TokenVocabulary.NEW_LINE_TOKEN.equals(token);
+            while (position < source.length() && isSpacing(source.charAt(position))) position++;
+            if (newLine) {
+                if (position == source.length() || source.charAt(position) != '\n') return null;
+                offsets[k++] = position++;
+                continue;
+            }
+            String text = sourceText(token);
+            if (!source.startsWith(text, position)) return null;
+            offsets[k++] = position;
+            position += text.length();
+        }
+        //only spacing may follow the last token
+        while (position < source.length() && isSpacing(source.charAt(position))) position++;
+        return position == source.length() ? offsets : null;
+    }
+
+    /**
+     * A multi-line token (block comment, text block) is lexed from the code with "\n NewLineDZY " for "\n"
+     */
+    private static String sourceText(String token) {
+        return token.indexOf('\n') < 0 ? token : token.replace("\n " + TokenVocabulary.NEW_LINE_TOKEN + " ", "\n");
+    }
+
+    private static int sourceLength(String token) {
+        return token.indexOf('\n') < 0 ? token.length() : sourceText(token).length();
+    }
+
+    private static boolean isSpacing(char c) {
+        return c != '\n' && (Character.isWhitespace(c) || Character.isSpaceChar(c));
+    }
+
+}
@@ -0,0 +1,362 @@
+package org.njupt.util;
+
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encoding of one chunk of records in columns, used by ColumnarRecordWriter / ColumnarRecordReader
+ * <p>
+ * Chunk: int directory length, directory, column bodies. The directory holds the record count and for every field its
+ * name, kind, number of records having it, body offset / length and statistics. Kind of a column:
+ * <ul>
+ *     <li>DICT: strings with few distinct values (repo, file_name, res_label), dictionary in the directory, varint codes</li>
+ *     <li>INT: integers, zigzag varint deltas, min / max</li>
+ *     <li>DOUBLE: numbers a double holds exactly (e.g. BigDecimal 10.5 parsed from JSON), 8 bytes each, min / max</li>
+ *     <li>TEXT: strings, varint UTF-8 lengths and bytes, deflated as one block</li>
+ *     <li>JSON: other or mixed values (boolean, arrays, objects, null, decimals that are not a double), JSON text
+ *     deflated like TEXT</li>
+ * </ul>
+ * A body starts with the presence of the field: all records, or a bitmap.
+ */
+class ColumnChunk {
+
+    // "DZYK"
+    static final int MAGIC = 0x445A594B;
+
+    static final int VERSION = 1;
+
+    static final byte DICT = 1, INT = 2, DOUBLE = 3, TEXT = 4, JSON = 5;
+
+    private ColumnChunk() {
+    }
+
+    /**
+     * Column entry of a chunk directory
+     */
+    static class Column {
+        String name;
+        byte kind;
+        int present;
+        int offset;
+        int length;
+        // INT / DOUBLE
+        double min;
+        double max;
+        // TEXT / JSON: UTF-8 bytes before compression
+        long rawBytes;
+        // DICT
+        List<String> dictionary;
+    }
+
+    /**
+     * @return directory length, directory and bodies
+     */
+    static byte[] encode(List<JSONObject> records) throws IOException {
+        //1.Fields in first-seen order
+        LinkedHashMap<String, Object[]> fields = new LinkedHashMap<>();
+        for (int r = 0; r < records.size(); r++) {
+            JSONObject record = records.get(r);
+            for (String key : record.keySet()) {
+                fields.computeIfAbsent(key, k -> new Object[records.size()])[r] = record.opt(key);
+            }
+        }
+        //2.Bodies
+        List<Column> columns = new ArrayList<>();
+        ByteArrayOutputStream bodies = new ByteArrayOutputStream();
+        for (Map.Entry<String, Object[]> field : fields.entrySet()) {
+            Column column = new Column();
+            column.name = field.getKey();
+            column.offset = bodies.size();
+            byte[] body = encodeColumn(column, field.getValue());
+            bodies.write(body);
+            column.length = body.length;
+            columns.add(column);
+        }
+        //3.Directory
+        ByteArrayOutputStream directoryBytes = new ByteArrayOutputStream();
+        DataOutputStream directory = new DataOutputStream(directoryBytes);
+        directory.writeInt(records.size());
+        directory.writeInt(columns.size());
+        for (Column column : columns) {
+            writeString(directory, column.name);
+            directory.writeByte(column.kind);
+            directory.writeInt(column.present);
+            directory.writeInt(column.offset);
+            directory.writeInt(column.length);
+            if (column.kind == INT || column.kind == DOUBLE) {
+                directory.writeDouble(column.min);
+                directory.writeDouble(column.max);
+            } else if (column.kind == DICT) {
+                directory.writeInt(column.dictionary.size());
+                for (String value : column.dictionary) writeString(directory, value);
+            } else {
+                directory.writeLong(column.rawBytes);
+            }
+        }
+        ByteArrayOutputStream chunk = new ByteArrayOutputStream(4 + directoryBytes.size() + bodies.size());
+        new DataOutputStream(chunk).writeInt(directoryBytes.size());
+        directoryBytes.writeTo(chunk);
+        bodies.writeTo(chunk);
+        return chunk.toByteArray();
+    }
+
+    static int readRecordCount(ByteBuffer directory) {
+        return directory.getInt(0);
+    }
+
+    static List<Column> readDirectory(ByteBuffer directory) {
+        directory.position(4);
+        int count = directory.getInt();
+        List<Column> columns = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Column column = new Column();
+            column.name = readString(directory, directory.getInt());
+            column.kind = directory.get();
+            column.present = directory.getInt();
+            column.offset = directory.getInt();
+            column.length = directory.getInt();
+            if (column.kind == INT || column.kind == DOUBLE) {
+                column.min = directory.getDouble();
+                column.max = directory.getDouble();
+            } else if (column.kind == DICT) {
+                int size = directory.getInt();
+                column.dictionary = new ArrayList<>(size);
+                for (int d = 0; d < size; d++) column.dictionary.add(readString(directory, directory.getInt()));
+            } else {
+                column.rawBytes = directory.getLong();
+            }
+            columns.add(column);
+        }
+        return columns;
+    }
+
+    /**
+     * Put the values of a column body into the records of the chunk
+     */
+    static void decodeColumn(Column column, ByteBuffer body, List<JSONObject> records) {
+        int[] rows = presentRows(body, column.present, records.size());
+        switch (column.kind) {
+            case DICT:
+                for (int row : rows) records.get(row).put(column.name, column.dictionary.get((int) readVarLong(body)));
+                break;
+            case INT:
+                long previous = 0;
+                for (int row : rows) {
+                    previous += zigzagDecode(readVarLong(body));
+                    if (previous == (int) previous) records.get(row).put(column.name, (int) previous);
+                    else records.get(row).put(column.name, previous);
+                }
+                break;
+            case DOUBLE:
+                for (int row : rows) records.get(row).put(column.name, body.getDouble());
+                break;
+            default:
+                ByteBuffer raw = ByteBuffer.wrap(inflate(body, (int) column.rawBytes + 5 * rows.length));
+                for (int row : rows) {
+                    String text = readString(raw, (int) readVarLong(raw));
+                    records.get(row).put(column.name, column.kind == TEXT ? text : new JSONTokener(text).nextValue());
+                }
+        }
+    }
+
+    private static byte[] encodeColumn(Column column, Object[] values) throws IOException {
+        //1.Kind of the column
+        int present = 0;
+        boolean strings = true, integers = true, numbers = true;
+        Set<String> distinct = new HashSet<>();
+        for (Object value : values) {
+            if (value == null) continue;
+            present++;
+            strings &= value instanceof String;
+            integers &= value instanceof Integer || value instanceof Long;
+            numbers &= value instanceof Number && exactDouble((Number) value);
+            if (value instanceof String) distinct.add((String) value);
+        }
+        column.present = present;
+        if (strings) {
+            column.kind = distinct.size() <= Math.max(16, present / 4) ? DICT : TEXT;
+        } else if (integers) {
+            column.kind = INT;
+        } else if (numbers) {
+            column.kind = DOUBLE;
+        } else {
+            column.kind = JSON;
+        }
+        //2.Presence
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        if (present == values.length) {
+            out.writeByte(0);
+        } else {
+            out.writeByte(1);
+            byte[] bitmap = new byte[(values.length + 7) >>> 3];
+            for (int i = 0; i < values.length; i++) if (values[i] != null) bitmap[i >>> 3] |= 1 << (i & 7);
+            out.write(bitmap);
+        }
+        //3.Values
+        column.min = Double.POSITIVE_INFINITY;
+        column.max = Double.NEGATIVE_INFINITY;
+        switch (column.kind) {
+            case DICT:
+                Map<String, Integer> codes = new LinkedHashMap<>();
+                for (Object value : values) {
+                    if (value == null) continue;
+                    Integer code = codes.computeIfAbsent((String) value, k -> codes.size());
+                    writeVarLong(out, code);
+                }
+                column.dictionary = new ArrayList<>(codes.keySet());
+                break;
+            case INT:
+                long previous = 0;
+                for (Object value : values) {
+                    if (value == null) continue;
+                    long current = ((Number) value).longValue();
+                    writeVarLong(out, zigzagEncode(current - previous));
+                    previous = current;
+                    column.min = Math.min(column.min, current);
+                    column.max = Math.max(column.max, current);
+                }
+                break;
+            case DOUBLE:
+                for (Object value : values) {
+                    if (value == null) continue;
+                    double current = ((Number) value).doubleValue();
+                    out.writeDouble(current);
+                    column.min = Math.min(column.min, current);
+                    column.max = Math.max(column.max, current);
+                }
+                break;
+            default:
+                ByteArrayOutputStream rawBytes = new ByteArrayOutputStream();
+                DataOutputStream raw = new DataOutputStream(rawBytes);
+                long textBytes = 0;
+                for (Object value : values) {
+                    if (value == null) continue;
+                    String text = column.kind == TEXT ? (String) value : JSONObject.valueToString(value);
+                    byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+                    writeVarLong(raw, utf8.length);
+                    raw.write(utf8);
+                    textBytes += utf8.length;
+                }
+                column.rawBytes = textBytes;
+                deflate(rawBytes.toByteArray(), out);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    //The number is the same after a round trip through double
+    private static boolean exactDouble(Number value) {
+        if (value instanceof Double || value instanceof Float) return true;
+        double d = value.doubleValue();
+        if (Double.isInfinite(d) || Double.isNaN(d)) return false;
+        BigDecimal exact = value instanceof BigDecimal ? (BigDecimal) value : new BigDecimal(value.toString());
+        return new BigDecimal(Double.toString(d)).compareTo(exact) == 0;
+    }
+
+    private static int[] presentRows(ByteBuffer body, int present, int records) {
+        int[] rows = new int[present];
+        if (body.get() == 0) {
+            for (int i = 0; i < present; i++) rows[i] = i;
+            return rows;
+        }
+        byte[] bitmap = new byte[(records + 7) >>> 3];
+        body.get(bitmap);
+        int count = 0;
+        for (int i = 0; i < records; i++) if ((bitmap[i >>> 3] & (1 << (i & 7))) != 0) rows[count++] = i;
+        return rows;
+    }
+
+    private static void deflate(byte[] raw, DataOutputStream out) throws IOException {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            out.writeInt(raw.length);
+            byte[] buffer = new byte[8192];
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                compressed.write(buffer, 0, n);
+            }
+            out.writeInt(compressed.size());
+            compressed.writeTo(out);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(ByteBuffer body, int maxLength) {
+        int rawLength = body.getInt();
+        if (rawLength < 0 || rawLength > maxLength) throw new IllegalStateException("Corrupted text column");
+        byte[] compressed = new byte[body.getInt()];
+        body.get(compressed);
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] raw = new byte[rawLength];
+            int done = 0;
+            while (done < rawLength && !inflater.finished()) {
+                int n = inflater.inflate(raw, done, rawLength - done);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                done += n;
+            }
+            if (done != rawLength) throw new IllegalStateException("Corrupted text column");
+            return raw;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupted text column", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    //Length (int) and UTF-8 bytes (DataOutput.writeUTF is limited to 64 KB and modified UTF-8)
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    private static String readString(ByteBuffer buffer, int length) {
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+    }
+
+    private static long zigzagEncode(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long zigzagDecode(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+}
@@ -0,0 +1,265 @@
+package org.njupt.util;
+
+import org.json.JSONObject;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Pull conflict records (JSONObject) one by one from a columnar file written by ColumnarRecordWriter
+ * <p>
+ * Only the columns of the given fields are read from disk and decoded, one chunk of records is kept in memory. Chunks
+ * can be skipped by their statistics before any column is read, see where().
+ */
+public class ColumnarRecordReader implements Iterable<JSONObject>, Closeable {
+
+    private final FileChannel channel;
+
+    // null means the whole record
+    private final Set<String> fields;
+
+    private Predicate<ChunkStatistics> filter;
+
+    private long position = 8;
+
+    private List<JSONObject> chunk = Collections.emptyList();
+
+    private int next = 0;
+
+    private int count = 0;
+
+    // directory of the chunk whose statistics were read last
+    private List<ColumnChunk.Column> columns;
+
+    private long bodiesStart;
+
+    private long chunkEnd;
+
+    /**
+     * Record count and column statistics of one chunk, read from the chunk directory only
+     */
+    public static class ChunkStatistics {
+
+        private final int records;
+
+        private final Map<String, ColumnChunk.Column> columns = new LinkedHashMap<>();
+
+        private ChunkStatistics(int records, List<ColumnChunk.Column> columns) {
+            this.records = records;
+            for (ColumnChunk.Column column : columns) this.columns.put(column.name, column);
+        }
+
+        public int records() {
+            return records;
+        }
+
+        public Set<String> fields() {
+            return columns.keySet();
+        }
+
+        /**
+         * Records having the field
+         */
+        public int present(String field) {
+            ColumnChunk.Column column = columns.get(field);
+            return column == null ? 0 : column.present;
+        }
+
+        /**
+         * Min of a number field, NaN if the field is not a number column
+         */
+        public double min(String field) {
+            ColumnChunk.Column column = columns.get(field);
+            return column == null || column.kind != ColumnChunk.INT && column.kind != ColumnChunk.DOUBLE ? Double.NaN : column.min;
+        }
+
+        public double max(String field) {
+            ColumnChunk.Column column = columns.get(field);
+            return column == null || column.kind != ColumnChunk.INT && column.kind != ColumnChunk.DOUBLE ? Double.NaN : column.max;
+        }
+
+        /**
+         * Distinct values of a dictionary field (e.g. res_label), null if the field is not dictionary-encoded
+         */
+        public List<String> values(String field) {
+            ColumnChunk.Column column = columns.get(field);
+            return column == null || column.kind != ColumnChunk.DICT ? null : Collections.unmodifiableList(column.dictionary);
+        }
+
+        /**
+         * Size of a text field before compression, 0 if the field is not a text column
+         */
+        public long textBytes(String field) {
+            ColumnChunk.Column column = columns.get(field);
+            return column == null ? 0 : column.rawBytes;
+        }
+    }
+
+    private ColumnarRecordReader(FileChannel channel, Set<String> fields) throws IOException {
+        this.channel = channel;
+        this.fields = fields;
+        ByteBuffer header = read(0, 8);
+        if (header.getInt() != ColumnChunk.MAGIC || header.getInt() != ColumnChunk.VERSION) {
+            throw new IOException("Not a columnar conflict file");
+        }
+    }
+
+    /**
+     * @param filePath columnar file (".dzc")
+     * @param fields fields to read, empty means the whole record
+     */
+    public static ColumnarRecordReader open(String filePath, String... fields) throws IOException {
+        return open(filePath, fields.length == 0 ? null : new HashSet<>(Arrays.asList(fields)));
+    }
+
+    /**
+     * @param fields fields to read (may still be changed before the first record), null means the whole record
+     */
+    static ColumnarRecordReader open(String filePath, Set<String> fields) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+        try {
+            return new ColumnarRecordReader(channel, fields);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Statistics of all chunks of a file (no column is read)
+     */
+    public static List<ChunkStatistics> statistics(String filePath) throws IOException {
+        List<ChunkStatistics> statistics = new ArrayList<>();
+        try (ColumnarRecordReader reader = open(filePath)) {
+            ChunkStatistics chunk;
+            while ((chunk = reader.nextChunkStatistics()) != null) {
+                statistics.add(chunk);
+                reader.position = reader.chunkEnd;
+            }
+        }
+        return statistics;
+    }
+
+    /**
+     * Skip the chunks whose statistics do not pass, e.g. s -> s.max("id") >= 1000 or s.values("res_label").contains("CB")
+     */
+    public ColumnarRecordReader where(Predicate<ChunkStatistics> filter) {
+        this.filter = filter;
+        return this;
+    }
+
+    /**
+     * @return next record, null if no more record
+     */
+    public JSONObject next() throws IOException {
+        while (next == chunk.size()) {
+            if (!readChunk()) return null;
+        }
+        count++;
+        return chunk.get(next++);
+    }
+
+    /**
+     * Records read until now
+     */
+    public int count() {
+        return count;
+    }
+
+    @Override
+    public Iterator<JSONObject> iterator() {
+        return new Iterator<JSONObject>() {
+            private JSONObject nextObject = nextUnchecked();
+
+            @Override
+            public boolean hasNext() {
+                return nextObject != null;
+            }
+
+            @Override
+            public JSONObject next() {
+                if (nextObject == null) throw new NoSuchElementException();
+                JSONObject current = nextObject;
+                nextObject = nextUnchecked();
+                return current;
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private JSONObject nextUnchecked() {
+        try {
+            return next();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private ChunkStatistics nextChunkStatistics() throws IOException {
+        if (position >= channel.size()) return null;
+        int directoryLength = read(position, 4).getInt();
+        ByteBuffer directory = read(position + 4, directoryLength);
+        int records = ColumnChunk.readRecordCount(directory);
+        columns = ColumnChunk.readDirectory(directory);
+        bodiesStart = position + 4 + directoryLength;
+        long bodiesLength = 0;
+        for (ColumnChunk.Column column : columns) bodiesLength = Math.max(bodiesLength, (long) column.offset + column.length);
+        chunkEnd = bodiesStart + bodiesLength;
+        return new ChunkStatistics(records, columns);
+    }
+
+    private boolean readChunk() throws IOException {
+        while (true) {
+            ChunkStatistics statistics = nextChunkStatistics();
+            if (statistics == null) return false;
+            position = chunkEnd;
+            if (filter != null && !filter.test(statistics)) continue;
+
+            //1.Wanted columns are read at once
+            List<ColumnChunk.Column> wanted = new ArrayList<>();
+            int start = Integer.MAX_VALUE, end = 0;
+            for (ColumnChunk.Column column : columns) {
+                if (fields != null && !fields.contains(column.name)) continue;
+                wanted.add(column);
+                start = Math.min(start, column.offset);
+                end = Math.max(end, column.offset + column.length);
+            }
+            List<JSONObject> records = new ArrayList<>(statistics.records());
+            for (int i = 0; i < statistics.records(); i++) records.add(new JSONObject());
+            if (!wanted.isEmpty()) {
+                ByteBuffer bodies = read(bodiesStart + start, end - start);
+                //2.Decode column by column
+                for (ColumnChunk.Column column : wanted) {
+                    ByteBuffer body = bodies.duplicate();
+                    body.position(column.offset - start);
+                    body.limit(column.offset - start + column.length);
+                    ColumnChunk.decodeColumn(column, body.slice(), records);
+                }
+            }
+            chunk = records;
+            next = 0;
+            return true;
+        }
+    }
+
+    private ByteBuffer read(long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) throw new EOFException("Truncated columnar file");
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+}
@@ -0,0 +1,102 @@
+package org.njupt.util;
+
+import org.json.JSONObject;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Write conflict records (JSONObject) to a binary columnar file (".dzc")
+ * <p>
+ * Records are buffered and written in chunks of chunkSize records, every field of a chunk is one column (see
+ * ColumnChunk): repeated strings like repo / file_name / json_name / res_label are dictionary-encoded, ids are
+ * delta-encoded, the a/o/b/resolution texts are deflated per chunk. Read with {@link ColumnarRecordReader}.
+ */
+public class ColumnarRecordWriter implements Consumer<JSONObject>, Closeable {
+
+    public static final String SUFFIX = ".dzc";
+
+    public static final int DEFAULT_CHUNK_SIZE = 1024;
+
+    private final DataOutputStream out;
+
+    private final int chunkSize;
+
+    private final List<JSONObject> chunk = new ArrayList<>();
+
+    private int count = 0;
+
+    private boolean closed = false;
+
+    private ColumnarRecordWriter(OutputStream out, int chunkSize) throws IOException {
+        if (chunkSize < 1) throw new IllegalArgumentException("chunkSize must be positive");
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        this.chunkSize = chunkSize;
+        this.out.writeInt(ColumnChunk.MAGIC);
+        this.out.writeInt(ColumnChunk.VERSION);
+    }
+
+    public static ColumnarRecordWriter open(String filePath) throws IOException {
+        return open(filePath, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param filePath columnar file path (parent directory is created if not exists)
+     * @param chunkSize records per chunk
+     */
+    public static ColumnarRecordWriter open(String filePath, int chunkSize) throws IOException {
+        Path path = Paths.get(filePath);
+        Path parentDir = path.getParent();
+        if (parentDir != null && !Files.exists(parentDir)) {
+            Files.createDirectories(parentDir);
+        }
+        return new ColumnarRecordWriter(Files.newOutputStream(path), chunkSize);
+    }
+
+    /**
+     * Write one record
+     */
+    public void write(JSONObject jsonObject) throws IOException {
+        chunk.add(jsonObject);
+        count++;
+        if (chunk.size() == chunkSize) flushChunk();
+    }
+
+    @Override
+    public void accept(JSONObject jsonObject) {
+        try {
+            write(jsonObject);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Records written until now
+     */
+    public int count() {
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            if (!chunk.isEmpty()) flushChunk();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void flushChunk() throws IOException {
+        out.write(ColumnChunk.encode(chunk));
+        chunk.clear();
+    }
+
+}
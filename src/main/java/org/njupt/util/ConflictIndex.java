@@ -0,0 +1,486 @@
+package org.njupt.util;
+
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.IntPredicate;
+
+/**
+ * Random access to the conflict records of a result file by id
+ * <p>
+ * build() scans the file once (bytes only, no record is built) and writes "result.json.idx": id -> byte offset and
+ * length of the record, sorted by id, optionally with a group field (e.g. res_label) for stratified samples. A record
+ * without "id" is keyed by its 1-based index in the file. open() loads the index, get() / text() / sample() decode only
+ * the requested records. The result file is memory-mapped at the first of them, never by build() alone: a mapping keeps
+ * the file locked on Windows until it is garbage collected, even after close().
+ */
+public class ConflictIndex implements Closeable {
+
+    public static final Logger logger = LoggerFactory.getLogger(ConflictIndex.class);
+
+    public static final String SUFFIX = ".idx";
+
+    // "DZYX"
+    private static final int MAGIC = 0x445A5958;
+
+    private static final int VERSION = 1;
+
+    private static final int SEGMENT_BITS = 30;
+
+    // longer key or group values are not kept while scanning
+    private static final int MAX_VALUE_LENGTH = 1024;
+
+    private final String resultPath;
+
+    private final String groupField;
+
+    private final List<String> groups;
+
+    private final int[] ids;
+
+    private final long[] offsets;
+
+    private final int[] lengths;
+
+    private final int[] groupIndexes;
+
+    private FileChannel channel;
+
+    // the result file in segments of 1 GB, null until a record is read
+    private MappedByteBuffer[] segments;
+
+    private ConflictIndex(String resultPath, String groupField, List<String> groups, int[] ids, long[] offsets, int[] lengths, int[] groupIndexes) throws IOException {
+        this.resultPath = resultPath;
+        this.groupField = groupField;
+        this.groups = groups;
+        this.ids = ids;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.groupIndexes = groupIndexes;
+    }
+
+    /**
+     * Map the result file at the first read
+     */
+    private synchronized MappedByteBuffer[] segments() throws IOException {
+        if (segments != null) return segments;
+        channel = FileChannel.open(Paths.get(resultPath), StandardOpenOption.READ);
+        long size = channel.size();
+        MappedByteBuffer[] mapped = new MappedByteBuffer[(int) ((size + (1L << SEGMENT_BITS) - 1) >>> SEGMENT_BITS)];
+        for (int i = 0; i < mapped.length; i++) {
+            long position = (long) i << SEGMENT_BITS;
+            mapped[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(1L << SEGMENT_BITS, size - position));
+        }
+        return segments = mapped;
+    }
+
+    public static String path(String resultPath) {
+        return resultPath + SUFFIX;
+    }
+
+    /**
+     * Index a result file without group field
+     */
+    public static ConflictIndex build(String resultPath) throws IOException {
+        return build(resultPath, null);
+    }
+
+    /**
+     * Scan the result file (JSON array or JSON Lines) and write the index file
+     * @return the index, the result file is not mapped until a record is read
+     * @param groupField top-level field used by sample(quota), e.g. "res_label", null if none
+     */
+    public static ConflictIndex build(String resultPath, String groupField) throws IOException {
+        if (resultPath.endsWith(ColumnarRecordWriter.SUFFIX)) throw new IllegalArgumentException("Columnar file has no record offsets: " + resultPath);
+        logger.info("Build index of {}", resultPath);
+        Path result = Paths.get(resultPath);
+        Scanner scanner = new Scanner(groupField);
+        try (InputStream in = Files.newInputStream(result)) {
+            scanner.scan(in);
+        }
+
+        //1.Sort by id
+        int count = scanner.count;
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) order[i] = i;
+        Arrays.sort(order, Comparator.comparingInt(i -> scanner.ids[i]));
+        int[] ids = new int[count];
+        long[] offsets = new long[count];
+        int[] lengths = new int[count];
+        int[] groupIndexes = new int[count];
+        int duplicates = 0;
+        for (int i = 0; i < count; i++) {
+            int record = order[i];
+            ids[i] = scanner.ids[record];
+            offsets[i] = scanner.offsets[record];
+            lengths[i] = scanner.lengths[record];
+            groupIndexes[i] = scanner.groupIndexes[record];
+            if (i > 0 && ids[i] == ids[i - 1]) duplicates++;
+        }
+        if (duplicates > 0) logger.warn("{} duplicate ids in {}, only one of them can be found", duplicates, resultPath);
+
+        //2.Write the index file
+        Path target = Paths.get(path(resultPath));
+        Path temp = Paths.get(target + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(Files.size(result));
+            out.writeLong(Files.getLastModifiedTime(result).toMillis());
+            out.writeUTF(groupField == null ? "" : groupField);
+            out.writeInt(scanner.groups.size());
+            for (String group : scanner.groups) out.writeUTF(group);
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                out.writeInt(ids[i]);
+                out.writeLong(offsets[i]);
+                out.writeInt(lengths[i]);
+                out.writeInt(groupIndexes[i]);
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        logger.info("Indexed {} records of {}", count, resultPath);
+        return new ConflictIndex(resultPath, groupField, scanner.groups, ids, offsets, lengths, groupIndexes);
+    }
+
+    /**
+     * Open the index of a result file
+     * @throws IOException if there is no index or the result file changed after it was built
+     */
+    public static ConflictIndex open(String resultPath) throws IOException {
+        Path result = Paths.get(resultPath);
+        String indexPath = path(resultPath);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(Paths.get(indexPath))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) throw new IOException("Not a conflict index: " + indexPath);
+            if (in.readLong() != Files.size(result) || in.readLong() != Files.getLastModifiedTime(result).toMillis()) {
+                throw new IOException("Index is out of date: " + indexPath);
+            }
+            String groupField = in.readUTF();
+            List<String> groups = new ArrayList<>();
+            for (int i = in.readInt(); i > 0; i--) groups.add(in.readUTF());
+            int count = in.readInt();
+            int[] ids = new int[count];
+            long[] offsets = new long[count];
+            int[] lengths = new int[count];
+            int[] groupIndexes = new int[count];
+            for (int i = 0; i < count; i++) {
+                ids[i] = in.readInt();
+                offsets[i] = in.readLong();
+                lengths[i] = in.readInt();
+                groupIndexes[i] = in.readInt();
+            }
+            return new ConflictIndex(resultPath, groupField.isEmpty() ? null : groupField, groups, ids, offsets, lengths, groupIndexes);
+        }
+    }
+
+    /**
+     * Open the index, build it first if there is none or it is out of date
+     */
+    public static ConflictIndex openOrBuild(String resultPath, String groupField) throws IOException {
+        try {
+            ConflictIndex index = open(resultPath);
+            if (Objects.equals(index.groupField, groupField)) return index;
+            index.close();
+        } catch (IOException e) {
+            logger.info("{}, build it again", e.getMessage());
+        }
+        return build(resultPath, groupField);
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public boolean contains(int id) {
+        return Arrays.binarySearch(ids, id) >= 0;
+    }
+
+    /**
+     * @param fields fields to decode, empty means the whole record
+     * @return record of the conflict id, null if there is none
+     */
+    public JSONObject get(int id, String... fields) throws IOException {
+        int i = Arrays.binarySearch(ids, id);
+        return i < 0 ? null : decode(i, fields);
+    }
+
+    /**
+     * Record text of the conflict id as it is in the file, null if there is none
+     */
+    public String text(int id) throws IOException {
+        int i = Arrays.binarySearch(ids, id);
+        return i < 0 ? null : new String(bytes(offsets[i], lengths[i]), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Simple random sample of n records (all records if there are fewer), in id order
+     */
+    public List<JSONObject> sample(int n, long seed, String... fields) throws IOException {
+        return sample(n, seed, id -> true, fields);
+    }
+
+    /**
+     * Simple random sample of n records whose id passes the filter, e.g. NearDuplicateDetector.representatives
+     */
+    public List<JSONObject> sample(int n, long seed, IntPredicate filter, String... fields) throws IOException {
+        int[] candidates = new int[ids.length];
+        int size = 0;
+        for (int i = 0; i < ids.length; i++) if (filter.test(ids[i])) candidates[size++] = i;
+        return decodeAll(choose(candidates, size, n, new Random(seed)), fields);
+    }
+
+    /**
+     * Stratified sample by the group field of the index, e.g. {A=29, B=13, NC=16} (res_label)
+     * @return group -> records in id order
+     */
+    public Map<String, List<JSONObject>> sample(Map<String, Integer> quota, long seed, String... fields) throws IOException {
+        return sample(quota, seed, id -> true, fields);
+    }
+
+    /**
+     * Stratified sample of the records whose id passes the filter
+     * @return group -> records in id order
+     */
+    public Map<String, List<JSONObject>> sample(Map<String, Integer> quota, long seed, IntPredicate filter, String... fields) throws IOException {
+        if (groupField == null) throw new IllegalStateException("Index of " + resultPath + " has no group field");
+        //1.Records of every group
+        int[][] members = new int[groups.size()][];
+        int[] sizes = new int[groups.size()];
+        for (int i = 0; i < groupIndexes.length; i++) if (groupIndexes[i] >= 0 && filter.test(ids[i])) sizes[groupIndexes[i]]++;
+        for (int g = 0; g < members.length; g++) members[g] = new int[sizes[g]];
+        Arrays.fill(sizes, 0);
+        for (int i = 0; i < groupIndexes.length; i++) {
+            int group = groupIndexes[i];
+            if (group >= 0 && filter.test(ids[i])) members[group][sizes[group]++] = i;
+        }
+        //2.Random records of every group
+        Random random = new Random(seed);
+        Map<String, List<JSONObject>> samples = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> entry : quota.entrySet()) {
+            int g = groups.indexOf(entry.getKey());
+            int[] chosen = g < 0 ? new int[0] : choose(members[g], members[g].length, entry.getValue(), random);
+            samples.put(entry.getKey(), decodeAll(chosen, fields));
+        }
+        return samples;
+    }
+
+    /**
+     * Number of records of every group value
+     */
+    public Map<String, Integer> groupSizes() {
+        Map<String, Integer> sizes = new LinkedHashMap<>();
+        for (String group : groups) sizes.put(group, 0);
+        for (int group : groupIndexes) if (group >= 0) sizes.merge(groups.get(group), 1, Integer::sum);
+        return sizes;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        segments = null;
+        if (channel != null) channel.close();
+        channel = null;
+    }
+
+    //Partial Fisher-Yates shuffle, chosen positions are sorted again (file order of ids)
+    private static int[] choose(int[] candidates, int size, int n, Random random) {
+        int[] copy = Arrays.copyOf(candidates, size);
+        int k = Math.min(n, size);
+        for (int i = 0; i < k; i++) {
+            int j = i + random.nextInt(size - i);
+            int tmp = copy[i];
+            copy[i] = copy[j];
+            copy[j] = tmp;
+        }
+        int[] chosen = Arrays.copyOf(copy, k);
+        Arrays.sort(chosen);
+        return chosen;
+    }
+
+    private List<JSONObject> decodeAll(int[] positions, String... fields) throws IOException {
+        List<JSONObject> records = new ArrayList<>(positions.length);
+        for (int i : positions) records.add(decode(i, fields));
+        return records;
+    }
+
+    private JSONObject decode(int i, String... fields) throws IOException {
+        String text = new String(bytes(offsets[i], lengths[i]), StandardCharsets.UTF_8);
+        if (fields.length == 0) return new JSONObject(text);
+        try (ConflictRecordReader reader = ConflictRecordReader.open(new StringReader(text), fields)) {
+            return reader.next();
+        }
+    }
+
+    private byte[] bytes(long offset, int length) throws IOException {
+        MappedByteBuffer[] segments = segments();
+        byte[] bytes = new byte[length];
+        int done = 0;
+        while (done < length) {
+            long position = offset + done;
+            ByteBuffer segment = segments[(int) (position >>> SEGMENT_BITS)].duplicate();
+            segment.position((int) (position & ((1L << SEGMENT_BITS) - 1)));
+            int n = Math.min(length - done, segment.remaining());
+            segment.get(bytes, done, n);
+            done += n;
+        }
+        return bytes;
+    }
+
+    /**
+     * Finds the byte range of every top-level record and the values of its "id" and group fields
+     */
+    private static class Scanner {
+
+        private final String groupField;
+
+        private final List<String> groups = new ArrayList<>();
+
+        private final Map<String, Integer> groupIds = new HashMap<>();
+
+        private int[] ids = new int[1024];
+
+        private long[] offsets = new long[1024];
+
+        private int[] lengths = new int[1024];
+
+        private int[] groupIndexes = new int[1024];
+
+        private int count = 0;
+
+        //value text at the top level of the current record
+        private final byte[] token = new byte[MAX_VALUE_LENGTH + 1];
+
+        private int tokenLength = 0;
+
+        private String key;
+
+        private Integer id;
+
+        private int group;
+
+        Scanner(String groupField) {
+            this.groupField = groupField;
+        }
+
+        void scan(InputStream in) throws IOException {
+            int recordDepth = -1;
+            int depth = 0;
+            boolean inString = false, escape = false;
+            long start = 0;
+            long position = -1;
+            byte[] buffer = new byte[1 << 16];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                for (int i = 0; i < n; i++) {
+                    int b = buffer[i] & 0xFF;
+                    position++;
+                    if (inString) {
+                        if (escape) escape = false;
+                        else if (b == '\\') escape = true;
+                        else if (b == '"') inString = false;
+                        if (depth == recordDepth + 1) keep(b);
+                        continue;
+                    }
+                    switch (b) {
+                        case '"':
+                            inString = true;
+                            if (depth == recordDepth + 1) keep(b);
+                            break;
+                        case '[':
+                            //the outer array of a JSON array file
+                            if (recordDepth < 0) recordDepth = 1;
+                            depth++;
+                            break;
+                        case '{':
+                            if (recordDepth < 0) recordDepth = 0;
+                            if (depth == recordDepth) {
+                                start = position;
+                                key = null;
+                                id = null;
+                                group = -1;
+                                tokenLength = 0;
+                            }
+                            depth++;
+                            break;
+                        case ']':
+                            depth--;
+                            break;
+                        case '}':
+                            if (depth == recordDepth + 1) {
+                                value();
+                                add(start, (int) (position - start + 1));
+                            }
+                            depth--;
+                            break;
+                        case ':':
+                            if (depth == recordDepth + 1) {
+                                Object name = decode();
+                                key = name instanceof String ? (String) name : null;
+                                tokenLength = 0;
+                            }
+                            break;
+                        case ',':
+                            if (depth == recordDepth + 1) value();
+                            break;
+                        default:
+                            if (depth == recordDepth + 1 && b > ' ') keep(b);
+                    }
+                }
+            }
+            if (depth != 0 || inString) throw new IOException("Unterminated record at byte " + start);
+        }
+
+        private void keep(int b) {
+            if (tokenLength < token.length) token[tokenLength++] = (byte) b;
+        }
+
+        private Object decode() {
+            if (tokenLength == 0 || tokenLength > MAX_VALUE_LENGTH) return null;
+            return new JSONTokener(new String(token, 0, tokenLength, StandardCharsets.UTF_8)).nextValue();
+        }
+
+        //end of one top-level value of the record
+        private void value() {
+            if ("id".equals(key)) {
+                Object value = decode();
+                if (value instanceof Number) id = ((Number) value).intValue();
+            } else if (key != null && key.equals(groupField)) {
+                Object value = decode();
+                String name = value == null ? "null" : value.toString();
+                group = groupIds.computeIfAbsent(name, k -> {
+                    groups.add(k);
+                    return groups.size() - 1;
+                });
+            }
+            key = null;
+            tokenLength = 0;
+        }
+
+        private void add(long offset, int length) {
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+                offsets = Arrays.copyOf(offsets, count * 2);
+                lengths = Arrays.copyOf(lengths, count * 2);
+                groupIndexes = Arrays.copyOf(groupIndexes, count * 2);
+            }
+            ids[count] = id == null ? count + 1 : id;
+            offsets[count] = offset;
+            lengths[count] = length;
+            groupIndexes[count] = group;
+            count++;
+        }
+    }
+
+}
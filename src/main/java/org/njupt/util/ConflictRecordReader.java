@@ -0,0 +1,232 @@
+package org.njupt.util;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Pull conflict records (JSONObject) one by one from a result file
+ * <p>
+ * Reads a JSON array file (compact or pretty) or a JSON Lines file in one sequential pass, only one record is kept in
+ * memory. With field projection only the given fields are built, the other values are skipped char by char.
+ * A columnar file (".dzc", see ColumnarRecordWriter) is read by ColumnarRecordReader, only the given columns are read.
+ */
+public class ConflictRecordReader implements Iterable<JSONObject>, Closeable {
+
+    private final Reader reader;
+
+    private final JSONTokener tokener;
+
+    private final Set<String> fields;
+
+    // columnar file only
+    private final ColumnarRecordReader columnar;
+
+    private String filePath;
+
+    // sidecar columns joined by id
+    private final Map<String, MetricColumn> columns = new LinkedHashMap<>();
+
+    private final boolean array;
+
+    private boolean end = false;
+
+    private int count = 0;
+
+    private ConflictRecordReader(Reader reader, Set<String> fields) {
+        this.reader = reader;
+        this.tokener = new JSONTokener(reader);
+        this.fields = fields;
+        this.columnar = null;
+        char c = tokener.nextClean();
+        this.array = c == '[';
+        if (!array) {
+            if (c == 0) end = true;
+            else tokener.back();
+        } else if (tokener.nextClean() == ']') {
+            end = true;
+        } else {
+            tokener.back();
+        }
+    }
+
+    private ConflictRecordReader(ColumnarRecordReader columnar, Set<String> fields) {
+        this.reader = null;
+        this.tokener = null;
+        this.fields = fields;
+        this.columnar = columnar;
+        this.array = false;
+    }
+
+    /**
+     * @param filePath result file (JSON array, JSON Lines or columnar ".dzc")
+     * @param fields fields to read, empty means the whole record
+     */
+    public static ConflictRecordReader open(String filePath, String... fields) throws IOException {
+        Set<String> projection = fields.length == 0 ? null : new HashSet<>(Arrays.asList(fields));
+        ConflictRecordReader recordReader = filePath.endsWith(ColumnarRecordWriter.SUFFIX)
+                ? new ConflictRecordReader(ColumnarRecordReader.open(filePath, projection), projection)
+                : new ConflictRecordReader(Files.newBufferedReader(Paths.get(filePath), StandardCharsets.UTF_8), projection);
+        recordReader.filePath = filePath;
+        return recordReader;
+    }
+
+    /**
+     * @param reader JSON array or JSON Lines text, e.g. one record
+     * @param fields fields to read, empty means the whole record
+     */
+    public static ConflictRecordReader open(Reader reader, String... fields) {
+        Set<String> projection = fields.length == 0 ? null : new HashSet<>(Arrays.asList(fields));
+        return new ConflictRecordReader(reader, projection);
+    }
+
+    /**
+     * Join sidecar metric columns of the file ({@link MetricColumn}), a column value replaces the field of the record.
+     * Columns that were never written or are out of date (computed from an older result file) are ignored.
+     */
+    public ConflictRecordReader join(String... names) throws IOException {
+        if (filePath == null) throw new IllegalStateException("Columns can only be joined to a file opened by path");
+        for (String name : names) {
+            if (MetricColumn.isCurrent(filePath, name)) columns.put(name, MetricColumn.read(filePath, name));
+        }
+        if (fields != null && !columns.isEmpty()) fields.add("id");
+        return this;
+    }
+
+    /**
+     * @return next record, null if no more record
+     */
+    public JSONObject next() throws JSONException {
+        if (end) return null;
+        JSONObject jsonObject = columnar == null ? readObject() : nextColumnar();
+        if (jsonObject == null) {
+            end = true;
+            return null;
+        }
+        count++;
+        if (!columns.isEmpty()) {
+            int id = MetricColumn.id(jsonObject, count);
+            for (Map.Entry<String, MetricColumn> column : columns.entrySet()) {
+                if (column.getValue().contains(id)) jsonObject.put(column.getKey(), column.getValue().get(id));
+            }
+        }
+        if (columnar != null) return jsonObject;
+        char c = tokener.nextClean();
+        if (array) {
+            if (c == ']') end = true;
+            else if (c != ',') throw tokener.syntaxError("Expected a ',' or ']'");
+        } else {
+            if (c == 0) end = true;
+            else tokener.back();
+        }
+        return jsonObject;
+    }
+
+    /**
+     * Records read until now
+     */
+    public int count() {
+        return count;
+    }
+
+    @Override
+    public Iterator<JSONObject> iterator() {
+        return new Iterator<JSONObject>() {
+            private JSONObject nextObject = ConflictRecordReader.this.next();
+
+            @Override
+            public boolean hasNext() {
+                return nextObject != null;
+            }
+
+            @Override
+            public JSONObject next() {
+                if (nextObject == null) throw new NoSuchElementException();
+                JSONObject current = nextObject;
+                nextObject = ConflictRecordReader.this.next();
+                return current;
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (columnar != null) columnar.close();
+        else reader.close();
+    }
+
+    private JSONObject nextColumnar() {
+        try {
+            return columnar.next();
+        } catch (IOException e) {
+            throw new JSONException("Failed to read columnar file", e);
+        }
+    }
+
+    //Same syntax as new JSONObject(JSONTokener), unwanted values are skipped
+    private JSONObject readObject() {
+        if (tokener.nextClean() != '{') throw tokener.syntaxError("A JSONObject text must begin with '{'");
+        JSONObject jsonObject = new JSONObject();
+        if (tokener.nextClean() == '}') return jsonObject;
+        tokener.back();
+        while (true) {
+            String key = tokener.nextValue().toString();
+            if (tokener.nextClean() != ':') throw tokener.syntaxError("Expected a ':' after a key");
+            if (fields == null || fields.contains(key)) {
+                jsonObject.put(key, tokener.nextValue());
+            } else {
+                skipValue();
+            }
+            switch (tokener.nextClean()) {
+                case ',':
+                    if (tokener.nextClean() == '}') return jsonObject;
+                    tokener.back();
+                    break;
+                case '}':
+                    return jsonObject;
+                default:
+                    throw tokener.syntaxError("Expected a ',' or '}'");
+            }
+        }
+    }
+
+    private void skipValue() {
+        char c = tokener.nextClean();
+        if (c == '"' || c == '\'') {
+            skipString(c);
+            return;
+        }
+        if (c == '{' || c == '[') {
+            int depth = 1;
+            while (depth > 0) {
+                c = tokener.next();
+                if (c == 0) throw tokener.syntaxError("Unterminated value");
+                if (c == '"' || c == '\'') skipString(c);
+                else if (c == '{' || c == '[') depth++;
+                else if (c == '}' || c == ']') depth--;
+            }
+            return;
+        }
+        //true, false, null or number
+        while (c >= ' ' && ",:]}/\\\"[{;=#".indexOf(c) < 0) c = tokener.next();
+        tokener.back();
+    }
+
+    private void skipString(char quote) {
+        while (true) {
+            char c = tokener.next();
+            if (c == 0 || c == '\n' || c == '\r') throw tokener.syntaxError("Unterminated string");
+            if (c == '\\') tokener.next();
+            else if (c == quote) return;
+        }
+    }
+
+}
@@ -0,0 +1,234 @@
+package org.njupt.util;
+
+import org.apache.commons.io.output.CountingOutputStream;
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Stream conflict records (JSONObject) to a result file one by one
+ * <p>
+ * JSON_ARRAY and PRETTY_JSON write exactly the same text as JSONArray.toString() / toString(4) of all records,
+ * JSON_LINES writes one compact record per line. Only one record is kept in memory at a time. COLUMNAR (".dzc") is
+ * written by ColumnarRecordWriter, one chunk of records is kept in memory.
+ * <p>
+ * open / openReplacing write to a temp file, which replaces the file only if commit() was called before close(), so
+ * a failed or aborted collection never leaves a truncated file that looks complete (a closed JSON array, a columnar
+ * footer). openAppending continues an existing JSON Lines file, position() is the byte offset in the file.
+ */
+public class ConflictRecordWriter implements Consumer<JSONObject>, Closeable {
+
+    public enum Format { JSON_ARRAY, PRETTY_JSON, JSON_LINES, COLUMNAR }
+
+    private static final int INDENT = 4;
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final BufferedWriter writer;
+
+    private final CountingOutputStream counter;
+
+    // file size before this writer
+    private final long base;
+
+    private final Format format;
+
+    // COLUMNAR only
+    private final ColumnarRecordWriter columnar;
+
+    private int count = 0;
+
+    // PRETTY_JSON: one element array is written without new line, so the first record waits for the second one
+    private JSONObject first;
+
+    // open / openReplacing only
+    private Path tempPath;
+
+    private Path targetPath;
+
+    private boolean committed = false;
+
+    private boolean closed = false;
+
+    private ConflictRecordWriter(CountingOutputStream counter, long base, Format format) throws IOException {
+        this.counter = counter;
+        this.base = base;
+        this.writer = new BufferedWriter(new OutputStreamWriter(counter, StandardCharsets.UTF_8));
+        this.format = format;
+        this.columnar = null;
+        if (format != Format.JSON_LINES) writer.write('[');
+    }
+
+    private ConflictRecordWriter(ColumnarRecordWriter columnar) {
+        this.counter = null;
+        this.base = 0;
+        this.writer = null;
+        this.format = Format.COLUMNAR;
+        this.columnar = columnar;
+    }
+
+    /**
+     * Open a writer, ".jsonl" file is JSON_LINES, ".dzc" file is COLUMNAR, others are JSON_ARRAY. The file is written
+     * only if commit() is called before close().
+     * @param filePath result file path (parent directory is created if not exists)
+     */
+    public static ConflictRecordWriter open(String filePath) throws IOException {
+        return open(filePath, formatOf(filePath));
+    }
+
+    public static ConflictRecordWriter open(String filePath, Format format) throws IOException {
+        ConflictRecordWriter recordWriter = openDirect(filePath + TEMP_SUFFIX, format);
+        recordWriter.tempPath = Paths.get(filePath + TEMP_SUFFIX);
+        recordWriter.targetPath = Paths.get(filePath);
+        return recordWriter;
+    }
+
+    private static ConflictRecordWriter openDirect(String filePath, Format format) throws IOException {
+        if (format == Format.COLUMNAR) return new ConflictRecordWriter(ColumnarRecordWriter.open(filePath));
+        Path path = Paths.get(filePath);
+        Path parentDir = path.getParent();
+        if (parentDir != null && !Files.exists(parentDir)) {
+            Files.createDirectories(parentDir);
+        }
+        return new ConflictRecordWriter(new CountingOutputStream(Files.newOutputStream(path)), 0, format);
+    }
+
+    /**
+     * Open a writer appending to a JSON Lines file (created if not exists)
+     */
+    public static ConflictRecordWriter openAppending(String filePath) throws IOException {
+        if (!filePath.endsWith(".jsonl")) throw new IllegalArgumentException("Only JSON Lines file can be appended: " + filePath);
+        Path path = Paths.get(filePath);
+        Path parentDir = path.getParent();
+        if (parentDir != null && !Files.exists(parentDir)) {
+            Files.createDirectories(parentDir);
+        }
+        long base = Files.exists(path) ? Files.size(path) : 0;
+        return new ConflictRecordWriter(new CountingOutputStream(Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND)), base, Format.JSON_LINES);
+    }
+
+    /**
+     * Open a writer to rewrite filePath (it may still be read by a ConflictRecordReader), same as open(filePath).
+     * Declare it before the reader in try-with-resources, so the reader is closed before the file is replaced.
+     */
+    public static ConflictRecordWriter openReplacing(String filePath) throws IOException {
+        return open(filePath);
+    }
+
+    /**
+     * Write the file with all written records when closed (open / openReplacing only), call it after the last record
+     */
+    public void commit() {
+        committed = true;
+    }
+
+    /**
+     * Write one record
+     */
+    public void write(JSONObject jsonObject) throws IOException {
+        switch (format) {
+            case JSON_LINES:
+                jsonObject.write(writer);
+                writer.write('\n');
+                break;
+            case JSON_ARRAY:
+                if (count > 0) writer.write(',');
+                jsonObject.write(writer);
+                break;
+            case COLUMNAR:
+                columnar.write(jsonObject);
+                break;
+            case PRETTY_JSON:
+                if (count == 0) {
+                    first = jsonObject;
+                    break;
+                }
+                if (count == 1) {
+                    writePretty(first);
+                    first = null;
+                }
+                writer.write(',');
+                writePretty(jsonObject);
+                break;
+        }
+        count++;
+    }
+
+    @Override
+    public void accept(JSONObject jsonObject) {
+        try {
+            write(jsonObject);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Flush and return the byte offset of the next record in the file
+     */
+    public long position() throws IOException {
+        if (format == Format.COLUMNAR) throw new UnsupportedOperationException("No byte position in a columnar file, use JSON Lines to resume a collection");
+        writer.flush();
+        return base + counter.getByteCount();
+    }
+
+    /**
+     * Records written until now
+     */
+    public int count() {
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            if (tempPath != null && !committed) {
+                if (columnar != null) columnar.close();// deleted below
+            } else if (format == Format.COLUMNAR) {
+                columnar.close();
+            } else if (format == Format.JSON_ARRAY) {
+                writer.write(']');
+            } else if (format == Format.PRETTY_JSON) {
+                if (count == 1) {
+                    first.write(writer, INDENT, 0);
+                } else if (count > 1) {
+                    writer.write('\n');
+                }
+                writer.write(']');
+            }
+        } finally {
+            if (writer != null) writer.close();
+        }
+        if (tempPath == null) return;
+        if (committed) {
+            Files.move(tempPath, targetPath, StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.deleteIfExists(tempPath);
+        }
+    }
+
+    private static Format formatOf(String filePath) {
+        if (filePath.endsWith(".jsonl")) return Format.JSON_LINES;
+        if (filePath.endsWith(ColumnarRecordWriter.SUFFIX)) return Format.COLUMNAR;
+        return Format.JSON_ARRAY;
+    }
+
+    private void writePretty(JSONObject jsonObject) throws IOException {
+        writer.write('\n');
+        for (int i = 0; i < INDENT; i++) writer.write(' ');
+        jsonObject.write(writer, INDENT, INDENT);
+    }
+
+}
@@ -0,0 +1,635 @@
+package org.njupt.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * In-process token-level diff3 (replace "git merge-file --diff3" subprocess)
+ * <p>
+ * This is a port of git's xdiff merge path (xprepare + xdiffi + xmerge, Myers diff without indent heuristic,
+ * merge level EAGER because of diff3 style), working on the token lists of {@link DzyUtils#newTokenizer(String)}.
+ * Every token is one record, exactly like the token file written by {@link DzyUtils#tokenListToNewFile(String, List)}
+ * (one token per line, no newline after the last token), so the merge/conflict decisions and the merged lines
+ * are the same as the lines read back from the merged file.
+ */
+public class Diff3Merger {
+
+    public static final String StartDiffMark = "<<<<<<<";
+
+    public static final String MidDiffMark1 = "|||||||";
+
+    public static final String MidDiffMark2 = "=======";
+
+    public static final String EndDiffMark = ">>>>>>>";
+
+    // conflict marks in merged records
+    static final int START_MARK = -1, MID_MARK1 = -2, MID_MARK2 = -3, END_MARK = -4;
+
+    private static final int MAX_EQLIMIT = 1024;
+
+    private static final int SIMSCAN_WINDOW = 100;
+
+    private static final int KPDIS_RUN = 4;
+
+    private static final int MAX_COST_MIN = 256;
+
+    private static final int HEUR_MIN_COST = 256;
+
+    private static final int SNAKE_CNT = 20;
+
+    private static final int K_HEUR = 4;
+
+    private static final int LINE_MAX = Integer.MAX_VALUE;
+
+    /**
+     * Diff3 merge A O B tokens (like "git merge-file --diff3 A O B")
+     * @param listA tokens of ours
+     * @param listO tokens of base
+     * @param listB tokens of theirs
+     * @param nameA label of ours marker (git uses the merged file path)
+     * @param nameO label of base marker
+     * @param nameB label of theirs marker
+     * @return lines of the merged file (tokens and conflict marks)
+     */
+    public static List<String> merge(List<String> listA, List<String> listO, List<String> listB, String nameA, String nameO, String nameB) {
+        return merge(CodeTokens.of(listA), CodeTokens.of(listO), CodeTokens.of(listB), nameA, nameO, nameB);
+    }
+
+    /**
+     * Diff3 merge A O B token id streams (line breaks are records "NewLineDZY" like the token file)
+     */
+    public static List<String> merge(CodeTokens tokensA, CodeTokens tokensO, CodeTokens tokensB, String nameA, String nameO, String nameB) {
+        return mergeHunks(tokensA, tokensO, tokensB).lines(nameA, nameO, nameB);
+    }
+
+    /**
+     * Diff3 merge without marker labels
+     * @return record ids of the merged file (see TokenVocabulary), conflict marks are negative (labels are added by toLines)
+     */
+    public static int[] mergeRecords(CodeTokens tokensA, CodeTokens tokensO, CodeTokens tokensB) {
+        return mergeHunks(tokensA, tokensO, tokensB).records();
+    }
+
+    /**
+     * Diff3 merge A O B token id streams into stable / conflict hunks
+     */
+    public static MergeHunks mergeHunks(CodeTokens tokensA, CodeTokens tokensO, CodeTokens tokensB) {
+        //1.Split tokens into records(lines) and classify them
+        int[] recA = tokensA.records();
+        int[] recO = tokensO.records();
+        int[] recB = tokensB.records();
+        RecordClasses classes = new RecordClasses(recA.length + recO.length + recB.length);
+        int[] haA = classes.classify(recA);
+        int[] haO = classes.classify(recO);
+        int[] haB = classes.classify(recB);
+        int classCount = classes.size();
+
+        //2.Two-way diffs (O->A, O->B)
+        List<int[]> scriptA = diff(haO, haA, classCount);
+        List<int[]> scriptB = diff(haO, haB, classCount);
+
+        //3.Merge two edit scripts
+        List<MergeHunks.Hunk> hunks = new ArrayList<>();
+        if (scriptA.isEmpty()) {
+            if (recB.length > 0) hunks.add(MergeHunks.stable(MergeHunks.B, 0, recB.length));
+            return new MergeHunks(tokensA, tokensO, tokensB, recA, recO, recB, hunks);
+        }
+        if (scriptB.isEmpty()) {
+            if (recA.length > 0) hunks.add(MergeHunks.stable(MergeHunks.A, 0, recA.length));
+            return new MergeHunks(tokensA, tokensO, tokensB, recA, recO, recB, hunks);
+        }
+        List<int[]> merges = doMerge(scriptA, scriptB, haO.length, haA, haB);
+
+        //4.Hunks in merged order (unchanged records are taken from A)
+        int i = 0;
+        for (int[] m : merges) {
+            if (i < m[3]) hunks.add(MergeHunks.stable(MergeHunks.A, i, m[3]));
+            if (m[0] == 0) {
+                hunks.add(MergeHunks.conflict(m[3], m[3] + m[4], m[1], m[1] + m[2], m[5], m[5] + m[6]));
+            } else {
+                if ((m[0] & 1) != 0 && m[4] > 0) hunks.add(MergeHunks.stable(MergeHunks.A, m[3], m[3] + m[4]));
+                if ((m[0] & 2) != 0 && m[6] > 0) hunks.add(MergeHunks.stable(MergeHunks.B, m[5], m[5] + m[6]));
+            }
+            i = m[3] + m[4];
+        }
+        if (i < recA.length) hunks.add(MergeHunks.stable(MergeHunks.A, i, recA.length));
+        return new MergeHunks(tokensA, tokensO, tokensB, recA, recO, recB, hunks);
+    }
+
+    /**
+     * Lines of the merged file, conflict marks are labeled like git merge-file
+     * @param merged records of mergeRecords
+     */
+    public static List<String> toLines(int[] merged, String nameA, String nameO, String nameB) {
+        return toLines(merged, TokenVocabulary::text, nameA, nameO, nameB);
+    }
+
+    /**
+     * @param text text of a record id (e.g. CodeTokens.text of line tokens)
+     */
+    static List<String> toLines(int[] merged, IntFunction<String> text, String nameA, String nameO, String nameB) {
+        List<String> mergedLines = new ArrayList<>(merged.length);
+        for (int record : merged) {
+            switch (record) {
+                case START_MARK:
+                    mergedLines.add(marker(StartDiffMark, nameA));
+                    break;
+                case MID_MARK1:
+                    mergedLines.add(marker(MidDiffMark1, nameO));
+                    break;
+                case MID_MARK2:
+                    mergedLines.add(MidDiffMark2);
+                    break;
+                case END_MARK:
+                    mergedLines.add(marker(EndDiffMark, nameB));
+                    break;
+                default:
+                    mergedLines.add(text.apply(record));
+            }
+        }
+        return mergedLines;
+    }
+
+    /**
+     * Whether merged lines still contain a conflict block
+     */
+    public static boolean hasConflict(List<String> mergedLines) {
+        for (String line : mergedLines) {
+            if (line.startsWith(StartDiffMark)) return true;
+        }
+        return false;
+    }
+
+    static String marker(String mark, String name) {
+        return name == null ? mark : mark + " " + name;
+    }
+
+    /**
+     * Dense local classes of record ids (open addressing), the last record has no newline,
+     * xdiff never matches it with the same text ending with newline
+     */
+    private static class RecordClasses {
+        private final long[] keys;
+        private final int[] values;
+        private int size = 0;
+
+        RecordClasses(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(expected, 4) * 2 - 1) << 1;
+            keys = new long[capacity];
+            values = new int[capacity];
+            Arrays.fill(keys, -1L);
+        }
+
+        int[] classify(int[] records) {
+            int[] ha = new int[records.length];
+            for (int i = 0; i < records.length; i++) {
+                long key = ((long) records[i] << 1) | (i == records.length - 1 ? 1 : 0);
+                int mask = keys.length - 1;
+                int slot = (int) (key * 0x9E3779B97F4A7C15L >>> 32) & mask;
+                while (keys[slot] != -1L && keys[slot] != key) slot = (slot + 1) & mask;
+                if (keys[slot] == -1L) {
+                    keys[slot] = key;
+                    values[slot] = size++;
+                }
+                ha[i] = values[slot];
+            }
+            return ha;
+        }
+
+        int size() {
+            return size;
+        }
+    }
+
+    /**
+     * Myers diff of two record arrays (xdl_do_diff + xdl_change_compact + xdl_build_script)
+     * @return changes {i1, i2, chg1, chg2} in order
+     */
+    private static List<int[]> diff(int[] ha1, int[] ha2, int classCount) {
+        int n1 = ha1.length, n2 = ha2.length;
+        boolean[] rchg1 = new boolean[n1 + 2];// index offset 1 (sentinel in both ends)
+        boolean[] rchg2 = new boolean[n2 + 2];
+
+        //1.xdl_trim_ends
+        int lim = Math.min(n1, n2), i;
+        for (i = 0; i < lim; i++) {
+            if (ha1[i] != ha2[i]) break;
+        }
+        int dstart = i;
+        for (lim -= i, i = 0; i < lim; i++) {
+            if (ha1[n1 - 1 - i] != ha2[n2 - 1 - i]) break;
+        }
+        int dend1 = n1 - i - 1, dend2 = n2 - i - 1;
+
+        //2.xdl_cleanup_records
+        int[] len1 = new int[classCount + 1];
+        int[] len2 = new int[classCount + 1];
+        for (int ha : ha1) len1[ha]++;
+        for (int ha : ha2) len2[ha]++;
+        int[] rindex1 = new int[n1], reduced1 = new int[n1];
+        int[] rindex2 = new int[n2], reduced2 = new int[n2];
+        int nreff1 = cleanupRecords(ha1, dstart, dend1, len2, rchg1, rindex1, reduced1);
+        int nreff2 = cleanupRecords(ha2, dstart, dend2, len1, rchg2, rindex2, reduced2);
+
+        //3.xdl_recs_cmp
+        int ndiags = nreff1 + nreff2 + 3;
+        int[] kvdf = new int[ndiags];
+        int[] kvdb = new int[ndiags];
+        int mxcost = Math.max(bogoSqrt(ndiags), MAX_COST_MIN);
+        new Split(reduced1, rindex1, rchg1, reduced2, rindex2, rchg2, kvdf, kvdb, nreff2 + 1, mxcost)
+                .recsCmp(0, nreff1, 0, nreff2, false);
+
+        //4.xdl_change_compact
+        changeCompact(ha1, rchg1, rchg2);
+        changeCompact(ha2, rchg2, rchg1);
+
+        //5.xdl_build_script
+        List<int[]> script = new ArrayList<>();
+        for (int i1 = n1, i2 = n2; i1 >= 0 || i2 >= 0; i1--, i2--) {
+            if (changed(rchg1, i1 - 1) || changed(rchg2, i2 - 1)) {
+                int l1 = i1, l2 = i2;
+                while (changed(rchg1, i1 - 1)) i1--;
+                while (changed(rchg2, i2 - 1)) i2--;
+                script.add(0, new int[]{i1, i2, l1 - i1, l2 - i2});
+            }
+        }
+        return script;
+    }
+
+    private static boolean changed(boolean[] rchg, int i) {
+        return i >= -1 && i + 1 < rchg.length && rchg[i + 1];
+    }
+
+    private static int cleanupRecords(int[] ha, int dstart, int dend, int[] lenOther, boolean[] rchg, int[] rindex, int[] reduced) {
+        if (dend < dstart) return 0;
+        int mlim = Math.min(bogoSqrt(ha.length), MAX_EQLIMIT);
+        byte[] dis = new byte[ha.length + 1];
+        for (int i = dstart; i <= dend; i++) {
+            int nm = lenOther[ha[i]];
+            dis[i] = (byte) (nm == 0 ? 0 : nm >= mlim ? 2 : 1);
+        }
+        int nreff = 0;
+        for (int i = dstart; i <= dend; i++) {
+            if (dis[i] == 1 || (dis[i] == 2 && !cleanMatch(dis, i, dstart, dend))) {
+                rindex[nreff] = i;
+                reduced[nreff] = ha[i];
+                nreff++;
+            } else {
+                rchg[i + 1] = true;
+            }
+        }
+        return nreff;
+    }
+
+    private static boolean cleanMatch(byte[] dis, int i, int s, int e) {
+        if (i - s > SIMSCAN_WINDOW) s = i - SIMSCAN_WINDOW;
+        if (e - i > SIMSCAN_WINDOW) e = i + SIMSCAN_WINDOW;
+        int r, rdis0, rpdis0, rdis1, rpdis1;
+        for (r = 1, rdis0 = 0, rpdis0 = 1; (i - r) >= s; r++) {
+            if (dis[i - r] == 0) rdis0++;
+            else if (dis[i - r] == 2) rpdis0++;
+            else break;
+        }
+        if (rdis0 == 0) return false;
+        for (r = 1, rdis1 = 0, rpdis1 = 1; (i + r) <= e; r++) {
+            if (dis[i + r] == 0) rdis1++;
+            else if (dis[i + r] == 2) rpdis1++;
+            else break;
+        }
+        if (rdis1 == 0) return false;
+        rdis1 += rdis0;
+        rpdis1 += rpdis0;
+        return rpdis1 * KPDIS_RUN < (rpdis1 + rdis1);
+    }
+
+    private static int bogoSqrt(int n) {
+        int i;
+        for (i = 1; n > 0; n >>= 2) i <<= 1;
+        return i;
+    }
+
+    /**
+     * Divide and conquer Myers diff (xdl_recs_cmp + xdl_split)
+     */
+    private static class Split {
+        private final int[] ha1, rindex1, ha2, rindex2, kvdf, kvdb;
+        private final boolean[] rchg1, rchg2;
+        private final int kvOff, mxcost;
+        private int splI1, splI2;
+        private boolean minLo, minHi;
+
+        Split(int[] ha1, int[] rindex1, boolean[] rchg1, int[] ha2, int[] rindex2, boolean[] rchg2, int[] kvdf, int[] kvdb, int kvOff, int mxcost) {
+            this.ha1 = ha1; this.rindex1 = rindex1; this.rchg1 = rchg1;
+            this.ha2 = ha2; this.rindex2 = rindex2; this.rchg2 = rchg2;
+            this.kvdf = kvdf; this.kvdb = kvdb; this.kvOff = kvOff; this.mxcost = mxcost;
+        }
+
+        void recsCmp(int off1, int lim1, int off2, int lim2, boolean needMin) {
+            for (; off1 < lim1 && off2 < lim2 && ha1[off1] == ha2[off2]; off1++, off2++) ;
+            for (; off1 < lim1 && off2 < lim2 && ha1[lim1 - 1] == ha2[lim2 - 1]; lim1--, lim2--) ;
+
+            if (off1 == lim1) {
+                for (; off2 < lim2; off2++) rchg2[rindex2[off2] + 1] = true;
+            } else if (off2 == lim2) {
+                for (; off1 < lim1; off1++) rchg1[rindex1[off1] + 1] = true;
+            } else {
+                split(off1, lim1, off2, lim2, needMin);
+                int i1 = splI1, i2 = splI2;
+                boolean lo = minLo, hi = minHi;
+                recsCmp(off1, i1, off2, i2, lo);
+                recsCmp(i1, lim1, i2, lim2, hi);
+            }
+        }
+
+        private int kf(int d) { return kvdf[kvOff + d]; }
+
+        private int kb(int d) { return kvdb[kvOff + d]; }
+
+        private void found(int i1, int i2, boolean lo, boolean hi) {
+            splI1 = i1; splI2 = i2; minLo = lo; minHi = hi;
+        }
+
+        private void split(int off1, int lim1, int off2, int lim2, boolean needMin) {
+            int dmin = off1 - lim2, dmax = lim1 - off2;
+            int fmid = off1 - off2, bmid = lim1 - lim2;
+            boolean odd = ((fmid - bmid) & 1) != 0;
+            int fmin = fmid, fmax = fmid;
+            int bmin = bmid, bmax = bmid;
+
+            kvdf[kvOff + fmid] = off1;
+            kvdb[kvOff + bmid] = lim1;
+
+            for (int ec = 1; ; ec++) {
+                boolean gotSnake = false;
+
+                // forward
+                if (fmin > dmin) { fmin--; kvdf[kvOff + fmin - 1] = -1; } else ++fmin;
+                if (fmax < dmax) { fmax++; kvdf[kvOff + fmax + 1] = -1; } else --fmax;
+                for (int d = fmax; d >= fmin; d -= 2) {
+                    int i1 = kf(d - 1) >= kf(d + 1) ? kf(d - 1) + 1 : kf(d + 1);
+                    int prev1 = i1;
+                    int i2 = i1 - d;
+                    for (; i1 < lim1 && i2 < lim2 && ha1[i1] == ha2[i2]; i1++, i2++) ;
+                    if (i1 - prev1 > SNAKE_CNT) gotSnake = true;
+                    kvdf[kvOff + d] = i1;
+                    if (odd && bmin <= d && d <= bmax && kb(d) <= i1) {
+                        found(i1, i2, true, true);
+                        return;
+                    }
+                }
+
+                // backward
+                if (bmin > dmin) { bmin--; kvdb[kvOff + bmin - 1] = LINE_MAX; } else ++bmin;
+                if (bmax < dmax) { bmax++; kvdb[kvOff + bmax + 1] = LINE_MAX; } else --bmax;
+                for (int d = bmax; d >= bmin; d -= 2) {
+                    int i1 = kb(d - 1) < kb(d + 1) ? kb(d - 1) : kb(d + 1) - 1;
+                    int prev1 = i1;
+                    int i2 = i1 - d;
+                    for (; i1 > off1 && i2 > off2 && ha1[i1 - 1] == ha2[i2 - 1]; i1--, i2--) ;
+                    if (prev1 - i1 > SNAKE_CNT) gotSnake = true;
+                    kvdb[kvOff + d] = i1;
+                    if (!odd && fmin <= d && d <= fmax && i1 <= kf(d)) {
+                        found(i1, i2, true, true);
+                        return;
+                    }
+                }
+
+                if (needMin) continue;
+
+                // heuristic: sample diagonals for an "interesting" path
+                if (gotSnake && ec > HEUR_MIN_COST) {
+                    int best = 0;
+                    for (int d = fmax; d >= fmin; d -= 2) {
+                        int dd = d > fmid ? d - fmid : fmid - d;
+                        int i1 = kf(d);
+                        int i2 = i1 - d;
+                        int v = (i1 - off1) + (i2 - off2) - dd;
+                        if (v > K_HEUR * ec && v > best && off1 + SNAKE_CNT <= i1 && i1 < lim1 && off2 + SNAKE_CNT <= i2 && i2 < lim2) {
+                            for (int k = 1; ha1[i1 - k] == ha2[i2 - k]; k++) {
+                                if (k == SNAKE_CNT) {
+                                    best = v;
+                                    splI1 = i1;
+                                    splI2 = i2;
+                                    break;
+                                }
+                            }
+                        }
+                    }
+                    if (best > 0) {
+                        minLo = true;
+                        minHi = false;
+                        return;
+                    }
+                    for (int d = bmax; d >= bmin; d -= 2) {
+                        int dd = d > bmid ? d - bmid : bmid - d;
+                        int i1 = kb(d);
+                        int i2 = i1 - d;
+                        int v = (lim1 - i1) + (lim2 - i2) - dd;
+                        if (v > K_HEUR * ec && v > best && off1 < i1 && i1 <= lim1 - SNAKE_CNT && off2 < i2 && i2 <= lim2 - SNAKE_CNT) {
+                            for (int k = 0; ha1[i1 + k] == ha2[i2 + k]; k++) {
+                                if (k == SNAKE_CNT - 1) {
+                                    best = v;
+                                    splI1 = i1;
+                                    splI2 = i2;
+                                    break;
+                                }
+                            }
+                        }
+                    }
+                    if (best > 0) {
+                        minLo = false;
+                        minHi = true;
+                        return;
+                    }
+                }
+
+                // enough is enough: collect the furthest reaching path
+                if (ec >= mxcost) {
+                    int fbest = -1, fbest1 = -1;
+                    for (int d = fmax; d >= fmin; d -= 2) {
+                        int i1 = Math.min(kf(d), lim1);
+                        int i2 = i1 - d;
+                        if (lim2 < i2) {
+                            i1 = lim2 + d;
+                            i2 = lim2;
+                        }
+                        if (fbest < i1 + i2) {
+                            fbest = i1 + i2;
+                            fbest1 = i1;
+                        }
+                    }
+                    int bbest = LINE_MAX, bbest1 = LINE_MAX;
+                    for (int d = bmax; d >= bmin; d -= 2) {
+                        int i1 = Math.max(off1, kb(d));
+                        int i2 = i1 - d;
+                        if (i2 < off2) {
+                            i1 = off2 + d;
+                            i2 = off2;
+                        }
+                        if (i1 + i2 < bbest) {
+                            bbest = i1 + i2;
+                            bbest1 = i1;
+                        }
+                    }
+                    if ((lim1 + lim2) - bbest < fbest - (off1 + off2)) {
+                        found(fbest1, fbest - fbest1, true, false);
+                    } else {
+                        found(bbest1, bbest - bbest1, false, true);
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Slide change groups (xdl_change_compact without indent heuristic), group = {start, end}
+     */
+    private static void changeCompact(int[] recs, boolean[] rchg, boolean[] rchgo) {
+        int nrec = recs.length, nreco = rchgo.length - 2;
+        int[] g = groupInit(rchg);
+        int[] go = groupInit(rchgo);
+        while (true) {
+            if (g[1] != g[0]) {
+                int groupSize, earliestEnd, endMatchingOther;
+                do {
+                    groupSize = g[1] - g[0];
+                    endMatchingOther = -1;
+                    while (groupSlideUp(recs, rchg, g)) groupPrevious(rchgo, go);
+                    earliestEnd = g[1];
+                    if (go[1] > go[0]) endMatchingOther = g[1];
+                    while (groupSlideDown(recs, rchg, g)) {
+                        groupNext(rchgo, go, nreco);
+                        if (go[1] > go[0]) endMatchingOther = g[1];
+                    }
+                } while (groupSize != g[1] - g[0]);
+
+                if (g[1] != earliestEnd && endMatchingOther != -1) {
+                    while (go[1] == go[0]) {
+                        groupSlideUp(recs, rchg, g);
+                        groupPrevious(rchgo, go);
+                    }
+                }
+            }
+            if (!groupNext(rchg, g, nrec)) break;
+            groupNext(rchgo, go, nreco);
+        }
+    }
+
+    private static int[] groupInit(boolean[] rchg) {
+        int[] g = new int[]{0, 0};
+        while (changed(rchg, g[1])) g[1]++;
+        return g;
+    }
+
+    private static boolean groupNext(boolean[] rchg, int[] g, int nrec) {
+        if (g[1] == nrec) return false;
+        g[0] = g[1] + 1;
+        for (g[1] = g[0]; changed(rchg, g[1]); g[1]++) ;
+        return true;
+    }
+
+    private static boolean groupPrevious(boolean[] rchg, int[] g) {
+        if (g[0] == 0) return false;
+        g[1] = g[0] - 1;
+        for (g[0] = g[1]; changed(rchg, g[0] - 1); g[0]--) ;
+        return true;
+    }
+
+    private static boolean groupSlideDown(int[] recs, boolean[] rchg, int[] g) {
+        if (g[1] < recs.length && recs[g[0]] == recs[g[1]]) {
+            rchg[g[0]++ + 1] = false;
+            rchg[g[1]++ + 1] = true;
+            while (changed(rchg, g[1])) g[1]++;
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean groupSlideUp(int[] recs, boolean[] rchg, int[] g) {
+        if (g[0] > 0 && recs[g[0] - 1] == recs[g[1] - 1]) {
+            rchg[--g[0] + 1] = true;
+            rchg[--g[1] + 1] = false;
+            while (changed(rchg, g[0] - 1)) g[0]--;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * xdl_do_merge (level EAGER): merge = {mode, i0, chg0, i1, chg1, i2, chg2}, mode 0 is conflict, 1 is A, 2 is B
+     */
+    private static List<int[]> doMerge(List<int[]> script1, List<int[]> script2, int nO, int[] haA, int[] haB) {
+        List<int[]> merges = new ArrayList<>();
+        int p1 = 0, p2 = 0;
+        while (p1 < script1.size() && p2 < script2.size()) {
+            int[] x1 = script1.get(p1), x2 = script2.get(p2);
+            if (x1[0] + x1[2] < x2[0]) {
+                appendMerge(merges, 1, x1[0], x1[2], x1[1], x1[3], x2[1] - x2[0] + x1[0], x1[2]);
+                p1++;
+                continue;
+            }
+            if (x2[0] + x2[2] < x1[0]) {
+                appendMerge(merges, 2, x2[0], x2[2], x1[1] - x1[0] + x2[0], x2[2], x2[1], x2[3]);
+                p2++;
+                continue;
+            }
+            if (x1[0] != x2[0] || x1[2] != x2[2] || x1[3] != x2[3] || !sameRecords(haA, x1[1], haB, x2[1], x1[3])) {
+                int off = x1[0] - x2[0];
+                int ffo = off + x1[2] - x2[2];
+                int i0 = x1[0], i1 = x1[1], i2 = x2[1];
+                if (off > 0) {
+                    i0 -= off;
+                    i1 -= off;
+                } else {
+                    i2 += off;
+                }
+                int chg0 = x1[0] + x1[2] - i0;
+                int chg1 = x1[1] + x1[3] - i1;
+                int chg2 = x2[1] + x2[3] - i2;
+                if (ffo < 0) {
+                    chg0 -= ffo;
+                    chg1 -= ffo;
+                } else {
+                    chg2 += ffo;
+                }
+                appendMerge(merges, 0, i0, chg0, i1, chg1, i2, chg2);
+            }
+            int end1 = x1[0] + x1[2];
+            int end2 = x2[0] + x2[2];
+            if (end1 >= end2) p2++;
+            if (end2 >= end1) p1++;
+        }
+        for (; p1 < script1.size(); p1++) {
+            int[] x1 = script1.get(p1);
+            appendMerge(merges, 1, x1[0], x1[2], x1[1], x1[3], x1[0] + haB.length - nO, x1[2]);
+        }
+        for (; p2 < script2.size(); p2++) {
+            int[] x2 = script2.get(p2);
+            appendMerge(merges, 2, x2[0], x2[2], x2[0] + haA.length - nO, x2[2], x2[1], x2[3]);
+        }
+        return merges;
+    }
+
+    private static boolean sameRecords(int[] ha1, int i1, int[] ha2, int i2, int count) {
+        for (int k = 0; k < count; k++) {
+            if (ha1[i1 + k] != ha2[i2 + k]) return false;
+        }
+        return true;
+    }
+
+    private static void appendMerge(List<int[]> merges, int mode, int i0, int chg0, int i1, int chg1, int i2, int chg2) {
+        int[] m = merges.isEmpty() ? null : merges.get(merges.size() - 1);
+        if (m != null && (i1 <= m[3] + m[4] || i2 <= m[5] + m[6])) {
+            if (mode != m[0]) m[0] = 0;
+            m[2] = i0 + chg0 - m[1];
+            m[4] = i1 + chg1 - m[3];
+            m[6] = i2 + chg2 - m[5];
+        } else {
+            merges.add(new int[]{mode, i0, chg0, i1, chg1, i2, chg2});
+        }
+    }
+
+}
@@ -2,9 +2,6 @@ package org.njupt.util;
 
 import com.github.javaparser.*;
 import com.github.javaparser.ast.CompilationUnit;
-import com.github.javaparser.symbolsolver.JavaSymbolSolver;
-import com.github.javaparser.symbolsolver.resolution.typesolvers.ReflectionTypeSolver;
-import org.apache.commons.text.similarity.LevenshteinDistance;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -13,7 +10,8 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.text.DecimalFormat;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.util.*;
 import java.util.regex.MatchResult;
 import java.util.regex.Pattern;
@@ -46,6 +44,18 @@ public class DzyUtils {
         return tokenList;
     }
 
+    /**
+     * Tokenizer engine of newTokenizer and newTokenizerToString
+     * PARSER: full JavaParser parse (CompilationUnit), fall back to unicode tokenize when the code can't be parsed
+     * LEXER: stream tokens from the lexer only (same tokens when the code can be parsed), fall back when the lexer fails
+     */
+    public enum TokenizerMode { PARSER, LEXER }
+
+    public static volatile TokenizerMode tokenizerMode = TokenizerMode.LEXER;
+
+    // symbol resolver is not needed for tokens, one parser per thread
+    private static final ThreadLocal<JavaParser> javaParser = ThreadLocal.withInitial(JavaParser::new);
+
     /**
      * New Tokenizer (use javaParser) 2023年11月5日19:35:14
      * @param code code lines
@@ -53,12 +63,20 @@ public class DzyUtils {
      */
     public static List<String> newTokenizer(String code){
 
+        if (tokenizerMode == TokenizerMode.LEXER) {
+            List<String> tokenList = JavaLexerTokenizer.tokenize(code);
+            if (tokenList == null) {
+                logger.error("Code not lexed correctly! ***************************************************Try to use Unicode");
+                return DzyUtils.tokenizeUnicode(code);
+            }
+            return tokenList;
+        }
+
         List<String> tokenList  = new ArrayList<>();
         //Firstly, need replace "\n" with "NewLineDZY" to rebuild line-level conflict
         String newCode = code.replace("\n", "\n NewLineDZY ");
 
-        JavaParser javaParser = new JavaParser(new ParserConfiguration().setSymbolResolver(new JavaSymbolSolver(new ReflectionTypeSolver())));
-        Optional<CompilationUnit> compilationUnit = javaParser.parse(newCode).getResult();
+        Optional<CompilationUnit> compilationUnit = javaParser.get().parse(newCode).getResult();
         if (compilationUnit.isPresent()) {
             TokenRange tokenRange = compilationUnit.get().getTokenRange().get();
             tokenRange.forEach(token -> {
@@ -73,9 +91,14 @@ public class DzyUtils {
         return tokenList;
     }
     public static String newTokenizerToString(String code){
+
+        if (tokenizerMode == TokenizerMode.LEXER) {
+            String tokenString = JavaLexerTokenizer.tokenizeToString(code);
+            return tokenString == null ? DzyUtils.tokenizeUnicodeToString(code) : tokenString;
+        }
+
         StringBuilder tokenString = new StringBuilder();
-        JavaParser javaParser = new JavaParser(new ParserConfiguration().setSymbolResolver(new JavaSymbolSolver(new ReflectionTypeSolver())));
-        Optional<CompilationUnit> compilationUnit = javaParser.parse(code).getResult();
+        Optional<CompilationUnit> compilationUnit = javaParser.get().parse(code).getResult();
         if (compilationUnit.isPresent()) {
             TokenRange tokenRange = compilationUnit.get().getTokenRange().get();
             tokenRange.forEach(token -> {
@@ -90,6 +113,15 @@ public class DzyUtils {
         return tokenString.toString();
     }
 
+    /**
+     * New Tokenizer to token id stream (line breaks out of band, token offsets in code kept, see CodeTokens)
+     * @param code code lines
+     * @return token ids
+     */
+    public static CodeTokens newTokenIds(String code){
+        return CodeTokens.of(newTokenizer(code), code);
+    }
+
     /**
      * Unicode tokenize code(with comment)
      * @param codeComment code with comment(javaParser can't have use)
@@ -142,21 +174,64 @@ public class DzyUtils {
      * @return percent of match rate
      */
     public static Double perfectMatchRate(String ours, String target){
-        ours = ours.replaceAll("\\s*","");
-        target = target.replaceAll("\\s*","");
-        if (ours.length() == 0 && target.length() == 0) return 100.0;
+        ours = removeWhitespace(ours);
+        target = removeWhitespace(target);
+        //Exact match (also both empty)
+        if (ours.equals(target)) return 100.0;
 
         //1.Use Apache Commons Text(Jaccard Similarity)
 //        JaccardSimilarity jaccardSimilarity = new JaccardSimilarity();
 //        double similarity = jaccardSimilarity.apply(ours, target);
 
-        //2.Use Apache Commons Text(Levenshtein Similarity)
-        int distance = LevenshteinDistance.getDefaultInstance().apply(ours, target);
-        double similarity = 1 - (double) distance / Math.max(ours.length(), target.length());
+        //2.Levenshtein Similarity (bit-parallel, same distance as Apache Commons Text LevenshteinDistance)
+        int distance = EditDistance.levenshtein(ours, target);
+        return toMatchRate(distance, Math.max(ours.length(), target.length()));
+    }
 
-        DecimalFormat decimalFormat = new DecimalFormat("#0.00");
-        logger.info("Code's similarity is : {}%", decimalFormat.format(similarity * 100));
-        return Double.valueOf(decimalFormat.format(similarity * 100));
+    /**
+     * perfectMatchRate that gives up early when the result cannot be greater than minRate (e.g. best answer until now)
+     * @return the same value as perfectMatchRate(ours, target) if it is greater than minRate, otherwise -1.0
+     */
+    public static Double perfectMatchRate(String ours, String target, double minRate){
+        ours = removeWhitespace(ours);
+        target = removeWhitespace(target);
+        if (ours.equals(target)) return 100.0;
+        if (minRate >= 100) return -1.0;
+        int maxLength = Math.max(ours.length(), target.length());
+        //similarity < minRate% is sure when distance > threshold
+        int threshold = minRate < 0 ? maxLength : (int) Math.min(maxLength, Math.floor((1 - minRate / 100) * maxLength) + 1);
+        int distance = EditDistance.levenshtein(ours, target, threshold);
+        if (distance < 0) return -1.0;
+        double matchRate = toMatchRate(distance, maxLength);
+        return matchRate > minRate ? matchRate : -1.0;
+    }
+
+    /**
+     * Similarity percentage rounded to 2 decimals, the same as the old DecimalFormat("#0.00") (HALF_EVEN) text parsed back
+     */
+    private static double toMatchRate(int distance, int maxLength){
+        double similarity = 1 - (double) distance / maxLength;
+        double matchRate = new BigDecimal(similarity * 100).setScale(2, RoundingMode.HALF_EVEN).doubleValue();
+        logger.debug("Code's similarity is : {}%", matchRate);
+        return matchRate;
+    }
+
+    /**
+     * Same as replaceAll("\\s*", "") without a regex
+     */
+    public static String removeWhitespace(String code){
+        StringBuilder builder = null;
+        for (int i = 0; i < code.length(); i++) {
+            char c = code.charAt(i);
+            boolean whitespace = c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+            if (whitespace && builder == null) {
+                builder = new StringBuilder(code.length());
+                builder.append(code, 0, i);
+            } else if (!whitespace && builder != null) {
+                builder.append(c);
+            }
+        }
+        return builder == null ? code : builder.toString();
     }
 
     /**
@@ -192,69 +267,50 @@ public class DzyUtils {
 
     public static void tokenLevelMerge(String a_contents, String o_contents, String b_contents, String commonPath) throws IOException {
 
-        List<String> listA = DzyUtils.newTokenizer(a_contents);
-        List<String> listO = DzyUtils.newTokenizer(o_contents);
-        List<String> listB = DzyUtils.newTokenizer(b_contents);
-
-        //2.Define temp file path and Build new file
-        String aPath = commonPath+ "_A.txt";
-        String oPath = commonPath + "_O.txt";
-        String bPath = commonPath + "_B.txt";
-        String mergedPath = commonPath + "_merged.txt";
-        DzyUtils.tokenListToNewFile(aPath, listA);//A
-        DzyUtils.tokenListToNewFile(oPath, listO);//O
-        DzyUtils.tokenListToNewFile(bPath, listB);//B
-
-        //3.Start use Diff3 merge A O B to generate Token-level conflicts
-        File a = new File(aPath);
-        File o = new File(oPath);
-        File b = new File(bPath);
-        File merged = new File(mergedPath);
-        if(merged.exists()) merged.delete();
-        Files.copy(a.toPath(), merged.toPath());
-        ProcessBuilder pb = new ProcessBuilder(
-                "git",
-                "merge-file",
-                "--diff3",
-                merged.getPath(),
-                o.getPath(),
-                b.getPath());
-        try {
-            pb.start().waitFor();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
+        CodeTokens tokensA = DzyUtils.newTokenIds(a_contents);
+        CodeTokens tokensO = DzyUtils.newTokenIds(o_contents);
+        CodeTokens tokensB = DzyUtils.newTokenIds(b_contents);
+
+        //2.Define conflict marks label (git merge-file labels marks with these file paths)
+        String oPath = new File(commonPath + "_O.txt").getPath();
+        String bPath = new File(commonPath + "_B.txt").getPath();
+        String mergedPath = new File(commonPath + "_merged.txt").getPath();
+
+        //3.Start use Diff3 merge A O B to generate Token-level conflicts (in-process, no temp file)
+        MergeHunks hunks = Diff3Merger.mergeHunks(tokensA, tokensO, tokensB);
 
         //4.Restoring conflicting blocks of token-level to row line-level construction
-        FileReader fileReader = new FileReader(merged);
-        BufferedReader bufferedReader = new BufferedReader(fileReader);
-        StringBuilder fileContext = new StringBuilder();
-        String line;
-        while ((line = bufferedReader.readLine()) != null) {
-            if (line.startsWith("<<<<<<<") || line.startsWith("|||||||") || line.startsWith("=======") || line.startsWith(">>>>>>>")){
-                fileContext.append("\n");
-                fileContext.append(line);
-                fileContext.append("\n");
-            }else {
-                fileContext.append(line + " ");
-            }
-        }
-        String tokenMergeResult = fileContext.toString().replace("NewLineDZY", "\n");
+        String tokenMergeResult = hunks.render(mergedPath, oPath, bPath);
         String lineMergedPath = commonPath + "_lineMerged.txt";
         Path path = Paths.get(lineMergedPath);
         try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
             //write in Line-Merged file
-            writer.write(tokenMergeResult);//Restore special token
+            writer.write(tokenMergeResult);//original spacing
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        logger.info("Succeed diff3 merge {}", lineMergedPath);
+    }
 
-        //5.Delete temp file(A O B merged)
-        a.delete();
-        o.delete();
-        b.delete();
-        logger.info("Succeed git merge-file --diff3 {}", lineMergedPath);
+    /**
+     * Restoring token-level merged lines (one token per line) to line-level construction
+     * @param mergedLines lines of token-level merge result
+     * @return line-level result
+     */
+    public static String tokenLinesToLineLevel(List<String> mergedLines) {
+        StringBuilder fileContext = new StringBuilder();
+        for (String line : mergedLines) {
+            if (line.startsWith("<<<<<<<") || line.startsWith("|||||||") || line.startsWith("=======") || line.startsWith(">>>>>>>")){
+                fileContext.append("\n");
+                fileContext.append(line);
+                fileContext.append("\n");
+            }else {
+                fileContext.append(line).append(" ");
+            }
+        }
+        return fileContext.toString().replace("NewLineDZY", "\n");
     }
+
     private static String addBlank(String target){
         StringBuilder result = new StringBuilder();
         for (int i = 0; i < target.length(); i++){
@@ -269,121 +325,20 @@ public class DzyUtils {
 
     /**
      * BLEU-4 2024年4月18日16:03:32
+     * <p>
+     * Sentence-level BLEU-4 with clipped n-gram counts, see {@link Bleu} (build a Bleu.Reference once to score many answers)
      */
     public static double computeBLEU(String candidate, List<String> references) {
-
-        double[] precisions = new double[4];
-        Arrays.fill(precisions, 0.0);
-        int candidateLength = candidate.split("\\s+").length;
-        List<List<String>> referenceTokensList = new ArrayList<>();
-        for (String reference : references) {
-            List<String> referenceTokens = Arrays.asList(reference.split("\\s+"));
-            referenceTokensList.add(referenceTokens);
-        }
-        int[] closestRefLengths = new int[candidateLength];
-
-        for (int i = 0; i < candidateLength; i++) {
-            int minDiff = Integer.MAX_VALUE;
-            for (List<String> referenceTokens : referenceTokensList) {
-                int diff = Math.abs(referenceTokens.size() - i);
-                if (diff < minDiff) {
-                    minDiff = diff;
-                    closestRefLengths[i] = referenceTokens.size();
-                }
-            }
-        }
-
-        for (int n = 1; n <= 4; n++) {
-            int numNgramMatches = 0;
-            for (int i = 0; i <= candidateLength - n; i++) {
-                List<String> candidateNgram = new ArrayList<>();
-                for (int j = 0; j < n; j++) {
-                    candidateNgram.add(candidate.split("\\s+")[i + j]);
-                }
-                boolean matchFound = false;
-                for (List<String> referenceTokens : referenceTokensList) {
-                    List<List<String>> referenceNgrams = new ArrayList<>();
-                    for (int j = 0; j <= referenceTokens.size() - n; j++) {
-                        referenceNgrams.add(referenceTokens.subList(j, j + n));
-                    }
-                    if (referenceNgrams.contains(candidateNgram)) {
-                        matchFound = true;
-                        break;
-                    }
-                }
-                if (matchFound) {
-                    numNgramMatches++;
-                }
-            }
-            precisions[n - 1] = (double) numNgramMatches / (candidateLength - n + 1);
-        }
-
-        double brevityPenalty = 1.0;
-        int totalRefLengths = 0;
-        for (int length : closestRefLengths) {
-            totalRefLengths += length;
-        }
-        double closestRefLength = (double) totalRefLengths / closestRefLengths.length;
-        if (candidateLength < closestRefLength) {
-            brevityPenalty = Math.exp(1 - closestRefLength / candidateLength);
-        }
-        double geometricMean = Math.pow(precisions[0] * precisions[1] * precisions[2] * precisions[3], 0.25);
-        double bleu = brevityPenalty * geometricMean;
-
-        return bleu;
+        return Bleu.sentenceBleu(candidate, Bleu.reference(references));
     }
 
     /**
      * CODE BLEU
+     * <p>
+     * Sentence-level CodeBLEU of code lines, see {@link CodeBleu} (build a CodeBleu.Code once to score many answers)
      */
     public static double computeCodeBLEU(List<String> reference, List<String> candidate) {
-        int maxNgram = 4; // 最大n-gram范围
-        double[] precisions = new double[maxNgram];
-        int candidateLength = candidate.size();
-        int[] candidateNgramCount = new int[maxNgram];
-        Set<String> candidateNgrams = new HashSet<>();
-
-        for (int i = 0; i < candidateLength; i++) {
-            for (int n = 1; n <= maxNgram; n++) {
-                if (i >= n - 1) {
-                    String ngram = String.join(" ", candidate.subList(i - n + 1, i + 1));
-                    candidateNgrams.add(ngram);
-                }
-
-                int referenceLength = reference.size();
-                int[] referenceNgramCount = new int[maxNgram];
-                Set<String> referenceNgrams = new HashSet<>();
-
-                for (String ref : reference) {
-                    for (int j = 1; j <= maxNgram; j++) {
-                        if (ref.length() >= j) {
-                            List<String> tokens = Arrays.asList(ref.split("\\s+"));
-                            if (tokens.size() >= j) {
-                                String ngram = String.join(" ", tokens.subList(0, j));
-                                referenceNgrams.add(ngram);
-                            }
-                        }
-                    }
-                }
-
-                for (String ngram : candidateNgrams) {
-                    if (referenceNgrams.contains(ngram)) {
-                        candidateNgramCount[n - 1]++;
-                        referenceNgramCount[n - 1]++;
-                    }
-                }
-            }
-        }
-
-        double brevityPenalty = Math.min(1.0, Math.exp(1.0 - (double) reference.size() / candidate.size()));
-        double precisionProduct = 1.0;
-        for (int i = 0; i < maxNgram; i++) {
-            precisions[i] = (double) candidateNgramCount[i] / (double) Math.max(1, reference.size() - i);
-            precisionProduct *= precisions[i];
-        }
-
-        double codeBLEU = brevityPenalty * Math.pow(precisionProduct, 1.0 / maxNgram);
-        return codeBLEU;
+        return CodeBleu.codeBleu(String.join("\n", candidate), String.join("\n", reference));
     }
 
 
@@ -0,0 +1,115 @@
+package org.njupt.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Levenshtein distance of two strings (UTF-16 chars, same as commons-text LevenshteinDistance)
+ * <p>
+ * Common prefix and suffix are cut off first, the rest is computed with Myers' bit-parallel algorithm in blocks of 64
+ * chars of the shorter string, so one char of the longer string costs one step per block instead of one per char.
+ * With a threshold the computation stops as soon as the distance can no longer be within it.
+ */
+public class EditDistance {
+
+    private static final int ASCII = 128;
+
+    private EditDistance() {
+    }
+
+    /**
+     * @return edit distance of a and b
+     */
+    public static int levenshtein(CharSequence a, CharSequence b) {
+        return levenshtein(a, b, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param threshold max distance of interest
+     * @return edit distance of a and b, -1 if it is greater than threshold
+     */
+    public static int levenshtein(CharSequence a, CharSequence b, int threshold) {
+        if (threshold < 0) throw new IllegalArgumentException("Threshold must not be negative");
+        //1.Cut off common prefix and suffix
+        int start = 0;
+        int endA = a.length(), endB = b.length();
+        while (start < endA && start < endB && a.charAt(start) == b.charAt(start)) start++;
+        while (endA > start && endB > start && a.charAt(endA - 1) == b.charAt(endB - 1)) {
+            endA--;
+            endB--;
+        }
+        int lengthA = endA - start, lengthB = endB - start;
+        if (Math.abs(lengthA - lengthB) > threshold) return -1;
+        if (lengthA == 0 || lengthB == 0) return Math.max(lengthA, lengthB);
+        //2.Pattern is the shorter one
+        if (lengthA <= lengthB) return myers(a, start, endA, b, start, endB, threshold);
+        return myers(b, start, endB, a, start, endA, threshold);
+    }
+
+    /**
+     * Myers (1999) block-based bit-vector algorithm, vertical deltas of every block column are kept in Pv / Mv
+     */
+    private static int myers(CharSequence pattern, int patternStart, int patternEnd, CharSequence text, int textStart, int textEnd, int threshold) {
+        int m = patternEnd - patternStart;
+        int n = textEnd - textStart;
+        int blocks = (m + 63) >>> 6;
+        long lastBit = 1L << ((m - 1) & 63);
+
+        //1.Match vectors of pattern chars
+        long[] asciiPeq = new long[ASCII * blocks];
+        Map<Character, long[]> otherPeq = new HashMap<>();
+        for (int i = 0; i < m; i++) {
+            char c = pattern.charAt(patternStart + i);
+            if (c < ASCII) {
+                asciiPeq[c * blocks + (i >>> 6)] |= 1L << (i & 63);
+            } else {
+                otherPeq.computeIfAbsent(c, key -> new long[blocks])[i >>> 6] |= 1L << (i & 63);
+            }
+        }
+
+        //2.One column per text char, D[i][0] = i: all vertical deltas +1
+        long[] pv = new long[blocks];
+        long[] mv = new long[blocks];
+        Arrays.fill(pv, -1L);
+        int score = m;
+        long[] empty = new long[blocks];
+        for (int j = 0; j < n; j++) {
+            char c = text.charAt(textStart + j);
+            long[] peq;
+            int offset;
+            if (c < ASCII) {
+                peq = asciiPeq;
+                offset = c * blocks;
+            } else {
+                peq = otherPeq.getOrDefault(c, empty);
+                offset = 0;
+            }
+            //D[0][j] = j: horizontal delta +1 into the first block
+            int hin = 1;
+            for (int b = 0; b < blocks; b++) {
+                long eq = peq[offset + b];
+                long pvb = pv[b], mvb = mv[b];
+                long xv = eq | mvb;
+                if (hin < 0) eq |= 1L;
+                long xh = (((eq & pvb) + pvb) ^ pvb) | eq;
+                long ph = mvb | ~(xh | pvb);
+                long mh = pvb & xh;
+                long highBit = b == blocks - 1 ? lastBit : Long.MIN_VALUE;
+                int hout = (ph & highBit) != 0 ? 1 : (mh & highBit) != 0 ? -1 : 0;
+                ph <<= 1;
+                mh <<= 1;
+                if (hin < 0) mh |= 1L;
+                else if (hin > 0) ph |= 1L;
+                pv[b] = mh | ~(xv | ph);
+                mv[b] = ph & xv;
+                hin = hout;
+            }
+            score += hin;
+            //the distance decreases by at most 1 per remaining text char
+            if (score - (n - 1 - j) > threshold) return -1;
+        }
+        return score;
+    }
+
+}
@@ -0,0 +1,109 @@
+package org.njupt.util;
+
+import com.github.javaparser.GeneratedJavaParserConstants;
+import com.github.javaparser.GeneratedJavaParserTokenManager;
+import com.github.javaparser.SimpleCharStream;
+import com.github.javaparser.StringProvider;
+import com.github.javaparser.Token;
+import com.github.javaparser.TokenMgrException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lexer-only tokenizer (no full JavaParser parse)
+ * <p>
+ * Tokens are streamed straight from {@link GeneratedJavaParserTokenManager}, comments (special tokens) are kept and
+ * whitespace is dropped, so the output is the same as the token range of a successfully parsed CompilationUnit.
+ * One lexer (char stream + token manager) is kept per thread and re-initialized for every call.
+ */
+public class JavaLexerTokenizer {
+
+    private static final ThreadLocal<JavaLexerTokenizer> LEXER = ThreadLocal.withInitial(JavaLexerTokenizer::new);
+
+    private final SimpleCharStream charStream;
+
+    private final GeneratedJavaParserTokenManager tokenManager;
+
+    private JavaLexerTokenizer() {
+        charStream = new SimpleCharStream(new StringProvider(""));
+        tokenManager = new GeneratedJavaParserTokenManager(charStream);
+        tokenManager.setStoreTokens(false);
+    }
+
+    /**
+     * Tokenize code lines (same output as {@link DzyUtils#newTokenizer(String)} when the code can be parsed)
+     * @param code code lines
+     * @return tokens list (contains "NewLineDZY"), null if the lexer fails (e.g. unclosed string literal)
+     */
+    public static List<String> tokenize(String code) {
+        return LEXER.get().lex(code.replace("\n", "\n NewLineDZY "));
+    }
+
+    /**
+     * Tokenize code without "NewLineDZY" marks (e.g. one line, or text analyzed by Lucene)
+     * @return tokens list, null if the lexer fails
+     */
+    public static List<String> tokenizeCode(String code) {
+        return LEXER.get().lex(code);
+    }
+
+    /**
+     * Tokenize code to string (same output as {@link DzyUtils#newTokenizerToString(String)} when the code can be parsed)
+     * @param code code lines
+     * @return tokens joined by " ", null if the lexer fails
+     */
+    public static String tokenizeToString(String code) {
+        List<String> tokens = LEXER.get().lex(code);
+        if (tokens == null) return null;
+        StringBuilder tokenString = new StringBuilder();
+        for (String token : tokens) {
+            tokenString.append(token).append(" ");
+        }
+        return tokenString.toString();
+    }
+
+    private List<String> lex(String code) {
+        List<String> tokenList = new ArrayList<>();
+        charStream.reInit(new StringProvider(code));
+        tokenManager.ReInit(charStream);
+        try {
+            while (true) {
+                Token token = tokenManager.getNextToken();
+                addSpecialTokens(token, tokenList);
+                if (token.kind == GeneratedJavaParserConstants.EOF) break;
+                //">>" and ">>>" are matched as one GT token then backed up, the real text is always ">"
+                addToken(token.kind == GeneratedJavaParserConstants.GT ? ">" : token.image, tokenList);
+            }
+        } catch (TokenMgrException e) {
+            return null;
+        }
+        return tokenList;
+    }
+
+    /**
+     * Comments are special tokens before the token, linked backwards
+     */
+    private static void addSpecialTokens(Token token, List<String> tokenList) {
+        Token special = token.specialToken;
+        if (special == null) return;
+        while (special.specialToken != null) special = special.specialToken;
+        for (; special != null && special != token; special = special.next) {
+            addToken(special.image, tokenList);
+        }
+    }
+
+    /**
+     * Drop blank tokens (same as replaceAll("\\s*", "") is empty)
+     */
+    private static void addToken(String image, List<String> tokenList) {
+        for (int i = 0; i < image.length(); i++) {
+            char c = image.charAt(i);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\u000B' && c != '\f' && c != '\r') {
+                tokenList.add(image);
+                return;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,285 @@
+package org.njupt.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Structured result of Diff3Merger: stable and conflict hunks with spans into the records of A / O / B
+ * <p>
+ * A record is one line of the token file (a token, "NewLineDZY", or one line of a multi-line block comment). A stable
+ * hunk is a span of A or of B copied to the merged file, a conflict hunk has one span per side. Merged lines, the
+ * line-level result and the conflict tuples are all rendered from the hunks, no marker line is parsed back.
+ * <p>
+ * lineLevel() joins tokens with " " like the token file, render() copies the regions out of the a / o / b source texts
+ * with their original spacing and indentation (see CodeTokens.recordBounds), so the result can be compared exactly.
+ * Unchanged records are taken from A like the merged records, so they keep the spacing of A.
+ */
+public class MergeHunks {
+
+    public static final int A = 0, O = 1, B = 2;
+
+    private final int[][] sides;
+
+    private final CodeTokens[] tokens;
+
+    // record bounds of each side, computed at the first render (NO_SOURCE if a side has no offsets)
+    private volatile int[][] bounds;
+
+    private static final int[][] NO_SOURCE = new int[0][];
+
+    private final List<Hunk> hunks;
+
+    private final int conflicts;
+
+    /**
+     * One region of the merged file
+     */
+    public static class Hunk {
+
+        // side of a stable hunk, -1 for a conflict
+        private final int side;
+
+        // start / end of A, O, B
+        private final int[] spans;
+
+        private Hunk(int side, int[] spans) {
+            this.side = side;
+            this.spans = spans;
+        }
+
+        public boolean isConflict() {
+            return side < 0;
+        }
+
+        /**
+         * A or B for a stable hunk, -1 for a conflict
+         */
+        public int side() {
+            return side;
+        }
+
+        /**
+         * First record of a side (inclusive), a stable hunk has only its own side
+         */
+        public int start(int side) {
+            return spans[2 * side];
+        }
+
+        public int end(int side) {
+            return spans[2 * side + 1];
+        }
+
+        public int size(int side) {
+            return end(side) - start(side);
+        }
+
+        @Override
+        public String toString() {
+            if (isConflict()) return "conflict A[" + start(A) + ", " + end(A) + ") O[" + start(O) + ", " + end(O) + ") B[" + start(B) + ", " + end(B) + ")";
+            return "stable " + (side == A ? "A" : "B") + "[" + start(side) + ", " + end(side) + ")";
+        }
+    }
+
+    MergeHunks(CodeTokens tokensA, CodeTokens tokensO, CodeTokens tokensB, int[] recA, int[] recO, int[] recB, List<Hunk> hunks) {
+        this.sides = new int[][]{recA, recO, recB};
+        this.tokens = new CodeTokens[]{tokensA, tokensO, tokensB};
+        this.hunks = Collections.unmodifiableList(hunks);
+        int count = 0;
+        for (Hunk hunk : hunks) if (hunk.isConflict()) count++;
+        this.conflicts = count;
+    }
+
+    static Hunk stable(int side, int start, int end) {
+        int[] spans = new int[6];
+        spans[2 * side] = start;
+        spans[2 * side + 1] = end;
+        return new Hunk(side, spans);
+    }
+
+    static Hunk conflict(int startA, int endA, int startO, int endO, int startB, int endB) {
+        return new Hunk(-1, new int[]{startA, endA, startO, endO, startB, endB});
+    }
+
+    public List<Hunk> hunks() {
+        return hunks;
+    }
+
+    public int conflictCount() {
+        return conflicts;
+    }
+
+    public boolean hasConflict() {
+        return conflicts > 0;
+    }
+
+    /**
+     * Record ids of one side (see TokenVocabulary), read only
+     */
+    public int[] records(int side) {
+        return sides[side];
+    }
+
+    /**
+     * Tokens of one side of a hunk joined like the key information ("token token ", "NewLineDZY" back to "\n")
+     */
+    public String text(Hunk hunk, int side) {
+        StringBuilder text = new StringBuilder();
+        appendTokens(text, hunk, side);
+        return text.toString().replace(TokenVocabulary.NEW_LINE_TOKEN, "\n");
+    }
+
+    /**
+     * Record ids of the merged file, conflict marks are negative (see Diff3Merger.toLines)
+     */
+    public int[] records() {
+        int size = 0;
+        for (Hunk hunk : hunks) {
+            size += hunk.isConflict() ? hunk.size(A) + hunk.size(O) + hunk.size(B) + 4 : hunk.size(hunk.side);
+        }
+        int[] merged = new int[size];
+        size = 0;
+        for (Hunk hunk : hunks) {
+            if (!hunk.isConflict()) {
+                size = copy(hunk, hunk.side, merged, size);
+                continue;
+            }
+            merged[size++] = Diff3Merger.START_MARK;
+            size = copy(hunk, A, merged, size);
+            merged[size++] = Diff3Merger.MID_MARK1;
+            size = copy(hunk, O, merged, size);
+            merged[size++] = Diff3Merger.MID_MARK2;
+            size = copy(hunk, B, merged, size);
+            merged[size++] = Diff3Merger.END_MARK;
+        }
+        return merged;
+    }
+
+    /**
+     * Lines of the merged file (same as Diff3Merger.merge)
+     */
+    public List<String> lines(String nameA, String nameO, String nameB) {
+        return Diff3Merger.toLines(records(), tokens[A]::text, nameA, nameO, nameB);
+    }
+
+    /**
+     * Line-level merge result (same as DzyUtils.tokenLinesToLineLevel(lines(nameA, nameO, nameB)))
+     */
+    public String lineLevel(String nameA, String nameO, String nameB) {
+        StringBuilder fileContext = new StringBuilder();
+        for (Hunk hunk : hunks) {
+            if (!hunk.isConflict()) {
+                appendTokens(fileContext, hunk, hunk.side);
+                continue;
+            }
+            fileContext.append("\n").append(Diff3Merger.marker(Diff3Merger.StartDiffMark, nameA)).append("\n");
+            appendTokens(fileContext, hunk, A);
+            fileContext.append("\n").append(Diff3Merger.marker(Diff3Merger.MidDiffMark1, nameO)).append("\n");
+            appendTokens(fileContext, hunk, O);
+            fileContext.append("\n").append(Diff3Merger.MidDiffMark2).append("\n");
+            appendTokens(fileContext, hunk, B);
+            fileContext.append("\n").append(Diff3Merger.marker(Diff3Merger.EndDiffMark, nameB)).append("\n");
+        }
+        return fileContext.toString().replace(TokenVocabulary.NEW_LINE_TOKEN, "\n");
+    }
+
+    /**
+     * Whether the source offsets of all sides are known (otherwise render() falls back to lineLevel())
+     */
+    public boolean hasSource() {
+        return bounds() != null;
+    }
+
+    /**
+     * Merged text with the original spacing, conflicts as diff3 blocks with every mark on its own line
+     */
+    public String render(String nameA, String nameO, String nameB) {
+        return render(new StringBuilder(), nameA, nameO, nameB).toString();
+    }
+
+    /**
+     * Append the merged text to out (e.g. one buffer reused for all conflicts of a file), see render(String, String, String)
+     * @return out
+     */
+    public StringBuilder render(StringBuilder out, String nameA, String nameO, String nameB) {
+        int[][] sideBounds = bounds();
+        if (sideBounds == null) return out.append(lineLevel(nameA, nameO, nameB));
+        int begin = out.length();
+        for (Hunk hunk : hunks) {
+            if (!hunk.isConflict()) {
+                appendSource(out, sideBounds, hunk.side, hunk.start(hunk.side), hunk.end(hunk.side));
+                continue;
+            }
+            appendMark(out, begin, Diff3Merger.marker(Diff3Merger.StartDiffMark, nameA));
+            appendSource(out, sideBounds, A, hunk.start(A), hunk.end(A));
+            appendMark(out, begin, Diff3Merger.marker(Diff3Merger.MidDiffMark1, nameO));
+            appendSource(out, sideBounds, O, hunk.start(O), hunk.end(O));
+            appendMark(out, begin, Diff3Merger.MidDiffMark2);
+            appendSource(out, sideBounds, B, hunk.start(B), hunk.end(B));
+            appendMark(out, begin, Diff3Merger.marker(Diff3Merger.EndDiffMark, nameB));
+        }
+        return out;
+    }
+
+    /**
+     * Append one side of a hunk with its original spacing (a stable hunk has only its own side)
+     * @return out
+     * @throws IllegalStateException if the source offsets are unknown (see hasSource)
+     */
+    public StringBuilder render(StringBuilder out, Hunk hunk, int side) {
+        int[][] sideBounds = bounds();
+        if (sideBounds == null) throw new IllegalStateException("Source offsets are unknown");
+        appendSource(out, sideBounds, side, hunk.start(side), hunk.end(side));
+        return out;
+    }
+
+    private int[][] bounds() {
+        int[][] current = bounds;
+        if (current == null) {
+            current = new int[3][];
+            for (int side = A; side <= B; side++) {
+                current[side] = tokens[side].recordBounds();
+                if (current[side] == null || current[side].length != 2 * sides[side].length) {
+                    current = NO_SOURCE;
+                    break;
+                }
+            }
+            bounds = current;
+        }
+        return current == NO_SOURCE ? null : current;
+    }
+
+    /**
+     * Records [start, end) of a side with the spacing before them, the spacing after the last record of the side too
+     */
+    private void appendSource(StringBuilder out, int[][] sideBounds, int side, int start, int end) {
+        int[] recordBounds = sideBounds[side];
+        String source = tokens[side].source();
+        int from = start == 0 ? 0 : recordBounds[2 * start - 1];
+        int to = end == sides[side].length ? source.length() : end > start ? recordBounds[2 * end - 1] : from;
+        out.append(source, from, to);
+    }
+
+    private static void appendMark(StringBuilder out, int begin, String mark) {
+        if (out.length() > begin && out.charAt(out.length() - 1) != '\n') out.append('\n');
+        out.append(mark).append('\n');
+    }
+
+    private void appendTokens(StringBuilder text, Hunk hunk, int side) {
+        int[] records = sides[side];
+        for (int i = hunk.start(side); i < hunk.end(side); i++) text.append(tokens[side].text(records[i])).append(' ');
+    }
+
+    private int copy(Hunk hunk, int side, int[] out, int size) {
+        System.arraycopy(sides[side], hunk.start(side), out, size, hunk.size(side));
+        return size + hunk.size(side);
+    }
+
+    @Override
+    public String toString() {
+        List<String> list = new ArrayList<>(hunks.size());
+        for (Hunk hunk : hunks) list.add(hunk.toString());
+        return list.toString();
+    }
+
+}
@@ -0,0 +1,238 @@
+package org.njupt.util;
+
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sidecar column of one derived metric (e.g. match_rate) of a result file
+ * <p>
+ * "result.json.match_rate.col" holds one double per conflict id in [firstId, firstId + count), missing ids are NaN.
+ * Recomputing a metric writes only its column instead of rewriting the whole result file, readers join the columns
+ * by id ({@link ConflictRecordReader#join(String...)}). A record without "id" is keyed by its 1-based index in the file.
+ * <p>
+ * The header keeps the size and modification time of the result file the column was computed from (like
+ * ConflictIndex), a column of an older result file (e.g. collected again) is out of date and never joined.
+ * The columns of one Writer are replaced together: all are written to temp files first, then a journal
+ * "result.json.col.journal" lists them while they are renamed, an interrupted rename is finished by the next read.
+ */
+public class MetricColumn {
+
+    public static final Logger logger = LoggerFactory.getLogger(MetricColumn.class);
+
+    public static final String SUFFIX = ".col";
+
+    private static final String JOURNAL = ".col.journal";
+
+    // "DZYC"
+    private static final int MAGIC = 0x445A5943;
+
+    private static final int VERSION = 2;
+
+    private final int firstId;
+
+    private final double[] values;
+
+    private MetricColumn(int firstId, double[] values) {
+        this.firstId = firstId;
+        this.values = values;
+    }
+
+    public static String path(String resultPath, String name) {
+        return resultPath + "." + name + SUFFIX;
+    }
+
+    public static boolean exists(String resultPath, String name) throws IOException {
+        recover(resultPath);
+        return Files.exists(Paths.get(path(resultPath, name)));
+    }
+
+    /**
+     * Whether the column exists and was computed from the current result file
+     */
+    public static boolean isCurrent(String resultPath, String name) throws IOException {
+        if (!exists(resultPath, name)) return false;
+        String columnPath = path(resultPath, name);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(Paths.get(columnPath))))) {
+            if (in.readInt() != MAGIC) throw new IOException("Not a metric column: " + columnPath);
+            if (in.readInt() == VERSION && in.readLong() == Files.size(Paths.get(resultPath))
+                    && in.readLong() == Files.getLastModifiedTime(Paths.get(resultPath)).toMillis()) return true;
+        }
+        logger.warn("Column is out of date, ignored: {}", columnPath);
+        return false;
+    }
+
+    /**
+     * Key of a record in the columns
+     * @param index 1-based index of the record in the file
+     */
+    public static int id(JSONObject record, int index) {
+        return record.optInt("id", index);
+    }
+
+    /**
+     * Load a column (8 bytes per conflict)
+     * @throws IOException if the column was computed from another version of the result file (see isCurrent)
+     */
+    public static MetricColumn read(String resultPath, String name) throws IOException {
+        recover(resultPath);
+        String columnPath = path(resultPath, name);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(Paths.get(columnPath))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) throw new IOException("Not a metric column: " + columnPath);
+            if (in.readLong() != Files.size(Paths.get(resultPath)) || in.readLong() != Files.getLastModifiedTime(Paths.get(resultPath)).toMillis()) {
+                throw new IOException("Column is out of date: " + columnPath);
+            }
+            int firstId = in.readInt();
+            double[] values = new double[in.readInt()];
+            for (int i = 0; i < values.length; i++) values[i] = in.readDouble();
+            return new MetricColumn(firstId, values);
+        }
+    }
+
+    /**
+     * @return value of the conflict id, NaN if there is none
+     */
+    public double get(int id) {
+        long index = (long) id - firstId;
+        return index < 0 || index >= values.length ? Double.NaN : values[(int) index];
+    }
+
+    public boolean contains(int id) {
+        return !Double.isNaN(get(id));
+    }
+
+    /**
+     * Write some columns of a result file, the column files are replaced together only if commit() was called before
+     * close()
+     */
+    public static class Writer implements Closeable {
+
+        private final String resultPath;
+
+        // result file when the writer was opened, the values are computed from this version
+        private final long resultSize;
+
+        private final long resultModified;
+
+        private final Map<String, Builder> columns = new LinkedHashMap<>();
+
+        private boolean committed = false;
+
+        private Writer(String resultPath, String... names) throws IOException {
+            this.resultPath = resultPath;
+            this.resultSize = Files.size(Paths.get(resultPath));
+            this.resultModified = Files.getLastModifiedTime(Paths.get(resultPath)).toMillis();
+            for (String name : names) columns.put(name, new Builder());
+        }
+
+        public void put(String name, int id, double value) {
+            Builder builder = columns.get(name);
+            if (builder == null) throw new IllegalArgumentException("Column not opened: " + name);
+            builder.put(id, value);
+        }
+
+        public void commit() {
+            committed = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!committed) return;
+            committed = false;
+            recover(resultPath);
+            //1.All columns to temp files
+            for (Map.Entry<String, Builder> column : columns.entrySet()) {
+                column.getValue().write(Paths.get(path(resultPath, column.getKey()) + ".tmp"), resultSize, resultModified);
+            }
+            //2.Journal of the group, then rename (finished by recover if interrupted)
+            Path journal = Paths.get(resultPath + JOURNAL);
+            Path journalTemp = Paths.get(journal + ".tmp");
+            Files.write(journalTemp, columns.keySet(), StandardCharsets.UTF_8);
+            Files.move(journalTemp, journal, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            recover(resultPath);
+        }
+    }
+
+    /**
+     * @throws IOException if the result file does not exist
+     */
+    public static Writer writer(String resultPath, String... names) throws IOException {
+        return new Writer(resultPath, names);
+    }
+
+    /**
+     * Finish the renames of an interrupted group update
+     */
+    private static void recover(String resultPath) throws IOException {
+        Path journal = Paths.get(resultPath + JOURNAL);
+        if (!Files.exists(journal)) return;
+        List<String> names = new ArrayList<>(Files.readAllLines(journal, StandardCharsets.UTF_8));
+        for (String name : names) {
+            if (name.isEmpty()) continue;
+            Path target = Paths.get(path(resultPath, name));
+            Path temp = Paths.get(target + ".tmp");
+            if (Files.exists(temp)) Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.delete(journal);
+    }
+
+    /**
+     * Growable id-aligned array, values behind count are NaN
+     */
+    private static class Builder {
+
+        private int firstId;
+
+        private double[] values = new double[0];
+
+        private int count = 0;
+
+        void put(int id, double value) {
+            if (count == 0) firstId = id;
+            if (id < firstId) {
+                //ids before the first one: move all values back
+                int shift = firstId - id;
+                double[] moved = new double[Math.max(values.length, count + shift)];
+                Arrays.fill(moved, 0, shift, Double.NaN);
+                System.arraycopy(values, 0, moved, shift, count);
+                Arrays.fill(moved, shift + count, moved.length, Double.NaN);
+                values = moved;
+                count += shift;
+                firstId = id;
+            }
+            int index = id - firstId;
+            if (index >= values.length) {
+                int length = Math.max(index + 1, values.length * 2);
+                values = Arrays.copyOf(values, Math.max(length, 16));
+                Arrays.fill(values, count, values.length, Double.NaN);
+            }
+            values[index] = value;
+            count = Math.max(count, index + 1);
+        }
+
+        void write(Path path, long resultSize, long resultModified) throws IOException {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(resultSize);
+                out.writeLong(resultModified);
+                out.writeInt(firstId);
+                out.writeInt(count);
+                for (int i = 0; i < count; i++) out.writeDouble(values[i]);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,137 @@
+package org.njupt.util;
+
+import java.util.Arrays;
+
+/**
+ * Resolution label of a conflict from its a / o / b / resolution lines
+ * <p>
+ * Every line is hashed (64-bit FNV-1a) with its leading / trailing whitespace dropped and whitespace runs collapsed,
+ * blank lines are skipped, so the label does not depend on indentation or line endings. The four regions are compared
+ * as hash sequences only, no diff is run.
+ * <p>
+ * Two taxonomies, the ones of the README tables:
+ * <ul>
+ *     <li>MERGEBERT: RES_EMPTY, A, B, BASE, AB, BA, REM-BASE-A, REM-BASE-B, REM-BASE-AB, REM-BASE-BA, OTHER, checked in
+ *     this order. REM-BASE-X is X without the lines of the base. RES_FILE_EMPTY needs the whole resolved file and is
+ *     never inferred.</li>
+ *     <li>TOP50: A, B, CC12 (a then b), CC21 (b then a), CB (every line from a or b, an empty resolution too),
+ *     NC (new code).</li>
+ * </ul>
+ */
+public class ResolutionLabeler {
+
+    public enum Taxonomy { MERGEBERT, TOP50 }
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static final long[] EMPTY = new long[0];
+
+    private ResolutionLabeler() {
+    }
+
+    /**
+     * Label of one conflict
+     * @param r resolution region
+     */
+    public static String label(String a, String o, String b, String r, Taxonomy taxonomy) {
+        long[] la = lines(a), lo = lines(o), lb = lines(b), lr = lines(r);
+        return taxonomy == Taxonomy.MERGEBERT ? mergeBert(la, lo, lb, lr) : top50(la, lb, lr);
+    }
+
+    private static String mergeBert(long[] a, long[] o, long[] b, long[] r) {
+        if (r.length == 0) return "RES_EMPTY";
+        if (Arrays.equals(r, a)) return "A";
+        if (Arrays.equals(r, b)) return "B";
+        if (Arrays.equals(r, o)) return "BASE";
+        if (concatenates(r, a, b)) return "AB";
+        if (concatenates(r, b, a)) return "BA";
+        // without the lines of the base
+        long[] base = sorted(o);
+        long[] remA = remove(a, base), remB = remove(b, base);
+        // one side first: with the other side empty, it concatenates too
+        if (Arrays.equals(r, remA)) return "REM-BASE-A";
+        if (Arrays.equals(r, remB)) return "REM-BASE-B";
+        if (concatenates(r, remA, remB)) return "REM-BASE-AB";
+        if (concatenates(r, remB, remA)) return "REM-BASE-BA";
+        return "OTHER";
+    }
+
+    private static String top50(long[] a, long[] b, long[] r) {
+        if (Arrays.equals(r, a)) return "A";
+        if (Arrays.equals(r, b)) return "B";
+        if (concatenates(r, a, b)) return "CC12";
+        if (concatenates(r, b, a)) return "CC21";
+        // every line of the resolution from a or b
+        long[] sides = sorted(a, b);
+        for (long line : r) {
+            if (Arrays.binarySearch(sides, line) < 0) return "NC";
+        }
+        return "CB";
+    }
+
+    /**
+     * Whether r is first followed by second
+     */
+    private static boolean concatenates(long[] r, long[] first, long[] second) {
+        if (r.length != first.length + second.length) return false;
+        return Arrays.equals(r, 0, first.length, first, 0, first.length)
+                && Arrays.equals(r, first.length, r.length, second, 0, second.length);
+    }
+
+    private static long[] remove(long[] lines, long[] sortedBase) {
+        long[] kept = new long[lines.length];
+        int size = 0;
+        for (long line : lines) {
+            if (Arrays.binarySearch(sortedBase, line) < 0) kept[size++] = line;
+        }
+        return size == lines.length ? lines : Arrays.copyOf(kept, size);
+    }
+
+    private static long[] sorted(long[]... sides) {
+        int size = 0;
+        for (long[] side : sides) size += side.length;
+        long[] all = new long[size];
+        size = 0;
+        for (long[] side : sides) {
+            System.arraycopy(side, 0, all, size, side.length);
+            size += side.length;
+        }
+        Arrays.sort(all);
+        return all;
+    }
+
+    /**
+     * Hashes of the non-blank lines of a region
+     */
+    static long[] lines(String text) {
+        if (text == null || text.isEmpty()) return EMPTY;
+        long[] hashes = new long[8];
+        int size = 0;
+        long hash = FNV_OFFSET;
+        boolean blank = true, space = false;
+        for (int i = 0, length = text.length(); i <= length; i++) {
+            char c = i < length ? text.charAt(i) : '\n';
+            if (c == '\n') {
+                if (!blank) {
+                    if (size == hashes.length) hashes = Arrays.copyOf(hashes, size * 2);
+                    hashes[size++] = hash;
+                }
+                hash = FNV_OFFSET;
+                blank = true;
+                space = false;
+            } else if (Character.isWhitespace(c)) {
+                space = !blank;
+            } else {
+                // one ' ' for a whitespace run inside the line
+                if (space) hash = (hash ^ ' ') * FNV_PRIME;
+                hash = (hash ^ c) * FNV_PRIME;
+                blank = false;
+                space = false;
+            }
+        }
+        return Arrays.copyOf(hashes, size);
+    }
+
+}
@@ -0,0 +1,90 @@
+package org.njupt.util;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Global interned token dictionary (token String <-> int id), shared by all threads
+ * <p>
+ * Id 0 is reserved for the line break sentinel "NewLineDZY", which never appears in a {@link CodeTokens} id array.
+ */
+public class TokenVocabulary {
+
+    public static final String NEW_LINE_TOKEN = "NewLineDZY";
+
+    public static final int NEW_LINE = 0;
+
+    private static final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+
+    private static final Object lock = new Object();
+
+    private static volatile String[] texts = new String[1024];
+
+    // ids of the "\n" separated pieces of a multi-line token (block comment), null for single-line tokens
+    private static volatile int[][] pieces = new int[1024][];
+
+    private static final int[] SINGLE_LINE = new int[0];
+
+    private static int size = 0;
+
+    static {
+        id(NEW_LINE_TOKEN);
+    }
+
+    /**
+     * Get (or intern) the id of a token
+     */
+    public static int id(String token) {
+        Integer id = ids.get(token);
+        if (id != null) return id;
+        return ids.computeIfAbsent(token, TokenVocabulary::register);
+    }
+
+    /**
+     * Text of a token id
+     */
+    public static String text(int id) {
+        return texts[id];
+    }
+
+    /**
+     * Line pieces of a multi-line token, null if the token has no "\n"
+     */
+    public static int[] lines(int id) {
+        int[][] current = pieces;
+        int[] tokenPieces = id < current.length ? current[id] : null;
+        if (tokenPieces == null) {
+            tokenPieces = splitLines(texts[id]);
+            synchronized (lock) {
+                pieces[id] = tokenPieces;
+            }
+        }
+        return tokenPieces == SINGLE_LINE ? null : tokenPieces;
+    }
+
+    public static int size() {
+        synchronized (lock) {
+            return size;
+        }
+    }
+
+    private static int register(String token) {
+        synchronized (lock) {
+            if (size == texts.length) {
+                texts = Arrays.copyOf(texts, size * 2);
+                pieces = Arrays.copyOf(pieces, size * 2);
+            }
+            texts[size] = token;
+            return size++;
+        }
+    }
+
+    private static int[] splitLines(String token) {
+        if (token.indexOf('\n') < 0) return SINGLE_LINE;
+        String[] parts = token.split("\n", -1);
+        int[] result = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) result[i] = id(parts[i]);
+        return result;
+    }
+
+}
@@ -0,0 +1,179 @@
+package org.njupt.core;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.njupt.util.Bleu;
+import org.njupt.util.ConflictRecordWriter;
+import org.njupt.util.DzyUtils;
+import org.njupt.util.MetricColumn;
+
+import java.io.File;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * AnswerEvaluator: the numbers of the countChatGPT* statistics on a small answer file, top k, labels, share, filters
+ */
+public class AnswerEvaluatorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // res_region, res_region_small, res_label, line_noContext_answer, line_with_SlicingContext_answer, line_withpresuf_answer, token_withpresuf_answer
+    private static final Object[][] RECORDS = {
+            {"int a = 1;", "a = 1;", "A", new String[]{"int a=1;", "x", "y"}, new String[]{"x", "int a = 1;"}, new String[]{"a = 1;"}, new String[]{"z", "z", "z"}},
+            // the perfect answer is the 4th one: not in the top 3
+            {"return b;", "b;", "B", new String[]{"q", "w", "e", "return b;"}, new String[]{"return b;"}, new String[]{"return  b;"}, new String[]{"b;"}},
+            {"c();", "c();", "A", new String[]{"c();"}, new String[]{"d();"}, new String[]{"x"}, new String[]{"c ( ) ;"}},
+            {"e();", "e();", "NC", new String[]{"e();"}, new String[]{"e();"}, new String[]{"e();"}, new String[]{"e();"}},
+    };
+
+    private static final String[] ANSWER_FIELDS = {"line_noContext_answer", "line_with_SlicingContext_answer", "line_withpresuf_answer", "token_withpresuf_answer"};
+
+    @Test
+    public void matchRateAndShare() throws Exception {
+        String directory = write();
+        Map<String, Double> map = new DatasetCollector().countChatGPTMatchRate(directory, "answers.jsonl");
+        assertEquals(3.0, map.get("line_no"), 0.0);
+        assertEquals(3.0, map.get("line_withSlicing"), 0.0);
+        assertEquals(2.0, map.get("line_share"), 0.0);
+        // max match rates are written to sidecar columns keyed by id
+        MetricColumn column = MetricColumn.read(directory + "answers.jsonl", "line_no_maxMatch");
+        assertEquals(100.0, column.get(1), 0.0);
+        assertEquals(maxMatch("return b;", "q", "w", "e"), column.get(2), 0.0);
+    }
+
+    @Test
+    public void perfectPerLabel() throws Exception {
+        Map<String, Double> map = new DatasetCollector().countChatGPTMatchEveryType(write(), "answers.jsonl");
+        Map<String, Double> expected = new LinkedHashMap<>();
+        expected.put("A", 2.0);
+        expected.put("NC", 1.0);
+        assertEquals(expected, map);
+
+        Map<String, Double> result = new AnswerEvaluator("line_noContext_answer").metrics(AnswerEvaluator.Metric.LABEL).evaluate(write() + "answers.jsonl");
+        assertEquals(1.0, result.get("label_B"), 0.0);
+        assertNull(result.get("line_noContext_answer_perfect_B"));
+    }
+
+    @Test
+    public void bestOfTwoReferences() throws Exception {
+        Map<String, Double> map = new DatasetCollector().countChatGPTMatchRatePreSuf(write(), "answers.jsonl");
+        assertEquals(3.0, map.get("line_with"), 0.0);
+        assertEquals(3.0, map.get("token_with"), 0.0);
+    }
+
+    @Test
+    public void topKIsCappedByTheAnswers() throws Exception {
+        String path = write() + "answers.jsonl";
+        Map<String, Double> top3 = new AnswerEvaluator("line_noContext_answer").workers(2).evaluate(path);
+        Map<String, Double> top4 = new AnswerEvaluator("line_noContext_answer").topK(4).workers(2).evaluate(path);
+        assertEquals(4.0, top3.get("all"), 0.0);
+        assertEquals(3.0, top3.get("line_noContext_answer_perfect"), 0.0);
+        assertEquals(4.0, top4.get("line_noContext_answer_perfect"), 0.0);
+        assertEquals((300 + maxMatch("return b;", "q", "w", "e")) / 4, top3.get("line_noContext_answer_maxMatch"), 1e-9);
+    }
+
+    @Test
+    public void bleuOfTheOldStatistics() throws Exception {
+        // the old statistics took exactly 3 answers: mean sentence BLEU-4, the better reference, averaged over records
+        String directory = write();
+        Map<String, Double> map = new DatasetCollector().countChatGPTBleu4(directory, "answers.jsonl");
+        double sum = 0.0;
+        Bleu.Corpus corpus = new Bleu.Corpus();
+        for (Object[] record : RECORDS) {
+            String[] answers = padded((String[]) record[6]);
+            String reference = DzyUtils.newTokenizerToString((String) record[0]);
+            String reference2 = DzyUtils.newTokenizerToString((String) record[1]);
+            double bleu = 0.0, bleu2 = 0.0;
+            for (String answer : answers) {
+                String tokens = DzyUtils.newTokenizerToString(answer);
+                bleu += Bleu.sentenceBleu(tokens, Bleu.reference(reference)) / answers.length;
+                bleu2 += Bleu.sentenceBleu(tokens, Bleu.reference(reference2)) / answers.length;
+                corpus.add(tokens, Bleu.reference(Arrays.asList(reference, reference2)));
+            }
+            sum += Math.max(bleu, bleu2);
+        }
+        assertEquals(sum / RECORDS.length, map.get("token_withBM25"), 1e-9);
+        assertEquals(corpus.bleu(), map.get("token_withBM25_corpus"), 1e-9);
+    }
+
+    @Test
+    public void codeBleuOfTheOldStatistics() throws Exception {
+        String directory = write();
+        Map<String, Double> old = new DatasetCollector().countChatGPTCodeBleu(directory, "answers.jsonl", 2);
+        Map<String, Double> result = new AnswerEvaluator("line_withpresuf_answer", "token_withpresuf_answer")
+                .references("res_region", "res_region_small")
+                .metrics(AnswerEvaluator.Metric.CODE_BLEU)
+                .evaluate(directory + "answers.jsonl");
+        assertEquals(old.get("line_withBM25_codebleu"), result.get("line_withpresuf_answer_codebleu"), 1e-9);
+        assertEquals(old.get("token_withBM25_codebleu"), result.get("token_withpresuf_answer_codebleu"), 1e-9);
+    }
+
+    @Test
+    public void shareOfAllFields() throws Exception {
+        Map<String, Double> result = new AnswerEvaluator("line_noContext_answer", "line_with_SlicingContext_answer", "token_withpresuf_answer")
+                .metrics(AnswerEvaluator.Metric.SHARE)
+                .evaluate(write() + "answers.jsonl");
+        assertEquals(1.0, result.get("share"), 0.0);
+        assertNull(result.get("line_noContext_answer_perfect"));
+    }
+
+    @Test
+    public void filterOnSidecarColumns() throws Exception {
+        String path = write() + "answers.jsonl";
+        try (MetricColumn.Writer columns = MetricColumn.writer(path, "keep")) {
+            for (int id = 1; id <= RECORDS.length; id++) columns.put("keep", id, id % 2);
+            columns.commit();
+        }
+        List<Integer> indexes = new ArrayList<>();
+        Map<String, Double> result = new AnswerEvaluator("line_noContext_answer")
+                .workers(2)
+                .filter((index, record) -> record.optDouble("keep") == 1, "keep")
+                .listener((index, record, values) -> indexes.add(index))
+                .evaluate(path);
+        assertEquals(2.0, result.get("all"), 0.0);
+        assertEquals(Arrays.asList(0, 2), indexes);
+        assertEquals(2.0, result.get("line_noContext_answer_perfect"), 0.0);
+    }
+
+    /**
+     * The answer file of RECORDS with ids 1.., BLEU needs 3 answers per field (padded with the last one)
+     */
+    private String write() throws Exception {
+        String directory = folder.getRoot().getPath() + "/";
+        try (ConflictRecordWriter writer = ConflictRecordWriter.open(directory + "answers.jsonl")) {
+            for (int i = 0; i < RECORDS.length; i++) {
+                JSONObject record = new JSONObject();
+                record.put("id", i + 1);
+                record.put("res_region", RECORDS[i][0]);
+                record.put("res_region_small", RECORDS[i][1]);
+                record.put("res_label", RECORDS[i][2]);
+                for (int f = 0; f < ANSWER_FIELDS.length; f++) {
+                    String[] answers = (String[]) RECORDS[i][3 + f];
+                    record.put(ANSWER_FIELDS[f], new JSONArray(Arrays.asList(f >= 2 ? padded(answers) : answers)));
+                }
+                writer.write(record);
+            }
+            writer.commit();
+        }
+        return directory;
+    }
+
+    private static String[] padded(String[] answers) {
+        String[] padded = Arrays.copyOf(answers, Math.max(3, answers.length));
+        for (int i = answers.length; i < padded.length; i++) padded[i] = answers[answers.length - 1];
+        return padded;
+    }
+
+    private static double maxMatch(String resolution, String... answers) {
+        double maxMatch = 0.0;
+        for (String answer : answers) maxMatch = Math.max(maxMatch, DzyUtils.perfectMatchRate(answer, DzyUtils.removeWhitespace(resolution)));
+        return maxMatch;
+    }
+
+}
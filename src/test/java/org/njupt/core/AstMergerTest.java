@@ -0,0 +1,89 @@
+package org.njupt.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * AstMerger: imports as sets, members keyed by signature, parts of a member changed on both sides
+ */
+public class AstMergerTest {
+
+    @Test
+    public void importsAreSets() {
+        String o = "import java.util.List;\nimport java.util.Map;";
+        String a = "import java.util.List;\nimport java.util.Map;\nimport java.util.Set;";
+        String b = "import java.io.File;\nimport java.util.List;";
+        assertEquals("import java.io.File;\nimport java.util.List;\nimport java.util.Set;", AstMerger.merge(a, o, b));
+    }
+
+    @Test
+    public void importReplacedOnBothSides() {
+        assertNull(AstMerger.merge("import java.util.List;", "import a.List;", "import java.awt.List;"));
+        // the same simple name added next to other imports
+        assertNull(AstMerger.merge("import x.Map;\nimport java.util.List;", "import x.Map;", "import x.Map;\nimport java.awt.List;"));
+        // a removed import replaced by different imports of its kind
+        assertNull(AstMerger.merge("import b.*;", "import a.*;", "import c.*;"));
+        assertEquals("import java.util.List;", AstMerger.merge("import java.util.List;", "import a.List;", "import java.util.List;"));
+    }
+
+    @Test
+    public void membersAddedOnBothSides() {
+        String o = "    int x;\n";
+        String a = "    int x;\n    int y;\n";
+        String b = "    int x;\n\n    void run() {\n    }\n";
+        // members of B follow their predecessor in B
+        assertEquals("    int x;\n\n    void run() {\n    }\n    int y;\n", AstMerger.merge(a, o, b));
+    }
+
+    @Test
+    public void modifiersAndAnnotationsAreUnited() {
+        String o = "    void run() {\n    }\n";
+        String a = "    public void run() {\n    }\n";
+        String b = "    @Override\n    void run() {\n    }\n";
+        assertEquals("    @Override\n    public void run() {\n    }\n", AstMerger.merge(a, o, b));
+    }
+
+    @Test
+    public void accessChangedOnBothSides() {
+        String o = "    void run() {\n    }\n";
+        assertNull(AstMerger.merge("    public void run() {\n    }\n", o, "    private void run() {\n    }\n"));
+    }
+
+    @Test
+    public void statementsAreNotMerged() {
+        assertNull(AstMerger.merge("x = 1;\n", "x = 0;\n", "x = 2;\n"));
+    }
+
+    @Test
+    public void commentEditIsKept() {
+        String o = "    /** Runs. */\n    void run() {\n    }\n";
+        String a = "    /** Runs once. */\n    void run() {\n    }\n";
+        String b = "    /** Runs. */\n    @Override\n    void run() {\n    }\n";
+        assertEquals("    /** Runs once. */\n    @Override\n    void run() {\n    }\n", AstMerger.merge(a, o, b));
+        String modifier = "    /** Runs. */\n    final void run() {\n    }\n";
+        assertEquals("    /** Runs once. */\n    final void run() {\n    }\n", AstMerger.merge(a, o, modifier));
+        assertNull(AstMerger.merge(a, o, "    /** Runs twice. */\n    @Override\n    void run() {\n    }\n"));
+    }
+
+    @Test
+    public void parameterTypesChangedOnBothSides() {
+        String o = "    void run(int n) {\n    }\n";
+        assertNull(AstMerger.merge("    void run(long n) {\n    }\n", o, "    void run(String n) {\n    }\n"));
+        // the same change on both sides
+        assertEquals("    void run(long n) {\n    }\n", AstMerger.merge("    void run(long n) {\n    }\n", o, "    void run(long n) {\n    }\n"));
+    }
+
+    @Test
+    public void initializerChangedOnBothSides() {
+        String o = "    static {\n        init(0);\n    }\n";
+        assertNull(AstMerger.merge("    static {\n        init(1);\n    }\n", o, "    static {\n        init(2);\n    }\n"));
+    }
+
+    @Test
+    public void fieldRenamedOnBothSides() {
+        String o = "    int value = 1;\n";
+        assertNull(AstMerger.merge("    int value2 = 1;\n", o, "    int myvalue = 1;\n"));
+    }
+
+}
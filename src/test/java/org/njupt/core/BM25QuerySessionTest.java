@@ -0,0 +1,95 @@
+package org.njupt.core;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.store.Directory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * BM25QuerySession: lines of merged.java outside the conflicts, sub-token queries, " " when nothing can be queried
+ */
+public class BM25QuerySessionTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Directory directory;
+
+    private BM25QuerySession session;
+
+    @Before
+    public void index() throws Exception {
+        File merged = folder.newFile("1_merged.java");
+        FileUtils.writeStringToFile(merged, "class Account {\n"
+                + "    private String userName;\n"
+                + "    int balance = 0;\n"
+                + "<<<<<<< A\n"
+                + "    String conflicting;\n"
+                + "=======\n"
+                + ">>>>>>> B\n"
+                + "    void deposit(int amount) { balance += amount; }\n"
+                + "}\n", StandardCharsets.UTF_8);
+        Analyzer analyzer = new CodeAnalyzer();
+        directory = KeyContextCollector.createBM25(merged.getPath(), analyzer);
+        session = new BM25QuerySession(directory, analyzer);
+    }
+
+    @After
+    public void close() throws Exception {
+        session.close();
+        directory.close();
+    }
+
+    @Test
+    public void topLines() throws Exception {
+        assertEquals("private String userName ; ", session.query("userName", 1));
+        // camelCase sub-token
+        assertEquals("private String userName ; ", session.query("name", 1));
+        // a repeated token weighs more
+        assertEquals("void deposit ( int amount ) { balance += amount ; } ", session.query("balance amount amount", 1));
+        assertEquals(2, session.query("balance", 2).split(";").length - 1);
+    }
+
+    @Test
+    public void conflictLinesAreNotIndexed() throws Exception {
+        assertFalse(session.query("String conflicting", 3).contains("conflicting"));
+    }
+
+    @Test
+    public void nothingToQuery() throws Exception {
+        assertEquals(" ", session.query(" \n ", 1));
+        // the only token is too long to be a term
+        assertEquals(" ", session.query(String.join("", Collections.nCopies(CodeAnalyzer.MAX_TOKEN_LENGTH + 1, "a")), 1));
+        assertEquals(" ", session.query(new String[]{"", ""}, 1));
+    }
+
+    @Test
+    public void querySyntaxIsPlainText() throws Exception {
+        assertEquals("private String userName ; ", session.query("\"userName\" AND (", 1));
+        assertEquals(session.query("userName", 1), session.query("userName", 1));
+    }
+
+    @Test
+    public void keyContextOfEveryTuple() throws Exception {
+        Map<String, String> tuple = new HashMap<>();
+        tuple.put("a_tokens", "userName");
+        tuple.put("o_tokens", "");
+        tuple.put("b_tokens", "deposit");
+        List<Map<String, String>> context = session.queryAll(Collections.singletonList(tuple), 1);
+        assertEquals(1, context.size());
+        assertEquals("private String userName ; ", context.get(0).get("a_keyContext"));
+        assertEquals(" ", context.get(0).get("o_keyContext"));
+        assertTrue(context.get(0).get("b_keyContext").startsWith("void deposit"));
+    }
+
+}
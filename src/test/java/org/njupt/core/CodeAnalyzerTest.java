@@ -0,0 +1,74 @@
+package org.njupt.core;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * CodeAnalyzer: code tokens, camelCase / snake_case sub-tokens at the same position, too long terms
+ */
+public class CodeAnalyzerTest {
+
+    @Test
+    public void codeTokens() {
+        assertEquals(Arrays.asList("int", "a", "=", "1", ";"), CodeAnalyzer.codeTokens("int a = 1;"));
+        assertEquals(Arrays.asList("getUserName", "(", "x", ")", ";", "// a comment"), CodeAnalyzer.codeTokens("getUserName(x); // a comment"));
+    }
+
+    @Test
+    public void subTokens() {
+        assertEquals(Arrays.asList("get", "user", "name"), CodeAnalyzer.subTokens("getUserName"));
+        assertEquals(Arrays.asList("xml", "parser"), CodeAnalyzer.subTokens("XMLParser"));
+        assertEquals(Arrays.asList("max", "line", "2"), CodeAnalyzer.subTokens("MAX_LINE_2"));
+        assertEquals(Collections.emptyList(), CodeAnalyzer.subTokens("value"));
+        assertEquals(Collections.emptyList(), CodeAnalyzer.subTokens("=="));
+    }
+
+    @Test
+    public void subTokensShareThePosition() throws Exception {
+        assertEquals(Arrays.asList("getusername/1", "get/0", "user/0", "name/0", "(/1", "x/1", ")/1"), terms(new CodeAnalyzer(), "getUserName(x)"));
+        assertEquals(Arrays.asList("getusername/1", "(/1", "x/1", ")/1"), terms(new CodeAnalyzer(false), "getUserName(x)"));
+        // words of a comment
+        assertEquals(Arrays.asList("// a comment/1", "a/0", "comment/0"), terms(new CodeAnalyzer(), "// a comment"));
+    }
+
+    @Test
+    public void tooLongTermsKeepTheirPosition() throws Exception {
+        String tooLong = String.join("", Collections.nCopies(CodeAnalyzer.MAX_TOKEN_LENGTH + 1, "a"));
+        assertEquals(Arrays.asList("x/1", "y/2"), terms(new CodeAnalyzer(), "x " + tooLong + " y"));
+    }
+
+    @Test
+    public void presetTokensAsLexed() throws Exception {
+        CodeAnalyzer analyzer = new CodeAnalyzer();
+        List<String> terms = new ArrayList<>();
+        try (TokenStream stream = analyzer.tokenStream(CodeAnalyzer.codeTokens("int userId;"))) {
+            CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) terms.add(term.toString());
+            stream.end();
+        }
+        assertEquals(Arrays.asList("int", "userid", "user", "id", ";"), terms);
+    }
+
+    private static List<String> terms(CodeAnalyzer analyzer, String code) throws Exception {
+        List<String> terms = new ArrayList<>();
+        try (TokenStream stream = analyzer.tokenStream(BM25QuerySession.FIELD, code)) {
+            CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+            PositionIncrementAttribute increment = stream.addAttribute(PositionIncrementAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) terms.add(term + "/" + increment.getPositionIncrement());
+            stream.end();
+        }
+        return terms;
+    }
+
+}
@@ -0,0 +1,142 @@
+package org.njupt.core;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.njupt.util.ConflictRecordReader;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * CollectManifest: skip unchanged files, re-collect modified ones, cut off unfinished records
+ */
+public class CollectManifestTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File root;
+
+    private String output;
+
+    // files collected by the tasks
+    private final AtomicInteger collected = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        root = folder.newFolder("data");
+        output = new File(folder.getRoot(), "result.jsonl").getPath();
+        write("1_metadata.json", "a,b");
+        write("2_metadata.json", "c");
+        write("3_metadata.json", "d,e,f");
+    }
+
+    @Test
+    public void firstRunCollectsEverything() throws Exception {
+        Map<String, Integer> map = collect();
+        assertEquals(3, collected.get());
+        assertEquals(6, (int) map.get("line_allCount"));
+        List<JSONObject> records = records();
+        assertEquals(Arrays.asList("a", "b", "c", "d", "e", "f"), texts(records));
+        for (int i = 0; i < records.size(); i++) assertEquals(i + 1, records.get(i).getInt("id"));
+        assertEquals("3_metadata.json#2", records.get(4).getString("uid"));
+    }
+
+    @Test
+    public void unchangedFilesAreSkipped() throws Exception {
+        collect();
+        byte[] before = Files.readAllBytes(new File(output).toPath());
+        collected.set(0);
+        collect();
+        assertEquals(0, collected.get());
+        assertArrayEquals(before, Files.readAllBytes(new File(output).toPath()));
+    }
+
+    @Test
+    public void modifiedAndDeletedFilesAreReplaced() throws Exception {
+        collect();
+        write("2_metadata.json", "c2,c3");
+        assertTrue(new File(root, "3_metadata.json").delete());
+        collected.set(0);
+        Map<String, Integer> map = collect();
+        assertEquals(1, collected.get());
+        List<JSONObject> records = records();
+        assertEquals(Arrays.asList("a", "b", "c2", "c3"), texts(records));
+        // ids keep growing, old ids are not reused
+        assertEquals(7, records.get(2).getInt("id"));
+        assertEquals(4, (int) map.get("line_allCount"));
+    }
+
+    @Test
+    public void unfinishedRecordsAreCutOff() throws Exception {
+        collect();
+        long size = new File(output).length();
+        Files.write(new File(output).toPath(), "{\"id\":7,\"text\":\"half".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        collected.set(0);
+        collect();
+        assertEquals(0, collected.get());
+        assertEquals(size, new File(output).length());
+        assertEquals(6, records().size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void onlyJsonLinesCanBeResumed() throws Exception {
+        CollectManifest.collect(root.getPath(), tasks(), new File(folder.getRoot(), "result.dzc").getPath(), 1);
+    }
+
+    private Map<String, Integer> collect() throws Exception {
+        return CollectManifest.collect(root.getPath(), tasks(), output, 2);
+    }
+
+    /**
+     * One record per comma separated text of every file
+     */
+    private LinkedHashMap<String, ParallelCollector.FileTask> tasks() {
+        LinkedHashMap<String, ParallelCollector.FileTask> tasks = new LinkedHashMap<>();
+        String[] names = root.list();
+        Arrays.sort(names);
+        for (String name : names) {
+            tasks.put(name, (sink, mapCount) -> {
+                collected.incrementAndGet();
+                String[] texts = new String(Files.readAllBytes(new File(root, name).toPath()), StandardCharsets.UTF_8).split(",");
+                for (int i = 0; i < texts.length; i++) {
+                    mapCount.put("line_allCount", mapCount.getOrDefault("line_allCount", 0) + 1);
+                    JSONObject record = new JSONObject();
+                    record.put("id", mapCount.get("line_allCount"));
+                    record.put("id_inFile", i + 1);
+                    record.put("text", texts[i]);
+                    sink.accept(record);
+                }
+            });
+        }
+        return tasks;
+    }
+
+    private List<JSONObject> records() throws Exception {
+        List<JSONObject> records = new ArrayList<>();
+        try (ConflictRecordReader reader = ConflictRecordReader.open(output)) {
+            for (JSONObject record : reader) records.add(record);
+        }
+        return records;
+    }
+
+    private static List<String> texts(List<JSONObject> records) {
+        List<String> texts = new ArrayList<>();
+        for (JSONObject record : records) texts.add(record.getString("text"));
+        return texts;
+    }
+
+    private void write(String name, String text) throws Exception {
+        Files.write(new File(root, name).toPath(), text.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,102 @@
+package org.njupt.core;
+
+import org.apache.commons.io.FileUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.njupt.util.Diff3Merger;
+import org.njupt.util.DzyUtils;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * ConflictStore: same result as Diff3Merger, bounded entries, statistics per call, one store for both collectors
+ */
+public class ConflictStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String A = "int a = 1;\nint b = 2;\n";
+
+    private static final String O = "int a = 0;\nint b = 2;\n";
+
+    private static final String B = "int a = 3;\nint b = 2;\n";
+
+    @Test
+    public void sameAsDiff3Merger() {
+        ConflictStore store = new ConflictStore();
+        List<String> expected = Diff3Merger.merge(DzyUtils.newTokenIds(A), DzyUtils.newTokenIds(O), DzyUtils.newTokenIds(B), "A", "O", "B");
+        assertEquals(expected, store.merge(A, O, B).lines("A", "O", "B"));
+        assertEquals(expected, store.merge(A, O, B).lines("A", "O", "B"));
+        assertEquals(1, store.merge(A, O, B).keyInformation().size());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void keyInformationIsReadOnly() {
+        Map<String, String> tuple = new ConflictStore().merge(A, O, B).keyInformation().get(0);
+        tuple.put("a_tokens", "changed");
+    }
+
+    @Test
+    public void statisticsSinceTheLastCall() {
+        ConflictStore store = new ConflictStore();
+        store.merge(A, O, B);
+        store.merge(A, O, B);
+        Map<String, Integer> first = store.statistics();
+        assertEquals(2, (int) first.get("dedup_triple_all"));
+        assertEquals(1, (int) first.get("dedup_triple_unique"));
+        assertEquals(6, (int) first.get("dedup_side_all"));
+        assertEquals(3, (int) first.get("dedup_side_unique"));
+        store.merge(A, O, B);
+        Map<String, Integer> second = store.statistics();
+        assertEquals(1, (int) second.get("dedup_triple_all"));
+        assertEquals(0, (int) second.get("dedup_triple_unique"));
+    }
+
+    @Test
+    public void oldestEntriesAreDropped() {
+        ConflictStore store = new ConflictStore(4);
+        for (int i = 0; i < 50; i++) {
+            store.tokens("int x = " + i + ";");
+            assertTrue(store.size() <= 4);
+        }
+        store.statistics();
+        store.tokens("int x = 49;");
+        store.tokens("int x = 0;");
+        assertEquals(1, (int) store.statistics().get("dedup_side_unique"));
+        store.clear();
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void sharedByBothCollectors() throws Exception {
+        JSONObject chunk = new JSONObject().put("a_contents", "foo(1, 2);\n").put("base_contents", "foo(0, 2);\n")
+                .put("b_contents", "foo(0, 3);\n").put("res_region", "foo(1, 3);\n").put("resolve", "foo(1, 3);\n").put("label", "NC");
+        JSONObject file = new JSONObject().put("fname", "A.java").put("repo", "repo").put("filename", "A.java")
+                .put("conflicting_chunks", new JSONArray().put(chunk));
+        FileUtils.writeStringToFile(new File(folder.getRoot(), "1_metadata.json"), file.toString(), StandardCharsets.UTF_8);
+        FileUtils.writeStringToFile(new File(folder.getRoot(), "1_merged.java"), "class A {\n    void foo(int x, int y) {\n    }\n}\n", StandardCharsets.UTF_8);
+        String directory = folder.getRoot().getPath() + "/";
+
+        ConflictStore store = new ConflictStore();
+        List<JSONObject> records = new ArrayList<>();
+        new DatasetCollector(store).fromTupleToTokenDiff(directory, "1_metadata.json", records::add, new HashMap<>());
+        new Dataset50Collector(store).fromTupleToTokenDiff(directory, "1_metadata.json", records::add, new HashMap<>());
+        assertEquals("token", records.get(0).getString("merge_granularity"));
+        assertEquals(records.get(0).getString("token_level_result"), records.get(1).getString("token_level_result"));
+        Map<String, Integer> statistics = store.statistics();
+        assertEquals(2, (int) statistics.get("dedup_triple_all"));
+        assertEquals(1, (int) statistics.get("dedup_triple_unique"));
+    }
+
+}
@@ -0,0 +1,91 @@
+package org.njupt.core;
+
+import org.junit.Test;
+import org.njupt.util.CodeTokens;
+import org.njupt.util.Diff3Merger;
+import org.njupt.util.TokenVocabulary;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * GranularMerger: the first granularity that merges cleanly, line tokens outside TokenVocabulary
+ */
+public class GranularMergerTest {
+
+    private final GranularMerger merger = new GranularMerger(new ConflictStore());
+
+    @Test
+    public void lineKeepsSpacing() {
+        String o = "int a = 0;\n    int b = 0;\n";
+        String a = "int a = 1;\n    int b = 0;\n";
+        String b = "int a = 0;\n    int b = 2;\n";
+        GranularMerger.Result result = merge(a, o, b);
+        assertEquals(GranularMerger.Granularity.LINE, result.granularity());
+        assertEquals("int a = 1;\n    int b = 2;\n", result.text());
+        assertTrue(result.keyInformation().isEmpty());
+    }
+
+    @Test
+    public void tokenMergesOneLine() {
+        GranularMerger.Result result = merge("foo(1, 2);\n", "foo(0, 2);\n", "foo(0, 3);\n");
+        assertEquals(GranularMerger.Granularity.TOKEN, result.granularity());
+        assertEquals("foo(1, 3);\n", result.text());
+        assertNotNull(result.tokenMerge());
+    }
+
+    @Test
+    public void characterMergesOneToken() {
+        GranularMerger.Result result = merge("x = value2 + 1;\n", "x = value + 1;\n", "x = myvalue + 1;\n");
+        assertEquals(GranularMerger.Granularity.CHARACTER, result.granularity());
+        assertEquals("x = myvalue2 + 1;\n", result.text());
+        assertEquals(1, result.keyInformation().size());
+    }
+
+    @Test
+    public void conflictStays() {
+        GranularMerger.Result result = merge("int a = 1;\n", "int a = 0;\n", "int a = 2;\n");
+        assertFalse(result.isClean());
+        assertTrue(result.text().contains("<<<<<<< A\n"));
+        assertEquals(1, result.keyInformation().size());
+    }
+
+    @Test
+    public void onlyChosenGranularities() {
+        GranularMerger tokenOnly = new GranularMerger(new ConflictStore()).setGranularities(GranularMerger.Granularity.TOKEN);
+        GranularMerger.Result result = tokenOnly.merge("int a = 1;\nint b = 0;\n", "int a = 0;\nint b = 0;\n", "int a = 0;\nint b = 2;\n", "A", "O", "B", new StringBuilder());
+        assertEquals(GranularMerger.Granularity.TOKEN, result.granularity());
+        Map<String, Integer> statistics = tokenOnly.statistics();
+        assertEquals(0, (int) statistics.get("granularity_line_tried"));
+        assertEquals(1, (int) statistics.get("granularity_token_succeed"));
+        // counted since the last call
+        assertEquals(0, (int) tokenOnly.statistics().get("granularity_token_tried"));
+    }
+
+    @Test
+    public void linesAreNotInterned() {
+        StringBuilder a = new StringBuilder(), o = new StringBuilder(), b = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            String line = "String unique" + i + " = \"" + System.nanoTime() + "\";\n";
+            a.append(line);
+            o.append(line);
+            b.append(line);
+        }
+        a.append("int x = 1;\n");
+        int size = TokenVocabulary.size();
+        CodeTokens[] sides = CodeTokens.ofLines(a.toString(), o.toString(), b.toString());
+        assertEquals(size, TokenVocabulary.size());
+        assertEquals(201, sides[0].size());
+        assertEquals(sides[1].ids()[5], sides[2].ids()[5]);
+        assertEquals(Arrays.asList("String unique0 = \"" + a.substring(a.indexOf("\"") + 1, a.indexOf("\";")) + "\";"),
+                sides[0].toTokenList().subList(0, 1));
+        assertEquals("int x = 1;", Diff3Merger.merge(sides[0], sides[1], sides[2], "A", "O", "B").get(400));
+    }
+
+    private GranularMerger.Result merge(String a, String o, String b) {
+        return merger.merge(a, o, b, "A", "O", "B", new StringBuilder());
+    }
+
+}
@@ -0,0 +1,97 @@
+package org.njupt.core;
+
+import org.apache.commons.io.FileUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * MergeFilter: raw "\n" counting, limits at their boundaries, unfit_merge records of the collectors
+ */
+public class MergeFilterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void linesAreRawNewLines() {
+        MergeFilter.Sizes sizes = MergeFilter.sizes("int a;\nint b;\n", "int a;\nint b;", "");
+        assertEquals(2, sizes.lineA());
+        // no trailing newline: one line less
+        assertEquals(1, sizes.lineO());
+        assertEquals(0, sizes.lineB());
+        assertEquals(2, sizes.maxLine());
+        assertEquals(0, sizes.minLine());
+        assertEquals(14, sizes.maxChar());
+        assertEquals(27, sizes.totalChar());
+        assertEquals(2, MergeFilter.sizes("/* a\n b */\n", "", "").lineA());
+    }
+
+    @Test
+    public void maxLineDiffBoundary() {
+        assertTrue(MergeFilter.maxLineDiff(2).test(MergeFilter.sizes("a\nb\n", "", "a\n")));
+        assertFalse(MergeFilter.maxLineDiff(2).test(MergeFilter.sizes("a\nb\nc\n", "", "a\n")));
+        assertTrue(MergeFilter.maxLineDiff(2).test(MergeFilter.sizes("a\nb\nc", "", "a\n")));
+    }
+
+    @Test
+    public void maxLinesBoundary() {
+        assertTrue(MergeFilter.maxLines(5).test(MergeFilter.sizes("1\n2\n3\n4\n5\n", "", "")));
+        assertFalse(MergeFilter.maxLines(5).test(MergeFilter.sizes("1\n2\n3\n4\n5\n6\n", "", "")));
+        assertTrue(MergeFilter.maxLines(5).test(MergeFilter.sizes("1\n2\n3\n4\n5\n6", "", "")));
+        assertFalse(MergeFilter.maxLineDiff(2).and(MergeFilter.maxLines(5)).test(MergeFilter.sizes("1\n2\n3\n", "", "")));
+        assertTrue(MergeFilter.ALL.test(MergeFilter.sizes("1\n2\n3\n4\n5\n6\n", "", "")));
+    }
+
+    @Test
+    public void unfitConflictsAreNotMerged() throws Exception {
+        JSONObject chunk = new JSONObject()
+                .put("a_contents", "int a = 1;\nint b = 1;\nint c = 1;\n")
+                .put("base_contents", "")
+                .put("b_contents", "int a = 2;\n")
+                .put("res_region", "int a = 1;\n")
+                .put("resolve", "int a = 1;\n")
+                .put("label", "A");
+        JSONObject file = new JSONObject()
+                .put("fname", "A.java").put("repo", "repo").put("filename", "A.java")
+                .put("conflicting_chunks", new JSONArray().put(chunk));
+        FileUtils.writeStringToFile(new File(folder.getRoot(), "1_metadata.json"), file.toString(), StandardCharsets.UTF_8);
+        String directory = folder.getRoot().getPath() + "/";
+
+        // no merged.java: the BM25 index is only built for a fit conflict
+        DatasetCollector collector = new DatasetCollector();
+        collector.setFitMerge(MergeFilter.maxLineDiff(2));
+        Dataset50Collector collector50 = new Dataset50Collector();
+        collector50.setFitMerge(MergeFilter.maxLineDiff(2));
+        for (int round = 0; round < 2; round++) {
+            List<JSONObject> records = new ArrayList<>();
+            Map<String, Integer> mapCount = new HashMap<>();
+            if (round == 0) collector.fromTupleToTokenDiff(directory, "1_metadata.json", records::add, mapCount);
+            else collector50.fromTupleToTokenDiff(directory, "1_metadata.json", records::add, mapCount);
+            assertEquals(1, records.size());
+            JSONObject record = records.get(0);
+            assertFalse(record.getBoolean("can_token_level"));
+            assertEquals("null", record.getString("can_merge_succeed"));
+            assertEquals("null", record.getString("merge_granularity"));
+            assertEquals(0.0, record.getDouble("match_rate"), 0.0);
+            assertEquals("null", record.getString("token_level_result"));
+            assertEquals("null", record.getString("key_information"));
+            assertEquals("null", record.getString("key_context"));
+            assertEquals("A", record.getString("res_label"));
+            assertEquals(1, (int) mapCount.get("unfit_merge"));
+            assertNull(mapCount.get("fit_merge"));
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+package org.njupt.core;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.njupt.util.ConflictIndex;
+import org.njupt.util.ConflictRecordReader;
+import org.njupt.util.ConflictRecordWriter;
+
+import java.io.File;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * NearDuplicateDetector: clusters, report columns, representative filters of AnswerEvaluator and ConflictIndex
+ */
+public class NearDuplicateDetectorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String[][] CONFLICTS = {
+            {"int total = count + 1;\nreturn total;", "int total = count;\nreturn total;", "int total = count + 2;\nreturn total;"},
+            // identifiers and spacing changed
+            {"int sum  =  size + 1;\nreturn sum;", "int sum = size;\n  return sum;", "int sum = size + 2;\nreturn sum;"},
+            {"if (list.isEmpty()) {\n    throw new IllegalStateException(\"empty\");\n}", "if (list == null) {\n    return;\n}", "if (list.size() > 10) {\n    list.clear();\n}"},
+            {"int total = count + 1;\nreturn total;", "int total = count;\nreturn total;", "int total = count + 2;\nreturn total;"},
+            {"for (int i = 0; i < n; i++) log(i);", "while (running) step();", "try { close(); } catch (IOException e) { }"},
+    };
+
+    @Test
+    public void clustersNearDuplicates() throws Exception {
+        String path = write("result.jsonl", true);
+        NearDuplicateDetector.Report report = new NearDuplicateDetector().workers(2).detect(path);
+        assertEquals(5, report.records());
+        assertEquals(3, report.clusters());
+        assertEquals(2, report.duplicates());
+        assertEquals(11, report.clusterOf(12));
+        assertEquals(11, report.clusterOf(14));
+        assertEquals(13, report.clusterOf(13));
+        assertEquals(3, report.size(14));
+        assertTrue(report.representative(11));
+        assertFalse(report.representative(12));
+        assertEquals(-1, report.clusterOf(99));
+
+        List<JSONObject> records = read(path);
+        assertEquals(11, records.get(3).getInt(NearDuplicateDetector.CLUSTER_COLUMN));
+        assertEquals(3, records.get(3).getInt(NearDuplicateDetector.SIZE_COLUMN));
+        assertEquals(1, records.get(4).getInt(NearDuplicateDetector.SIZE_COLUMN));
+    }
+
+    @Test
+    public void identifiersCanCount() throws Exception {
+        String path = write("result.jsonl", true);
+        NearDuplicateDetector.Report report = new NearDuplicateDetector().normalizeIdentifiers(false).workers(1).detect(path);
+        assertEquals(4, report.clusters());
+        assertEquals(11, report.clusterOf(14));
+        assertTrue(report.representative(12));
+    }
+
+    @Test
+    public void recordsWithoutIdUseTheIndex() throws Exception {
+        String path = write("result.json", false);
+        NearDuplicateDetector.Report report = new NearDuplicateDetector().workers(2).detect(path);
+        assertEquals(1, report.clusterOf(4));
+        List<JSONObject> records = read(path);
+        List<Boolean> representatives = new ArrayList<>();
+        for (int i = 0; i < records.size(); i++) representatives.add(NearDuplicateDetector.isRepresentative(records.get(i), i + 1));
+        assertEquals(Arrays.asList(true, false, true, false, true), representatives);
+    }
+
+    @Test
+    public void evaluateRepresentativesOnly() throws Exception {
+        for (boolean ids : new boolean[]{true, false}) {
+            String path = write(ids ? "answers.jsonl" : "answers.json", ids);
+            new NearDuplicateDetector().workers(2).detect(path);
+            List<Integer> indexes = new ArrayList<>();
+            Map<String, Double> result = new AnswerEvaluator("answer")
+                    .workers(2)
+                    .filter((index, record) -> NearDuplicateDetector.isRepresentative(record, index + 1), NearDuplicateDetector.CLUSTER_COLUMN)
+                    .listener((index, record, values) -> indexes.add(index))
+                    .evaluate(path);
+            assertEquals(3.0, result.get("all"), 0.0);
+            // records 2 and 4 are skipped, the others keep their index in the file
+            assertEquals(Arrays.asList(0, 2, 4), indexes);
+            assertEquals(1.0, result.get("answer_perfect"), 0.0);
+        }
+    }
+
+    @Test
+    public void sampleRepresentatives() throws Exception {
+        String path = write("result.jsonl", true);
+        new NearDuplicateDetector().workers(2).detect(path);
+        try (ConflictIndex index = ConflictIndex.build(path)) {
+            List<JSONObject> sample = index.sample(10, 3, NearDuplicateDetector.representatives(path), "id");
+            List<Integer> ids = new ArrayList<>();
+            for (JSONObject record : sample) ids.add(record.getInt("id"));
+            assertEquals(Arrays.asList(11, 13, 15), ids);
+        }
+    }
+
+    @Test
+    public void bandsFitTheThreshold() {
+        int[] bands = NearDuplicateDetector.bands(0.8, 128);
+        assertTrue(bands[0] * bands[1] <= 128);
+        // candidate probability rises steeply around the threshold
+        assertTrue(1 - Math.pow(1 - Math.pow(0.9, bands[1]), bands[0]) > 0.9);
+        assertTrue(1 - Math.pow(1 - Math.pow(0.5, bands[1]), bands[0]) < 0.01);
+    }
+
+    /**
+     * The conflicts with ids 11.. (or none), the answer of the first conflict is its resolution
+     */
+    private String write(String name, boolean ids) throws Exception {
+        String path = new File(folder.getRoot(), name).getPath();
+        try (ConflictRecordWriter writer = ConflictRecordWriter.open(path)) {
+            for (int i = 0; i < CONFLICTS.length; i++) {
+                JSONObject record = new JSONObject();
+                if (ids) record.put("id", 11 + i);
+                record.put("a_contents", CONFLICTS[i][0]);
+                record.put("o_contents", CONFLICTS[i][1]);
+                record.put("b_contents", CONFLICTS[i][2]);
+                record.put("res_region", CONFLICTS[i][0]);
+                record.put("answer", new JSONArray().put(i == 0 ? CONFLICTS[i][0] : "x"));
+                writer.write(record);
+            }
+            writer.commit();
+        }
+        return path;
+    }
+
+    private static List<JSONObject> read(String path) throws Exception {
+        List<JSONObject> records = new ArrayList<>();
+        try (ConflictRecordReader reader = ConflictRecordReader.open(path).join(NearDuplicateDetector.CLUSTER_COLUMN, NearDuplicateDetector.SIZE_COLUMN)) {
+            for (JSONObject record : reader) records.add(record);
+        }
+        return records;
+    }
+
+}
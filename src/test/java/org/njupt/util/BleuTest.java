@@ -0,0 +1,104 @@
+package org.njupt.util;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Bleu against hand-computed values and a plain string n-gram BLEU-4
+ */
+public class BleuTest {
+
+    private static final double DELTA = 1e-12;
+
+    @Test
+    public void identicalIsOne() {
+        assertEquals(1.0, Bleu.sentenceBleu("int a = 1 ;", Bleu.reference("int  a =\n1 ;")), DELTA);
+    }
+
+    @Test
+    public void brevityPenalty() {
+        assertEquals(Math.exp(1 - 6.0 / 4), Bleu.sentenceBleu("a b c d", Bleu.reference("a b c d e f")), DELTA);
+        // the closest reference length is used, the shorter one if two are as close
+        Bleu.Statistics statistics = Bleu.statistics("a b c d e", Bleu.reference(Arrays.asList("a b c d e f g", "a b c", "a b c d e f")));
+        assertEquals(Math.exp(1 - 6.0 / 5), statistics.brevityPenalty(), DELTA);
+    }
+
+    @Test
+    public void clippedCounts() {
+        Bleu.Statistics statistics = Bleu.statistics("the the the the the the the", Bleu.reference("the cat is on the mat"));
+        assertEquals(2.0 / 7, statistics.precision(1), DELTA);
+        assertEquals(0.0, statistics.precision(2), DELTA);
+        assertEquals(0.0, statistics.bleu(), DELTA);
+    }
+
+    @Test
+    public void sameAsPlainBleu() {
+        Random random = new Random(5);
+        for (int round = 0; round < 300; round++) {
+            String reference = tokens(random, 3 + random.nextInt(30));
+            String other = tokens(random, 3 + random.nextInt(30));
+            String candidate = random.nextBoolean() ? reference.replaceFirst("t1", "t2") : other;
+            List<String> references = Arrays.asList(reference, other);
+            assertEquals(candidate, plainBleu(candidate, references), Bleu.sentenceBleu(candidate, Bleu.reference(references)), 1e-9);
+        }
+    }
+
+    @Test
+    public void corpusSumsStatistics() {
+        Bleu.Corpus corpus = new Bleu.Corpus();
+        double first = corpus.add("a b c d e", Bleu.reference("a b c d e"));
+        double second = corpus.add("a b x d e", Bleu.reference("a b c d e"));
+        assertEquals(1.0, first, DELTA);
+        assertEquals(0.0, second, DELTA);
+        assertEquals(2, corpus.size());
+        // matches 9/10, 6/8, 3/6, 2/4
+        assertEquals(Math.exp((Math.log(0.9) + Math.log(0.75) + Math.log(0.5) + Math.log(0.5)) / 4), corpus.bleu(), DELTA);
+    }
+
+    private static String tokens(Random random, int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) text.append("t").append(random.nextInt(4)).append(i % 5 == 0 ? "\n" : " ");
+        return text.toString();
+    }
+
+    /**
+     * BLEU-4 with string n-grams, clipped by the max reference count, closest reference length
+     */
+    private static double plainBleu(String candidate, List<String> references) {
+        List<String> tokens = split(candidate);
+        double logPrecision = 0.0;
+        for (int n = 1; n <= 4; n++) {
+            Map<List<String>, Integer> counts = ngrams(tokens, n);
+            Map<List<String>, Integer> max = new HashMap<>();
+            for (String reference : references) ngrams(split(reference), n).forEach((k, v) -> max.merge(k, v, Math::max));
+            int matches = 0;
+            for (Map.Entry<List<String>, Integer> entry : counts.entrySet()) matches += Math.min(entry.getValue(), max.getOrDefault(entry.getKey(), 0));
+            if (matches == 0) return 0.0;
+            logPrecision += Math.log((double) matches / (tokens.size() - n + 1));
+        }
+        int closest = -1;
+        for (String reference : references) {
+            int length = split(reference).size();
+            if (closest < 0 || Math.abs(length - tokens.size()) < Math.abs(closest - tokens.size())
+                    || Math.abs(length - tokens.size()) == Math.abs(closest - tokens.size()) && length < closest) closest = length;
+        }
+        double penalty = tokens.size() < closest ? Math.exp(1 - (double) closest / tokens.size()) : 1.0;
+        return penalty * Math.exp(logPrecision / 4);
+    }
+
+    private static List<String> split(String text) {
+        List<String> tokens = new ArrayList<>();
+        for (String token : text.split("\\s+")) if (!token.isEmpty()) tokens.add(token);
+        return tokens;
+    }
+
+    private static Map<List<String>, Integer> ngrams(List<String> tokens, int n) {
+        Map<List<String>, Integer> counts = new HashMap<>();
+        for (int i = 0; i + n <= tokens.size(); i++) counts.merge(tokens.subList(i, i + n), 1, Integer::sum);
+        return counts;
+    }
+
+}
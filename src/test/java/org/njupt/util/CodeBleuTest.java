@@ -0,0 +1,70 @@
+package org.njupt.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * CodeBleu components on small Java regions
+ */
+public class CodeBleuTest {
+
+    private static final double DELTA = 1e-12;
+
+    private static final String METHOD = "int sum(int[] values) {\n    int total = 0;\n    for (int v : values) total += v;\n    return total;\n}\n";
+
+    @Test
+    public void identicalCodeIsOne() {
+        CodeBleu.Score score = CodeBleu.score(CodeBleu.code(METHOD), CodeBleu.code(METHOD));
+        assertEquals(1.0, score.ngram(), DELTA);
+        assertEquals(1.0, score.weightedNgram(), DELTA);
+        assertEquals(1.0, score.syntax(), DELTA);
+        assertEquals(1.0, score.dataFlow(), DELTA);
+        assertEquals(1.0, score.codeBleu(), DELTA);
+    }
+
+    @Test
+    public void renamedVariablesKeepSyntaxAndDataFlow() {
+        String renamed = METHOD.replace("total", "acc").replace("values", "xs").replace(" v", " x").replace("+= v", "+= x");
+        CodeBleu.Score score = CodeBleu.score(CodeBleu.code(renamed), CodeBleu.code(METHOD));
+        assertEquals(1.0, score.syntax(), DELTA);
+        assertEquals(1.0, score.dataFlow(), DELTA);
+        assertTrue(score.ngram() < 1.0);
+        assertTrue(score.codeBleu() > score.ngram());
+    }
+
+    @Test
+    public void changedDataFlowIsLower() {
+        String other = METHOD.replace("total += v", "total = v");
+        CodeBleu.Score score = CodeBleu.score(CodeBleu.code(other), CodeBleu.code(METHOD));
+        assertTrue(score.dataFlow() < 1.0);
+        // node types only, an operator does not change the subtrees
+        assertEquals(1.0, score.syntax(), DELTA);
+    }
+
+    @Test
+    public void fragmentsAreParsed() {
+        assertTrue(CodeBleu.code("import java.util.List;\nclass A {}\n").parsed());
+        assertTrue(CodeBleu.code("private int a = 1;\nvoid f() {}\n").parsed());
+        assertTrue(CodeBleu.code("a = b + 1;\nf(a);\n").parsed());
+        assertFalse(CodeBleu.code("} else {\n  x(").parsed());
+    }
+
+    @Test
+    public void unparsedReferenceUsesNgramsOnly() {
+        String reference = "} else { x = y ;";
+        CodeBleu.Score score = CodeBleu.score(CodeBleu.code(reference), CodeBleu.code(reference));
+        assertEquals(0.0, score.syntax(), DELTA);
+        assertEquals(1.0, score.codeBleu(), DELTA);
+    }
+
+    @Test
+    public void scoresAddUp() {
+        CodeBleu.Score corpus = new CodeBleu.Score();
+        corpus.add(CodeBleu.score(CodeBleu.code(METHOD), CodeBleu.code(METHOD)));
+        corpus.add(CodeBleu.score(CodeBleu.code(METHOD), CodeBleu.code(METHOD)));
+        assertEquals(1.0, corpus.codeBleu(), DELTA);
+        assertEquals(CodeBleu.codeBleu(METHOD, METHOD), corpus.codeBleu(), DELTA);
+    }
+
+}
@@ -0,0 +1,122 @@
+package org.njupt.util;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Columnar file round trips: every column kind, missing fields, projection, chunk statistics
+ */
+public class ColumnarRecordWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void roundTrip() throws Exception {
+        List<JSONObject> records = ConflictRecordWriterTest.records(10);
+        records.get(3).remove("res_label");
+        records.get(4).put("extra", JSONObject.NULL);
+        records.get(5).put("id", 1L << 40);
+        String path = write(records, 3);
+        List<JSONObject> read = read(path);
+        assertEquals(records.size(), read.size());
+        for (int i = 0; i < records.size(); i++) assertTrue(records.get(i) + " / " + read.get(i), records.get(i).similar(read.get(i)));
+    }
+
+    @Test
+    public void recordsReadFromJsonTextKeepTheirNumbers() throws Exception {
+        // org.json parses decimals as BigDecimal
+        List<JSONObject> records = new ArrayList<>();
+        records.add(new JSONObject("{\"rate\":10.5,\"exact\":0.1000000000000000000001,\"big\":123456789012345678901234567890}"));
+        records.add(new JSONObject("{\"rate\":0.30000000000000004,\"exact\":1E+400,\"big\":1}"));
+        assertTrue(records.get(0).get("rate") instanceof BigDecimal);
+        String path = write(records, 16);
+        List<JSONObject> read = read(path);
+        assertEquals(10.5, read.get(0).getDouble("rate"), 0.0);
+        assertEquals(0.30000000000000004, read.get(1).getDouble("rate"), 0.0);
+        assertEquals(0, new BigDecimal("0.1000000000000000000001").compareTo(read.get(0).getBigDecimal("exact")));
+        assertEquals(0, new BigDecimal("1E+400").compareTo(read.get(1).getBigDecimal("exact")));
+        assertEquals(new BigInteger("123456789012345678901234567890"), read.get(0).getBigInteger("big"));
+        ColumnarRecordReader.ChunkStatistics statistics = ColumnarRecordReader.statistics(path).get(0);
+        assertEquals(10.5, statistics.max("rate"), 0.0);
+        assertTrue(Double.isNaN(statistics.max("exact")));
+    }
+
+    @Test
+    public void projectionAndChunkFilter() throws Exception {
+        String path = write(ConflictRecordWriterTest.records(10), 4);
+        List<ColumnarRecordReader.ChunkStatistics> statistics = ColumnarRecordReader.statistics(path);
+        assertEquals(3, statistics.size());
+        assertEquals(4, statistics.get(0).records());
+        assertEquals(5.0, statistics.get(1).min("id"), 0.0);
+        assertEquals(8.0, statistics.get(1).max("id"), 0.0);
+        assertTrue(statistics.get(2).values("res_label").contains("A"));
+        List<Integer> ids = new ArrayList<>();
+        try (ColumnarRecordReader reader = ColumnarRecordReader.open(path, "id").where(s -> s.max("id") > 4)) {
+            for (JSONObject record : reader) {
+                assertEquals(1, record.length());
+                ids.add(record.getInt("id"));
+            }
+        }
+        assertEquals(6, ids.size());
+        assertEquals(5, (int) ids.get(0));
+    }
+
+    @Test
+    public void readThroughConflictRecordReader() throws Exception {
+        String path = new File(folder.getRoot(), "result.dzc").getPath();
+        List<JSONObject> records = ConflictRecordWriterTest.records(5);
+        try (ConflictRecordWriter writer = ConflictRecordWriter.open(path)) {
+            for (JSONObject record : records) writer.write(record);
+            writer.commit();
+        }
+        int i = 0;
+        try (ConflictRecordReader reader = ConflictRecordReader.open(path)) {
+            for (JSONObject record : reader) assertTrue(records.get(i++).similar(record));
+        }
+        assertEquals(5, i);
+    }
+
+    @Test
+    public void emptyFile() throws Exception {
+        String path = write(new ArrayList<>(), 4);
+        assertTrue(read(path).isEmpty());
+        assertTrue(ColumnarRecordReader.statistics(path).isEmpty());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void noBytePosition() throws Exception {
+        try (ConflictRecordWriter writer = ConflictRecordWriter.open(new File(folder.getRoot(), "result.dzc").getPath())) {
+            writer.write(new JSONObject().put("id", 1).put("list", new JSONArray().put(1)));
+            writer.position();
+        }
+    }
+
+    private String write(List<JSONObject> records, int chunkSize) throws Exception {
+        String path = new File(folder.getRoot(), "records.dzc").getPath();
+        try (ColumnarRecordWriter writer = ColumnarRecordWriter.open(path, chunkSize)) {
+            for (JSONObject record : records) writer.write(record);
+        }
+        return path;
+    }
+
+    private static List<JSONObject> read(String path) throws Exception {
+        List<JSONObject> records = new ArrayList<>();
+        try (ColumnarRecordReader reader = ColumnarRecordReader.open(path)) {
+            for (JSONObject record : reader) records.add(record);
+        }
+        return records;
+    }
+
+}
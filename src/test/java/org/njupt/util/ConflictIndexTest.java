@@ -0,0 +1,160 @@
+package org.njupt.util;
+
+import org.json.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * ConflictIndex: lookup by id, simple and stratified samples, out of date index
+ */
+public class ConflictIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void getById() throws Exception {
+        for (String name : new String[]{"result.json", "result.jsonl"}) {
+            String path = write(name, ConflictRecordWriterTest.records(20));
+            try (ConflictIndex index = ConflictIndex.build(path)) {
+                assertEquals(20, index.size());
+                for (JSONObject record : ConflictRecordWriterTest.records(20)) {
+                    int id = record.getInt("id");
+                    assertTrue(record.similar(index.get(id)));
+                    assertTrue(record.similar(new JSONObject(index.text(id))));
+                    JSONObject projected = index.get(id, "res_label");
+                    assertEquals(1, projected.length());
+                    assertEquals(record.getString("res_label"), projected.getString("res_label"));
+                }
+                assertNull(index.get(21));
+                assertNull(index.text(0));
+                assertFalse(index.contains(-1));
+            }
+        }
+    }
+
+    @Test
+    public void recordsWithoutIdUseTheIndex() throws Exception {
+        String path = new File(folder.getRoot(), "result.jsonl").getPath();
+        Files.write(Paths.get(path), "{\"x\":\"{\\\"id\\\":5}\"}\n{\"x\":2,\"nested\":{\"id\":7}}\n{\"id\":9}\n".getBytes(StandardCharsets.UTF_8));
+        try (ConflictIndex index = ConflictIndex.build(path)) {
+            assertEquals("{\"id\":5}", index.get(1).getString("x"));
+            assertEquals(2, index.get(2).getInt("x"));
+            assertEquals(9, index.get(9).getInt("id"));
+            assertFalse(index.contains(5) || index.contains(7) || index.contains(3));
+        }
+    }
+
+    @Test
+    public void sampleIsRepeatable() throws Exception {
+        String path = write("result.json", ConflictRecordWriterTest.records(50));
+        try (ConflictIndex index = ConflictIndex.build(path)) {
+            List<JSONObject> sample = index.sample(10, 42, "id");
+            assertEquals(10, sample.size());
+            assertEquals(ids(sample), ids(index.sample(10, 42, "id")));
+            List<Integer> ids = ids(sample);
+            List<Integer> sorted = new ArrayList<>(ids);
+            Collections.sort(sorted);
+            assertEquals(sorted, ids);
+            assertEquals(10, new HashSet<>(ids).size());
+            assertEquals(50, index.sample(100, 1).size());
+        }
+    }
+
+    @Test
+    public void stratifiedSample() throws Exception {
+        String path = write("result.json", ConflictRecordWriterTest.records(30));
+        try (ConflictIndex index = ConflictIndex.build(path, "res_label")) {
+            Map<String, Integer> sizes = index.groupSizes();
+            assertEquals(15, (int) sizes.get("A"));
+            assertEquals(15, (int) sizes.get("B"));
+            Map<String, Integer> quota = new LinkedHashMap<>();
+            quota.put("A", 4);
+            quota.put("B", 20);
+            quota.put("NC", 3);
+            Map<String, List<JSONObject>> samples = index.sample(quota, 7);
+            assertEquals(4, samples.get("A").size());
+            assertEquals(15, samples.get("B").size());
+            assertTrue(samples.get("NC").isEmpty());
+            for (JSONObject record : samples.get("A")) assertEquals("A", record.getString("res_label"));
+            for (JSONObject record : samples.get("B")) assertEquals("B", record.getString("res_label"));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void stratifiedSampleNeedsGroupField() throws Exception {
+        String path = write("result.json", ConflictRecordWriterTest.records(3));
+        try (ConflictIndex index = ConflictIndex.build(path)) {
+            index.sample(Collections.singletonMap("A", 1), 7);
+        }
+    }
+
+    @Test
+    public void outOfDateIndexIsBuiltAgain() throws Exception {
+        String path = write("result.json", ConflictRecordWriterTest.records(5));
+        ConflictIndex.build(path, "res_label").close();
+        try (ConflictIndex index = ConflictIndex.open(path)) {
+            assertEquals(5, index.size());
+        }
+        write("result.json", ConflictRecordWriterTest.records(8));
+        Path result = Paths.get(path);
+        Files.setLastModifiedTime(result, FileTime.fromMillis(Files.getLastModifiedTime(result).toMillis() + 2000));
+        try {
+            ConflictIndex.open(path).close();
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Index is out of date"));
+        }
+        try (ConflictIndex index = ConflictIndex.openOrBuild(path, "res_label")) {
+            assertEquals(8, index.size());
+        }
+        try (ConflictIndex index = ConflictIndex.open(path)) {
+            assertEquals(8, index.size());
+        }
+    }
+
+    @Test
+    public void resultFileIsReplacedAfterBuild() throws Exception {
+        String path = write("result.jsonl", ConflictRecordWriterTest.records(5));
+        // the collectors build and close at once, the next collection replaces the result file
+        ConflictIndex.build(path, "res_label").close();
+        write("result.jsonl", ConflictRecordWriterTest.records(6));
+        try (ConflictIndex index = ConflictIndex.build(path, "res_label")) {
+            assertEquals(6, index.size());
+            assertEquals(6, index.get(6).getInt("id"));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void columnarFileCannotBeIndexed() throws Exception {
+        ConflictIndex.build(new File(folder.getRoot(), "result.dzc").getPath());
+    }
+
+    private String write(String name, List<JSONObject> records) throws IOException {
+        String path = new File(folder.getRoot(), name).getPath();
+        try (ConflictRecordWriter writer = ConflictRecordWriter.open(path)) {
+            for (JSONObject record : records) writer.write(record);
+            writer.commit();
+        }
+        return path;
+    }
+
+    private static List<Integer> ids(List<JSONObject> records) {
+        List<Integer> ids = new ArrayList<>();
+        for (JSONObject record : records) ids.add(record.getInt("id"));
+        return ids;
+    }
+
+}
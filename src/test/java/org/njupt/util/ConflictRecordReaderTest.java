@@ -0,0 +1,68 @@
+package org.njupt.util;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * ConflictRecordReader: JSON array / pretty / JSON Lines text, field projection
+ */
+public class ConflictRecordReaderTest {
+
+    @Test
+    public void readsEveryLayout() {
+        List<JSONObject> records = ConflictRecordWriterTest.records(3);
+        JSONArray array = new JSONArray(records);
+        StringBuilder lines = new StringBuilder();
+        for (JSONObject record : records) lines.append(record).append('\n');
+        for (String text : new String[]{array.toString(), array.toString(4), lines.toString()}) {
+            try (ConflictRecordReader reader = ConflictRecordReader.open(new StringReader(text))) {
+                for (JSONObject record : records) assertTrue(record.similar(reader.next()));
+                assertNull(reader.next());
+                assertEquals(3, reader.count());
+            } catch (Exception e) {
+                throw new AssertionError(text, e);
+            }
+        }
+    }
+
+    @Test
+    public void emptyFiles() {
+        for (String text : new String[]{"", "[]", " [ ]\n"}) {
+            ConflictRecordReader reader = ConflictRecordReader.open(new StringReader(text));
+            assertNull(reader.next());
+            assertEquals(0, reader.count());
+        }
+    }
+
+    @Test
+    public void projectionSkipsOtherFields() {
+        String text = "[{\"id\":1,\"a_contents\":\"{ \\\"x\\\": [1, 2] }\",\"nested\":{\"k\":[{\"v\":\"]\"}]},\"res_label\":\"A\"},"
+                + "{\"res_label\":\"B\",\"id\":2,\"match_rate\":1.5E2}]";
+        ConflictRecordReader reader = ConflictRecordReader.open(new StringReader(text), "id", "res_label");
+        JSONObject first = reader.next();
+        assertEquals(2, first.length());
+        assertEquals(1, first.getInt("id"));
+        assertEquals("A", first.getString("res_label"));
+        JSONObject second = reader.next();
+        assertEquals(2, second.length());
+        assertEquals("B", second.getString("res_label"));
+        assertFalse(second.has("match_rate"));
+        assertNull(reader.next());
+    }
+
+    @Test(expected = JSONException.class)
+    public void truncatedArrayIsAnError() {
+        ConflictRecordReader reader = ConflictRecordReader.open(new StringReader("[{\"id\":1},{\"id\":2}"));
+        while (reader.next() != null) {
+            // read until the missing ']'
+        }
+    }
+
+}
@@ -0,0 +1,144 @@
+package org.njupt.util;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * ConflictRecordWriter: same text as JSONArray, round trips through ConflictRecordReader, commit / abort
+ */
+public class ConflictRecordWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    static List<JSONObject> records(int count) {
+        List<JSONObject> records = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            JSONObject record = new JSONObject();
+            record.put("id", i);
+            record.put("a_contents", "int a = " + i + ";\n\t\"quoted\" 中");
+            record.put("res_label", i % 2 == 0 ? "A" : "B");
+            record.put("match_rate", i * 10.5);
+            record.put("can_merge_succeed", i % 3 == 0);
+            record.put("key_information", new JSONArray().put(new JSONObject().put("id_tokenLevel", 1).put("a_keyInfo", "x")));
+            records.add(record);
+        }
+        return records;
+    }
+
+    @Test
+    public void jsonArraySameAsJSONArrayToString() throws Exception {
+        for (int count : new int[]{0, 1, 3}) {
+            File file = new File(folder.getRoot(), "result" + count + ".json");
+            JSONArray array = new JSONArray();
+            try (ConflictRecordWriter writer = ConflictRecordWriter.open(file.getPath())) {
+                for (JSONObject record : records(count)) {
+                    writer.write(record);
+                    array.put(record);
+                }
+                writer.commit();
+            }
+            assertEquals(array.toString(), read(file));
+        }
+    }
+
+    @Test
+    public void prettyJsonSameAsToString4() throws Exception {
+        for (int count : new int[]{0, 1, 3}) {
+            File file = new File(folder.getRoot(), "pretty" + count + ".json");
+            JSONArray array = new JSONArray();
+            try (ConflictRecordWriter writer = ConflictRecordWriter.open(file.getPath(), ConflictRecordWriter.Format.PRETTY_JSON)) {
+                for (JSONObject record : records(count)) {
+                    writer.write(record);
+                    array.put(record);
+                }
+                writer.commit();
+            }
+            assertEquals(array.toString(4), read(file));
+        }
+    }
+
+    @Test
+    public void roundTripJsonAndJsonLines() throws Exception {
+        for (String name : new String[]{"result.json", "result.jsonl"}) {
+            File file = new File(folder.getRoot(), name);
+            List<JSONObject> records = records(5);
+            try (ConflictRecordWriter writer = ConflictRecordWriter.open(file.getPath())) {
+                records.forEach(writer);
+                writer.commit();
+            }
+            assertRecords(records, file.getPath());
+        }
+    }
+
+    @Test
+    public void uncommittedWriterLeavesNoFile() throws Exception {
+        File file = new File(folder.getRoot(), "aborted.json");
+        try (ConflictRecordWriter writer = ConflictRecordWriter.open(file.getPath())) {
+            records(3).forEach(writer);
+        }
+        assertFalse(file.exists());
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void failedCollectionKeepsTheOldFile() throws Exception {
+        File file = new File(folder.getRoot(), "result.json");
+        try (ConflictRecordWriter writer = ConflictRecordWriter.open(file.getPath())) {
+            records(2).forEach(writer);
+            writer.commit();
+        }
+        String old = read(file);
+        try (ConflictRecordWriter writer = ConflictRecordWriter.open(file.getPath())) {
+            writer.write(records(1).get(0));
+            throw new IllegalStateException("collect failed");
+        } catch (IllegalStateException expected) {
+            // the writer is closed without commit
+        }
+        assertEquals(old, read(file));
+    }
+
+    @Test
+    public void appendingContinuesJsonLines() throws Exception {
+        File file = new File(folder.getRoot(), "result.jsonl");
+        List<JSONObject> records = records(4);
+        long end;
+        try (ConflictRecordWriter writer = ConflictRecordWriter.openAppending(file.getPath())) {
+            writer.write(records.get(0));
+            writer.write(records.get(1));
+            end = writer.position();
+        }
+        assertEquals(file.length(), end);
+        try (ConflictRecordWriter writer = ConflictRecordWriter.openAppending(file.getPath())) {
+            assertEquals(end, writer.position());
+            writer.write(records.get(2));
+            writer.write(records.get(3));
+        }
+        assertRecords(records, file.getPath());
+    }
+
+    static void assertRecords(List<JSONObject> expected, String filePath) throws Exception {
+        List<JSONObject> actual = new ArrayList<>();
+        try (ConflictRecordReader reader = ConflictRecordReader.open(filePath)) {
+            for (JSONObject record : reader) actual.add(record);
+        }
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) assertTrue(filePath + " #" + i, expected.get(i).similar(actual.get(i)));
+    }
+
+    private static String read(File file) throws Exception {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+}
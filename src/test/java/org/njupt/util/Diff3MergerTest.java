@@ -0,0 +1,128 @@
+package org.njupt.util;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Diff3Merger against "git merge-file --diff3" on the same token files
+ */
+public class Diff3MergerTest {
+
+    private static final String[] BASES = {
+            "public int size() {\n    return count;\n}\n",
+            "import java.util.List;\nimport java.util.Map;\n",
+            "if (a > 0 && b < 10) {\n    call(a, b);\n} else {\n    fail();\n}\n",
+            "private final Map<String, Integer> map = new HashMap<>();\n// cache of ids\nprivate int next = 0;\n",
+            "for (int i = 0; i < n; i++) {\n    sum += values[i] * weight;\n}\nreturn sum / n;\n",
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void gitAvailable() {
+        try {
+            Process process = new ProcessBuilder("git", "--version").redirectErrorStream(true).start();
+            process.getInputStream().readAllBytes();
+            Assume.assumeTrue(process.waitFor() == 0);
+        } catch (IOException | InterruptedException e) {
+            Assume.assumeNoException(e);
+        }
+    }
+
+    @Test
+    public void sameAsGitOnHandWrittenConflicts() throws Exception {
+        assertSameAsGit("int a = 1;\n", "int a = 0;\n", "int a = 2;\n");
+        assertSameAsGit("int a = 1;\nfoo();\n", "int a = 0;\nfoo();\n", "int a = 0;\nbar();\n");
+        assertSameAsGit("", "x = 1;\n", "x = 2;\n");
+        assertSameAsGit("a(); b();\n", "a();\n", "a(); c();\n");
+        assertSameAsGit("same();\n", "base();\n", "same();\n");
+        assertSameAsGit("/* one\n two */ x();\n", "/* one */ x();\n", "/* one */ y();\n");
+    }
+
+    @Test
+    public void sameAsGitOnRandomEdits() throws Exception {
+        Random random = new Random(42);
+        for (int round = 0; round < 60; round++) {
+            List<String> base = DzyUtils.newTokenizer(BASES[round % BASES.length]);
+            assertSameAsGit(edit(base, random), base, edit(base, random));
+        }
+    }
+
+    @Test
+    public void cleanMergeTakesBothSides() {
+        List<String> merged = Diff3Merger.merge(DzyUtils.newTokenizer("int a = 1;\nfoo();\n"),
+                DzyUtils.newTokenizer("int a = 0;\nfoo();\n"), DzyUtils.newTokenizer("int a = 0;\nbar();\n"), "A", "O", "B");
+        assertFalse(Diff3Merger.hasConflict(merged));
+        assertEquals(DzyUtils.newTokenizer("int a = 1;\nbar();\n"), merged);
+    }
+
+    @Test
+    public void hunksMatchTheMergedLines() {
+        CodeTokens a = DzyUtils.newTokenIds("int a = 1;\n"), o = DzyUtils.newTokenIds("int a = 0;\n"), b = DzyUtils.newTokenIds("int a = 2;\n");
+        MergeHunks hunks = Diff3Merger.mergeHunks(a, o, b);
+        assertEquals(1, hunks.conflictCount());
+        assertEquals(Diff3Merger.merge(a, o, b, "A", "O", "B"), hunks.lines("A", "O", "B"));
+        // the spacing before a record is rendered with the record
+        assertEquals("int a =\n<<<<<<< A\n 1\n||||||| O\n 0\n=======\n 2\n>>>>>>> B\n;\n", hunks.render("A", "O", "B"));
+    }
+
+    private void assertSameAsGit(String a, String o, String b) throws Exception {
+        assertSameAsGit(DzyUtils.newTokenizer(a), DzyUtils.newTokenizer(o), DzyUtils.newTokenizer(b));
+    }
+
+    private void assertSameAsGit(List<String> a, List<String> o, List<String> b) throws Exception {
+        File fileA = folder.newFile(), fileO = folder.newFile(), fileB = folder.newFile();
+        DzyUtils.tokenListToNewFile(fileA.getPath(), a);
+        DzyUtils.tokenListToNewFile(fileO.getPath(), o);
+        DzyUtils.tokenListToNewFile(fileB.getPath(), b);
+        Process process = new ProcessBuilder("git", "merge-file", "-p", "--diff3", "-L", "A", "-L", "O", "-L", "B",
+                fileA.getPath(), fileO.getPath(), fileB.getPath()).start();
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        int conflicts = process.waitFor();
+        assertTrue("git merge-file failed", conflicts >= 0 && conflicts < 127);
+
+        List<String> expected = output.isEmpty() ? Collections.emptyList() : Arrays.asList(output.split("\n", -1));
+        if (!expected.isEmpty() && expected.get(expected.size() - 1).isEmpty()) expected = expected.subList(0, expected.size() - 1);
+        List<String> merged = Diff3Merger.merge(a, o, b, "A", "O", "B");
+        assertEquals("a=" + a + " o=" + o + " b=" + b, expected, merged);
+        assertEquals(conflicts > 0, Diff3Merger.hasConflict(merged));
+        Files.delete(fileA.toPath());
+        Files.delete(fileO.toPath());
+        Files.delete(fileB.toPath());
+    }
+
+    /**
+     * A few random token deletions, insertions and replacements
+     */
+    private static List<String> edit(List<String> base, Random random) {
+        List<String> tokens = new ArrayList<>(base);
+        int edits = random.nextInt(3);
+        for (int i = 0; i < edits && !tokens.isEmpty(); i++) {
+            int at = random.nextInt(tokens.size());
+            switch (random.nextInt(3)) {
+                case 0:
+                    tokens.remove(at);
+                    break;
+                case 1:
+                    tokens.add(at, "t" + random.nextInt(5));
+                    break;
+                default:
+                    tokens.set(at, "t" + random.nextInt(5));
+            }
+        }
+        return tokens;
+    }
+
+}
@@ -0,0 +1,92 @@
+package org.njupt.util;
+
+import org.apache.commons.text.similarity.LevenshteinDistance;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * EditDistance against commons-text LevenshteinDistance
+ */
+public class EditDistanceTest {
+
+    private static final LevenshteinDistance COMMONS = LevenshteinDistance.getDefaultInstance();
+
+    @Test
+    public void smallCases() {
+        assertEquals(0, EditDistance.levenshtein("", ""));
+        assertEquals(3, EditDistance.levenshtein("", "abc"));
+        assertEquals(3, EditDistance.levenshtein("kitten", "sitting"));
+        assertEquals(1, EditDistance.levenshtein("int a;", "int b;"));
+        assertEquals(3, EditDistance.levenshtein("中文x", "x中"));
+    }
+
+    @Test
+    public void sameAsCommonsText() {
+        Random random = new Random(7);
+        for (int round = 0; round < 500; round++) {
+            String a = random(random, random.nextInt(300));
+            String b = mutate(a, random);
+            assertEquals(a + " / " + b, (int) COMMONS.apply(a, b), EditDistance.levenshtein(a, b));
+        }
+    }
+
+    @Test
+    public void longerThanOneBlock() {
+        Random random = new Random(11);
+        String a = random(random, 1000);
+        String b = mutate(mutate(a, random), random);
+        assertEquals((int) COMMONS.apply(a, b), EditDistance.levenshtein(a, b));
+        assertEquals(1000, EditDistance.levenshtein(a, ""));
+    }
+
+    @Test
+    public void threshold() {
+        Random random = new Random(3);
+        for (int round = 0; round < 300; round++) {
+            String a = random(random, random.nextInt(150));
+            String b = mutate(a, random);
+            int distance = COMMONS.apply(a, b);
+            int threshold = random.nextInt(20);
+            assertEquals(distance <= threshold ? distance : -1, EditDistance.levenshtein(a, b, threshold));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeThreshold() {
+        EditDistance.levenshtein("a", "b", -1);
+    }
+
+    private static String random(Random random, int length) {
+        String alphabet = "abcd {}();=\n中";
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++) text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        return text.toString();
+    }
+
+    /**
+     * A few random char edits, sometimes a completely different string
+     */
+    private static String mutate(String text, Random random) {
+        if (random.nextInt(10) == 0) return random(random, random.nextInt(200));
+        StringBuilder mutated = new StringBuilder(text);
+        int edits = random.nextInt(15);
+        for (int i = 0; i < edits; i++) {
+            int at = mutated.length() == 0 ? 0 : random.nextInt(mutated.length());
+            switch (random.nextInt(3)) {
+                case 0:
+                    if (mutated.length() > 0) mutated.deleteCharAt(at);
+                    break;
+                case 1:
+                    mutated.insert(at, (char) ('a' + random.nextInt(4)));
+                    break;
+                default:
+                    if (mutated.length() > 0) mutated.setCharAt(at, (char) ('a' + random.nextInt(4)));
+            }
+        }
+        return mutated.toString();
+    }
+
+}
@@ -0,0 +1,147 @@
+package org.njupt.util;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * MetricColumn: join by id, out of date columns, group replacement
+ */
+public class MetricColumnTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String result;
+
+    @Before
+    public void setUp() throws Exception {
+        result = new File(folder.getRoot(), "result.json").getPath();
+        try (ConflictRecordWriter writer = ConflictRecordWriter.open(result)) {
+            for (JSONObject record : ConflictRecordWriterTest.records(4)) writer.write(record);
+            writer.commit();
+        }
+    }
+
+    @Test
+    public void joinById() throws Exception {
+        try (MetricColumn.Writer columns = MetricColumn.writer(result, "match_rate", "bleu")) {
+            columns.put("match_rate", 2, 0.5);
+            columns.put("match_rate", 4, 1.0);
+            columns.put("bleu", 3, 0.25);
+            columns.commit();
+        }
+        List<JSONObject> records = read(result, "match_rate", "bleu", "missing");
+        assertEquals(4, records.size());
+        // a record keeps its own field if the column has no value
+        assertEquals(ConflictRecordWriterTest.records(4).get(0).getDouble("match_rate"), records.get(0).getDouble("match_rate"), 0.0);
+        assertEquals(0.5, records.get(1).getDouble("match_rate"), 0.0);
+        assertEquals(0.25, records.get(2).getDouble("bleu"), 0.0);
+        assertEquals(1.0, records.get(3).getDouble("match_rate"), 0.0);
+        assertFalse(records.get(0).has("bleu"));
+        assertFalse(records.get(0).has("missing"));
+    }
+
+    @Test
+    public void recordsWithoutIdUseTheIndex() throws Exception {
+        Files.write(Paths.get(result), "{\"x\":1}\n{\"x\":2}\n{\"id\":9,\"x\":3}\n".getBytes(StandardCharsets.UTF_8));
+        assertEquals(2, MetricColumn.id(new JSONObject("{\"x\":2}"), 2));
+        assertEquals(9, MetricColumn.id(new JSONObject("{\"id\":9}"), 3));
+        try (MetricColumn.Writer columns = MetricColumn.writer(result, "score")) {
+            columns.put("score", 2, 7.0);
+            columns.put("score", 9, 8.0);
+            columns.commit();
+        }
+        List<JSONObject> records = read(result, "score");
+        assertFalse(records.get(0).has("score"));
+        assertEquals(7.0, records.get(1).getDouble("score"), 0.0);
+        assertEquals(8.0, records.get(2).getDouble("score"), 0.0);
+    }
+
+    @Test
+    public void uncommittedWriterWritesNothing() throws Exception {
+        try (MetricColumn.Writer columns = MetricColumn.writer(result, "score")) {
+            columns.put("score", 1, 1.0);
+        }
+        assertFalse(MetricColumn.exists(result, "score"));
+    }
+
+    @Test
+    public void columnOfAnotherResultFileIsOutOfDate() throws Exception {
+        try (MetricColumn.Writer columns = MetricColumn.writer(result, "score")) {
+            columns.put("score", 1, 3.0);
+            columns.commit();
+        }
+        assertTrue(MetricColumn.isCurrent(result, "score"));
+        assertEquals(3.0, MetricColumn.read(result, "score").get(1), 0.0);
+        // collected again
+        try (ConflictRecordWriter writer = ConflictRecordWriter.open(result)) {
+            for (JSONObject record : ConflictRecordWriterTest.records(2)) writer.write(record);
+            writer.commit();
+        }
+        Path path = Paths.get(result);
+        Files.setLastModifiedTime(path, FileTime.fromMillis(Files.getLastModifiedTime(path).toMillis() + 2000));
+        assertTrue(MetricColumn.exists(result, "score"));
+        assertFalse(MetricColumn.isCurrent(result, "score"));
+        List<JSONObject> records = read(result, "score");
+        assertEquals(2, records.size());
+        assertFalse(records.get(0).has("score"));
+        try {
+            MetricColumn.read(result, "score");
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Column is out of date"));
+        }
+    }
+
+    @Test
+    public void interruptedGroupIsFinished() throws Exception {
+        Path a = Paths.get(MetricColumn.path(result, "a"));
+        Path b = Paths.get(MetricColumn.path(result, "b"));
+        write(2.0);
+        Path savedA = Files.copy(a, Paths.get(a + ".saved"));
+        Path savedB = Files.copy(b, Paths.get(b + ".saved"));
+        write(1.0);
+        // the group of 2.0 stopped after renaming "a": the journal and the temp file of "b" are left
+        Files.copy(savedA, a, StandardCopyOption.REPLACE_EXISTING);
+        Files.copy(savedB, Paths.get(b + ".tmp"));
+        Files.write(Paths.get(result + ".col.journal"), Arrays.asList("a", "b"), StandardCharsets.UTF_8);
+        assertEquals(2.0, MetricColumn.read(result, "b").get(1), 0.0);
+        assertEquals(2.0, MetricColumn.read(result, "a").get(1), 0.0);
+        assertFalse(Files.exists(Paths.get(result + ".col.journal")));
+        assertFalse(Files.exists(Paths.get(b + ".tmp")));
+    }
+
+    private void write(double value) throws IOException {
+        try (MetricColumn.Writer columns = MetricColumn.writer(result, "a", "b")) {
+            columns.put("a", 1, value);
+            columns.put("b", 1, value);
+            columns.commit();
+        }
+    }
+
+    private static List<JSONObject> read(String path, String... names) throws Exception {
+        List<JSONObject> records = new ArrayList<>();
+        try (ConflictRecordReader reader = ConflictRecordReader.open(path).join(names)) {
+            for (JSONObject record : reader) records.add(record);
+        }
+        return records;
+    }
+
+}
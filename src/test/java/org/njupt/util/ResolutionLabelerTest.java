@@ -0,0 +1,61 @@
+package org.njupt.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.njupt.util.ResolutionLabeler.Taxonomy.MERGEBERT;
+import static org.njupt.util.ResolutionLabeler.Taxonomy.TOP50;
+
+/**
+ * ResolutionLabeler: both taxonomies in their order, whitespace ignored
+ */
+public class ResolutionLabelerTest {
+
+    private static final String A = "int a = 1;\nint c = 0;";
+
+    private static final String O = "int c = 0;";
+
+    private static final String B = "int b = 2;\nint c = 0;";
+
+    @Test
+    public void mergeBert() {
+        assertEquals("RES_EMPTY", ResolutionLabeler.label(A, O, B, "\n  \n", MERGEBERT));
+        assertEquals("A", ResolutionLabeler.label(A, O, B, A, MERGEBERT));
+        assertEquals("B", ResolutionLabeler.label(A, O, B, B, MERGEBERT));
+        assertEquals("BASE", ResolutionLabeler.label(A, O, B, O, MERGEBERT));
+        assertEquals("AB", ResolutionLabeler.label(A, O, B, A + "\n" + B, MERGEBERT));
+        assertEquals("BA", ResolutionLabeler.label(A, O, B, B + "\n" + A, MERGEBERT));
+        assertEquals("REM-BASE-AB", ResolutionLabeler.label(A, O, B, "int a = 1;\nint b = 2;", MERGEBERT));
+        assertEquals("REM-BASE-BA", ResolutionLabeler.label(A, O, B, "int b = 2;\nint a = 1;", MERGEBERT));
+        assertEquals("REM-BASE-A", ResolutionLabeler.label(A, O, B, "int a = 1;", MERGEBERT));
+        assertEquals("REM-BASE-B", ResolutionLabeler.label(A, O, B, "int b = 2;", MERGEBERT));
+        assertEquals("OTHER", ResolutionLabeler.label(A, O, B, "int d = 3;", MERGEBERT));
+    }
+
+    @Test
+    public void oneSideOnlyBaseLines() {
+        // b keeps only lines of the base: its lines without the base are empty
+        assertEquals("REM-BASE-A", ResolutionLabeler.label(A, O, O + "\n" + O, "int a = 1;", MERGEBERT));
+        assertEquals("REM-BASE-B", ResolutionLabeler.label(O + "\n" + O, O, B, "int b = 2;", MERGEBERT));
+    }
+
+    @Test
+    public void top50() {
+        assertEquals("A", ResolutionLabeler.label(A, O, B, A, TOP50));
+        assertEquals("B", ResolutionLabeler.label(A, O, B, B, TOP50));
+        assertEquals("CC12", ResolutionLabeler.label(A, O, B, A + "\n" + B, TOP50));
+        assertEquals("CC21", ResolutionLabeler.label(A, O, B, B + "\n" + A, TOP50));
+        assertEquals("CB", ResolutionLabeler.label(A, O, B, "int b = 2;\nint a = 1;", TOP50));
+        assertEquals("CB", ResolutionLabeler.label(A, O, B, "", TOP50));
+        assertEquals("NC", ResolutionLabeler.label(A, O, B, "int a = 1;\nint d = 3;", TOP50));
+    }
+
+    @Test
+    public void whitespaceIsIgnored() {
+        assertEquals("A", ResolutionLabeler.label(A, O, B, "  int  a = 1;\r\n\n\tint c = 0;  ", MERGEBERT));
+        assertArrayEquals(ResolutionLabeler.lines("int a = 1;"), ResolutionLabeler.lines("\n int a\t= 1; \n"));
+        assertNotEquals(ResolutionLabeler.lines("int a = 1;")[0], ResolutionLabeler.lines("inta=1;")[0]);
+        assertEquals(0, ResolutionLabeler.lines(null).length);
+    }
+
+}